@@ -0,0 +1,75 @@
+// BatchSizer.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+/**
+ * Picks the number of documents to ask for in each getMore from how the last batch went:
+ * how many bytes its documents took and how long the caller spent on them.
+ * It aims for replies of about <code>targetBytes</code> that take about <code>targetMillis</code>
+ * to get through, whichever is fewer documents.  Each step at most doubles or halves,
+ * so one odd batch doesn't swing it too far.
+ */
+class BatchSizer {
+
+    static final int DEFAULT_TARGET_BYTES = 1024 * 1024;
+    static final long DEFAULT_TARGET_MILLIS = 100;
+
+    static final int MIN = 2;
+    static final int MAX = 100000;
+
+    BatchSizer( int targetBytes , long targetMillis ){
+        if ( targetBytes <= 0 )
+            throw new IllegalArgumentException( "targetBytes has to be positive, not: " + targetBytes );
+        if ( targetMillis <= 0 )
+            throw new IllegalArgumentException( "targetMillis has to be positive, not: " + targetMillis );
+        _targetBytes = targetBytes;
+        _targetNanos = targetMillis * 1000 * 1000;
+    }
+
+    /**
+     * @param current what was asked for last time, 0 if the server picked
+     * @param replyBytes size of the last reply
+     * @param numDocs documents in the last reply
+     * @param used how many of them the caller has gone through
+     * @param usedNanos how long that took
+     * @return how many to ask for next
+     */
+    int next( int current , int replyBytes , int numDocs , int used , long usedNanos ){
+        if ( numDocs <= 0 )
+            return current;
+
+        final double perDoc = Math.max( 1 , replyBytes - 36 ) / (double)numDocs; // less the message and reply headers
+        double want = _targetBytes / perDoc;
+
+        if ( used > 0 && usedNanos > 0 )
+            want = Math.min( want , _targetNanos / ( usedNanos / (double)used ) );
+
+        final int from = current > 0 ? current : numDocs;
+        want = Math.max( want , from / 2.0 );
+        want = Math.min( want , from * 2.0 );
+        return (int)Math.max( MIN , Math.min( MAX , want ) );
+    }
+
+    public String toString(){
+        return "BatchSizer targetBytes: " + _targetBytes + " targetMillis: " + ( _targetNanos / 1000000 );
+    }
+
+    final int _targetBytes;
+    final long _targetNanos;
+}
@@ -26,6 +26,7 @@ import java.util.logging.*;
 
 import org.bson.*;
 import org.bson.types.*;
+import org.bson.util.*;
 
 public class Bytes extends BSON {
     
@@ -57,6 +58,11 @@ public class Bytes extends BSON {
     public static final int QUERYOPTION_OPLOGREPLAY = 1 << 3;
     public static final int QUERYOPTION_NOTIMEOUT = 1 << 4;
     public static final int QUERYOPTION_AWAITDATA = 1 << 5;
+    /**
+     * the server sends every batch without waiting for getMores, and the connection
+     * is kept for the cursor until the last one arrives
+     */
+    public static final int QUERYOPTION_EXHAUST = 1 << 6;
 
     public static final int RESULTFLAG_CURSORNOTFOUND = 1;
     public static final int RESULTFLAG_ERRSET = 2;
@@ -72,38 +78,48 @@ public class Bytes extends BSON {
         if ( o == null )
             return NULL;
 
-        if ( o instanceof DBPointer )
+        return _types.get( o.getClass() );
+    }
+
+    static byte _getType( Class c ){
+        if ( DBPointer.class.isAssignableFrom( c ) )
             return REF;
 
-        if ( o instanceof Number )
+        if ( Number.class.isAssignableFrom( c ) )
             return NUMBER;
         
-        if ( o instanceof String )
+        if ( String.class.isAssignableFrom( c ) )
             return STRING;
         
-        if ( o instanceof java.util.List )
+        if ( java.util.List.class.isAssignableFrom( c ) )
             return ARRAY;
 
-        if ( o instanceof byte[] )
+        if ( c == byte[].class )
             return BINARY;
 
-        if ( o instanceof ObjectId )
+        if ( ObjectId.class.isAssignableFrom( c ) )
             return OID;
         
-        if ( o instanceof Boolean )
+        if ( Boolean.class.isAssignableFrom( c ) )
             return BOOLEAN;
         
-        if ( o instanceof java.util.Date )
+        if ( java.util.Date.class.isAssignableFrom( c ) )
             return DATE;
 
-        if ( o instanceof java.util.regex.Pattern )
+        if ( java.util.regex.Pattern.class.isAssignableFrom( c ) )
             return REGEX;
         
-        if ( o instanceof DBObject )
+        if ( DBObject.class.isAssignableFrom( c ) )
             return OBJECT;
 
         return 0;
     }
 
+    private static final ClassCache<Byte> _types = new ClassCache<Byte>(){
+        protected Byte compute( Class<?> c ){
+            return _getType( c );
+        }
+    };
+
     static final ObjectId COLLECTION_REF_ID = new ObjectId( -1 , -1 , -1 );
 }
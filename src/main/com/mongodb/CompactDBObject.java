@@ -0,0 +1,421 @@
+// CompactDBObject.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+import org.bson.*;
+
+import com.mongodb.util.*;
+
+/** A <code>DBObject</code> that keeps its keys and values in two arrays, in insertion order.
+ * A <code>BasicDBObject</code> is a <code>LinkedHashMap</code>, with a hash table and an entry
+ * of about 40 bytes per field; this has neither.  Lookups up to {@link #LINEAR_MAX} fields just
+ * compare the keys, after that a small open addressing table of positions is built.
+ * <p>Meant for holding lots of small and medium results: see {@link DBCallback#setCompactObjects}.
+ * Not thread safe, same as <code>BasicDBObject</code>.</p>
+ */
+public class CompactDBObject extends AbstractMap<String,Object> implements DBObject {
+
+    /**
+     * above this many fields a hash index is kept
+     */
+    public static final int LINEAR_MAX = 16;
+
+    public CompactDBObject(){
+        this( 4 );
+    }
+
+    /**
+     * @param capacity number of fields expected
+     */
+    public CompactDBObject( int capacity ){
+        capacity = Math.max( capacity , 1 );
+        _keys = new String[capacity];
+        _values = new Object[capacity];
+    }
+
+    public CompactDBObject( String key , Object value ){
+        this( 4 );
+        put( key , value );
+    }
+
+    // ---- lookup ----
+
+    int indexOf( final Object key ){
+        if ( key == null )
+            return -1;
+
+        final int[] index = _index;
+        if ( index == null ){
+            final String[] keys = _keys;
+            for ( int i=0; i<_size; i++ )
+                if ( key.equals( keys[i] ) )
+                    return i;
+            return -1;
+        }
+
+        final int mask = index.length - 1;
+        for ( int slot = _hash( key ) & mask; ; slot = ( slot + 1 ) & mask ){
+            final int i = index[slot] - 1;
+            if ( i < 0 )
+                return -1;
+            if ( key.equals( _keys[i] ) )
+                return i;
+        }
+    }
+
+    static int _hash( Object key ){
+        final int h = key.hashCode();
+        return h ^ ( h >>> 16 );
+    }
+
+    void _buildIndex(){
+        if ( _size <= LINEAR_MAX ){
+            _index = null;
+            return;
+        }
+        int n = 32;
+        while ( n < _size * 2 )
+            n <<= 1;
+        final int[] index = new int[n];
+        final int mask = n - 1;
+        for ( int i=0; i<_size; i++ ){
+            int slot = _hash( _keys[i] ) & mask;
+            while ( index[slot] != 0 )
+                slot = ( slot + 1 ) & mask;
+            index[slot] = i + 1;
+        }
+        _index = index;
+    }
+
+    // ---- BSONObject ----
+
+    public Object get( String key ){
+        final int i = indexOf( key );
+        return i < 0 ? null : _values[i];
+    }
+
+    public Object get( Object key ){
+        final int i = indexOf( key );
+        return i < 0 ? null : _values[i];
+    }
+
+    public Object put( String key , Object val ){
+        if ( key == null )
+            throw new IllegalArgumentException( "key can't be null" );
+
+        final int i = indexOf( key );
+        if ( i >= 0 ){
+            final Object old = _values[i];
+            _values[i] = val;
+            return old;
+        }
+
+        if ( _size == _keys.length ){
+            final int n = _size < 4 ? 4 : _size + ( _size >> 1 );
+            final String[] keys = new String[n];
+            final Object[] values = new Object[n];
+            System.arraycopy( _keys , 0 , keys , 0 , _size );
+            System.arraycopy( _values , 0 , values , 0 , _size );
+            _keys = keys;
+            _values = values;
+        }
+        _keys[_size] = key;
+        _values[_size] = val;
+        _size++;
+
+        if ( _size > LINEAR_MAX ){
+            if ( _index == null || _size * 2 > _index.length )
+                _buildIndex();
+            else {
+                final int mask = _index.length - 1;
+                int slot = _hash( key ) & mask;
+                while ( _index[slot] != 0 )
+                    slot = ( slot + 1 ) & mask;
+                _index[slot] = _size;
+            }
+        }
+        return null;
+    }
+
+    public void putAll( BSONObject o ){
+        for ( String k : o.keySet() )
+            put( k , o.get( k ) );
+    }
+
+    public void putAll( Map m ){
+        for ( Map.Entry entry : (Set<Map.Entry>)m.entrySet() )
+            put( entry.getKey().toString() , entry.getValue() );
+    }
+
+    /**
+     * Add a key/value pair to this object
+     * @return this
+     */
+    public CompactDBObject append( String key , Object val ){
+        put( key , val );
+        return this;
+    }
+
+    public Object removeField( String key ){
+        return remove( key );
+    }
+
+    public Object remove( Object key ){
+        final int i = indexOf( key );
+        if ( i < 0 )
+            return null;
+        final Object old = _values[i];
+        _removeAt( i );
+        return old;
+    }
+
+    void _removeAt( int i ){
+        final int move = _size - i - 1;
+        if ( move > 0 ){
+            System.arraycopy( _keys , i + 1 , _keys , i , move );
+            System.arraycopy( _values , i + 1 , _values , i , move );
+        }
+        _size--;
+        _keys[_size] = null;
+        _values[_size] = null;
+        if ( _index != null )
+            _buildIndex(); // positions moved
+    }
+
+    public boolean containsField( String field ){
+        return indexOf( field ) >= 0;
+    }
+
+    /**
+     * @deprecated
+     */
+    public boolean containsKey( String key ){
+        return containsField( key );
+    }
+
+    public boolean containsKey( Object key ){
+        return indexOf( key ) >= 0;
+    }
+
+    public Map toMap(){
+        Map m = new LinkedHashMap( _size * 2 );
+        for ( int i=0; i<_size; i++ )
+            m.put( _keys[i] , _values[i] );
+        return m;
+    }
+
+    public int size(){
+        return _size;
+    }
+
+    public void clear(){
+        for ( int i=0; i<_size; i++ ){
+            _keys[i] = null;
+            _values[i] = null;
+        }
+        _size = 0;
+        _index = null;
+    }
+
+    public void markAsPartialObject(){
+        _isPartialObject = true;
+    }
+
+    public boolean isPartialObject(){
+        return _isPartialObject;
+    }
+
+    // ---- typed getters, same as BasicBSONObject ----
+
+    public int getInt( String key ){
+        Object o = get( key );
+        if ( o == null )
+            throw new NullPointerException( "no value for: " + key );
+        return BSON.toInt( o );
+    }
+
+    public int getInt( String key , int def ){
+        Object foo = get( key );
+        if ( foo == null )
+            return def;
+        return BSON.toInt( foo );
+    }
+
+    public long getLong( String key ){
+        return ((Number)get( key )).longValue();
+    }
+
+    public double getDouble( String key ){
+        return ((Number)get( key )).doubleValue();
+    }
+
+    public String getString( String key ){
+        Object foo = get( key );
+        if ( foo == null )
+            return null;
+        return foo.toString();
+    }
+
+    // ---- views ----
+
+    public Set<String> keySet(){
+        return new AbstractSet<String>(){
+            public int size(){
+                return _size;
+            }
+            public boolean contains( Object o ){
+                return indexOf( o ) >= 0;
+            }
+            public Iterator<String> iterator(){
+                return new Itr<String>(){
+                    String _get( int i ){
+                        return _keys[i];
+                    }
+                };
+            }
+        };
+    }
+
+    public Set<Map.Entry<String,Object>> entrySet(){
+        return new AbstractSet<Map.Entry<String,Object>>(){
+            public int size(){
+                return _size;
+            }
+            public Iterator<Map.Entry<String,Object>> iterator(){
+                return new Itr<Map.Entry<String,Object>>(){
+                    Map.Entry<String,Object> _get( int i ){
+                        return new Entry( _keys[i] );
+                    }
+                };
+            }
+        };
+    }
+
+    abstract class Itr<T> implements Iterator<T> {
+        public boolean hasNext(){
+            return _next < _size;
+        }
+
+        public T next(){
+            if ( _next >= _size )
+                throw new NoSuchElementException();
+            _last = _next++;
+            return _get( _last );
+        }
+
+        public void remove(){
+            if ( _last < 0 )
+                throw new IllegalStateException();
+            _removeAt( _last );
+            _next = _last;
+            _last = -1;
+        }
+
+        abstract T _get( int i );
+
+        int _next = 0;
+        int _last = -1;
+    }
+
+    /**
+     * looks its key up again, so it stays right if fields before it are removed
+     */
+    class Entry implements Map.Entry<String,Object> {
+        Entry( String key ){
+            _key = key;
+        }
+
+        public String getKey(){
+            return _key;
+        }
+
+        public Object getValue(){
+            return get( _key );
+        }
+
+        public Object setValue( Object v ){
+            return put( _key , v );
+        }
+
+        public boolean equals( Object o ){
+            if ( ! ( o instanceof Map.Entry ) )
+                return false;
+            Map.Entry e = (Map.Entry)o;
+            Object v = getValue();
+            return _key.equals( e.getKey() ) && ( v == null ? e.getValue() == null : v.equals( e.getValue() ) );
+        }
+
+        public int hashCode(){
+            Object v = getValue();
+            return _key.hashCode() ^ ( v == null ? 0 : v.hashCode() );
+        }
+
+        public String toString(){
+            return _key + "=" + getValue();
+        }
+
+        final String _key;
+    }
+
+    /**
+     * same as BasicBSONObject, so the two compare equal both ways
+     */
+    public boolean equals( Object o ){
+        if ( ! ( o instanceof BSONObject ) )
+            return false;
+
+        BSONObject other = (BSONObject)o;
+        if ( ! keySet().equals( other.keySet() ) )
+            return false;
+
+        for ( int i=0; i<_size; i++ ){
+            Object a = _values[i];
+            Object b = other.get( _keys[i] );
+
+            if ( a == null || b == null ){
+                if ( a != b )
+                    return false;
+            }
+            else if ( a instanceof Number && b instanceof Number ){
+                if ( ((Number)a).doubleValue() != ((Number)b).doubleValue() )
+                    return false;
+            }
+            else if ( ! a.equals( b ) ){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int hashCode(){
+        return super.hashCode();
+    }
+
+    public String toString(){
+        return JSON.serialize( this );
+    }
+
+    private String[] _keys;
+    private Object[] _values;
+    private int _size = 0;
+    private int[] _index;
+    private boolean _isPartialObject = false;
+}
@@ -0,0 +1,354 @@
+// CounterAggregator.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+/** Sums <code>$inc</code> updates on the client and writes them in batches.
+ * Instead of sending one update per increment, deltas are added up per query and field,
+ * and every flush interval each query gets a single upsert:
+ * <blockquote><pre>
+ * CounterAggregator counters = collection.getCounterAggregator();
+ * counters.inc( pageId , "views" );
+ * </pre></blockquote>
+ * becomes <code>update( { _id : pageId } , { $inc : { views : n } } , true , false )</code>.
+ * <p>Increments that have not been flushed yet are lost if the process dies.
+ * Use a short flush interval, a small <code>maxPending</code> or call {@link #flush} / {@link #close}
+ * when that matters.</p>
+ * <p><code>inc</code> never writes or throws once the increment is recorded, so it's safe to retry
+ * when it throws; failed background flushes are logged and retried with the next one.</p>
+ * @dochub update
+ */
+public class CounterAggregator {
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+    public static final int DEFAULT_MAX_PENDING = 100000;
+    public static final int DEFAULT_STRIPES = 16;
+
+    static final Logger LOGGER = Logger.getLogger( Bytes.LOGGER.getName() + ".counters" );
+
+    CounterAggregator( DBCollection collection ){
+        this( collection , DEFAULT_STRIPES );
+    }
+
+    CounterAggregator( DBCollection collection , int stripes ){
+        _collection = collection;
+        _pending = new ConcurrentHashMap<DBObject,Pending>( 1024 , .75f , stripes );
+    }
+
+    /** Increments <code>field</code> by 1 on the document with <code>_id</code> <tt>id</tt>.
+     */
+    public void inc( Object id , String field ){
+        inc( new BasicDBObject( "_id" , id ) , field , 1 );
+    }
+
+    /** Increments <code>field</code> by <tt>delta</tt> on the document with <code>_id</code> <tt>id</tt>.
+     */
+    public void inc( Object id , String field , long delta ){
+        inc( new BasicDBObject( "_id" , id ) , field , delta );
+    }
+
+    /** Increments <code>field</code> by <tt>delta</tt> on the document matching <tt>query</tt>.
+     * @param query used as the key for summing, so must not be changed afterwards
+     */
+    public void inc( DBObject query , String field , long delta ){
+        _checkOpen();
+
+        while ( true ){
+            Pending p = _pending.get( query );
+            if ( p == null ){
+                Pending mine = new Pending();
+                p = _pending.putIfAbsent( query , mine );
+                if ( p == null ){
+                    p = mine;
+                    _numPending.incrementAndGet();
+                }
+            }
+            if ( p.add( field , delta ) )
+                break;
+            // a flush took this one, try again with a fresh one
+        }
+
+        _numIncs.incrementAndGet();
+
+        // the delta is recorded, so nothing after this may throw or a retried inc would count twice
+        _startFlusher();
+        if ( _numPending.get() > _maxPending )
+            _flushSoon();
+    }
+
+    /** Writes all summed increments now.
+     * Each query is written on its own: if some fail, the rest are still sent, the failed ones
+     * are kept for the next flush and a <code>MongoException</code> is thrown at the end.
+     * @return the number of updates sent
+     */
+    public synchronized int flush()
+        throws MongoException {
+        int n = 0;
+        int numFailed = 0;
+        RuntimeException failed = null;
+        for ( DBObject query : _pending.keySet() ){
+            Pending p = _pending.remove( query );
+            if ( p == null )
+                continue;
+            _numPending.decrementAndGet();
+
+            Map<String,Long> deltas = p.drain();
+            if ( deltas.size() == 0 )
+                continue;
+
+            DBObject inc = new BasicDBObject();
+            for ( Map.Entry<String,Long> e : deltas.entrySet() ){
+                long v = e.getValue();
+                if ( v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE )
+                    inc.put( e.getKey() , (int)v ); // don't turn int fields into longs
+                else
+                    inc.put( e.getKey() , v );
+            }
+
+            try {
+                _collection.update( query , new BasicDBObject( "$inc" , inc ) , true , false , getWriteConcern() );
+            }
+            catch ( RuntimeException re ){
+                // put them back so they go out with the next flush
+                for ( Map.Entry<String,Long> e : deltas.entrySet() )
+                    _readd( query , e.getKey() , e.getValue() );
+                if ( failed == null )
+                    failed = re;
+                numFailed++;
+                continue;
+            }
+            n++;
+        }
+        _numUpdates.addAndGet( n );
+        if ( failed != null )
+            throw new MongoException( "couldn't write " + numFailed + " of " + ( n + numFailed ) + " counter updates for " + _collection.getFullName() , failed );
+        return n;
+    }
+
+    private void _readd( DBObject query , String field , long delta ){
+        while ( true ){
+            Pending p = _pending.get( query );
+            if ( p == null ){
+                Pending mine = new Pending();
+                p = _pending.putIfAbsent( query , mine );
+                if ( p == null ){
+                    p = mine;
+                    _numPending.incrementAndGet();
+                }
+            }
+            if ( p.add( field , delta ) )
+                return;
+        }
+    }
+
+    /** Flushes and stops the background flushing.
+     * Calling <code>inc</code> after this throws.
+     */
+    public void close()
+        throws MongoException {
+        synchronized ( _flushLock ){
+            _closed = true;
+            if ( _flushing != null )
+                _flushing.cancel( false );
+        }
+        flush();
+    }
+
+    /**
+     * @param ms how often pending increments are written
+     */
+    public CounterAggregator setFlushInterval( long ms ){
+        if ( ms <= 0 )
+            throw new IllegalArgumentException( "flush interval has to be > 0" );
+        synchronized ( _flushLock ){
+            _flushInterval = ms;
+            if ( _flushing != null && ! _closed ){
+                _flushing.cancel( false );
+                _schedule();
+            }
+        }
+        return this;
+    }
+
+    public long getFlushInterval(){
+        return _flushInterval;
+    }
+
+    /**
+     * @param max number of distinct queries after which <code>inc</code> has them flushed
+     *        in the background right away, rather than at the next interval
+     */
+    public CounterAggregator setMaxPending( int max ){
+        _maxPending = max;
+        return this;
+    }
+
+    public int getMaxPending(){
+        return _maxPending;
+    }
+
+    /**
+     * @param concern write concern for the flushed updates.
+     *        <code>null</code> means use the collection's.
+     */
+    public CounterAggregator setWriteConcern( DB.WriteConcern concern ){
+        _concern = concern;
+        return this;
+    }
+
+    public DB.WriteConcern getWriteConcern(){
+        if ( _concern != null )
+            return _concern;
+        return _collection.getWriteConcern();
+    }
+
+    /**
+     * @return number of queries with increments waiting to be flushed
+     */
+    public int numPending(){
+        return _numPending.get();
+    }
+
+    /**
+     * @return number of increments received
+     */
+    public long numIncs(){
+        return _numIncs.get();
+    }
+
+    /**
+     * @return number of updates sent to the server
+     */
+    public long numUpdates(){
+        return _numUpdates.get();
+    }
+
+    public String toString(){
+        return "CounterAggregator " + _collection.getFullName() + " pending:" + numPending() + " incs:" + numIncs() + " updates:" + numUpdates();
+    }
+
+    private void _checkOpen(){
+        if ( _closed )
+            throw new IllegalStateException( "CounterAggregator for " + _collection.getFullName() + " is closed" );
+    }
+
+    private void _startFlusher(){
+        if ( _flushing != null )
+            return;
+
+        synchronized ( _flushLock ){
+            if ( _flushing != null || _closed )
+                return;
+            _schedule();
+        }
+    }
+
+    /**
+     * has the shared flusher write everything now, once for however many callers went over <code>maxPending</code>
+     */
+    private void _flushSoon(){
+        if ( ! _overflowed.compareAndSet( false , true ) )
+            return;
+        _flusher().execute( new Runnable(){
+                public void run(){
+                    _overflowed.set( false );
+                    if ( _closed )
+                        return;
+                    try {
+                        flush();
+                    }
+                    catch ( Throwable t ){
+                        LOGGER.log( Level.WARNING , "couldn't flush counters for " + _collection.getFullName() , t );
+                    }
+                }
+            } );
+    }
+
+    private void _schedule(){
+        // holding _flushLock
+        _flushing = _flusher().scheduleWithFixedDelay( new Runnable(){
+                public void run(){
+                    if ( _closed )
+                        return;
+                    try {
+                        flush();
+                    }
+                    catch ( Throwable t ){
+                        LOGGER.log( Level.WARNING , "couldn't flush counters for " + _collection.getFullName() , t );
+                    }
+                }
+            } , _flushInterval , _flushInterval , TimeUnit.MILLISECONDS );
+    }
+
+    static class Pending {
+
+        synchronized boolean add( String field , long delta ){
+            if ( _drained )
+                return false;
+            Long cur = _deltas.get( field );
+            _deltas.put( field , cur == null ? delta : cur + delta );
+            return true;
+        }
+
+        synchronized Map<String,Long> drain(){
+            _drained = true;
+            return _deltas;
+        }
+
+        private boolean _drained = false;
+        private final Map<String,Long> _deltas = new HashMap<String,Long>( 4 );
+    }
+
+    private static ScheduledExecutorService _flusher;
+
+    /**
+     * one thread flushes every aggregator
+     */
+    static synchronized ScheduledExecutorService _flusher(){
+        if ( _flusher == null ){
+            _flusher = Executors.newSingleThreadScheduledExecutor( new ThreadFactory(){
+                    public Thread newThread( Runnable r ){
+                        Thread t = new Thread( r , "MongoCounterFlusher" );
+                        t.setDaemon( true );
+                        return t;
+                    }
+                } );
+        }
+        return _flusher;
+    }
+
+    final DBCollection _collection;
+    final ConcurrentHashMap<DBObject,Pending> _pending;
+
+    private final AtomicInteger _numPending = new AtomicInteger();
+    private final AtomicLong _numIncs = new AtomicLong();
+    private final AtomicLong _numUpdates = new AtomicLong();
+
+    private volatile long _flushInterval = DEFAULT_FLUSH_INTERVAL_MS;
+    private volatile int _maxPending = DEFAULT_MAX_PENDING;
+    private volatile DB.WriteConcern _concern = null;
+    private volatile boolean _closed = false;
+    private final Object _flushLock = new Object();
+    private volatile ScheduledFuture<?> _flushing;
+    private final AtomicBoolean _overflowed = new AtomicBoolean( false );
+}
@@ -0,0 +1,277 @@
+// CursorCleaner.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.lang.ref.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Kills server cursors for one database, in batches, from a background thread.
+ * <p>Cursors that are closed are queued right away.  Cursors that are just dropped are
+ * tracked with phantom references, so they're found as soon as they're collected instead of
+ * waiting for a finalizer.  Queued ids are sent in one <code>killCursors</code> once there are
+ * <code>batchSize</code> of them or the oldest has waited <code>delay</code> ms.</p>
+ * <p>The thread is started when there's something to watch and goes away when there isn't.
+ * While cursors are being watched it sleeps in the reference queue, so it only wakes when one is
+ * collected, when the oldest queued id is due, or when a batch of closed cursors fills up.</p>
+ */
+class CursorCleaner {
+
+    static final long DEFAULT_DELAY = Long.getLong( "MONGO.KILLCURSORS.DELAY" , 1000 );
+    static final int DEFAULT_BATCH_SIZE = Integer.getInteger( "MONGO.KILLCURSORS.BATCH" , 100 );
+
+    static final Logger LOGGER = Logger.getLogger( Bytes.LOGGER.getName() + ".cursors" );
+
+    CursorCleaner( DBApiLayer db ){
+        _db = db;
+    }
+
+    /**
+     * starts watching a cursor the server still has open
+     * @param exhaust the connection it's streaming on, if any, closed if the cursor is dropped
+     */
+    Ref track( Object owner , long id , Exhaust exhaust ){
+        Ref r = new Ref( owner , _queue , id , exhaust );
+        synchronized ( this ){
+            _tracked.add( r );
+            _start();
+        }
+        return r;
+    }
+
+    /**
+     * the server has finished with the cursor by itself
+     */
+    void untrack( Ref r ){
+        if ( r == null )
+            return;
+        synchronized ( this ){
+            _tracked.remove( r );
+        }
+        r.clear();
+    }
+
+    /**
+     * the cursor was closed: stop watching it and queue its id
+     */
+    void close( Ref r ){
+        if ( r == null )
+            return;
+        untrack( r );
+        kill( r._id );
+    }
+
+    /**
+     * queues a cursor id to be killed
+     */
+    synchronized void kill( long id ){
+        if ( id <= 0 )
+            return;
+        if ( _pending.size() == 0 )
+            _oldest = System.currentTimeMillis();
+        _pending.add( id );
+        _start();
+        if ( _pending.size() >= _batchSize )
+            _wake();
+    }
+
+    /**
+     * sends whatever is queued now, from the calling thread
+     * @return the number of cursors killed
+     */
+    int flush(){
+        final List<Long> l = _take();
+        if ( l == null )
+            return 0;
+        _send( l );
+        return l.size();
+    }
+
+    synchronized List<Long> pending(){
+        return new ArrayList<Long>( _pending );
+    }
+
+    synchronized int numTracked(){
+        return _tracked.size();
+    }
+
+    synchronized void setDelay( long delay ){
+        if ( delay < 0 )
+            throw new IllegalArgumentException( "delay can't be negative" );
+        _delay = delay;
+        _wake();
+    }
+
+    synchronized void setBatchSize( int batchSize ){
+        if ( batchSize < 1 )
+            throw new IllegalArgumentException( "batchSize has to be at least 1" );
+        _batchSize = batchSize;
+        _wake();
+    }
+
+    // ---- the thread ----
+
+    private void _start(){
+        // holding the lock
+        if ( _running )
+            return;
+        _running = true;
+        Thread t = new Thread( "MongoCursorCleaner-" + _db.getName() ){
+                public void run(){
+                    _run();
+                }
+            };
+        t.setDaemon( true );
+        t.start();
+    }
+
+    /**
+     * gets the thread to look at the queue again, holding the lock
+     */
+    private void _wake(){
+        notifyAll();
+        if ( _blocked ){
+            // it's in the reference queue, which only wakes up for a reference
+            _blocked = false;
+            new PhantomReference<Object>( null , _queue ).enqueue();
+        }
+    }
+
+    void _run(){
+        while ( true ){
+            final long wait;
+            synchronized ( this ){
+                if ( _tracked.size() == 0 && _pending.size() == 0 ){
+                    _running = false;
+                    return;
+                }
+
+                if ( _pending.size() >= _batchSize )
+                    wait = 0;
+                else if ( _pending.size() == 0 )
+                    wait = IDLE_MS;
+                else
+                    wait = _oldest + _delay - System.currentTimeMillis();
+
+                if ( wait > 0 && _tracked.size() == 0 ){
+                    // only closed cursors, nothing can show up in the queue
+                    try {
+                        wait( wait );
+                    }
+                    catch ( InterruptedException ie ){
+                        _running = false;
+                        return;
+                    }
+                    continue;
+                }
+                _blocked = wait > 0;
+            }
+
+            if ( wait <= 0 ){
+                final List<Long> l = _take();
+                if ( l != null )
+                    _send( l );
+                continue;
+            }
+
+            Reference<?> r;
+            try {
+                r = _queue.remove( wait );
+            }
+            catch ( InterruptedException ie ){
+                synchronized ( this ){
+                    _blocked = false;
+                    _running = false;
+                }
+                return;
+            }
+            synchronized ( this ){
+                _blocked = false;
+            }
+
+            for ( ; r != null; r = _queue.poll() )
+                if ( r instanceof Ref )
+                    _dropped( (Ref)r );
+        }
+    }
+
+    void _dropped( Ref r ){
+        synchronized ( this ){
+            if ( ! _tracked.remove( r ) )
+                return;
+        }
+        if ( r._exhaust != null ){
+            // the server is still sending on it, so the connection goes and the cursor with it
+            r._exhaust.close();
+            return;
+        }
+        kill( r._id );
+    }
+
+    private synchronized List<Long> _take(){
+        if ( _pending.size() == 0 )
+            return null;
+        List<Long> l = _pending;
+        _pending = new ArrayList<Long>();
+        return l;
+    }
+
+    private void _send( List<Long> l ){
+        try {
+            _db.killCursors( l );
+            _numKilled += l.size();
+        }
+        catch ( Throwable t ){
+            // the server times them out eventually, so they aren't retried forever
+            LOGGER.log( Level.WARNING , "can't kill " + l.size() + " cursors" , t );
+        }
+    }
+
+    /**
+     * watches a cursor's owner, and remembers what to clean up after it
+     */
+    static class Ref extends PhantomReference<Object> {
+        Ref( Object owner , ReferenceQueue<Object> q , long id , Exhaust exhaust ){
+            super( owner , q );
+            _id = id;
+            _exhaust = exhaust;
+        }
+
+        final long _id;
+        final Exhaust _exhaust;
+    }
+
+    /**
+     * how long the thread waits with nothing queued before seeing if it's still needed
+     */
+    static final long IDLE_MS = 1000;
+
+    final DBApiLayer _db;
+    final ReferenceQueue<Object> _queue = new ReferenceQueue<Object>();
+    final Set<Ref> _tracked = new HashSet<Ref>();
+
+    private List<Long> _pending = new ArrayList<Long>();
+    private long _oldest;
+    private long _delay = DEFAULT_DELAY;
+    private int _batchSize = DEFAULT_BATCH_SIZE;
+    private boolean _running = false;
+    private boolean _blocked = false; // the thread is in _queue.remove
+    volatile long _numKilled = 0;
+}
@@ -19,6 +19,7 @@
 package com.mongodb;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.*;
 
 import org.bson.*;
@@ -33,8 +34,6 @@ import com.mongodb.util.*;
 public class DBApiLayer extends DB {
 
     static final boolean D = Boolean.getBoolean( "DEBUG.DB" );
-    /** The maximum number of cursors allowed */
-    static final int NUM_CURSORS_BEFORE_KILL = 100;
 
     static final boolean SHOW = Boolean.getBoolean( "DB.SHOW" );
 
@@ -76,6 +75,39 @@ public class DBApiLayer extends DB {
         return c;
     }
 
+    /**
+     * Cursors that are closed or dropped are killed on the server in batches from a background
+     * thread, once this many are waiting.  Defaults to <code>MONGO.KILLCURSORS.BATCH</code>, or 100.
+     */
+    public void setKillCursorsBatchSize( int n ){
+        _cleaner.setBatchSize( n );
+    }
+
+    /**
+     * The longest a closed or dropped cursor waits to be killed on the server, in ms.
+     * Defaults to <code>MONGO.KILLCURSORS.DELAY</code>, or 1000.
+     */
+    public void setKillCursorsDelay( long ms ){
+        _cleaner.setDelay( ms );
+    }
+
+    void killCursors( List<Long> all )
+        throws MongoException {
+        if ( all == null || all.size() == 0 )
+            return;
+
+        OutMessage om = OutMessage.get( 2007 );
+        om.writeInt( 0 ); // reserved
+            
+        om.writeInt( all.size() );
+
+        for (Long l : all) {
+            om.writeLong(l);
+        }
+
+        _connector.say( this , om , WriteConcern.NONE );
+    }
+
     String _removeRoot( String ns ){
         if ( ! ns.startsWith( _rootPlusDot ) )
             return ns;
@@ -156,6 +188,8 @@ public class DBApiLayer extends DB {
             if ( shouldApply ){
                 for ( int i=0; i<arr.length; i++ ){
                     DBObject o=arr[i];
+                    if ( o instanceof RawDBObject || o instanceof LazyDBObject )
+                        continue; // already encoded, the server adds _id if it is missing
                     apply( o );
                     Object id = o.get( "_id" );
                     if ( id instanceof ObjectId ){
@@ -215,47 +249,8 @@ public class DBApiLayer extends DB {
             return _connector.say( _db , om , getWriteConcern() );
         }
 
-        void _cleanCursors()
-            throws MongoException {
-            if ( _deadCursorIds.size() == 0 )
-                return;
-
-            if ( _deadCursorIds.size() % 20 != 0 && _deadCursorIds.size() < NUM_CURSORS_BEFORE_KILL )
-                return;
-
-            List<Long> l = _deadCursorIds;
-            _deadCursorIds = new Vector<Long>();
-
-            Bytes.LOGGER.info( "trying to kill cursors : " + l.size() );
-
-            try {
-                killCursors( l );
-            }
-            catch ( Throwable t ){
-                Bytes.LOGGER.log( Level.WARNING , "can't clean cursors" , t );
-                _deadCursorIds.addAll( l );
-            }
-        }
-
-        void killCursors( List<Long> all )
-            throws MongoException {
-            if ( all == null || all.size() == 0 )
-                return;
-
-            OutMessage om = OutMessage.get( 2007 );
-            om.writeInt( 0 ); // reserved
-            
-            om.writeInt( all.size() );
-
-            for (Long l : all) {
-                om.writeLong(l);
-            }
-
-            _connector.say( _db , om , WriteConcern.NONE );
-        }
-
         @Override
-        Iterator<DBObject> __find( DBObject ref , DBObject fields , int numToSkip , int batchSize , int options )
+        Iterator<DBObject> __find( DBObject ref , DBObject fields , int numToSkip , int batchSize , int options , DecodeOptions decode )
             throws MongoException {
             
             if ( ref == null )
@@ -263,27 +258,48 @@ public class DBApiLayer extends DB {
             
             if ( SHOW ) System.out.println( "find: " + _fullNameSpace + " " + JSON.serialize( ref ) );
 
-            _cleanCursors();
-            
             OutMessage query = OutMessage.query( options , _fullNameSpace , numToSkip , batchSize , ref , fields );
+            query.setDecodeOptions( decode );
 
-            Response res = _connector.call( _db , this , query , 2 );
+            Exhaust exhaust = null;
+            Response res;
+            if ( ( options & Bytes.QUERYOPTION_EXHAUST ) != 0 ){
+                exhaust = _connector.exhaust( _db , this , query );
+                res = exhaust.first();
+            }
+            else {
+                res = _connector.call( _db , this , query , 2 );
+            }
 
-            if ( res.size() == 0 )
+            if ( res.size() == 0 ){
+                if ( exhaust != null )
+                    exhaust.close();
                 return null;
+            }
             
             if ( res.size() == 1 ){
                 BSONObject foo = res.get(0);
                 Object err = foo.get( "$err" );
-                if ( err != null )
+                if ( err != null ){
+                    if ( exhaust != null )
+                        exhaust.close();
                     throw new MongoException( foo );
+                }
             }
             
-            return new Result( this , res , batchSize , options );
+            return new Result( this , res , batchSize , options , decode , exhaust );
         }
 
         public WriteResult update( DBObject query , DBObject o , boolean upsert , boolean multi )
             throws MongoException {
+            return update( query , o , upsert , multi , getWriteConcern() );
+        }
+
+        @Override
+        public WriteResult update( DBObject query , DBObject o , boolean upsert , boolean multi , WriteConcern concern )
+            throws MongoException {
+            if ( concern == null )
+                concern = getWriteConcern();
 
             if ( SHOW ) System.out.println( "update: " + _fullNameSpace + " " + JSON.serialize( query ) );
             
@@ -299,7 +315,7 @@ public class DBApiLayer extends DB {
             om.putObject( query );
             om.putObject( o );
             
-            return _connector.say( _db , om , getWriteConcern() );
+            return _connector.say( _db , om , concern );
         }
 
         protected void createIndex( final DBObject keys, final DBObject options )
@@ -318,25 +334,43 @@ public class DBApiLayer extends DB {
 
     class Result implements Iterator<DBObject> {
 
-        Result( MyCollection coll , Response res , int numToReturn , int options ){
+        Result( MyCollection coll , Response res , int numToReturn , int options , DecodeOptions decode , Exhaust exhaust ){
+            _exhaust = exhaust;
+            if ( res.cursor() > 0 )
+                _ref = _cleaner.track( this , res.cursor() , exhaust );
             init( res );
             _collection = coll;
             _numToReturn = numToReturn;
             _options = options;
+            _decode = decode;
         }
 
         private void init( Response res ){
             _totalBytes += res._len;
+            if ( _decodeAhead )
+                res.decodeAll();
             _curResult = res;
             _cur = res.iterator();
             _sizes.add( res.size() );
+            _seen = 0;
+            _readAheadAt = _readAhead < 0 ? -1 : (int)Math.ceil( res.size() * _readAhead );
+            _batchStart = System.nanoTime();
+            if ( res.cursor() <= 0 && _ref != null ){
+                // the server is done with it
+                _cleaner.untrack( _ref );
+                _ref = null;
+            }
         }
 
         public DBObject next(){
-            if ( _cur.hasNext() )
-                return _cur.next();
+            if ( _cur.hasNext() ){
+                final DBObject o = _cur.next();
+                if ( ++_seen >= _readAheadAt && _readAheadAt >= 0 )
+                    _startReadAhead();
+                return o;
+            }
 
-            if ( ! _curResult.hasGetMore( _options ) )
+            if ( _closed || ! _curResult.hasGetMore( _options ) )
                 throw new RuntimeException( "no more" );
 
             _advance();
@@ -347,7 +381,7 @@ public class DBApiLayer extends DB {
             if ( _cur.hasNext() )
                 return true;
 
-            if ( ! _curResult.hasGetMore( _options ) )
+            if ( _closed || ! _curResult.hasGetMore( _options ) )
                 return false;
 
             _advance();
@@ -358,28 +392,165 @@ public class DBApiLayer extends DB {
 
             if ( _curResult.cursor() <= 0 )
                 throw new RuntimeException( "can't advance a cursor <= 0" );
-            
+
+            final Future<Response> f = _next;
+            _next = null;
+            if ( f == null )
+                _resize();
+            final Response res = f == null ? _getMore() : _await( f );
+            _numGetMores++;
+            init( res );
+        }
+
+        private Response _getMore(){
+            if ( _exhaust != null )
+                return _exhaust.next();
+
             OutMessage m = OutMessage.get( 2005 );
 
             m.writeInt( 0 ); 
             m.writeCString( _collection._fullNameSpace );
             m.writeInt( _numToReturn ); // num to return
             m.writeLong( _curResult.cursor() );
+            m.setDecodeOptions( _decode );
             
             try {
-                Response res = _connector.call( DBApiLayer.this , _collection , m );
-                _numGetMores++;
-                init( res );
+                return _connector.call( DBApiLayer.this , _collection , m );
             }
             catch ( MongoException me ){
                 throw new MongoInternalException( "can't do getmore" , me );
             }
         }
 
+        /**
+         * sends the next getMore from another thread, so it's on its way while the
+         * rest of this batch is used.  only one is ever outstanding, so at most
+         * one batch past the current one is held.
+         */
+        private void _startReadAhead(){
+            if ( _next != null || _closed )
+                return;
+            if ( ! _curResult.hasGetMore( _options ) || _curResult.cursor() <= 0 )
+                return;
+
+            _resize();
+            _next = _readAheadPool().submit( new Callable<Response>(){
+                    public Response call(){
+                        final Response res = _getMore();
+                        // closed while it was out: the cursor id is already queued to be killed
+                        return _closed ? null : res;
+                    }
+                } );
+        }
+
+        /**
+         * picks the next getMore's size from the last batch, if sizing is adaptive
+         */
+        private void _resize(){
+            if ( _sizer == null || _exhaust != null )
+                return;
+            _numToReturn = _sizer.next( _numToReturn , _curResult._len , _curResult.size() , _seen , System.nanoTime() - _batchStart );
+        }
+
+        void adaptiveBatchSize( BatchSizer sizer ){
+            _sizer = sizer;
+        }
+
+        private Response _await( Future<Response> f ){
+            try {
+                return f.get();
+            }
+            catch ( InterruptedException ie ){
+                Thread.currentThread().interrupt();
+                throw new MongoInternalException( "interrupted waiting for getmore" , ie );
+            }
+            catch ( ExecutionException ee ){
+                final Throwable t = ee.getCause();
+                if ( t instanceof RuntimeException )
+                    throw (RuntimeException)t;
+                if ( t instanceof Error )
+                    throw (Error)t;
+                throw new MongoInternalException( "can't do getmore" , t );
+            }
+        }
+
+        /**
+         * @return what's left of the current batch, getting the next one first if it's used up.
+         *         null at the end.  the documents aren't decoded yet if the reply is big.
+         */
+        List<DBObject> nextBatch(){
+            while ( ! _cur.hasNext() ){
+                if ( _closed || ! _curResult.hasGetMore( _options ) )
+                    return null;
+                _advance();
+            }
+
+            final int size = _curResult.size();
+            final List<DBObject> batch = _curResult._objects.subList( _seen , size );
+            _seen = size;
+            _cur = EMPTY.iterator();
+            if ( _readAheadAt >= 0 )
+                _startReadAhead();
+            return batch;
+        }
+
+        /**
+         * @param fraction how much of each batch to use before asking for the next one in
+         *                 the background, 0 for as soon as it arrives, negative for never
+         */
+        void readAhead( float fraction ){
+            _readAhead = fraction;
+            _readAheadAt = fraction < 0 ? -1 : (int)Math.ceil( _curResult.size() * fraction );
+            if ( _readAheadAt >= 0 && _seen >= _readAheadAt )
+                _startReadAhead();
+        }
+
+        /**
+         * stops iterating and has the server cursor killed.
+         * a getMore that's already been sent is left to finish and its batch is dropped;
+         * cutting it off would break the connection it's on.
+         */
+        void close(){
+            if ( _closed )
+                return;
+            _closed = true;
+
+            final Future<Response> f = _next;
+            _next = null;
+            if ( f != null )
+                f.cancel( false );
+
+            _cur = EMPTY.iterator();
+            if ( _exhaust != null && ! _exhaust.isDone() ){
+                // the server is still sending, so the connection goes and the cursor with it
+                _exhaust.close();
+                _cleaner.untrack( _ref );
+            }
+            else {
+                _cleaner.close( _ref );
+            }
+            _ref = null;
+        }
+
+        boolean isClosed(){
+            return _closed;
+        }
+
         public void remove(){
             throw new RuntimeException( "can't remove this way" );
         }
         
+        /**
+         * for callers that will go through every result: from now on each batch
+         * is decoded all at once, in parallel when it's big, instead of a document at a time
+         */
+        void decodeAhead(){
+            if ( _decodeAhead )
+                return;
+            _decodeAhead = true;
+            _curResult.decodeAll();
+        }
+
         public int getNumberToReturn(){
         	return _numToReturn;
         }
@@ -392,12 +563,6 @@ public class DBApiLayer extends DB {
             return "DBCursor";
         }
 
-        protected void finalize() throws Throwable {
-            if ( _curResult != null && _curResult.cursor() > 0 )
-                _deadCursorIds.add( _curResult.cursor() );
-            super.finalize();
-        }
-
         public long totalBytes(){
             return _totalBytes;
         }
@@ -413,10 +578,21 @@ public class DBApiLayer extends DB {
         
         
         Response _curResult;
+        private boolean _decodeAhead = false;
+        private float _readAhead = -1;
+        private int _readAheadAt = -1;
+        private int _seen = 0;
+        private Future<Response> _next;
+        private volatile boolean _closed = false;
+        final Exhaust _exhaust;
+        private CursorCleaner.Ref _ref;
+        private BatchSizer _sizer;
+        private long _batchStart;
         Iterator<DBObject> _cur;
         int _numToReturn;
         final MyCollection _collection;
         final int _options;
+        final DecodeOptions _decode;
         
         private long _totalBytes = 0;
         private int _numGetMores = 0;
@@ -428,7 +604,23 @@ public class DBApiLayer extends DB {
     final DBConnector _connector;
     final Map<String,MyCollection> _collections = Collections.synchronizedMap( new HashMap<String,MyCollection>() );
     final Map<String,DBApiLayer> _sisters = Collections.synchronizedMap( new HashMap<String,DBApiLayer>() );
-    List<Long> _deadCursorIds = new Vector<Long>();
+    final CursorCleaner _cleaner = new CursorCleaner( this );
+
+    private static ExecutorService _readAheadPool;
+
+    static synchronized ExecutorService _readAheadPool(){
+        if ( _readAheadPool == null ){
+            _readAheadPool = Executors.newCachedThreadPool( new ThreadFactory(){
+                    public Thread newThread( Runnable r ){
+                        Thread t = new Thread( r , "MongoReadAhead-" + _numThreads++ );
+                        t.setDaemon( true );
+                        return t;
+                    }
+                    private int _numThreads = 0;
+                } );
+        }
+        return _readAheadPool;
+    }
 
     static final List<DBObject> EMPTY = Collections.unmodifiableList( new LinkedList<DBObject>() );
 }
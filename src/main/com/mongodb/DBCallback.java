@@ -97,9 +97,25 @@ public class DBCallback extends BasicBSONCallback {
         
         if ( _collection != null && _collection._name.equals( "$cmd" ) )
             return new CommandResult();
+        if ( _compact )
+            return new CompactDBObject();
         return new BasicDBObject();
     }
 
+    /**
+     * Decoded objects are {@link CompactDBObject}s instead of <code>BasicDBObject</code>s,
+     * unless the collection has an object class.  They take a lot less memory,
+     * but code that casts results to <code>BasicDBObject</code> will break.
+     * Starts out as the <code>MONGO.COMPACT</code> system property.
+     */
+    public static void setCompactObjects( boolean compact ){
+        _compact = compact;
+    }
+
+    public static boolean isCompactObjects(){
+        return _compact;
+    }
+
     DBObject dbget(){
         DBObject o = (DBObject)get();
         return o;
@@ -116,4 +132,6 @@ public class DBCallback extends BasicBSONCallback {
     final DBCollection _collection;
     final DB _db;
     static final Logger LOGGER = Logger.getLogger( "com.mongo.DECODING" );
+
+    private static volatile boolean _compact = Boolean.getBoolean( "MONGO.COMPACT" );
 }
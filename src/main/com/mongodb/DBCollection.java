@@ -72,6 +72,23 @@ public abstract class DBCollection {
      */
     public abstract WriteResult update( DBObject q , DBObject o , boolean upsert , boolean multi ) throws MongoException ;
 
+    /**
+     * Performs an update operation with a write concern other than the collection's.
+     * Collections that can't send a write concern per call only accept their own,
+     * or <code>null</code> for it.
+     * @param q search query for old object to update
+     * @param o object with which to update <tt>q</tt>
+     * @param upsert if the database should create the element if it does not exist
+     * @param multi if the update should be applied to all objects matching (db version 1.1.3 and above)
+     * @param concern write concern to use for this update
+     * @dochub update
+     */
+    public WriteResult update( DBObject q , DBObject o , boolean upsert , boolean multi , DB.WriteConcern concern ) throws MongoException {
+        if ( concern != null && concern != getWriteConcern() )
+            throw new UnsupportedOperationException( getClass().getName() + " can't use a write concern per update" );
+        return update( q , o , upsert , multi );
+    }
+
     /**
      * @dochub update
      */
@@ -106,7 +123,15 @@ public abstract class DBCollection {
      * @return the objects, if found
      * @dochub find
      */
-    abstract Iterator<DBObject> __find( DBObject ref , DBObject fields , int numToSkip , int batchSize , int options ) throws MongoException ;
+    Iterator<DBObject> __find( DBObject ref , DBObject fields , int numToSkip , int batchSize , int options ) 
+        throws MongoException {
+        return __find( ref , fields , numToSkip , batchSize , options , _lazy ? DecodeOptions.LAZY : DecodeOptions.DEFAULT );
+    }
+
+    /**
+     * @param decode how the results get decoded
+     */
+    abstract Iterator<DBObject> __find( DBObject ref , DBObject fields , int numToSkip , int batchSize , int options , DecodeOptions decode ) throws MongoException ;
     
     /** Finds an object.
      * @param ref query used to search
@@ -671,7 +696,17 @@ public abstract class DBCollection {
         if ( o.isPartialObject() && ! query )
             throw new IllegalArgumentException( "can't save partial objects" );
         
-        if ( ! query ){
+        if ( o instanceof DBTemplate.Bound ){
+            // the shape and the bound values, without decoding the whole thing
+            if ( ! query ){
+                DBTemplate.Bound b = (DBTemplate.Bound)o;
+                _checkKeys( (DBObject)b.getTemplate().getShape() );
+                for ( Object v : b.getValues() )
+                    if ( v instanceof DBObject )
+                        _checkKeys( (DBObject)v );
+            }
+        }
+        else if ( ! query && ! ( o instanceof RawDBObject ) ){
             _checkKeys(o);
         }
         return o;
@@ -803,6 +838,52 @@ public abstract class DBCollection {
         return _wrapper.getInternalClass( path );
     }
 
+    /**
+     * If set, queries on this collection return {@link LazyDBObject}s read in place
+     * from the reply instead of fully decoded objects.  The object class is ignored then.
+     * Single cursors can ask for this with {@link DBCursor#lazy}.
+     */
+    public void setLazy( boolean lazy ){
+        _lazy = lazy;
+    }
+
+    public boolean isLazy(){
+        return _lazy;
+    }
+
+    /**
+     * Splits a query on <code>_id</code> so its parts can be read in parallel.
+     * @see ParallelScan
+     */
+    public ParallelScan parallelScan( DBObject query , int numPartitions ){
+        return parallelScan( query , null , "_id" , numPartitions );
+    }
+
+    /**
+     * Splits a query on an indexed key so its parts can be read in parallel,
+     * each with its own cursor and connection.
+     * @param query can't have a condition on <code>key</code>
+     * @param fields fields to return, null for all of them
+     * @see ParallelScan
+     */
+    public ParallelScan parallelScan( DBObject query , DBObject fields , String key , int numPartitions ){
+        return new ParallelScan( this , query , fields , key , numPartitions );
+    }
+
+    /**
+     * Returns the counter aggregator for this collection.
+     * Increments sent through it are summed on the client and periodically
+     * written as one upsert per query.
+     * @return the aggregator, created on first use
+     */
+    public CounterAggregator getCounterAggregator(){
+        synchronized ( this ){
+            if ( _counters == null )
+                _counters = new CounterAggregator( this );
+            return _counters;
+        }
+    }
+
     /**
      * Set the write concern for this collection. Will be used for
      * writes to this collection. Overrides any setting of write
@@ -835,6 +916,8 @@ public abstract class DBCollection {
     protected Class _objectClass = null;
     private Map<String,Class> _internalClass = Collections.synchronizedMap( new HashMap<String,Class>() );
     private ReflectionDBObject.JavaWrapper _wrapper = null;
+    private CounterAggregator _counters = null;
+    private volatile boolean _lazy = false;
 
     private boolean _anyUpdateSave = false;
 
@@ -33,4 +33,10 @@ public interface DBConnector {
     
     public Response call( DB db , DBCollection coll , OutMessage m ) throws MongoException;
     public Response call( DB db , DBCollection coll , OutMessage m , int retries ) throws MongoException;
+
+    /**
+     * sends a query with {@link Bytes#QUERYOPTION_EXHAUST} set, on a connection that then
+     * belongs to the returned stream until its last reply has been read or it's closed
+     */
+    public Exhaust exhaust( DB db , DBCollection coll , OutMessage m ) throws MongoException;
 }
@@ -19,7 +19,10 @@
 package com.mongodb;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
+import org.bson.*;
 
 /** An iterator over database results.
  * Doing a <code>find()</code> query on a collection returns a 
@@ -46,7 +49,7 @@ import java.util.*;
  *
  * @dochub cursors
  */
-public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
+public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> , java.io.Closeable {
 
     /**
      * Initializes a new database cursor
@@ -58,6 +61,7 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
         _collection = collection;
         _query = q == null ? new BasicDBObject() : q;
         _keysWanted = k;
+        _lazy = collection != null && collection.isLazy();
     }
 
     /** Types of cursors: iterator or array. */
@@ -77,6 +81,10 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
         c._numWanted = _numWanted;
         c._skip = _skip;
         c._options = _options;
+        c._lazy = _lazy;
+        c._readAhead = _readAhead;
+        c._sizer = _sizer;
+        c._filter = _filter;
         return c;
     }
 
@@ -209,6 +217,120 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
         return this;
     }
 
+    /**
+     * Results come back as {@link LazyDBObject}s, read in place from the reply
+     * and only decoded as fields are looked at.
+     * @return this
+     */
+    public DBCursor lazy(){
+        if ( _it != null )
+            throw new IllegalStateException( "can't set lazy after executing query" );
+        _lazy = true;
+        return this;
+    }
+
+    public boolean isLazy(){
+        return _lazy;
+    }
+
+    /**
+     * Decodes results straight into instances of <code>c</code>, setting its fields from
+     * the reply's bytes without making DBObjects.  See {@link TypedDecoder} for what fields can be.
+     * Makes this cursor lazy, and it shouldn't be iterated on its own afterwards.
+     * <blockquote><pre>
+     * for ( Page p : collection.find( query ).as( Page.class ) )
+     *     ...
+     * </pre></blockquote>
+     */
+    public <T> TypedCursor<T> as( Class<T> c ){
+        lazy();
+        return new TypedCursor<T>( this , TypedDecoder.get( c ) );
+    }
+
+    /**
+     * Only the top level fields the filter accepts are decoded, the rest are skipped
+     * in the reply without being read.  Unlike the keys given to find, this doesn't change
+     * what the server sends, so it suits callers that decide per field on the client.
+     * Results are marked as partial objects.  Lazy cursors don't decode up front, so they ignore it.
+     * @return this
+     */
+    public DBCursor fieldFilter( FieldFilter filter ){
+        if ( _it != null )
+            throw new IllegalStateException( "can't set a field filter after executing query" );
+        _filter = filter;
+        return this;
+    }
+
+    /**
+     * Asks for the next batch in the background once <code>fraction</code> of the current
+     * one has been used, so it's usually there by the time it's needed instead of costing a
+     * round trip.  Only one batch is read ahead at a time.
+     * Call {@link #close} if you stop before the end.
+     * @param fraction between 0, ask as soon as a batch arrives, and 1, ask when it's used up
+     * @return this
+     */
+    public DBCursor readAhead( float fraction ){
+        if ( fraction < 0 || fraction > 1 )
+            throw new IllegalArgumentException( "fraction has to be between 0 and 1, not: " + fraction );
+        if ( _it instanceof DBApiLayer.Result )
+            ((DBApiLayer.Result)_it).readAhead( fraction );
+        _readAhead = fraction;
+        return this;
+    }
+
+    /**
+     * Sizes each getMore from the batches so far, aiming for replies of about a megabyte
+     * that take about 100ms to go through.
+     * @see #adaptiveBatchSize(int,long)
+     */
+    public DBCursor adaptiveBatchSize(){
+        return adaptiveBatchSize( BatchSizer.DEFAULT_TARGET_BYTES , BatchSizer.DEFAULT_TARGET_MILLIS );
+    }
+
+    /**
+     * Instead of asking for the same number of documents every time, sizes each getMore from
+     * the last batch: its bytes per document and how long each document took to use.
+     * It asks for as many as fit in <code>targetBytes</code> or take <code>targetMillis</code>,
+     * whichever is fewer, changing by at most a factor of 2 each time.
+     * The first batch is still {@link #batchSize}.  Ignored when there's a limit.
+     * @return this
+     */
+    public DBCursor adaptiveBatchSize( int targetBytes , long targetMillis ){
+        _sizer = new BatchSizer( targetBytes , targetMillis );
+        if ( _it instanceof DBApiLayer.Result && _numWanted == 0 )
+            ((DBApiLayer.Result)_it).adaptiveBatchSize( _sizer );
+        return this;
+    }
+
+    /**
+     * Has the server send every batch back to back without waiting for getMores.
+     * The connection is kept for this cursor until the last batch has been read,
+     * so iterate it to the end or {@link #close} it.
+     * @return this
+     */
+    public DBCursor exhaust(){
+        if ( _it != null )
+            throw new IllegalStateException( "can't set exhaust after executing query" );
+        return addOption( Bytes.QUERYOPTION_EXHAUST );
+    }
+
+    /**
+     * Stops the cursor: nothing more is returned and the server is told to kill it.
+     * A getMore that's been read ahead is dropped.
+     * <p>Kills are sent in batches from a background thread, see {@link DBApiLayer#setKillCursorsBatchSize}.
+     * A cursor that's never closed is still killed once it's garbage collected, but closing it
+     * in a <code>finally</code> frees the server side sooner.</p>
+     */
+    public void close(){
+        if ( _it instanceof DBApiLayer.Result ){
+            ((DBApiLayer.Result)_it).close();
+        }
+        else {
+            _it = (new LinkedList<DBObject>()).iterator();
+            _fake = true;
+        }
+    }
+
     /**
      * adds an option - see Bytes.QUERYOPTION_* for list
      */
@@ -247,7 +369,11 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
                 else
                     bs = Math.min( bs , _batchSize );
             }
-            _it = _collection.__find( foo , _keysWanted , _skip , bs , _options );
+            _it = _collection.__find( foo , _keysWanted , _skip , bs , _options , new DecodeOptions( _lazy , _filter ) );
+            if ( _readAhead >= 0 && _it instanceof DBApiLayer.Result )
+                ((DBApiLayer.Result)_it).readAhead( _readAhead );
+            if ( _sizer != null && _numWanted == 0 && _it instanceof DBApiLayer.Result )
+                ((DBApiLayer.Result)_it).adaptiveBatchSize( _sizer );
         }
 
         if ( _it == null ){
@@ -333,7 +459,7 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
         _collection.apply( _cur , false );
         _num++;
 
-        if ( _keysWanted != null && _keysWanted.keySet().size() > 0 ){
+        if ( ( _filter != null && ! _lazy ) || ( _keysWanted != null && _keysWanted.keySet().size() > 0 ) ){
             _cur.markAsPartialObject();
             //throw new UnsupportedOperationException( "need to figure out partial" );
         }
@@ -436,6 +562,11 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
     void _fill( int n )
         throws MongoException {
         _checkType( CursorType.ARRAY );
+        if ( n > _all.size() + 1 ){
+            _check();
+            if ( _it instanceof DBApiLayer.Result )
+                ((DBApiLayer.Result)_it).decodeAhead();
+        }
         while ( n >= _all.size() && _hasNext() )
             _next();
     }
@@ -484,6 +615,192 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
         return n;
     }
 
+    /**
+     * Gets a document at a time from {@link #parallelForEach}, from more than one thread.
+     */
+    public interface DocumentHandler {
+        public void handle( DBObject o );
+    }
+
+    /**
+     * Returns what's left of the batch the server sent last, asking for the next one first
+     * if it's all been used.  Documents in big replies are only decoded when they're
+     * taken from the list, so handing batches to different threads spreads out the decoding too.
+     * Can't be mixed with array access.
+     * @return the documents, or null when there aren't any more
+     */
+    public List<DBObject> nextBatch()
+        throws MongoException {
+        if ( _cursorType == null )
+            _checkType( CursorType.ITERATOR );
+        _check();
+
+        int max = Integer.MAX_VALUE;
+        if ( _numWanted > 0 ){
+            max = _numWanted - _num;
+            if ( max <= 0 )
+                return null;
+        }
+
+        List<DBObject> docs;
+        if ( _it instanceof DBApiLayer.Result ){
+            docs = ((DBApiLayer.Result)_it).nextBatch();
+            if ( docs == null )
+                return null;
+        }
+        else {
+            if ( ! _it.hasNext() )
+                return null;
+            docs = new ArrayList<DBObject>();
+            while ( _it.hasNext() )
+                docs.add( _it.next() );
+        }
+
+        if ( docs.size() > max )
+            docs = docs.subList( 0 , max );
+        _num += docs.size();
+        return new Batch( docs );
+    }
+
+    /**
+     * Passes every document left to <code>handler</code> from <code>numThreads</code> threads.
+     * Each thread takes a whole batch at a time, and the thread that finds nothing left asks
+     * the server for more, so batches are processed and decoded in parallel while the next
+     * one is fetched.  Combine with {@link #readAhead} to keep the fetching off the workers.
+     * If the handler throws, the other threads stop and the exception is thrown from here.
+     * The threads come from a pool shared by every cursor.
+     * @return the number of documents handled
+     * @throws IllegalArgumentException if <code>numThreads</code> is less than 1
+     */
+    public long parallelForEach( final DocumentHandler handler , int numThreads )
+        throws MongoException {
+        return parallelForEach( handler , numThreads , _workers() );
+    }
+
+    /**
+     * Like {@link #parallelForEach(DocumentHandler,int)}, running the workers on <code>executor</code>,
+     * which is left running afterwards.  Don't call this from one of the executor's own threads if it
+     * has fewer than <code>numThreads</code> of them, or the call can wait on itself.
+     * @return the number of documents handled
+     * @throws IllegalArgumentException if <code>numThreads</code> is less than 1
+     */
+    public long parallelForEach( final DocumentHandler handler , int numThreads , ExecutorService executor )
+        throws MongoException {
+        if ( numThreads < 1 )
+            throw new IllegalArgumentException( "need at least 1 thread, not: " + numThreads );
+
+        final AtomicBoolean stop = new AtomicBoolean( false );
+        final AtomicLong total = new AtomicLong();
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for ( int i=0; i<numThreads; i++ ){
+                futures.add( executor.submit( new Runnable(){
+                        public void run(){
+                            try {
+                                while ( ! stop.get() ){
+                                    final List<DBObject> batch;
+                                    synchronized ( DBCursor.this ){
+                                        batch = nextBatch();
+                                    }
+                                    if ( batch == null )
+                                        return;
+                                    for ( int j=0; j<batch.size() && ! stop.get(); j++ ){
+                                        handler.handle( batch.get( j ) );
+                                        total.incrementAndGet();
+                                    }
+                                }
+                            }
+                            catch ( RuntimeException e ){
+                                stop.set( true );
+                                throw e;
+                            }
+                            catch ( Error e ){
+                                stop.set( true );
+                                throw e;
+                            }
+                        }
+                    } ) );
+            }
+
+            Throwable error = null;
+            for ( Future<?> f : futures ){
+                try {
+                    f.get();
+                }
+                catch ( ExecutionException ee ){
+                    if ( error == null )
+                        error = ee.getCause();
+                }
+            }
+
+            if ( error instanceof RuntimeException )
+                throw (RuntimeException)error;
+            if ( error instanceof Error )
+                throw (Error)error;
+            if ( error != null )
+                throw new MongoException( "parallelForEach failed" , error );
+            return total.get();
+        }
+        catch ( InterruptedException ie ){
+            stop.set( true );
+            Thread.currentThread().interrupt();
+            throw new MongoInternalException( "interrupted during parallelForEach" , ie );
+        }
+        finally {
+            // the pool outlives this call, so don't leave anything queued on it
+            stop.set( true );
+            for ( Future<?> f : futures )
+                f.cancel( false );
+        }
+    }
+
+    private static ExecutorService _workers;
+
+    static synchronized ExecutorService _workers(){
+        if ( _workers == null ){
+            _workers = Executors.newCachedThreadPool( new ThreadFactory(){
+                    public Thread newThread( Runnable r ){
+                        Thread t = new Thread( r , "MongoCursorWorker-" + _numThreads++ );
+                        t.setDaemon( true );
+                        return t;
+                    }
+                    private int _numThreads = 0;
+                } );
+        }
+        return _workers;
+    }
+
+    /**
+     * a batch from {@link #nextBatch}, finishing each document the way <code>next</code> does
+     * when it's first looked at
+     */
+    final class Batch extends AbstractList<DBObject> implements RandomAccess {
+        Batch( List<DBObject> docs ){
+            _docs = docs;
+            _ready = new DBObject[ docs.size() ];
+        }
+
+        public DBObject get( int i ){
+            DBObject o = _ready[i];
+            if ( o == null ){
+                o = _docs.get( i );
+                _collection.apply( o , false );
+                if ( ( _filter != null && ! _lazy ) || ( _keysWanted != null && _keysWanted.keySet().size() > 0 ) )
+                    o.markAsPartialObject();
+                _ready[i] = o;
+            }
+            return o;
+        }
+
+        public int size(){
+            return _ready.length;
+        }
+
+        final List<DBObject> _docs;
+        final DBObject[] _ready;
+    }
+
     /**
      * Counts the number of elements in this cursor.
      * @return the number of elements
@@ -519,6 +836,10 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
     private int _skip = 0;
     private boolean _snapshot = false;
     private int _options = 0;
+    private boolean _lazy;
+    private FieldFilter _filter = null;
+    private float _readAhead = -1;
+    private BatchSizer _sizer = null;
     
     // ----  result info ----
     private Iterator<DBObject> _it = null;
@@ -80,15 +80,38 @@ public class DBPort {
             if ( coll == null )
                 return null;
             
-            return new Response( coll , _in );
+            return new Response( coll , _in , msg.getDecodeOptions() );
         }
         catch ( IOException ioe ){
             close();
             throw ioe;
         }
+        catch ( RuntimeException re ){
+            // part of a streamed message may be on the socket already, and the server would take whatever comes next as the rest of it
+            if ( msg.isStreamed() )
+                close();
+            throw re;
+        }
         
     }
 
+    /**
+     * reads a reply without sending anything, for exhaust cursors
+     */
+    synchronized Response read( DBCollection coll , DecodeOptions decode )
+        throws IOException {
+        if ( _socket == null )
+            throw new IOException( "connection closed" );
+
+        try {
+            return new Response( coll , _in , decode );
+        }
+        catch ( IOException ioe ){
+            close();
+            throw ioe;
+        }
+    }
+
     synchronized CommandResult getLastError( DB db ){
 
         OutMessage msg = OutMessage.query( 0 , db.getName() + ".$cmd" , 0 , -1 , new BasicDBObject( "getlasterror" , 1 ) , null );
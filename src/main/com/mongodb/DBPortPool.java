@@ -20,6 +20,8 @@ package com.mongodb;
 
 import com.mongodb.util.*;
 
+import org.bson.io.*;
+
 import java.io.*;
 import java.net.*;
 import java.util.*;
@@ -35,6 +37,23 @@ class DBPortPool extends SimplePool<DBPort> {
         
         Holder( MongoOptions options ){
             _options = options;
+            _registerArena();
+        }
+
+        void _registerArena(){
+            try {
+                ObjectName on = new ObjectName( "com.mongodb:type=BufferArena" );
+                synchronized ( Holder.class ){
+                    if ( ! _server.isRegistered( on ) )
+                        _server.registerMBean( BufferArena.DEFAULT , on );
+                }
+            }
+            catch ( JMException e ){
+                Bytes.LOGGER.log( Level.WARNING , "jmx registration error, continuing" , e );
+            }
+            catch ( java.security.AccessControlException e ){
+                Bytes.LOGGER.log( Level.WARNING , "jmx registration error, continuing" , e );
+            }
         }
         
         DBPortPool get( InetSocketAddress addr ){
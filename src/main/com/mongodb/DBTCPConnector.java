@@ -133,6 +133,15 @@ class DBTCPConnector implements DBConnector {
 
 	public WriteResult say(DB db, OutMessage m, DB.WriteConcern concern)
 			throws MongoException {
+		try {
+			return _say(db, m, concern);
+		} finally {
+			m.doneWithMessage();
+		}
+	}
+
+	private WriteResult _say(DB db, OutMessage m, DB.WriteConcern concern)
+			throws MongoException {
 		MyPort mp = _threadPort.get();
 		DBPort port = mp.get(true);
 		port.checkAuth(db);
@@ -150,7 +159,7 @@ class DBTCPConnector implements DBConnector {
 				return new WriteResult(db, port);
 			}
 		} catch (IOException ioe) {
-			mp.error(ioe);
+			mp.error(port, ioe);
 			_error(ioe);
 			if (concern == DB.WriteConcern.NONE) {
 				CommandResult res = new CommandResult();
@@ -162,7 +171,7 @@ class DBTCPConnector implements DBConnector {
 		} catch (MongoException me) {
 			throw me;
 		} catch (RuntimeException re) {
-			mp.error(re);
+			mp.error(port, re);
 			throw re;
 		}
 
@@ -175,6 +184,15 @@ class DBTCPConnector implements DBConnector {
 
 	public Response call(DB db, DBCollection coll, OutMessage m, int retries)
 			throws MongoException {
+		try {
+			return _call(db, coll, m, retries);
+		} finally {
+			m.doneWithMessage();
+		}
+	}
+
+	private Response _call(DB db, DBCollection coll, OutMessage m, int retries)
+			throws MongoException {
 
 		final MyPort mp = _threadPort.get();
 		final DBPort port = mp.get(false);
@@ -190,13 +208,13 @@ class DBTCPConnector implements DBConnector {
 			
 			mp.done(port);
 		} catch (IOException ioe) {
-			mp.error(ioe);
+			mp.error(port, ioe);
 			if (_error(ioe) && retries > 0) {
-				return call(db, coll, m, retries - 1);
+				return _call(db, coll, m, retries - 1);
 			}
 			throw new MongoException.Network("can't call something", ioe);
 		} catch (RuntimeException re) {
-			mp.error(re);
+			mp.error(port, re);
 			throw re;
 		}
 
@@ -208,12 +226,40 @@ class DBTCPConnector implements DBConnector {
 				throw new MongoException(
 						"not talking to master and retries used up");
 			}
-			return call(db, coll, m, retries - 1);
+			return _call(db, coll, m, retries - 1);
 		}
 
 		return res;
 	}
 
+	public Exhaust exhaust(DB db, DBCollection coll, OutMessage m)
+			throws MongoException {
+		final DecodeOptions decode = m.getDecodeOptions();
+		final DBPortPool pool = _curPortPool;
+		final MyPort mp = _threadPort.get();
+		// a port of its own, not the request's, since the server keeps writing to it
+		final DBPort port = mp.getExclusive();
+		try {
+			port.checkAuth(db);
+			Response res = port.call(m, coll);
+			_curPortPool.resetRecentFailures();
+			return new Exhaust(pool, port, coll, decode, res);
+		} catch (IOException ioe) {
+			port.close();
+			pool.remove(port);
+			pool.gotError(ioe);
+			_error(ioe);
+			throw new MongoException.Network("can't start exhaust query", ioe);
+		} catch (RuntimeException re) {
+			pool.remove(port);
+			port.close();
+			throw re;
+		} finally {
+			mp.doneExclusive();
+			m.doneWithMessage();
+		}
+	}
+
 	public ServerAddress getAddress() {
 		return _curAddress;
 	}
@@ -268,6 +314,29 @@ class DBTCPConnector implements DBConnector {
 			}
 		}
 
+		/**
+		 * a port from the pool that isn't given back by done, even in a request.
+		 * calls made while it's out (like authenticating) use it too.
+		 */
+		DBPort getExclusive() {
+			final DBPort p = _curPortPool.get();
+			_internalStack++;
+			_beforeExclusive = _last;
+			_last = p;
+			return p;
+		}
+
+		/**
+		 * puts back the port nested calls use, so they don't write to the exhaust port
+		 * while the server is still sending on it
+		 */
+		void doneExclusive() {
+			if (_internalStack > 0)
+				_internalStack--;
+			_last = _beforeExclusive;
+			_beforeExclusive = null;
+		}
+
 		void done(DBPort p) {
 
 			if (_internalStack <= 0) {
@@ -288,10 +357,17 @@ class DBTCPConnector implements DBConnector {
 			}
 		}
 
-		void error(Exception e) {
-			_curPortPool.remove(_port);
+		/**
+		 * the port that failed isn't always _port, which is only set in a request,
+		 * so it's closed and dropped from the pool itself rather than left out of it
+		 */
+		void error(DBPort p, Exception e) {
+			p.close();
+			_curPortPool.remove(p);
 			_curPortPool.gotError(e);
 
+			if (p == _port)
+				_port = null;
 			_internalStack = 0;
 			_last = null;
 		}
@@ -338,6 +414,7 @@ class DBTCPConnector implements DBConnector {
 
 		DBPort _port;
 		DBPort _last;
+		DBPort _beforeExclusive;
 		boolean _inRequest;
 	}
 
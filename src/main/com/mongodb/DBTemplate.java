@@ -0,0 +1,74 @@
+// DBTemplate.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+import org.bson.*;
+
+/** A prepared query or update.
+ * The shape is encoded once, each call only encodes the values bound to its slots.
+ * <blockquote><pre>
+ * DBTemplate byId = new DBTemplate( new BasicDBObject( "_id" , DBTemplate.slot( "id" ) ) );
+ * DBTemplate inc = new DBTemplate( new BasicDBObject( "$inc" , new BasicDBObject( "n" , DBTemplate.slot( "n" ) ) ) );
+ * collection.update( byId.bind( id ) , inc.bind( 1 ) );
+ * </pre></blockquote>
+ */
+public class DBTemplate extends BSONTemplate {
+
+    public DBTemplate( DBObject shape ){
+        super( shape );
+    }
+
+    public Bound bind( Object ... values ){
+        return (Bound)super.bind( values );
+    }
+
+    public Bound bind( Map<String,?> values ){
+        return (Bound)super.bind( values );
+    }
+
+    protected Bound createBound( Object[] values ){
+        return new Bound( this , values );
+    }
+
+    /**
+     * a template with values for all its slots, usable anywhere a query or update object is.
+     * it can be inserted too: an <code>_id</code> is added if the shape doesn't have one.
+     */
+    public static class Bound extends BSONTemplate.Bound implements DBObject {
+        Bound( DBTemplate template , Object[] values ){
+            super( template , values );
+        }
+
+        protected BSONObject decode(){
+            DBCallback c = new DBCallback( null );
+            new BSONDecoder().decode( Bytes.encode( this ) , c );
+            return c.dbget();
+        }
+
+        public boolean isPartialObject(){
+            return false;
+        }
+
+        public void markAsPartialObject(){
+            throw new RuntimeException( "a bound template can't be a partial object" );
+        }
+    }
+}
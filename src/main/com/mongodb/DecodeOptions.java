@@ -0,0 +1,47 @@
+// DecodeOptions.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import org.bson.*;
+
+/**
+ * how the documents in a reply get decoded.
+ * goes along with the query and getmore messages down to the Response.
+ */
+class DecodeOptions {
+
+    static final DecodeOptions DEFAULT = new DecodeOptions( false , null );
+    static final DecodeOptions LAZY = new DecodeOptions( true , null );
+
+    /**
+     * @param lazy read documents in place as {@link LazyDBObject}s
+     * @param filter top level fields to decode, null for all.  lazy documents don't need one.
+     */
+    DecodeOptions( boolean lazy , FieldFilter filter ){
+        _lazy = lazy;
+        _filter = filter;
+    }
+
+    public String toString(){
+        return "lazy:" + _lazy + " filter:" + _filter;
+    }
+
+    final boolean _lazy;
+    final FieldFilter _filter;
+}
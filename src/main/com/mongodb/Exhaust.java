@@ -0,0 +1,105 @@
+// Exhaust.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+
+/**
+ * The replies to a query sent with {@link Bytes#QUERYOPTION_EXHAUST}.
+ * The server sends them back to back without waiting for getMores, so the connection
+ * is held here until the last one, the one with no cursor, has been read.
+ * Closing before that closes the connection, since the rest would still be on their way.
+ */
+class Exhaust {
+
+    Exhaust( DBPortPool pool , DBPort port , DBCollection collection , DecodeOptions decode , Response first ){
+        _pool = pool;
+        _port = port;
+        _collection = collection;
+        _decode = decode;
+        _first = first;
+        if ( first.cursor() == 0 )
+            _release( true );
+    }
+
+    Response first(){
+        return _first;
+    }
+
+    /**
+     * @return the next reply from the server
+     */
+    synchronized Response next()
+        throws MongoException {
+        if ( _done )
+            throw new IllegalStateException( "exhaust stream is finished" );
+
+        try {
+            Response res = _port.read( _collection , _decode );
+            if ( res.cursor() == 0 )
+                _release( true );
+            return res;
+        }
+        catch ( IOException ioe ){
+            _release( false );
+            throw new MongoException.Network( "can't read exhaust reply" , ioe );
+        }
+    }
+
+    /**
+     * @return true once the last reply has been read or the stream was closed
+     */
+    boolean isDone(){
+        return _done;
+    }
+
+    /**
+     * stops reading.  the connection is closed if there's more coming
+     */
+    void close(){
+        // not synchronized: a read blocked in next() is ended by closing the socket under it
+        if ( _done )
+            return;
+        _release( false );
+    }
+
+    private void _release( boolean ok ){
+        synchronized ( _lock ){
+            if ( _done )
+                return;
+            _done = true;
+        }
+        if ( ok ){
+            _pool.done( _port );
+        }
+        else {
+            _port.close();
+            _pool.remove( _port );
+        }
+    }
+
+    final DBPortPool _pool;
+    final DBPort _port;
+    final DBCollection _collection;
+    final DecodeOptions _decode;
+    final Response _first;
+
+    private final Object _lock = new Object();
+    private volatile boolean _done = false;
+}
@@ -0,0 +1,106 @@
+// LazyDBList.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+import org.bson.*;
+import org.bson.io.*;
+
+/**
+ * An embedded array inside a {@link LazyDBObject}, read in place the same way.
+ * Read only; {@link #materialize} gives a <code>BasicDBList</code>.
+ */
+public class LazyDBList extends AbstractList<Object> implements DBObject {
+
+    LazyDBList( byte[] b , int offset , DBCollection collection ){
+        _doc = new LazyDBObject( b , offset , collection );
+    }
+
+    public Object get( int i ){
+        final LazyDBObject.Index idx = _doc._index();
+        if ( i < 0 || i >= idx._num )
+            throw new IndexOutOfBoundsException( "index: " + i + " size: " + idx._num );
+        return _doc._value( idx , i );
+    }
+
+    public int size(){
+        return _doc._index()._num;
+    }
+
+    public Object get( String key ){
+        return _doc.get( key );
+    }
+
+    public boolean containsField( String field ){
+        return _doc.containsField( field );
+    }
+
+    /**
+     * @deprecated
+     */
+    public boolean containsKey( String key ){
+        return _doc.containsField( key );
+    }
+
+    public Set<String> keySet(){
+        return _doc.keySet();
+    }
+
+    /**
+     * @return a <code>BasicDBList</code> with everything in it decoded
+     */
+    public DBObject materialize(){
+        return _doc.materialize();
+    }
+
+    public Map toMap(){
+        return _doc.toMap();
+    }
+
+    public Object put( String key , Object v ){
+        throw new UnsupportedOperationException( "LazyDBList is read only, use materialize()" );
+    }
+
+    public void putAll( BSONObject o ){
+        throw new UnsupportedOperationException( "LazyDBList is read only, use materialize()" );
+    }
+
+    public void putAll( Map m ){
+        throw new UnsupportedOperationException( "LazyDBList is read only, use materialize()" );
+    }
+
+    public Object removeField( String key ){
+        throw new UnsupportedOperationException( "LazyDBList is read only, use materialize()" );
+    }
+
+    public void markAsPartialObject(){
+        _doc.markAsPartialObject();
+    }
+
+    public boolean isPartialObject(){
+        return _doc.isPartialObject();
+    }
+
+    void pipe( OutputBuffer out ){
+        _doc.pipe( out );
+    }
+
+    final LazyDBObject _doc;
+}
@@ -0,0 +1,343 @@
+// LazyDBObject.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import org.bson.*;
+import org.bson.io.*;
+import org.bson.types.*;
+
+import com.mongodb.util.*;
+
+import static org.bson.BSON.*;
+
+/** A document read in place from the bytes of a query reply.
+ * Nothing is decoded up front.  The first lookup walks the document once to find where each
+ * field starts; after that a value is decoded when it's asked for, and embedded objects and arrays
+ * come back as lazy views over the same bytes, the same view each time.
+ * <p>The bytes are never changed, so any number of threads can read one at a time.
+ * It's read only: use {@link #materialize} for a regular, modifiable <code>BasicDBObject</code>.</p>
+ * <p>Get these from a query with {@link DBCursor#lazy} or {@link DBCollection#setLazy}.</p>
+ */
+public class LazyDBObject implements DBObject {
+
+    /**
+     * @param b a complete BSON document
+     */
+    public LazyDBObject( byte[] b ){
+        this( b , 0 , null );
+        if ( _size != b.length )
+            throw new IllegalArgumentException( "not a valid BSON object.  size: " + _size + " available: " + b.length );
+    }
+
+    LazyDBObject( byte[] b , int offset , DBCollection collection ){
+        _bytes = b;
+        _offset = offset;
+        _collection = collection;
+        _size = b.length - offset < 5 ? -1 : Bits.readInt( b , offset );
+
+        if ( _size < 5 || offset + _size > b.length || b[ offset + _size - 1 ] != EOO )
+            throw new IllegalArgumentException( "not a valid BSON object.  size: " + _size + " available: " + ( b.length - offset ) );
+    }
+
+    /**
+     * @return size of the encoded object in bytes
+     */
+    public int getBSONSize(){
+        return _size;
+    }
+
+    public Object get( String key ){
+        final Index idx = _index();
+        final int i = idx.find( key );
+        if ( i < 0 )
+            return null;
+        return _value( idx , i );
+    }
+
+    public boolean containsField( String field ){
+        return _index().find( field ) >= 0;
+    }
+
+    /**
+     * @deprecated
+     */
+    public boolean containsKey( String key ){
+        return containsField( key );
+    }
+
+    /**
+     * @return the field names in document order
+     */
+    public Set<String> keySet(){
+        return _index()._keys;
+    }
+
+    /**
+     * decodes the whole document, including everything embedded in it
+     */
+    public DBObject materialize(){
+        DBCallback c = DBCallback.FACTORY.create( _collection );
+        Response.TL.get().decode( _bytes , _offset , _size , c );
+        DBObject o = (DBObject)c.get();
+        if ( _partial )
+            o.markAsPartialObject();
+        return o;
+    }
+
+    public Map toMap(){
+        return materialize().toMap();
+    }
+
+    public Object put( String key , Object v ){
+        throw new UnsupportedOperationException( "LazyDBObject is read only, use materialize()" );
+    }
+
+    public void putAll( BSONObject o ){
+        throw new UnsupportedOperationException( "LazyDBObject is read only, use materialize()" );
+    }
+
+    public void putAll( Map m ){
+        throw new UnsupportedOperationException( "LazyDBObject is read only, use materialize()" );
+    }
+
+    public Object removeField( String key ){
+        throw new UnsupportedOperationException( "LazyDBObject is read only, use materialize()" );
+    }
+
+    public void markAsPartialObject(){
+        _partial = true;
+    }
+
+    public boolean isPartialObject(){
+        return _partial;
+    }
+
+    public String toString(){
+        return JSON.serialize( this );
+    }
+
+    /**
+     * copies the encoded object into <code>out</code> without re-encoding it
+     */
+    void pipe( OutputBuffer out ){
+        out.write( _bytes , _offset , _size );
+    }
+
+    // ---- reading ----
+
+    /**
+     * where each field is, found by one walk over the document the first time it's needed
+     */
+    final Index _index(){
+        Index idx = _index;
+        if ( idx == null ){
+            // two threads might both build it, which is harmless
+            idx = new Index();
+            _index = idx;
+        }
+        return idx;
+    }
+
+    final Object _value( final Index idx , final int i ){
+        final byte[] b = _bytes;
+        final int v = idx._values[i];
+
+        switch ( idx._types[i] ){
+        case NULL:
+        case UNDEFINED:
+            return null;
+        case BOOLEAN:
+            return BSON.applyDecodingHooks( b[v] > 0 );
+        case NUMBER:
+            return BSON.applyDecodingHooks( Double.longBitsToDouble( Bits.readLong( b , v ) ) );
+        case NUMBER_INT:
+            return BSON.applyDecodingHooks( Bits.readInt( b , v ) );
+        case NUMBER_LONG:
+            return BSON.applyDecodingHooks( Bits.readLong( b , v ) );
+        case DATE:
+            return BSON.applyDecodingHooks( new Date( Bits.readLong( b , v ) ) );
+        case STRING:
+        case SYMBOL:
+            return BSON.applyDecodingHooks( BSONDecoder.utf8( b , v + 4 , Bits.readInt( b , v ) - 1 ) );
+        case OID:
+            return BSON.applyDecodingHooks( new ObjectId( Bits.readInt( b , v ) , Bits.readInt( b , v + 4 ) , Bits.readInt( b , v + 8 ) ) );
+        case TIMESTAMP:
+            return BSON.applyDecodingHooks( new BSONTimestamp( Bits.readInt( b , v + 4 ) , Bits.readInt( b , v ) ) );
+        case MINKEY:
+            return "MinKey";
+        case MAXKEY:
+            return "MaxKey";
+        case OBJECT:
+        case ARRAY: {
+            // made once per field, so asking again doesn't redo the view or its index
+            final AtomicReferenceArray<Object> nested = idx._nested();
+            Object o = nested.get( i );
+            if ( o == null ){
+                o = _nested( idx._types[i] , v );
+                if ( ! nested.compareAndSet( i , null , o ) )
+                    o = nested.get( i );
+            }
+            return o;
+        }
+        }
+
+        // the rest are rare enough to go through the regular decoder
+        return _decodeOne( idx , i );
+    }
+
+    private Object _nested( final byte type , final int v ){
+        if ( type == ARRAY )
+            return new LazyDBList( _bytes , v , _collection );
+        LazyDBObject o = new LazyDBObject( _bytes , v , _collection );
+        if ( o.containsField( "$ref" ) && o.containsField( "$id" ) )
+            return new DBRef( _collection == null ? null : _collection.getDB() , o );
+        return o;
+    }
+
+    /**
+     * decodes a single field by wrapping a copy of it in a document of its own
+     */
+    private Object _decodeOne( final Index idx , final int i ){
+        final int start = idx._starts[i];
+        final int len = idx._ends[i] - start;
+        final byte[] doc = new byte[ 4 + len + 1 ];
+        final int size = doc.length;
+        doc[0] = (byte)size;
+        doc[1] = (byte)( size >> 8 );
+        doc[2] = (byte)( size >> 16 );
+        doc[3] = (byte)( size >> 24 );
+        System.arraycopy( _bytes , start , doc , 4 , len );
+
+        DBCallback c = DBCallback.FACTORY.create( _collection );
+        Response.TL.get().decode( doc , c );
+        return ((BSONObject)c.get()).get( idx._names[i] );
+    }
+
+    final class Index {
+        Index(){
+            final byte[] b = _bytes;
+            final int end = _offset + _size - 1;
+
+            int num = 0;
+            int[] starts = new int[8];
+            int[] values = new int[8];
+            int[] ends = new int[8];
+            byte[] types = new byte[8];
+            String[] names = new String[8];
+
+            int pos = _offset + 4;
+            while ( pos < end ){
+                final byte type = b[pos];
+
+                int n = pos + 1;
+                while ( b[n] != 0 ){
+                    n++;
+                    if ( n >= end )
+                        throw new IllegalArgumentException( "unterminated field name" );
+                }
+
+                if ( num == starts.length ){
+                    final int grow = num * 2;
+                    int[] is = new int[grow]; System.arraycopy( starts , 0 , is , 0 , num ); starts = is;
+                    is = new int[grow]; System.arraycopy( values , 0 , is , 0 , num ); values = is;
+                    is = new int[grow]; System.arraycopy( ends , 0 , is , 0 , num ); ends = is;
+                    byte[] ts = new byte[grow]; System.arraycopy( types , 0 , ts , 0 , num ); types = ts;
+                    String[] ns = new String[grow]; System.arraycopy( names , 0 , ns , 0 , num ); names = ns;
+                }
+
+                starts[num] = pos;
+                types[num] = type;
+                names[num] = BSONDecoder.utf8( b , pos + 1 , n - pos - 1 );
+                values[num] = n + 1;
+                pos = n + 1 + BSONDecoder.valueSize( type , b , n + 1 );
+                ends[num] = pos;
+                num++;
+            }
+            if ( pos != end )
+                throw new IllegalArgumentException( "bad BSON object, last field runs past the end" );
+
+            _num = num;
+            _starts = starts;
+            _values = values;
+            _ends = ends;
+            _types = types;
+            _names = names;
+
+            Set<String> keys = new LinkedHashSet<String>();
+            for ( int i=0; i<num; i++ )
+                keys.add( names[i] );
+            _keys = Collections.unmodifiableSet( keys );
+
+            if ( num > LINEAR_MAX ){
+                _byName = new HashMap<String,Integer>( num * 2 );
+                for ( int i=num-1; i>=0; i-- )
+                    _byName.put( names[i] , i );
+            }
+            else {
+                _byName = null;
+            }
+        }
+
+        int find( String name ){
+            if ( _byName != null ){
+                Integer i = _byName.get( name );
+                return i == null ? -1 : i;
+            }
+            for ( int i=0; i<_num; i++ )
+                if ( _names[i].equals( name ) )
+                    return i;
+            return -1;
+        }
+
+        AtomicReferenceArray<Object> _nested(){
+            AtomicReferenceArray<Object> n = _nested;
+            if ( n == null ){
+                synchronized ( this ){
+                    if ( _nested == null )
+                        _nested = new AtomicReferenceArray<Object>( _num );
+                    n = _nested;
+                }
+            }
+            return n;
+        }
+
+        final int _num;
+        final int[] _starts;
+        final int[] _values;
+        final int[] _ends;
+        final byte[] _types;
+        final String[] _names;
+        final Set<String> _keys;
+        final Map<String,Integer> _byName;
+        private volatile AtomicReferenceArray<Object> _nested;
+    }
+
+    static final int LINEAR_MAX = 8;
+
+    final byte[] _bytes;
+    final int _offset;
+    final int _size;
+    final DBCollection _collection;
+
+    private volatile Index _index;
+    private volatile boolean _partial = false;
+}
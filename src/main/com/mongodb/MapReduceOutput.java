@@ -7,7 +7,7 @@ public class MapReduceOutput {
     MapReduceOutput( DBCollection from , BasicDBObject raw ){
         _collname = raw.getString( "result" );
         _coll = from._db.getCollection( _collname );
-        _counts = (BasicDBObject)raw.get( "counts" );
+        _counts = (DBObject)raw.get( "counts" );
     }
 
     public DBCursor results(){
@@ -24,5 +24,5 @@ public class MapReduceOutput {
 
     final String _collname;
     final DBCollection _coll;
-    final BasicDBObject _counts;
+    final DBObject _counts;
 }
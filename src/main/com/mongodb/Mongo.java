@@ -192,7 +192,7 @@ public class Mongo {
         List<String> list = new ArrayList<String>();
 
         for (Object o : l) {
-            list.add(((BasicDBObject)o).getString("name"));
+            list.add( (String)((DBObject)o).get( "name" ) );
         }
         return list;
     }
@@ -33,6 +33,11 @@ import static org.bson.BSON.*;
 class OutMessage extends BSONEncoder {
 
     static AtomicInteger ID = new AtomicInteger(1);
+
+    /**
+     * bytes buffered per message before objects start being streamed
+     */
+    static final int STREAM_AFTER = Integer.getInteger( "MONGO.STREAM.AFTER" , 1024 * 1024 );
     
     static ThreadLocal<OutMessage> TL = new ThreadLocal<OutMessage>(){
         protected OutMessage initialValue(){
@@ -69,6 +74,9 @@ class OutMessage extends BSONEncoder {
     private void reset( int op ){
         done();
         _buffer.reset();
+        _streamed = null;
+        _streamedSize = 0;
+        _decode = DecodeOptions.DEFAULT;
         set( _buffer );
         
         _id = ID.getAndIncrement();
@@ -79,8 +87,112 @@ class OutMessage extends BSONEncoder {
         writeInt( op );
     }
 
+    /**
+     * gives the buffer's chunks back to the arena once the message has been sent
+     */
+    void doneWithMessage(){
+        _buffer.reset();
+        _streamed = null;
+        _streamedSize = 0;
+    }
+
+    /**
+     * @param decode how the reply's documents should be decoded
+     */
+    void setDecodeOptions( DecodeOptions decode ){
+        _decode = decode == null ? DecodeOptions.DEFAULT : decode;
+    }
+
+    DecodeOptions getDecodeOptions(){
+        return _decode;
+    }
+
     void prepare(){
-        _buffer.writeInt( 0 , _buffer.size() );
+        _buffer.writeInt( 0 , size() );
+    }
+
+    /**
+     * Objects are buffered until the message passes {@link #STREAM_AFTER} bytes.
+     * The one that crosses it, and every one after, is only sized here
+     * and gets encoded again straight to the socket in {@link #pipe}.
+     * <p>The buffer's limit is only set while an object is being buffered, so this is the one
+     * place that can see {@link PoolOutputBuffer.LimitExceeded}.  The raw writers can take a
+     * message a little past the limit, the next object then starts streaming.</p>
+     */
+    public int putObject( BSONObject o ){
+        if ( _streamed == null && _buffer.size() >= STREAM_AFTER )
+            _streamed = new ArrayList<Object>();
+
+        if ( _streamed == null ){
+            final int start = _buffer.getPosition();
+            _buffer.setLimit( STREAM_AFTER );
+            try {
+                return super.putObject( o );
+            }
+            catch ( PoolOutputBuffer.LimitExceeded le ){
+                _buffer.truncate( start );
+                _streamed = new ArrayList<Object>();
+            }
+            finally {
+                _buffer.setLimit( Integer.MAX_VALUE );
+            }
+        }
+
+        SizingOutputBuffer sizes = new SizingOutputBuffer();
+        _buf = sizes;
+        try {
+            super.putObject( o );
+        }
+        finally {
+            _buf = _buffer;
+        }
+
+        _streamed.add( o );
+        _streamed.add( sizes );
+        _streamedSize += sizes.size();
+        return sizes.size();
+    }
+
+    public void writeInt( int x ){
+        if ( _streamed == null ){
+            super.writeInt( x );
+            return;
+        }
+        BasicOutputBuffer buf = new BasicOutputBuffer();
+        buf.writeInt( x );
+        _addStreamedBytes( buf.toByteArray() );
+    }
+
+    public void writeLong( long x ){
+        if ( _streamed == null ){
+            super.writeLong( x );
+            return;
+        }
+        BasicOutputBuffer buf = new BasicOutputBuffer();
+        buf.writeLong( x );
+        _addStreamedBytes( buf.toByteArray() );
+    }
+
+    public void writeCString( String s ){
+        if ( _streamed == null ){
+            super.writeCString( s );
+            return;
+        }
+        BasicOutputBuffer buf = new BasicOutputBuffer();
+        _buf = buf;
+        try {
+            super.writeCString( s );
+        }
+        finally {
+            _buf = _buffer;
+        }
+        _addStreamedBytes( buf.toByteArray() );
+    }
+
+    private void _addStreamedBytes( byte[] b ){
+        _streamed.add( b );
+        _streamed.add( null );
+        _streamedSize += b.length;
     }
     
     protected boolean handleSpecialObjects( String name , BSONObject o ){
@@ -88,6 +200,30 @@ class OutMessage extends BSONEncoder {
         if ( o == null )
             return false;
 
+        if ( o instanceof RawDBObject ){
+            RawDBObject raw = (RawDBObject)o;
+            if ( raw.size() > Bytes.MAX_OBJECT_SIZE )
+                throw new IllegalArgumentException( "object too big: " + raw.size() );
+            if ( name != null )
+                _put( OBJECT , name );
+            raw.pipe( _buf );
+            return true;
+        }
+
+        if ( o instanceof LazyDBObject ){
+            if ( name != null )
+                _put( OBJECT , name );
+            ((LazyDBObject)o).pipe( _buf );
+            return true;
+        }
+
+        if ( o instanceof LazyDBList ){
+            if ( name != null )
+                _put( ARRAY , name );
+            ((LazyDBList)o).pipe( _buf );
+            return true;
+        }
+
         if ( o instanceof DBCollection ){
             DBCollection c = (DBCollection)o;
             putDBPointer( name , c.getName() , Bytes.COLLECTION_REF_ID );
@@ -142,16 +278,68 @@ class OutMessage extends BSONEncoder {
     void pipe( OutputStream out )
         throws IOException {
         _buffer.pipe( out );
+        if ( _streamed == null )
+            return;
+
+        for ( int i=0; i<_streamed.size(); i+=2 ){
+            final Object o = _streamed.get( i );
+            if ( o instanceof byte[] ){
+                out.write( (byte[])o );
+                continue;
+            }
+
+            final SizingOutputBuffer sizes = (SizingOutputBuffer)_streamed.get( i + 1 );
+            final StreamingOutputBuffer stream = new StreamingOutputBuffer( out , sizes );
+            _buf = stream;
+            try {
+                super.putObject( (BSONObject)o );
+                stream.finish();
+            }
+            catch ( StreamingOutputBuffer.StreamException se ){
+                throw se.getIOException();
+            }
+            finally {
+                _buf = _buffer;
+                stream.release();
+            }
+
+            if ( stream.size() != sizes.size() )
+                throw new IllegalStateException( "object changed while being sent" );
+        }
     }
 
     int size(){
-        return _buffer.size();
+        return _buffer.size() + _streamedSize;
+    }
+
+    /**
+     * @return true if part of this message is encoded while it's sent
+     */
+    boolean isStreamed(){
+        return _streamed != null;
     }
 
     byte[] toByteArray(){
-        return _buffer.toByteArray();
+        if ( _streamed == null )
+            return _buffer.toByteArray();
+
+        try {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream( size() );
+            pipe( bout );
+            return bout.toByteArray();
+        }
+        catch ( IOException ioe ){
+            throw new RuntimeException( "should be impossible" , ioe );
+        }
     }
     
     private PoolOutputBuffer _buffer = new PoolOutputBuffer();
     private int _id;
+
+    /**
+     * pairs of object and its sizes, or bytes and null, to send after the buffer
+     */
+    private List<Object> _streamed;
+    private int _streamedSize;
+    private DecodeOptions _decode = DecodeOptions.DEFAULT;
 }
@@ -0,0 +1,392 @@
+// ParallelScan.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.bson.types.*;
+
+/** Splits a query into ranges of an indexed key so the ranges can be read at the same time,
+ * each with its own cursor, thread and connection.
+ * <blockquote><pre>
+ * collection.parallelScan( query , 8 ).run( new ParallelScan.Handler(){
+ *         public void handle( int partition , DBObject o ){
+ *             ...
+ *         }
+ *     } , 8 );
+ * </pre></blockquote>
+ * <p>Split points come from the smallest and largest values of the key when they're
+ * <code>ObjectId</code>s (by their timestamps), numbers or dates, otherwise from
+ * skipping through the index.  Ranges are even in key space, not in number of documents,
+ * so data that isn't spread evenly gives uneven partitions.</p>
+ * <p>Split points all have the same BSON type, and range queries only match values of their own
+ * type.  So when there are split points, one more partition after the ranges gets the documents
+ * where the key is missing, null or of another type, and every document the query matches is in
+ * exactly one partition.  That partition's query isn't an index range, so the server looks at
+ * every document the rest of the query matches to find them, however few there are.</p>
+ * <p>The split key should be indexed, shouldn't hold arrays, and the query can't have its own
+ * condition on it.</p>
+ */
+public class ParallelScan {
+
+    /**
+     * Gets every document of a partition, called from that partition's thread.
+     */
+    public interface Handler {
+        public void handle( int partition , DBObject o );
+    }
+
+    ParallelScan( DBCollection collection , DBObject query , DBObject fields , String key , int numPartitions ){
+        if ( numPartitions < 1 )
+            throw new IllegalArgumentException( "need at least 1 partition, not: " + numPartitions );
+        if ( query != null && query.containsField( key ) )
+            throw new IllegalArgumentException( "query can't have its own condition on the split key [" + key + "]" );
+
+        _collection = collection;
+        _query = query == null ? new BasicDBObject() : query;
+        _fields = fields;
+        _key = key;
+        _numWanted = numPartitions;
+    }
+
+    /**
+     * @return the values the ranges start at, in order.  the first range has no lower bound,
+     *         so there's one fewer than the number of ranges.
+     */
+    public synchronized List<Object> getSplitPoints()
+        throws MongoException {
+        if ( _splits == null )
+            _splits = Collections.unmodifiableList( _findSplits() );
+        return _splits;
+    }
+
+    /**
+     * @return the number of partitions: the ranges, which are fewer than asked for when the key doesn't
+     *         have enough values, and when there's more than one the last partition for everything else
+     */
+    public int numPartitions()
+        throws MongoException {
+        final int splits = getSplitPoints().size();
+        return splits == 0 ? 1 : splits + 2;
+    }
+
+    /**
+     * @return the query for one partition
+     */
+    public DBObject getPartitionQuery( int partition )
+        throws MongoException {
+        final List<Object> splits = getSplitPoints();
+        final int num = numPartitions();
+        if ( partition < 0 || partition >= num )
+            throw new IndexOutOfBoundsException( "partition: " + partition + " num: " + num );
+
+        BasicDBObject q = new BasicDBObject();
+        q.putAll( _query );
+        if ( splits.size() == 0 )
+            return q;
+
+        if ( partition == num - 1 ){
+            // whatever no range matches: a value of the splits' type is either below the first one or not
+            List<Object> nor = new ArrayList<Object>();
+            if ( q.get( "$nor" ) instanceof List )
+                nor.addAll( (List)q.get( "$nor" ) );
+            nor.add( new BasicDBObject( _key , new BasicDBObject( "$lt" , splits.get( 0 ) ) ) );
+            nor.add( new BasicDBObject( _key , new BasicDBObject( "$gte" , splits.get( 0 ) ) ) );
+            q.put( "$nor" , nor );
+            return q;
+        }
+
+        BasicDBObject range = new BasicDBObject();
+        if ( partition > 0 )
+            range.put( "$gte" , splits.get( partition - 1 ) );
+        if ( partition < splits.size() )
+            range.put( "$lt" , splits.get( partition ) );
+        q.put( _key , range );
+        return q;
+    }
+
+    /**
+     * @return a new cursor over one partition
+     */
+    public DBCursor getPartition( int partition )
+        throws MongoException {
+        return _collection.find( getPartitionQuery( partition ) , _fields );
+    }
+
+    /**
+     * @return a new cursor for each partition, to iterate however the caller likes
+     */
+    public List<DBCursor> getPartitions()
+        throws MongoException {
+        List<DBCursor> l = new ArrayList<DBCursor>();
+        for ( int i=0; i<numPartitions(); i++ )
+            l.add( getPartition( i ) );
+        return l;
+    }
+
+    /**
+     * runs every partition with one thread per partition
+     * @return the number of documents handled
+     */
+    public long run( Handler handler )
+        throws MongoException {
+        return run( handler , numPartitions() );
+    }
+
+    /**
+     * Reads each partition on one of <code>numThreads</code> threads and passes its documents
+     * to <code>handler</code>.  If a partition fails the others are stopped, and the error is
+     * thrown once they have.
+     * @return the number of documents handled
+     */
+    public long run( final Handler handler , int numThreads )
+        throws MongoException {
+        final int num = numPartitions();
+        final AtomicBoolean stop = new AtomicBoolean( false );
+        final AtomicLong total = new AtomicLong();
+        final DBCursor[] cursors = new DBCursor[num];
+        for ( int i=0; i<num; i++ )
+            cursors[i] = getPartition( i );
+
+        ExecutorService pool = Executors.newFixedThreadPool( Math.max( 1 , Math.min( numThreads , num ) ) , new ThreadFactory(){
+                public Thread newThread( Runnable r ){
+                    Thread t = new Thread( r , "MongoScan-" + _collection.getFullName() + "-" + _numThreads++ );
+                    t.setDaemon( true );
+                    return t;
+                }
+                private int _numThreads = 0;
+            } );
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for ( int i=0; i<num; i++ ){
+                final int partition = i;
+                futures.add( pool.submit( new Runnable(){
+                        public void run(){
+                            final DBCursor c = cursors[partition];
+                            try {
+                                while ( ! stop.get() && c.hasNext() ){
+                                    handler.handle( partition , c.next() );
+                                    total.incrementAndGet();
+                                }
+                            }
+                            catch ( RuntimeException e ){
+                                stop.set( true );
+                                throw e;
+                            }
+                            catch ( Error e ){
+                                stop.set( true );
+                                throw e;
+                            }
+                            finally {
+                                c.close();
+                            }
+                        }
+                    } ) );
+            }
+
+            Throwable error = null;
+            for ( Future<?> f : futures ){
+                try {
+                    f.get();
+                }
+                catch ( ExecutionException ee ){
+                    if ( error == null )
+                        error = ee.getCause();
+                }
+            }
+
+            if ( error instanceof RuntimeException )
+                throw (RuntimeException)error;
+            if ( error instanceof Error )
+                throw (Error)error;
+            if ( error != null )
+                throw new MongoException( "parallel scan failed" , error );
+            return total.get();
+        }
+        catch ( InterruptedException ie ){
+            stop.set( true );
+            Thread.currentThread().interrupt();
+            throw new MongoInternalException( "interrupted during parallel scan" , ie );
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    // ---- finding split points ----
+
+    List<Object> _findSplits()
+        throws MongoException {
+        if ( _numWanted == 1 )
+            return new ArrayList<Object>();
+
+        final Object min = _end( 1 );
+        final Object max = _end( -1 );
+        if ( min == null || max == null )
+            return new ArrayList<Object>();
+
+        List<Object> splits = interpolate( min , max , _numWanted );
+        if ( splits == null )
+            splits = _sample();
+        return splits;
+    }
+
+    /**
+     * @return the smallest value of the key for 1, the largest for -1, leaving out null and missing
+     */
+    Object _end( int direction )
+        throws MongoException {
+        BasicDBObject q = new BasicDBObject();
+        q.putAll( _query );
+        q.put( _key , new BasicDBObject( "$ne" , null ) );
+        DBCursor c = _collection.find( q , new BasicDBObject( _key , 1 ) ).sort( new BasicDBObject( _key , direction ) ).limit( -1 );
+        if ( ! c.hasNext() )
+            return null;
+        return c.next().get( _key );
+    }
+
+    /**
+     * split points found by skipping through the key's index in order
+     */
+    List<Object> _sample()
+        throws MongoException {
+        final long count = _collection.count( _query );
+        List<Object> splits = new ArrayList<Object>();
+        for ( int i=1; i<_numWanted; i++ ){
+            final int skip = (int)( count * i / _numWanted );
+            DBCursor c = _collection.find( _query , new BasicDBObject( _key , 1 ) ).sort( new BasicDBObject( _key , 1 ) ).skip( skip ).limit( -1 );
+            if ( ! c.hasNext() )
+                break;
+            _addSplit( splits , c.next().get( _key ) );
+        }
+        return splits;
+    }
+
+    /**
+     * @return evenly spaced split points between <code>min</code> and <code>max</code>,
+     *         or null if the type can't be interpolated
+     */
+    static List<Object> interpolate( Object min , Object max , int num ){
+        List<Object> splits = new ArrayList<Object>();
+
+        if ( min instanceof ObjectId && max instanceof ObjectId ){
+            // ids sort by time first, and an id with a 0 machine and inc comes before everything else from that second
+            final long lo = ((ObjectId)min).getTime() / 1000;
+            final long hi = ((ObjectId)max).getTime() / 1000;
+            for ( int i=1; i<num; i++ ){
+                final long t = lo + ( hi - lo ) * i / num;
+                if ( t > lo )
+                    _addSplit( splits , new ObjectId( new Date( t * 1000 ) , 0 , 0 ) );
+            }
+            return splits;
+        }
+
+        if ( _integral( min ) && _integral( max ) ){
+            final long lo = ((Number)min).longValue();
+            final long hi = ((Number)max).longValue();
+            for ( int i=1; i<num; i++ ){
+                final long x = lo + (long)( ( (double)hi - lo ) * i / num );
+                if ( x > lo )
+                    _addSplit( splits , _sameType( min , max , x ) );
+            }
+            return splits;
+        }
+
+        if ( min instanceof Number && max instanceof Number ){
+            final double lo = ((Number)min).doubleValue();
+            final double hi = ((Number)max).doubleValue();
+            for ( int i=1; i<num; i++ ){
+                final double x = lo + ( hi - lo ) * i / num;
+                if ( x > lo )
+                    _addSplit( splits , x );
+            }
+            return splits;
+        }
+
+        if ( min instanceof Date && max instanceof Date ){
+            final long lo = ((Date)min).getTime();
+            final long hi = ((Date)max).getTime();
+            for ( int i=1; i<num; i++ ){
+                final long x = lo + ( hi - lo ) * i / num;
+                if ( x > lo )
+                    _addSplit( splits , new Date( x ) );
+            }
+            return splits;
+        }
+
+        return null;
+    }
+
+    static boolean _integral( Object o ){
+        return o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte;
+    }
+
+    /**
+     * ints stay ints so the query matches the same way the stored values do
+     */
+    static Object _sameType( Object min , Object max , long x ){
+        if ( min instanceof Long || max instanceof Long )
+            return x;
+        return (int)x;
+    }
+
+    /**
+     * keeps split points to one type that ranges work on, since a range between two types matches nothing
+     */
+    static void _addSplit( List<Object> splits , Object o ){
+        final int type = _type( o );
+        if ( type < 0 )
+            return;
+        if ( splits.size() == 0 ){
+            splits.add( o );
+            return;
+        }
+        final Object last = splits.get( splits.size() - 1 );
+        if ( _type( last ) == type && ! last.equals( o ) )
+            splits.add( o );
+    }
+
+    /**
+     * @return which values compare with each other in a range query, -1 for ones not worth splitting on
+     */
+    static int _type( Object o ){
+        if ( o instanceof Number )
+            return 1;
+        if ( o instanceof String )
+            return 2;
+        if ( o instanceof ObjectId )
+            return 3;
+        if ( o instanceof Boolean )
+            return 4;
+        if ( o instanceof Date )
+            return 5;
+        return -1;
+    }
+
+    final DBCollection _collection;
+    final DBObject _query;
+    final DBObject _fields;
+    final String _key;
+    final int _numWanted;
+
+    private List<Object> _splits;
+}
@@ -22,6 +22,7 @@ import java.nio.*;
 import java.util.*;
 
 import org.bson.*;
+import org.bson.io.*;
 import org.bson.types.*;
 
 import static com.mongodb.Bytes.*;
@@ -31,21 +32,67 @@ import com.mongodb.util.*;
 /** This object wraps the binary object format ("BSON") used for the transport of serialized objects 
    to / from the Mongo database.
 
+   A RawDBObject can be passed anywhere a DBObject is accepted for writing (insert, update, 
+   find query).  Its bytes are copied into the message as-is, without going through the encoder.
+
    http://www.mongodb.org/display/DOCS/BSON
 */
 public class RawDBObject implements DBObject {
 
     static boolean DEBUG = Boolean.getBoolean( "DEBUG.DBJSO" );
 
-    RawDBObject( ByteBuffer buf ){
+    /**
+     * @param b a complete BSON document
+     */
+    public RawDBObject( byte[] b ){
+        this( ByteBuffer.wrap( b ) );
+    }
+
+    /**
+     * @param buf a complete BSON document starting at index 0 and ending at the limit
+     */
+    public RawDBObject( ByteBuffer buf ){
         this( buf , 0 );
         assertEquals( _end , _buf.limit() );
     }
     
     RawDBObject( ByteBuffer buf , int offset ){
-        _buf = buf;
+        _buf = buf.order() == ORDER ? buf : buf.duplicate().order( ORDER );
         _offset = offset;
         _end = _buf.getInt( _offset );
+        
+        if ( _end < 5 || _offset + _end > _buf.limit() || _buf.get( _offset + _end - 1 ) != EOO )
+            throw new IllegalArgumentException( "not a valid BSON object.  size: " + _end + " available: " + ( _buf.limit() - _offset ) );
+    }
+
+    /**
+     * @return size of the encoded object in bytes
+     */
+    public int size(){
+        return _end;
+    }
+
+    /**
+     * copies the encoded object into <code>out</code> without re-encoding it
+     * @return bytes written
+     */
+    int pipe( OutputBuffer out ){
+        if ( _buf.hasArray() ){
+            out.write( _buf.array() , _buf.arrayOffset() + _offset , _end );
+            return _end;
+        }
+
+        ByteBuffer b = _buf.duplicate();
+        b.position( _offset );
+        b.limit( _offset + _end );
+        
+        byte[] temp = new byte[ Math.min( _end , 1024 ) ];
+        while ( b.hasRemaining() ){
+            int len = Math.min( temp.length , b.remaining() );
+            b.get( temp , 0 , len );
+            out.write( temp , 0 , len );
+        }
+        return _end;
     }
 
     public Object get( String key ){
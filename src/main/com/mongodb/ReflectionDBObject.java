@@ -19,13 +19,14 @@
 package com.mongodb;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.lang.reflect.*;
 
 import org.bson.*;
 
 import com.mongodb.util.*;
 
-public abstract class ReflectionDBObject implements DBObject {
+public abstract class ReflectionDBObject implements DBObject , IndexedBSONObject {
     
     public Object get( String key ){
         return getWrapper().get( this , key );
@@ -92,6 +93,30 @@ public abstract class ReflectionDBObject implements DBObject {
         throw new RuntimeException( "can't remove from a ReflectionDBObject" );
     }
 
+    /**
+     * @return true unless a subclass changes how fields are found, in which case encoders go through
+     *         keySet and get so they see the same thing
+     */
+    public boolean isIndexed(){
+        return getWrapper()._indexed;
+    }
+
+    public int numFields(){
+        return getWrapper().size();
+    }
+
+    public int fieldIndex( String name ){
+        return getWrapper().indexOf( name );
+    }
+
+    public String fieldName( int i ){
+        return getWrapper().getName( i );
+    }
+
+    public Object fieldValue( int i ){
+        return getWrapper().get( this , i );
+    }
+
     JavaWrapper getWrapper(){
         if ( _wrapper != null )
             return _wrapper;
@@ -103,12 +128,17 @@ public abstract class ReflectionDBObject implements DBObject {
     JavaWrapper _wrapper;
     Object _id;
 
+    /**
+     * The getters and setters of a class, found once.
+     * Fields are kept in a flat table sorted by name, so they can be walked by index
+     * and looking one up by name is a single hash lookup.
+     */
     public static class JavaWrapper {
         JavaWrapper( Class c ){
             _class = c;
             _name = c.getName();
 
-            _fields = new TreeMap<String,FieldInfo>();
+            Map<String,FieldInfo> fields = new TreeMap<String,FieldInfo>();
             for ( Method m : c.getMethods() ){
                 if ( ! ( m.getName().startsWith( "get" ) || m.getName().startsWith( "set" ) ) )
                     continue;
@@ -119,10 +149,10 @@ public abstract class ReflectionDBObject implements DBObject {
 
                 Class type = m.getName().startsWith( "get" ) ? m.getReturnType() : m.getParameterTypes()[0];
 
-                FieldInfo fi = _fields.get( name );
+                FieldInfo fi = fields.get( name );
                 if ( fi == null ){
                     fi = new FieldInfo( name , type );
-                    _fields.put( name , fi );
+                    fields.put( name , fi );
                 }
                 
                 if ( m.getName().startsWith( "get" ) )
@@ -131,12 +161,56 @@ public abstract class ReflectionDBObject implements DBObject {
                     fi._setter = m;
             }
 
-            Set<String> names = new HashSet<String>( _fields.keySet() );
-            for ( String name : names )
-                if ( ! _fields.get( name ).ok() )
-                    _fields.remove( name );
-            
-            _keys = Collections.unmodifiableSet( _fields.keySet() );
+            List<FieldInfo> ok = new ArrayList<FieldInfo>();
+            for ( FieldInfo fi : fields.values() )
+                if ( fi.ok() )
+                    ok.add( fi );
+
+            final int num = ok.size();
+            _names = new String[num];
+            _types = new Class[num];
+            _getters = new Method[num];
+            _setters = new Method[num];
+            _index = new HashMap<String,Integer>( num * 2 );
+
+            Set<String> keys = new LinkedHashSet<String>();
+            for ( int i=0; i<num; i++ ){
+                FieldInfo fi = ok.get( i );
+                _names[i] = fi._name;
+                _types[i] = fi._class;
+                _getters[i] = _accessible( fi._getter );
+                _setters[i] = _accessible( fi._setter );
+                _index.put( fi._name , i );
+                keys.add( fi._name );
+            }
+            _keys = Collections.unmodifiableSet( keys );
+            _indexed = _sameLookups( c );
+        }
+
+        /**
+         * @return true if <code>c</code> finds its fields with ReflectionDBObject's own methods
+         */
+        static boolean _sameLookups( Class c ){
+            try {
+                return 
+                    c.getMethod( "get" , String.class ).getDeclaringClass() == ReflectionDBObject.class &&
+                    c.getMethod( "keySet" ).getDeclaringClass() == ReflectionDBObject.class &&
+                    c.getMethod( "containsField" , String.class ).getDeclaringClass() == ReflectionDBObject.class;
+            }
+            catch ( NoSuchMethodException nsme ){
+                return false;
+            }
+        }
+
+        /**
+         * skips the access check on every invoke, when the security manager lets us
+         */
+        static Method _accessible( Method m ){
+            try {
+                m.setAccessible( true );
+            }
+            catch ( SecurityException se ){}
+            return m;
         }
 
         public Set<String> keySet(){
@@ -144,30 +218,57 @@ public abstract class ReflectionDBObject implements DBObject {
         }
 
         public boolean containsKey( String key ){
-            return _keys.contains( key );
+            return _index.containsKey( key );
+        }
+
+        /**
+         * @return number of fields
+         */
+        public int size(){
+            return _names.length;
+        }
+
+        /**
+         * @return position of <code>name</code> in the field table, -1 if there's no such field
+         */
+        public int indexOf( String name ){
+            Integer i = _index.get( name );
+            return i == null ? -1 : i;
+        }
+
+        public String getName( int i ){
+            return _names[i];
         }
 
         public Object get( ReflectionDBObject t , String name ){
-            FieldInfo i = _fields.get( name );
+            Integer i = _index.get( name );
             if ( i == null )
                 return null;
+            return get( t , i );
+        }
+
+        public Object get( ReflectionDBObject t , int i ){
             try {
-                return i._getter.invoke( t );
+                return _getters[i].invoke( t );
             }
             catch ( Exception e ){
-                throw new RuntimeException( "could not invoke getter for [" + name + "] on [" + _name + "]" , e );
+                throw new RuntimeException( "could not invoke getter for [" + _names[i] + "] on [" + _name + "]" , e );
             }
         }
 
         public Object set( ReflectionDBObject t , String name , Object val ){
-            FieldInfo i = _fields.get( name );
+            Integer i = _index.get( name );
             if ( i == null )
                 throw new IllegalArgumentException( "no field [" + name + "] on [" + _name + "]" );
+            return set( t , i , val );
+        }
+
+        public Object set( ReflectionDBObject t , int i , Object val ){
             try {
-                return i._setter.invoke( t , val );
+                return _setters[i].invoke( t , val );
             }
             catch ( Exception e ){
-                throw new RuntimeException( "could not invoke setter for [" + name + "] on [" + _name + "]" , e );
+                throw new RuntimeException( "could not invoke setter for [" + _names[i] + "] on [" + _name + "]" , e );
             }
         }
 
@@ -180,14 +281,14 @@ public abstract class ReflectionDBObject implements DBObject {
                 next = path.substring( idx + 1 );
             }
             
-            FieldInfo fi = _fields.get( cur );
-            if ( fi == null )
+            Integer i = _index.get( cur );
+            if ( i == null )
                 return null;
             
             if ( next == null )
-                return fi._class;
+                return _types[i];
             
-            JavaWrapper w = getWrapperIfReflectionObject( fi._class );
+            JavaWrapper w = getWrapperIfReflectionObject( _types[i] );
             if ( w == null )
                 return null;
             return w.getInternalClass( next );
@@ -195,8 +296,13 @@ public abstract class ReflectionDBObject implements DBObject {
         
         final Class _class;
         final String _name;
-        final Map<String,FieldInfo> _fields;
+        final String[] _names;
+        final Class[] _types;
+        final Method[] _getters;
+        final Method[] _setters;
+        final Map<String,Integer> _index;
         final Set<String> _keys;
+        final boolean _indexed;
     }
     
     static class FieldInfo {
@@ -227,12 +333,14 @@ public abstract class ReflectionDBObject implements DBObject {
         JavaWrapper w = _wrappers.get( c );
         if ( w == null ){
             w = new JavaWrapper( c );
-            _wrappers.put( c , w );
+            JavaWrapper old = _wrappers.putIfAbsent( c , w );
+            if ( old != null )
+                w = old;
         }
         return w;
     }
     
-    private static final Map<Class,JavaWrapper> _wrappers = Collections.synchronizedMap( new HashMap<Class,JavaWrapper>() );
+    private static final ConcurrentMap<Class,JavaWrapper> _wrappers = new ConcurrentHashMap<Class,JavaWrapper>();
     private static final Set<String> IGNORE_FIELDS = new HashSet<String>();
     static {
         IGNORE_FIELDS.add( "Int" );
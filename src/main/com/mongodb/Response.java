@@ -20,6 +20,8 @@ package com.mongodb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import org.bson.*;
 import org.bson.io.*;
@@ -28,6 +30,15 @@ class Response {
     
     Response( DBCollection collection ,  InputStream in )
         throws IOException {
+        this( collection , in , DecodeOptions.DEFAULT );
+    }
+
+    /**
+     * @param decode lazy keeps the reply's bytes and hands out {@link LazyDBObject}s over them
+     */
+    Response( DBCollection collection ,  InputStream in , DecodeOptions decode )
+        throws IOException {
+        final boolean lazy = decode._lazy;
         _collection = collection;
         
         byte[] b = new byte[16];
@@ -48,31 +59,76 @@ class Response {
         if ( _len > ( 32 * 1024 * 1024 ) )
             throw new IllegalArgumentException( "response too long: " + _len );
 
-        MyInputStream user = new MyInputStream( in , _len - 16 );
+        final int bodyLen = _len - 16;
+        if ( bodyLen < 20 )
+            throw new IOException( "response too short: " + _len );
 
-        _flags = Bits.readInt( user );
-        _cursor = Bits.readLong( user );
-        _startingFrom = Bits.readInt( user );
-        _num = Bits.readInt( user );
-        
-        if ( _num < 2 )
-            _objects = new LinkedList<DBObject>();
-        else
-            _objects = new ArrayList<DBObject>( _num );
+        // the whole reply is read at once and decoded from the array.
+        // lazy objects hold on to it, so then it can't come from the arena.
+        // big replies are only split up here and decoded as they're used,
+        // so the connection goes back to the pool without waiting for that
+        final boolean onDemand = ! lazy && bodyLen >= DECODE_ON_DEMAND_AFTER;
+        final byte[] body = lazy || onDemand ? new byte[bodyLen] : BufferArena.DEFAULT.get( bodyLen );
+        try {
+            Bits.readFully( in , body , 0 , bodyLen );
+
+            _flags = Bits.readInt( body , 0 );
+            _cursor = Bits.readLong( body , 4 );
+            _startingFrom = Bits.readInt( body , 12 );
+            _num = Bits.readInt( body , 16 );
 
-        DBCallback c = DBCallback.FACTORY.create( _collection );
-        BSONDecoder decoder = TL.get();
+            if ( onDemand ){
+                if ( _num < 0 || _num > bodyLen / 5 )
+                    throw new IOException( "bad number of objects: " + _num );
+                final int[] starts = new int[_num];
+                int pos = 20;
+                for ( int i=0; i<_num; i++ ){
+                    if ( bodyLen - pos < 5 )
+                        throw new IOException( "should have more obejcts, but only " + ( bodyLen - pos ) + " bytes left" );
+                    final int size = Bits.readInt( body , pos );
+                    if ( size < 5 || size > bodyLen - pos )
+                        throw new IOException( "bad object size: " + size );
+                    starts[i] = pos;
+                    pos += size;
+                }
+                if ( pos != bodyLen )
+                    throw new IOException( "finished reading objects but still have: " + ( bodyLen - pos ) + " bytes to read!' " );
+                _objects = new OnDemand( body , starts , decode._filter );
+                return;
+            }
         
-        for ( int i=0; i<_num; i++ ){
-            if ( user._toGo < 5 )
-                throw new IOException( "should have more obejcts, but only " + user._toGo + " bytes left" );
-            c.reset();
-            decoder.decode( user , c );
-            _objects.add( c.dbget() );
-        }
+            if ( _num < 2 )
+                _objects = new LinkedList<DBObject>();
+            else
+                _objects = new ArrayList<DBObject>( _num );
 
-        if ( user._toGo != 0 )
-            throw new IOException( "finished reading objects but still have: " + user._toGo + " bytes to read!' " );
+            DBCallback c = DBCallback.FACTORY.create( _collection );
+            BSONDecoder decoder = TL.get();
+            decoder.setFieldFilter( decode._filter );
+            
+            int pos = 20;
+            for ( int i=0; i<_num; i++ ){
+                if ( bodyLen - pos < 5 )
+                    throw new IOException( "should have more obejcts, but only " + ( bodyLen - pos ) + " bytes left" );
+                if ( lazy ){
+                    LazyDBObject o = new LazyDBObject( body , pos , _collection );
+                    pos += o.getBSONSize();
+                    _objects.add( o );
+                    continue;
+                }
+                c.reset();
+                pos += decoder.decode( body , pos , bodyLen - pos , c );
+                _objects.add( c.dbget() );
+            }
+
+            if ( pos != bodyLen )
+                throw new IOException( "finished reading objects but still have: " + ( bodyLen - pos ) + " bytes to read!' " );
+        }
+        finally {
+            TL.get().setFieldFilter( null );
+            if ( ! lazy && ! onDemand )
+                BufferArena.DEFAULT.done( body );
+        }
 
         if ( _num != _objects.size() )
             throw new RuntimeException( "something is really broken" );
@@ -90,6 +146,150 @@ class Response {
         return _objects.iterator();
     }
     
+    /**
+     * decodes whatever isn't yet, spread over {@link #DECODERS} when there's enough of it.
+     * for callers that are going to want every document anyway.
+     */
+    void decodeAll(){
+        if ( _objects instanceof OnDemand )
+            ((OnDemand)_objects).decodeAll();
+    }
+
+    /**
+     * the documents of a big reply, each decoded the first time it's asked for.
+     * <p>Safe to share between threads.  Each slot is filled once with a compare and set, so
+     * everyone gets the same object even if two threads decode it at the same time, and the
+     * bytes are only dropped once every slot has been filled.</p>
+     */
+    class OnDemand extends AbstractList<DBObject> {
+
+        OnDemand( byte[] body , int[] starts , FieldFilter filter ){
+            _body = body;
+            _starts = starts;
+            _filter = filter;
+            _decoded = new AtomicReferenceArray<DBObject>( starts.length );
+        }
+
+        public int size(){
+            return _starts.length;
+        }
+
+        public DBObject get( int i ){
+            final DBObject o = _decoded.get( i );
+            if ( o != null )
+                return o;
+
+            final byte[] body = _body;
+            if ( body == null ){
+                // the bytes only go once every slot is set
+                return _decoded.get( i );
+            }
+            if ( _set( i , _decode( body , i ) ) )
+                _done( 1 );
+            return _decoded.get( i );
+        }
+
+        DBObject _decode( byte[] body , int i ){
+            final DBCallback c = DBCallback.FACTORY.create( _collection );
+            final BSONDecoder decoder = TL.get();
+            decoder.setFieldFilter( _filter );
+            try {
+                decoder.decode( body , _starts[i] , body.length - _starts[i] , c );
+            }
+            finally {
+                decoder.setFieldFilter( null );
+            }
+            return c.dbget();
+        }
+
+        /**
+         * @return false if another thread got there first
+         */
+        boolean _set( int i , DBObject o ){
+            return _decoded.compareAndSet( i , null , o );
+        }
+
+        void _decode( byte[] body , int from , int to ){
+            int n = 0;
+            try {
+                for ( int i=from; i<to; i++ )
+                    if ( _decoded.get( i ) == null && _set( i , _decode( body , i ) ) )
+                        n++;
+            }
+            finally {
+                _done( n );
+            }
+        }
+
+        /**
+         * @param n more slots filled.  once they all are the bytes can go.
+         */
+        void _done( int n ){
+            if ( n > 0 && _numDecoded.addAndGet( n ) == _starts.length )
+                _body = null;
+        }
+
+        void decodeAll(){
+            final byte[] body = _body;
+            if ( body == null )
+                return;
+
+            int from = 0;
+            while ( from < _starts.length && _decoded.get( from ) != null )
+                from++;
+            final int left = _starts.length - from;
+
+            final int chunks = Math.min( DECODE_THREADS + 1 , left / PARALLEL_CHUNK );
+            if ( chunks < 2 ){
+                _decode( body , from , _starts.length );
+                return;
+            }
+
+            // this thread does the first chunk while the pool does the others
+            final int per = left / chunks;
+            final List<Future<?>> futures = new ArrayList<Future<?>>( chunks - 1 );
+            for ( int c=1; c<chunks; c++ ){
+                final int a = from + c * per;
+                final int b = c == chunks - 1 ? _starts.length : a + per;
+                futures.add( _decoders().submit( new Runnable(){
+                        public void run(){
+                            _decode( body , a , b );
+                        }
+                    } ) );
+            }
+
+            RuntimeException error = null;
+            try {
+                _decode( body , from , from + per );
+            }
+            catch ( RuntimeException re ){
+                error = re;
+            }
+
+            for ( Future<?> f : futures ){
+                try {
+                    f.get();
+                }
+                catch ( ExecutionException ee ){
+                    if ( error == null )
+                        error = ee.getCause() instanceof RuntimeException ? (RuntimeException)ee.getCause() : new MongoInternalException( "decoding failed" , ee.getCause() );
+                }
+                catch ( InterruptedException ie ){
+                    if ( error == null )
+                        error = new MongoInternalException( "interrupted while decoding" , ie );
+                }
+            }
+            if ( error != null )
+                throw error;
+        }
+
+        private volatile byte[] _body;
+        final AtomicInteger _numDecoded = new AtomicInteger();
+        final int[] _starts;
+        final FieldFilter _filter;
+        final AtomicReferenceArray<DBObject> _decoded;
+    }
+
     public boolean hasGetMore( int queryOptions ){
         if ( _cursor <= 0 )
             return false;
@@ -130,37 +330,6 @@ class Response {
         return new ServerError( obj );
     }
     
-    class MyInputStream extends InputStream {
-        MyInputStream( InputStream in , int max ){
-            _in = in;
-            _toGo = max;
-        }
-
-        public int available()
-            throws IOException {
-            return _in.available();
-        }
-
-        public int read()
-            throws IOException {
-
-            if ( _toGo <= 0 )
-                return -1;
-                
-            int val = _in.read();
-            _toGo--;
-            
-            return val;
-        }
-        
-        public void close(){
-            throw new RuntimeException( "can't close thos" );
-        }
-
-        final InputStream _in;
-        private int _toGo;
-    }
-
     public String toString(){
         return "flags:" + _flags + " _cursor:" + _cursor + " _startingFrom:" + _startingFrom + " _num:" + _num ;
     }
@@ -179,9 +348,57 @@ class Response {
     
     final List<DBObject> _objects;
 
+    /**
+     * if each thread's decoder keeps canonical strings for field names and short values,
+     * so a batch of similar documents doesn't hold a copy of every key per document, off unless asked for
+     */
+    static final boolean INTERN = Boolean.getBoolean( "MONGO.INTERN" );
+
+    /**
+     * if numeric arrays with only one type come back as {@link org.bson.types.PrimitiveBSONList}s, off unless asked for
+     */
+    static final boolean PRIMITIVE_ARRAYS = Boolean.getBoolean( "MONGO.PRIMITIVE.ARRAYS" );
+
+    /**
+     * replies at least this big are decoded a document at a time as they're used
+     */
+    static final int DECODE_ON_DEMAND_AFTER = Integer.getInteger( "MONGO.DECODE.ONDEMAND.AFTER" , 64 * 1024 );
+
+    /**
+     * threads {@link #decodeAll} can use besides the caller's
+     */
+    static final int DECODE_THREADS = Integer.getInteger( "MONGO.DECODE.THREADS" , Runtime.getRuntime().availableProcessors() - 1 );
+
+    /**
+     * fewest documents worth handing to another thread
+     */
+    static final int PARALLEL_CHUNK = 64;
+
+    private static ExecutorService _decoders;
+
+    static synchronized ExecutorService _decoders(){
+        if ( _decoders == null ){
+            _decoders = Executors.newFixedThreadPool( Math.max( 1 , DECODE_THREADS ) , new ThreadFactory(){
+                    public Thread newThread( Runnable r ){
+                        Thread t = new Thread( r , "MongoDecoder-" + _numDecoders++ );
+                        t.setDaemon( true );
+                        return t;
+                    }
+                    private int _numDecoders = 0;
+                } );
+        }
+        return _decoders;
+    }
+
     static ThreadLocal<BSONDecoder> TL = new ThreadLocal<BSONDecoder>(){
         protected BSONDecoder initialValue(){
-            return new BSONDecoder();
+            BSONDecoder d = new BSONDecoder();
+            if ( INTERN ){
+                d.setNameTable( new StringTable( 1024 , 64 ) );
+                d.setValueTable( new StringTable( 256 , 32 ) );
+            }
+            d.setPrimitiveArrays( PRIMITIVE_ARRAYS );
+            return d;
         }
     };
 }
@@ -0,0 +1,72 @@
+// TypedCursor.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+/** Results of a query decoded into instances of a Java class, see {@link DBCursor#as}.
+ * Each reply is kept as bytes and read with a {@link TypedDecoder}, so no DBObjects are built.
+ */
+public class TypedCursor<T> implements Iterator<T> , Iterable<T> {
+
+    TypedCursor( DBCursor cursor , TypedDecoder<T> decoder ){
+        _cursor = cursor;
+        _decoder = decoder;
+    }
+
+    public boolean hasNext(){
+        return _cursor.hasNext();
+    }
+
+    public T next(){
+        return _decoder.decode( _cursor.next() );
+    }
+
+    public void remove(){
+        throw new UnsupportedOperationException( "can't remove from a cursor" );
+    }
+
+    public Iterator<T> iterator(){
+        return this;
+    }
+
+    /**
+     * @return everything that's left, decoded
+     */
+    public List<T> toArray(){
+        List<T> all = new ArrayList<T>();
+        while ( hasNext() )
+            all.add( next() );
+        return all;
+    }
+
+    /**
+     * @return the cursor underneath, for things like {@link DBCursor#count}
+     */
+    public DBCursor getCursor(){
+        return _cursor;
+    }
+
+    public String toString(){
+        return "TypedCursor " + _decoder.getType().getName() + " " + _cursor;
+    }
+
+    final DBCursor _cursor;
+    final TypedDecoder<T> _decoder;
+}
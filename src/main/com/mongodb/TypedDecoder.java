@@ -0,0 +1,499 @@
+// TypedDecoder.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import org.bson.*;
+import org.bson.util.*;
+
+import static org.bson.BSON.*;
+
+/** Decodes BSON straight into instances of a plain Java class.
+ * Every non static, non transient field is set from the element with the same name,
+ * so there are no DBObjects, maps or <code>put</code> calls in between.
+ * Fields can be primitives, their wrappers, Strings, enums (by name), the usual BSON value types,
+ * other classes like this one, arrays, Collections and Maps with String keys.
+ * Elements without a field are skipped.
+ * <p>The field table for each class is built once and shared.  Classes need a no argument constructor,
+ * which doesn't have to be public.</p>
+ * <p>Usually used through {@link DBCursor#as}.</p>
+ */
+public class TypedDecoder<T> {
+
+    /**
+     * @return the shared decoder for <code>c</code>
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> TypedDecoder<T> get( Class<T> c ){
+        return (TypedDecoder<T>)_decoders.get( c );
+    }
+
+    TypedDecoder( Class<T> c ){
+        if ( c.isInterface() || Modifier.isAbstract( c.getModifiers() ) )
+            throw new IllegalArgumentException( "can't decode into " + c.getName() + ", it's abstract" );
+        _class = c;
+
+        try {
+            _constructor = c.getDeclaredConstructor();
+            _constructor.setAccessible( true );
+        }
+        catch ( NoSuchMethodException nsme ){
+            throw new IllegalArgumentException( c.getName() + " needs a no argument constructor" );
+        }
+
+        for ( Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass() ){
+            for ( Field f : k.getDeclaredFields() ){
+                final int mod = f.getModifiers();
+                if ( Modifier.isStatic( mod ) || Modifier.isTransient( mod ) || f.isSynthetic() )
+                    continue;
+                if ( _fields.containsKey( f.getName() ) )
+                    continue; // hidden by a subclass
+                f.setAccessible( true );
+                _fields.put( f.getName() , new Prop( f ) );
+            }
+        }
+    }
+
+    public Class<T> getType(){
+        return _class;
+    }
+
+    /**
+     * @param b a complete BSON document
+     */
+    public T decode( byte[] b ){
+        return decode( b , 0 , b.length );
+    }
+
+    public T decode( byte[] b , int offset , int len ){
+        BSONReader r = READER.get();
+        if ( r.getDepth() != 0 )
+            r = new BSONReader( b , offset , len ); // a constructor decoding something
+        else
+            r.reset( b , offset , len );
+
+        try {
+            return decode( r );
+        }
+        catch ( IOException ioe ){
+            throw new IllegalArgumentException( "not a complete BSON object" , ioe );
+        }
+        finally {
+            if ( r.getDepth() != 0 )
+                r.reset( EMPTY , 0 , 0 ); // left in the middle by an exception
+        }
+    }
+
+    /**
+     * decodes a result.  lazy ones are read from their bytes, others get encoded first.
+     */
+    public T decode( DBObject o ){
+        if ( o instanceof LazyDBObject ){
+            LazyDBObject l = (LazyDBObject)o;
+            return decode( l._bytes , l._offset , l._size );
+        }
+        return decode( BSON.encode( o ) );
+    }
+
+    /**
+     * reads the next document from <code>r</code>, which has to be between documents
+     */
+    public T decode( BSONReader r )
+        throws IOException {
+        if ( r.getDepth() != 0 )
+            throw new IllegalStateException( "reader is in the middle of a document" );
+        return _readFields( r , false );
+    }
+
+    /**
+     * reads elements into a new instance until the end of the current document
+     * @param nested step out of the document at the end
+     */
+    T _readFields( BSONReader r , boolean nested )
+        throws IOException {
+        final T o = _newInstance();
+        while ( r.nextElement() != EOO ){
+            final Prop p = _fields.get( r.getName() );
+            if ( p != null )
+                p.set( o , r );
+        }
+        if ( nested )
+            r.stepOut();
+        return o;
+    }
+
+    T _newInstance(){
+        try {
+            return _constructor.newInstance();
+        }
+        catch ( InvocationTargetException ite ){
+            throw new MongoInternalException( "can't instantiate a : " + _class , ite.getCause() );
+        }
+        catch ( Exception e ){
+            throw new MongoInternalException( "can't instantiate a : " + _class , e );
+        }
+    }
+
+    /**
+     * a field and how to read it
+     */
+    final class Prop {
+        Prop( Field f ){
+            _field = f;
+            _kind = Kind.of( f.getGenericType() );
+        }
+
+        void set( final Object o , final BSONReader r )
+            throws IOException {
+            final byte type = r.getType();
+            try {
+                if ( _kind._primitive ){
+                    if ( type == NULL || type == UNDEFINED )
+                        return; // leave the default
+                    switch ( _kind._code ){
+                    case Kind.INT:
+                        _field.setInt( o , type == NUMBER_INT ? r.readInt() : _number( r ).intValue() );
+                        return;
+                    case Kind.LONG:
+                        _field.setLong( o , type == NUMBER_LONG ? r.readLong() : _number( r ).longValue() );
+                        return;
+                    case Kind.DOUBLE:
+                        _field.setDouble( o , type == NUMBER ? r.readDouble() : _number( r ).doubleValue() );
+                        return;
+                    case Kind.FLOAT:
+                        _field.setFloat( o , _number( r ).floatValue() );
+                        return;
+                    case Kind.SHORT:
+                        _field.setShort( o , _number( r ).shortValue() );
+                        return;
+                    case Kind.BYTE:
+                        _field.setByte( o , _number( r ).byteValue() );
+                        return;
+                    case Kind.BOOLEAN:
+                        _field.setBoolean( o , type == BOOLEAN ? r.readBoolean() : _number( r ).intValue() != 0 );
+                        return;
+                    }
+                }
+                _field.set( o , _kind.read( r ) );
+            }
+            catch ( IllegalAccessException iae ){
+                throw new MongoInternalException( "can't set " + _field , iae );
+            }
+            catch ( IllegalStateException ise ){
+                throw new IllegalArgumentException( "can't put BSON type " + type + " in " + _field , ise );
+            }
+        }
+
+        final Field _field;
+        final Kind _kind;
+    }
+
+    static Number _number( BSONReader r )
+        throws IOException {
+        if ( r.getType() == BOOLEAN )
+            return r.readBoolean() ? 1 : 0;
+        return r.readNumber();
+    }
+
+    /**
+     * what a java type is read as, worked out once per field
+     */
+    static final class Kind {
+
+        static final int ANY = 0;
+        static final int INT = 1;
+        static final int LONG = 2;
+        static final int DOUBLE = 3;
+        static final int FLOAT = 4;
+        static final int SHORT = 5;
+        static final int BYTE = 6;
+        static final int BOOLEAN = 7;
+        static final int VALUE = 8;
+        static final int ENUM = 9;
+        static final int OBJECT = 10;
+        static final int COLLECTION = 11;
+        static final int ARRAY = 12;
+        static final int MAP = 13;
+
+        Kind( int code , Class<?> c , boolean primitive , Kind element ){
+            _code = code;
+            _class = c;
+            _primitive = primitive;
+            _element = element;
+
+            if ( code == ENUM ){
+                _constants = new HashMap<String,Object>();
+                for ( Object e : c.getEnumConstants() )
+                    _constants.put( ((Enum<?>)e).name() , e );
+            }
+            else {
+                _constants = null;
+            }
+        }
+
+        static Kind of( Type t ){
+            if ( t instanceof ParameterizedType ){
+                final ParameterizedType p = (ParameterizedType)t;
+                final Class<?> raw = (Class<?>)p.getRawType();
+                final Type[] args = p.getActualTypeArguments();
+                if ( Collection.class.isAssignableFrom( raw ) )
+                    return new Kind( COLLECTION , raw , false , of( args[0] ) );
+                if ( Map.class.isAssignableFrom( raw ) )
+                    return new Kind( MAP , raw , false , of( args[1] ) );
+                return of( raw );
+            }
+
+            if ( t instanceof GenericArrayType )
+                return _array( of( ((GenericArrayType)t).getGenericComponentType() ) );
+
+            if ( ! ( t instanceof Class ) )
+                return new Kind( ANY , Object.class , false , null ); // type variables and wildcards
+
+            final Class<?> c = (Class<?>)t;
+
+            if ( c.isPrimitive() ){
+                if ( c == Integer.TYPE ) return new Kind( INT , c , true , null );
+                if ( c == Long.TYPE ) return new Kind( LONG , c , true , null );
+                if ( c == Double.TYPE ) return new Kind( DOUBLE , c , true , null );
+                if ( c == Float.TYPE ) return new Kind( FLOAT , c , true , null );
+                if ( c == Short.TYPE ) return new Kind( SHORT , c , true , null );
+                if ( c == Byte.TYPE ) return new Kind( BYTE , c , true , null );
+                if ( c == Boolean.TYPE ) return new Kind( BOOLEAN , c , true , null );
+                throw new IllegalArgumentException( "can't decode " + c + " fields" );
+            }
+
+            if ( c == Integer.class ) return new Kind( INT , c , false , null );
+            if ( c == Long.class ) return new Kind( LONG , c , false , null );
+            if ( c == Double.class ) return new Kind( DOUBLE , c , false , null );
+            if ( c == Float.class ) return new Kind( FLOAT , c , false , null );
+            if ( c == Short.class ) return new Kind( SHORT , c , false , null );
+            if ( c == Byte.class ) return new Kind( BYTE , c , false , null );
+
+            if ( c.isEnum() )
+                return new Kind( ENUM , c , false , null );
+
+            if ( c == byte[].class )
+                return new Kind( VALUE , c , false , null );
+            if ( c.isArray() )
+                return _array( of( c.getComponentType() ) );
+
+            if ( c.isAssignableFrom( BasicDBObject.class ) || c.isAssignableFrom( BasicDBList.class ) )
+                return new Kind( ANY , c , false , null ); // Object, DBObject, Map, List ...
+            if ( Collection.class.isAssignableFrom( c ) )
+                return new Kind( COLLECTION , c , false , new Kind( ANY , Object.class , false , null ) );
+            if ( Map.class.isAssignableFrom( c ) )
+                return new Kind( MAP , c , false , new Kind( ANY , Object.class , false , null ) );
+
+            if ( c.getName().startsWith( "java." ) || c.getName().startsWith( "org.bson.types." ) )
+                return new Kind( VALUE , c , false , null ); // String, Boolean, Date, Pattern, UUID, ObjectId ...
+            return new Kind( OBJECT , c , false , null );
+        }
+
+        static Kind _array( Kind element ){
+            return new Kind( ARRAY , Array.newInstance( element._class , 0 ).getClass() , false , element );
+        }
+
+        Object read( final BSONReader r )
+            throws IOException {
+            final byte type = r.getType();
+            if ( type == NULL || type == UNDEFINED ){
+                r.skip();
+                return null;
+            }
+
+            switch ( _code ){
+            case INT: return _number( r ).intValue();
+            case LONG: return _number( r ).longValue();
+            case DOUBLE: return _number( r ).doubleValue();
+            case FLOAT: return _number( r ).floatValue();
+            case SHORT: return _number( r ).shortValue();
+            case BYTE: return _number( r ).byteValue();
+            case BOOLEAN: return type == BSON.BOOLEAN ? r.readBoolean() : _number( r ).intValue() != 0;
+
+            case ENUM: {
+                final String name = r.readString();
+                final Object e = _constants.get( name );
+                if ( e == null )
+                    throw new IllegalArgumentException( "no " + _class.getName() + " named " + name );
+                return e;
+            }
+
+            case VALUE: {
+                final Object v = r.readValue();
+                if ( ! _class.isInstance( v ) )
+                    throw new IllegalStateException( "wanted a " + _class.getName() + " but got a " + v.getClass().getName() );
+                return v;
+            }
+
+            case OBJECT:
+                _expect( r , BSON.OBJECT );
+                r.stepIn();
+                return _decoder()._readFields( r , true );
+
+            case COLLECTION: {
+                _expect( r , BSON.ARRAY );
+                final Collection<Object> c = _newCollection();
+                r.stepIn();
+                while ( r.nextElement() != EOO )
+                    c.add( _element.read( r ) );
+                r.stepOut();
+                return c;
+            }
+
+            case ARRAY: {
+                _expect( r , BSON.ARRAY );
+                final List<Object> l = new ArrayList<Object>();
+                r.stepIn();
+                while ( r.nextElement() != EOO )
+                    l.add( _element.read( r ) );
+                r.stepOut();
+                final Object a = Array.newInstance( _class.getComponentType() , l.size() );
+                for ( int i=0; i<l.size(); i++ ){
+                    final Object v = l.get( i );
+                    if ( v != null || ! _class.getComponentType().isPrimitive() )
+                        Array.set( a , i , v );
+                }
+                return a;
+            }
+
+            case MAP: {
+                _expect( r , BSON.OBJECT );
+                final Map<String,Object> m = _newMap();
+                r.stepIn();
+                while ( r.nextElement() != EOO )
+                    m.put( r.getName() , _element.read( r ) );
+                r.stepOut();
+                return m;
+            }
+            }
+
+            final Object v = readAny( r );
+            if ( ! _class.isInstance( v ) )
+                throw new IllegalStateException( "wanted a " + _class.getName() + " but got a " + v.getClass().getName() );
+            return v;
+        }
+
+        /**
+         * what a regular query would have given, with BasicDBObjects and BasicDBLists
+         */
+        static Object readAny( final BSONReader r )
+            throws IOException {
+            final byte type = r.getType();
+            if ( type != BSON.OBJECT && type != BSON.ARRAY )
+                return r.readValue();
+
+            final DBObject o = type == BSON.ARRAY ? new BasicDBList() : new BasicDBObject();
+            r.stepIn();
+            while ( r.nextElement() != EOO )
+                o.put( r.getName() , readAny( r ) );
+            r.stepOut();
+            return o;
+        }
+
+        static void _expect( BSONReader r , byte type ){
+            if ( r.getType() != type )
+                throw new IllegalStateException( "wanted BSON type " + type );
+        }
+
+        TypedDecoder<?> _decoder(){
+            TypedDecoder<?> d = _decoder;
+            if ( d == null ){
+                // not done up front, so classes can refer to themselves
+                d = TypedDecoder.get( _class );
+                _decoder = d;
+            }
+            return d;
+        }
+
+        @SuppressWarnings("unchecked")
+        Collection<Object> _newCollection(){
+            if ( _class.isInterface() || Modifier.isAbstract( _class.getModifiers() ) ){
+                if ( _class.isAssignableFrom( ArrayList.class ) )
+                    return new ArrayList<Object>();
+                if ( _class.isAssignableFrom( LinkedHashSet.class ) )
+                    return new LinkedHashSet<Object>();
+                if ( _class.isAssignableFrom( TreeSet.class ) )
+                    return new TreeSet<Object>();
+                throw new IllegalArgumentException( "don't know what kind of " + _class.getName() + " to make" );
+            }
+            return (Collection<Object>)_instantiate( _class );
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String,Object> _newMap(){
+            if ( _class.isInterface() || Modifier.isAbstract( _class.getModifiers() ) ){
+                if ( _class.isAssignableFrom( LinkedHashMap.class ) )
+                    return new LinkedHashMap<String,Object>();
+                if ( _class.isAssignableFrom( TreeMap.class ) )
+                    return new TreeMap<String,Object>();
+                throw new IllegalArgumentException( "don't know what kind of " + _class.getName() + " to make" );
+            }
+            return (Map<String,Object>)_instantiate( _class );
+        }
+
+        static Object _instantiate( Class<?> c ){
+            try {
+                return c.getDeclaredConstructor().newInstance();
+            }
+            catch ( InvocationTargetException ite ){
+                throw new MongoInternalException( "can't instantiate a : " + c , ite.getCause() );
+            }
+            catch ( Exception e ){
+                throw new MongoInternalException( "can't instantiate a : " + c , e );
+            }
+        }
+
+        final int _code;
+        final Class<?> _class;
+        final boolean _primitive;
+        final Kind _element;
+        final Map<String,Object> _constants; // enum constants by name
+        private volatile TypedDecoder<?> _decoder;
+    }
+
+    final Class<T> _class;
+    final Constructor<T> _constructor;
+    final Map<String,Prop> _fields = new HashMap<String,Prop>();
+
+    static final byte[] EMPTY = new byte[0];
+
+    static ThreadLocal<BSONReader> READER = new ThreadLocal<BSONReader>(){
+        protected BSONReader initialValue(){
+            BSONReader r = new BSONReader( EMPTY );
+            r.setNameTable( new StringTable( 1024 , 64 ) );
+            return r;
+        }
+    };
+
+    /**
+     * application classes are only held weakly, so this doesn't keep their class loader around
+     */
+    static final ClassCache<TypedDecoder<?>> _decoders = new ClassCache<TypedDecoder<?>>(){
+            protected TypedDecoder<?> compute( Class<?> c ){
+                return _create( c );
+            }
+        };
+
+    static <T> TypedDecoder<T> _create( Class<T> c ){
+        return new TypedDecoder<T>( c );
+    }
+}
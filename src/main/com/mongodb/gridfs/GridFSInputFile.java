@@ -19,6 +19,7 @@
 package com.mongodb.gridfs;
 
 import org.bson.*;
+import org.bson.io.*;
 import org.bson.types.*;
 
 import com.mongodb.*;
@@ -72,7 +73,8 @@ public class GridFSInputFile extends GridFSFile {
         if ( _saved )
             throw new RuntimeException( "already saved!" );
         
-        byte[] b = new byte[GridFS.DEFAULT_CHUNKSIZE];
+        final int chunkSize = GridFS.DEFAULT_CHUNKSIZE;
+        final byte[] b = BufferArena.DEFAULT.get( chunkSize );
 
         long total = 0;
         int cn = 0;
@@ -81,37 +83,42 @@ public class GridFSInputFile extends GridFSFile {
         md.reset();
         DigestInputStream in = new DigestInputStream( _in , md );
         
-        while ( true ){
-            int start =0;
-            
-            while ( start < b.length ){
-                int r = in.read( b , start , b.length - start );
-                if ( r == 0 )
-                    throw new RuntimeException( "i'm doing something wrong" );
-                if ( r < 0 )
+        try {
+            while ( true ){
+                int start =0;
+                
+                while ( start < chunkSize ){
+                    int r = in.read( b , start , chunkSize - start );
+                    if ( r == 0 )
+                        throw new RuntimeException( "i'm doing something wrong" );
+                    if ( r < 0 )
+                        break;
+                    start += r;
+                }
+                
+                total += start;
+                
+                byte[] mine = b;
+                
+                if ( start != b.length ){
+                    mine = new byte[start];
+                    System.arraycopy( b , 0 , mine , 0 , start );
+                }
+
+                DBObject chunk = BasicDBObjectBuilder.start()
+                    .add( "files_id" , _id )
+                    .add( "n" , cn++ )
+                    .add( "data" , mine )
+                    .get();
+                
+                _fs._chunkCollection.save( chunk );
+                
+                if ( start < chunkSize )
                     break;
-                start += r;
             }
-            
-            total += start;
-            
-            byte[] mine = b;
-            
-            if ( start != b.length ){
-                mine = new byte[start];
-                System.arraycopy( b , 0 , mine , 0 , start );
-            }
-
-            DBObject chunk = BasicDBObjectBuilder.start()
-                .add( "files_id" , _id )
-                .add( "n" , cn++ )
-                .add( "data" , mine )
-                .get();
-            
-            _fs._chunkCollection.save( chunk );
-            
-            if ( start < b.length )
-                break;
+        }
+        finally {
+            BufferArena.DEFAULT.done( b );
         }
         
         _md5 = Util.toHex( md.digest() );
@@ -0,0 +1,63 @@
+// ArenaByteBufferFactory.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb.io;
+
+import java.nio.*;
+
+import org.bson.io.*;
+
+/**
+ * ByteBuffers of one size from a {@link BufferArena}, heap or direct.
+ * Hand them back with {@link #done} so they can be reused.
+ */
+public class ArenaByteBufferFactory implements ByteBufferFactory {
+
+    public ArenaByteBufferFactory( int size , boolean direct ){
+        this( BufferArena.DEFAULT , size , direct );
+    }
+
+    public ArenaByteBufferFactory( BufferArena arena , int size , boolean direct ){
+        _arena = arena;
+        _size = size;
+        _direct = direct;
+    }
+
+    /**
+     * @return a cleared buffer with room for at least <code>size</code> bytes and its limit at <code>size</code>
+     */
+    public ByteBuffer get(){
+        if ( _direct )
+            return _arena.getDirect( _size );
+        ByteBuffer bb = ByteBuffer.wrap( _arena.get( _size ) );
+        bb.limit( _size );
+        return bb;
+    }
+
+    public void done( ByteBuffer bb ){
+        _arena.done( bb );
+    }
+
+    public BufferArena getArena(){
+        return _arena;
+    }
+
+    final BufferArena _arena;
+    final int _size;
+    final boolean _direct;
+}
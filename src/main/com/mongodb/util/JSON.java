@@ -87,7 +87,9 @@ public class JSON {
 
 
         if ( o instanceof ObjectId) {
-	    serialize(new BasicDBObject("$oid", o.toString()), buf);
+            buf.append( "{ \"$oid\" : \"" );
+            ((ObjectId)o).appendTo( buf );
+            buf.append( "\"}" );
             return;
         }
         
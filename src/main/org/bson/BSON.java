@@ -4,6 +4,7 @@ package org.bson;
 
 import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.*;
 
 import org.bson.util.*;
@@ -105,6 +106,31 @@ public class BSON {
         return buf.toString();
     }
 
+    /** Compiles a regular expression from the database.
+     * Patterns are immutable, so the compiled ones are kept in {@link #getPatternCache}
+     * and shared, instead of compiling the same one for every document.
+     * @param pattern the expression
+     * @param flags flags from database
+     */
+    public static Pattern compileRegex( String pattern , String flags ){
+        final String key = flags + "/" + pattern; // flags can't have a /
+        Pattern p = _patterns.get( key );
+        if ( p == null ){
+            p = Pattern.compile( pattern , regexFlags( flags ) );
+            _patterns.put( key , p );
+        }
+        return p;
+    }
+
+    /**
+     * @return the compiled patterns {@link #compileRegex} has kept
+     */
+    public static LRUCache<String,Pattern> getPatternCache(){
+        return _patterns;
+    }
+
+    private static final LRUCache<String,Pattern> _patterns = new LRUCache<String,Pattern>( Integer.getInteger( "MONGO.REGEX.CACHE" , 256 ) );
+
     private static enum RegexFlag { 
         CANON_EQ( Pattern.CANON_EQ, 'c', "Pattern.CANON_EQ" ),
         UNIX_LINES(Pattern.UNIX_LINES, 'd', "Pattern.UNIX_LINES" ),
@@ -154,6 +180,7 @@ public class BSON {
             _encodingHooks.put( c , l );
         }
         l.add( t );
+        _encodingHookCache.clear();
     }
     
     public static void addDecodingHook( Class c , Transformer t ){
@@ -172,10 +199,10 @@ public class BSON {
 
         if ( _encodingHooks.size() == 0 || o == null )
             return o;
-        List<Transformer> l = _encodingHooks.get( o.getClass() );
-        if ( l != null )
-            for ( Transformer t : l )
-                o = t.transform( o );
+
+        final Transformer[] hooks = _encodingHookCache.get( o.getClass() );
+        for ( int i=0; i<hooks.length; i++ )
+            o = hooks[i].transform( o );
         return o;
     }
 
@@ -194,15 +221,45 @@ public class BSON {
     public static void clearAllHooks(){
         _anyHooks = false;
         _encodingHooks.clear();
+        _encodingHookCache.clear();
         _decodingHooks.clear();
     }
 
-    private static boolean _anyHooks = false;
+    private static volatile boolean _anyHooks = false;
     static ClassMap<List<Transformer>> _encodingHooks = 
 	new ClassMap<List<Transformer>>();
         
     static ClassMap<List<Transformer>> _decodingHooks = 
         new ClassMap<List<Transformer>>();
+
+    /**
+     * encoding hooks by exact class, so applying them doesn't go through ClassMap's lock
+     */
+    static final ClassCache<Transformer[]> _encodingHookCache = new ClassCache<Transformer[]>(){
+            protected Transformer[] compute( Class<?> c ){
+                List<Transformer> l = _encodingHooks.get( c );
+                return l == null ? NO_HOOKS : l.toArray( new Transformer[l.size()] );
+            }
+        };
+    static final Transformer[] NO_HOOKS = new Transformer[0];
+
+    // --- value encoders -----
+
+    /**
+     * Registers how to write values of class <code>c</code> and its subclasses.
+     * These are checked before the built in types.
+     */
+    public static void addEncoder( Class c , ValueEncoder e ){
+        _encoders.put( c , e );
+        BSONEncoder._encoderCache.clear();
+    }
+
+    public static void removeEncoder( Class c ){
+        _encoders.remove( c );
+        BSONEncoder._encoderCache.clear();
+    }
+
+    static final ClassMap<ValueEncoder> _encoders = new ClassMap<ValueEncoder>();
     
     static protected Charset _utf8 = Charset.forName( "UTF-8" );
     
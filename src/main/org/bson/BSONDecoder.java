@@ -28,8 +28,17 @@ public class BSONDecoder {
     }
 
     public int decode( byte[] b , BSONCallback callback ){
+        return decode( b , 0 , b.length , callback );
+    }
+
+    /**
+     * decodes the object starting at <code>off</code>
+     * @param len bytes available from <code>off</code>, can be more than the object
+     * @return the size of the object
+     */
+    public int decode( byte[] b , int off , int len , BSONCallback callback ){
         try {
-            return decode( new Input( new ByteArrayInputStream(b) ) , callback );
+            return decode( new Input( b , off , len ) , callback );
         }
         catch ( IOException ioe ){
             throw new RuntimeException( "should be impossible" , ioe );
@@ -55,6 +64,7 @@ public class BSONDecoder {
             return decode();
         }
         finally {
+            in.release();
             _in = null;
             _callback = null;
         }
@@ -63,21 +73,227 @@ public class BSONDecoder {
     int decode()
         throws IOException {
 
-        final int start = _in._read;
-        
-        final int len = _in.readInt();
+        final int len = _in.start();
 
         _callback.objectStart();
-        while ( decodeElement() );
+        if ( _filter == null )
+            while ( decodeElement() );
+        else
+            while ( decodeFilteredElement() );
         _callback.objectDone();
         
-        final int read = _in._read - start;
+        return len;
+    }
+
+    /**
+     * @param filter which top level fields to decode, null for all of them
+     */
+    public void setFieldFilter( FieldFilter filter ){
+        _filter = filter;
+    }
+
+    public FieldFilter getFieldFilter(){
+        return _filter;
+    }
+
+    /**
+     * @param names canonical strings for field names, null to make new ones every time
+     */
+    public void setNameTable( StringTable names ){
+        _names = names;
+    }
+
+    public StringTable getNameTable(){
+        return _names;
+    }
+
+    /**
+     * @param values canonical strings for short string values, null to make new ones every time
+     */
+    public void setValueTable( StringTable values ){
+        _values = values;
+    }
+
+    public StringTable getValueTable(){
+        return _values;
+    }
+
+    /**
+     * @param on if arrays that are all ints, all longs or all doubles should come back as
+     *           {@link PrimitiveBSONList}s through {@link PrimitiveArrayCallback#gotPrimitiveArray},
+     *           instead of an element at a time.  decoding hooks aren't applied to their elements.
+     *           callbacks that don't implement {@link PrimitiveArrayCallback} always get elements.
+     */
+    public void setPrimitiveArrays( boolean on ){
+        _primitiveArrays = on;
+    }
+
+    public boolean getPrimitiveArrays(){
+        return _primitiveArrays;
+    }
 
-        if ( read != len ){
-            //throw new IllegalArgumentException( "bad data.  lengths don't match " + read + " != " + len );
+    /**
+     * if the array at the current position has only one numeric type, reads all of it
+     * into a primitive array.  one pass to check and count, one to fill.
+     * element names are skipped, not checked.
+     * @return false, having read nothing, if it's empty or mixed
+     */
+    boolean _primitiveArray( String name ){
+        final Input in = _in;
+        in._need( 5 );
+
+        final byte[] b = in._data;
+        final int start = in._pos;
+        final int end = start + Bits.readInt( b , start ) - 1; // the EOO
+        if ( end <= start + 4 || end >= in._end || b[end] != EOO )
+            return false; // empty, or let the regular path complain
+
+        final byte type = b[start+4];
+        final int width;
+        switch ( type ){
+        case NUMBER_INT:
+            width = 4;
+            break;
+        case NUMBER_LONG:
+        case NUMBER:
+            width = 8;
+            break;
+        default:
+            return false;
         }
 
-        return len;
+        int num = 0;
+        int pos = start + 4;
+        while ( pos < end ){
+            if ( b[pos] != type )
+                return false;
+            pos++;
+            while ( pos < end && b[pos] != 0 )
+                pos++;
+            pos += 1 + width;
+            num++;
+        }
+        if ( pos != end )
+            return false;
+
+        pos = start + 4;
+        final PrimitiveBSONList list;
+        switch ( type ){
+        case NUMBER_INT: {
+            final int[] a = new int[num];
+            for ( int i=0; i<num; i++ ){
+                pos = _skipName( b , pos );
+                a[i] = Bits.readInt( b , pos );
+                pos += 4;
+            }
+            list = new PrimitiveBSONList.Ints( a );
+            break;
+        }
+        case NUMBER_LONG: {
+            final long[] a = new long[num];
+            for ( int i=0; i<num; i++ ){
+                pos = _skipName( b , pos );
+                a[i] = Bits.readLong( b , pos );
+                pos += 8;
+            }
+            list = new PrimitiveBSONList.Longs( a );
+            break;
+        }
+        default: {
+            final double[] a = new double[num];
+            for ( int i=0; i<num; i++ ){
+                pos = _skipName( b , pos );
+                a[i] = Double.longBitsToDouble( Bits.readLong( b , pos ) );
+                pos += 8;
+            }
+            list = new PrimitiveBSONList.Doubles( a );
+        }
+        }
+
+        in._pos = end + 1;
+        ((PrimitiveArrayCallback)_callback).gotPrimitiveArray( name , list );
+        return true;
+    }
+
+    /**
+     * @param pos the type byte of an element
+     * @return where its value starts
+     */
+    static int _skipName( final byte[] b , int pos ){
+        pos++;
+        while ( b[pos] != 0 )
+            pos++;
+        return pos + 1;
+    }
+
+    /**
+     * a top level element.  if the filter doesn't want it, it's skipped
+     * without making its name or value
+     */
+    boolean decodeFilteredElement()
+        throws IOException {
+        final Input in = _in;
+        final int start = in._pos;
+
+        final byte type = in.read();
+        if ( type == EOO )
+            return false;
+
+        final int nameStart = in._pos;
+        in.skipCStr();
+
+        if ( _filter.accept( in._data , nameStart , in._pos - nameStart - 1 ) ){
+            in._pos = start;
+            return decodeElement();
+        }
+
+        in.skip( valueSize( type , in._data , in._pos ) );
+        return true;
+    }
+
+    /**
+     * @param pos where the value starts
+     * @return how many bytes a value of type <code>type</code> at <code>pos</code> takes
+     */
+    public static int valueSize( final byte type , final byte[] b , final int pos ){
+        switch ( type ){
+        case MAXKEY:
+        case MINKEY:
+        case UNDEFINED:
+        case NULL:
+            return 0;
+        case BOOLEAN:
+            return 1;
+        case NUMBER_INT:
+            return 4;
+        case DATE:
+        case NUMBER:
+        case NUMBER_LONG:
+        case TIMESTAMP:
+            return 8;
+        case OID:
+            return 12;
+        case REF:
+            return 4 + Bits.readInt( b , pos ) + 12;
+        case SYMBOL:
+        case CODE:
+        case STRING:
+            return 4 + Bits.readInt( b , pos );
+        case CODE_W_SCOPE:
+        case ARRAY:
+        case OBJECT:
+            return Bits.readInt( b , pos );
+        case BINARY:
+            return 4 + 1 + Bits.readInt( b , pos );
+        case REGEX: {
+            int n = pos;
+            while ( b[n] != 0 ) n++;
+            n++;
+            while ( b[n] != 0 ) n++;
+            return n + 1 - pos;
+        }
+        }
+        throw new IllegalArgumentException( "can't size type " + type );
     }
     
     boolean decodeElement()
@@ -87,7 +303,7 @@ public class BSONDecoder {
         if ( type == EOO )
             return false;
         
-        String name = _in.readCStr();
+        String name = _in.readName();
         
         switch ( type ){
         case NULL:
@@ -118,24 +334,11 @@ public class BSONDecoder {
         case SYMBOL:
             // intentional fallthrough
         case STRING:
-            int size = _in.readInt();
-            if ( size < 0 || size > ( 3 * 1024 * 1024 ) )
-                throw new RuntimeException( "bad string size: " + size );
-            byte[] b = size < _random.length ? _random : new byte[size];
-
-            _in.fill( b , size );
-            
-            try {
-                String s = new String( b , 0 , size - 1 , "UTF-8" );
-                if ( type == SYMBOL )
-                    _callback.gotSymbol( name , s );
-                else 
-                    _callback.gotString( name , s );
-            }
-            catch ( java.io.UnsupportedEncodingException uee ){
-                throw new RuntimeException( "impossible" , uee );
-            }
-
+            String s = _in.readValueString();
+            if ( type == SYMBOL )
+                _callback.gotSymbol( name , s );
+            else 
+                _callback.gotString( name , s );
             break;
 
         case OID:
@@ -165,6 +368,9 @@ public class BSONDecoder {
             throw new UnsupportedOperationException( "can't handle CODE yet" );
 
         case ARRAY:
+            if ( _primitiveArrays && _callback instanceof PrimitiveArrayCallback && _primitiveArray( name ) )
+                break;
+
             _in.readInt();  // total size - we don't care....
 
             _callback.arrayStart( name );
@@ -243,82 +449,270 @@ public class BSONDecoder {
     }
 
     
+    /**
+     * reads a whole object into a byte[] from the BufferArena before decoding it,
+     * so nothing below has to go back to the stream
+     */
     class Input {
+
         Input( InputStream in ){
-            _in = in;
-            _read = 0;
+            _stream = in;
         }
-        
-        int readInt()
-            throws IOException {
-            _read += 4;
-            return Bits.readInt( _in );
+
+        Input( byte[] data , int off , int len ){
+            _stream = null;
+            _data = data;
+            _pos = off;
+            _end = off + len;
         }
 
-        long readLong()
+        /**
+         * reads the length of the next object and makes sure all of it is available
+         * @return the length of the object
+         */
+        int start()
             throws IOException {
-            _read += 8;
-            return Bits.readLong( _in );
+            
+            if ( _stream == null ){
+                _need( 4 );
+                final int len = Bits.readInt( _data , _pos );
+                if ( len < 5 )
+                    throw new IllegalArgumentException( "bad object size: " + len );
+                _need( len );
+                _pos += 4;
+                return len;
+            }
+
+            final int len = Bits.readInt( _stream );
+            if ( len < 5 || len > MAX_OBJECT_SIZE )
+                throw new IllegalArgumentException( "bad object size: " + len );
+            
+            _data = BufferArena.DEFAULT.get( len - 4 );
+            _borrowed = true;
+            Bits.readFully( _stream , _data , 0 , len - 4 );
+            _pos = 0;
+            _end = len - 4;
+            return len;
         }
 
-        double readDouble()
-            throws IOException {
+        int readInt(){
+            _need( 4 );
+            final int x = Bits.readInt( _data , _pos );
+            _pos += 4;
+            return x;
+        }
+
+        long readLong(){
+            _need( 8 );
+            final long x = Bits.readLong( _data , _pos );
+            _pos += 8;
+            return x;
+        }
+
+        double readDouble(){
             return Double.longBitsToDouble( readLong() );
         }
 
-        byte read()
-            throws IOException {
-            _read++;
-            return (byte)(_in.read() & 0xFF);
+        byte read(){
+            _need( 1 );
+            return _data[_pos++];
         }
 
-        void fill( byte b[] )
-            throws IOException {
+        void fill( byte b[] ){
             fill( b , b.length );
         }
 
-        void fill( byte b[] , int len )
-            throws IOException {
-            int off = 0;
-            while ( len > 0 ){
-                int x = _in.read( b , off , len );
-                _read += x;
-                off += x;
-                len -= x;
+        void fill( byte b[] , int len ){
+            _need( len );
+            System.arraycopy( _data , _pos , b , 0 , len );
+            _pos += len;
+        }
+
+        void skipCStr(){
+            while ( true ){
+                if ( _pos >= _end )
+                    throw new IllegalArgumentException( "unterminated cstring" );
+                if ( _data[_pos++] == 0 )
+                    return;
             }
         }
 
-        String readCStr()
-            throws IOException {
-            
-            _stringBuffer.reset();
-            
+        void skip( int n ){
+            _need( n );
+            _pos += n;
+        }
+
+        String readCStr(){
+            final int start = _pos;
             while ( true ){
-                byte b = read();
-                if ( b == 0 )
+                if ( _pos >= _end )
+                    throw new IllegalArgumentException( "unterminated cstring" );
+                if ( _data[_pos++] == 0 )
                     break;
-                _stringBuffer.write( b );
             }
-            
-            String out = null;
-            try {
-                out = _stringBuffer.asString( "UTF-8" );
+            return _utf8( _data , start , _pos - start - 1 );
+        }
+
+        /**
+         * a field name, from the name table if there is one
+         */
+        String readName(){
+            if ( _names == null )
+                return readCStr();
+
+            final int start = _pos;
+            while ( true ){
+                if ( _pos >= _end )
+                    throw new IllegalArgumentException( "unterminated cstring" );
+                if ( _data[_pos++] == 0 )
+                    break;
             }
-            catch ( UnsupportedOperationException e ){
-                throw new RuntimeException( "impossible" , e );
+            final int len = _pos - start - 1;
+            final String s = _names.get( _data , start , len );
+            return s != null ? s : _utf8( _data , start , len );
+        }
+
+        /**
+         * a string value, from the value table if there is one and it's short enough
+         */
+        String readValueString(){
+            if ( _values == null )
+                return readUTF8String();
+
+            final int size = readInt();
+            if ( size <= 0 || size > ( 3 * 1024 * 1024 ) )
+                throw new RuntimeException( "bad string size: " + size );
+            _need( size );
+            String s = _values.get( _data , _pos , size - 1 );
+            if ( s == null )
+                s = _utf8( _data , _pos , size - 1 );
+            _pos += size;
+            return s;
+        }
+
+        String readUTF8String(){
+            final int size = readInt();
+            if ( size <= 0 || size > ( 3 * 1024 * 1024 ) )
+                throw new RuntimeException( "bad string size: " + size );
+            _need( size );
+            final String s = _utf8( _data , _pos , size - 1 );
+            _pos += size;
+            return s;
+        }
+
+        void release(){
+            if ( _borrowed ){
+                BufferArena.DEFAULT.done( _data );
+                _borrowed = false;
             }
-            _stringBuffer.reset();
-            return out;
+            _data = null;
         }
-        
-        int _read;
-        final InputStream _in;
+
+        void _need( int n ){
+            if ( _pos + n > _end )
+                throw new IllegalArgumentException( "object ended early, need " + n + " bytes at " + _pos + " but only have " + ( _end - _pos ) );
+        }
+
+        final InputStream _stream;
+        boolean _borrowed = false;
+        byte[] _data;
+        int _pos;
+        int _end;
+    }
+
+    /**
+     * decodes utf-8 without going through a CharsetDecoder.
+     * malformed sequences become U+FFFD like they do with new String( b , "UTF-8" )
+     */
+    String _utf8( final byte[] b , final int start , final int len ){
+        if ( len == 0 )
+            return "";
+
+        final char[] c;
+        if ( len <= _chars.length )
+            c = _chars;
+        else if ( len <= MAX_KEPT_CHARS )
+            c = _chars = new char[ Math.max( len , _chars.length * 2 ) ];
+        else
+            c = new char[len];
+        return _utf8( b , start , len , c );
+    }
+
+    /**
+     * same as the decoder's own utf-8 decoding, but safe to call from any thread.
+     * for code that reads strings in place from bson bytes.
+     */
+    public static String utf8( final byte[] b , final int start , final int len ){
+        if ( len == 0 )
+            return "";
+        return _utf8( b , start , len , new char[len] );
+    }
+
+    /**
+     * @param c room for at least <code>len</code> chars
+     */
+    static String _utf8( final byte[] b , final int start , final int len , final char[] c ){
+        // ascii
+        int n = 0;
+        for ( ; n<len; n++ ){
+            final byte x = b[start+n];
+            if ( x < 0 )
+                break;
+            c[n] = (char)x;
+        }
+        if ( n == len )
+            return new String( c , 0 , n );
+
+        int p = start + n;
+        final int end = start + len;
+        while ( p < end ){
+            final int x = b[p++] & 0xFF;
+
+            if ( x < 0x80 ){
+                c[n++] = (char)x;
+            }
+            else if ( ( x >> 5 ) == 0x6 && p < end && _cont( b[p] ) ){
+                final int cp = ( ( x & 0x1F ) << 6 ) | ( b[p] & 0x3F );
+                c[n++] = cp < 0x80 ? REPLACEMENT : (char)cp;
+                p += 1;
+            }
+            else if ( ( x >> 4 ) == 0xE && p + 1 < end && _cont( b[p] ) && _cont( b[p+1] ) ){
+                final int cp = ( ( x & 0x0F ) << 12 ) | ( ( b[p] & 0x3F ) << 6 ) | ( b[p+1] & 0x3F );
+                c[n++] = cp < 0x800 || ( cp >= 0xD800 && cp <= 0xDFFF ) ? REPLACEMENT : (char)cp;
+                p += 2;
+            }
+            else if ( ( x >> 3 ) == 0x1E && p + 2 < end && _cont( b[p] ) && _cont( b[p+1] ) && _cont( b[p+2] ) ){
+                final int cp = ( ( x & 0x07 ) << 18 ) | ( ( b[p] & 0x3F ) << 12 ) | ( ( b[p+1] & 0x3F ) << 6 ) | ( b[p+2] & 0x3F );
+                if ( cp < 0x10000 || cp > 0x10FFFF ){
+                    c[n++] = REPLACEMENT;
+                }
+                else {
+                    c[n++] = (char)( ( ( cp - 0x10000 ) >> 10 ) + 0xD800 );
+                    c[n++] = (char)( ( ( cp - 0x10000 ) & 0x3FF ) + 0xDC00 );
+                }
+                p += 3;
+            }
+            else {
+                c[n++] = REPLACEMENT;
+            }
+        }
+        return new String( c , 0 , n );
+    }
+
+    static boolean _cont( byte b ){
+        return ( b & 0xC0 ) == 0x80;
     }
 
+    static final int MAX_OBJECT_SIZE = 32 * 1024 * 1024;
+    static final int MAX_KEPT_CHARS = 16 * 1024;
+    static final char REPLACEMENT = '\uFFFD';
 
     private Input _in;
     private BSONCallback _callback;
-    private byte[] _random = new byte[1024];
+    private FieldFilter _filter;
+    private StringTable _names;
+    private StringTable _values;
+    private boolean _primitiveArrays = false;
 
-    private PoolOutputBuffer _stringBuffer = new PoolOutputBuffer();
+    private char[] _chars = new char[256];
 }
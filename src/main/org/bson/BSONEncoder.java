@@ -4,14 +4,14 @@ package org.bson;
 
 import static org.bson.BSON.*;
 
-import java.nio.*;
-import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
 import java.util.regex.*;
 
 import org.bson.io.*;
 import org.bson.types.*;
+import org.bson.util.*;
 
 /**
  * this is meant to be pooled or cached
@@ -83,6 +83,36 @@ public class BSONEncoder {
         if ( handleSpecialObjects( name , o ) )
             return _buf.getPosition() - start;
         
+        if ( o instanceof BSONTemplate.Bound )
+            return ((BSONTemplate.Bound)o).encode( this , name );
+
+        if ( o instanceof PrimitiveBSONList.Ints ){
+            PrimitiveBSONList.Ints l = (PrimitiveBSONList.Ints)o;
+            putIterable( name , l.array() , l.size() );
+            return _buf.getPosition() - start;
+        }
+        if ( o instanceof PrimitiveBSONList.Longs ){
+            PrimitiveBSONList.Longs l = (PrimitiveBSONList.Longs)o;
+            putIterable( name , l.array() , l.size() );
+            return _buf.getPosition() - start;
+        }
+        if ( o instanceof PrimitiveBSONList.Doubles ){
+            PrimitiveBSONList.Doubles l = (PrimitiveBSONList.Doubles)o;
+            putIterable( name , l.array() , l.size() );
+            return _buf.getPosition() - start;
+        }
+
+        if ( myType == ARRAY ){
+            // walk the list itself rather than building its keySet
+            putIterable( name , (List)o );
+            return _buf.getPosition() - start;
+        }
+
+        if ( o instanceof IndexedBSONObject && ((IndexedBSONObject)o).isIndexed() ){
+            putIndexedObject( name , (IndexedBSONObject)o );
+            return _buf.getPosition() - start;
+        }
+
         if ( name != null ){
             _put( myType , name );
         }
@@ -125,6 +155,42 @@ public class BSONEncoder {
         return _buf.getPosition() - start;
     }
 
+    /**
+     * same output as putObject, but walks the fields by position
+     * instead of looking every key up by name
+     */
+    protected void putIndexedObject( String name , IndexedBSONObject o ){
+        if ( name != null )
+            _put( OBJECT , name );
+        final int sizePos = _buf.getPosition();
+        _buf.writeInt( 0 );
+
+        final int id = name == null ? o.fieldIndex( "_id" ) : -1;
+        if ( id >= 0 )
+            _putObjectField( "_id" , o.fieldValue( id ) );
+
+        List transientFields = null;
+        final int t = o.fieldIndex( "_transientFields" );
+        if ( t >= 0 ){
+            Object temp = o.fieldValue( t );
+            if ( temp instanceof List )
+                transientFields = (List)temp;
+        }
+
+        final int num = o.numFields();
+        for ( int i=0; i<num; i++ ){
+            if ( i == id )
+                continue;
+            final String field = o.fieldName( i );
+            if ( transientFields != null && transientFields.contains( field ) )
+                continue;
+            _putObjectField( field , o.fieldValue( i ) );
+        }
+
+        _buf.write( EOO );
+        _buf.writeInt( sizePos , _buf.getPosition() - sizePos );
+    }
+
 	protected void _putObjectField( String name , Object val ){
 
         if ( name.equals( "_transientFields" ) )
@@ -140,61 +206,287 @@ public class BSONEncoder {
         
         val = BSON.applyEncodingHooks( val );
 
-        if ( val == null )
-            putNull(name);
-        else if ( val instanceof Date )
-            putDate( name , (Date)val );
-        else if ( val instanceof Number )
-            putNumber(name, (Number)val );
-        else if ( val instanceof String )
-            putString(name, val.toString() );
-        else if ( val instanceof ObjectId )
-            putObjectId(name, (ObjectId)val );
-        else if ( val instanceof BSONObject )
-            putObject(name, (BSONObject)val );
-        else if ( val instanceof Boolean )
-            putBoolean(name, (Boolean)val );
-        else if ( val instanceof Pattern )
-            putPattern(name, (Pattern)val );
-        else if ( val instanceof Map )
-            putMap( name , (Map)val );
-        else if ( val instanceof Iterable)
-            putIterable( name , (Iterable)val );
-        else if ( val instanceof byte[] )
-            putBinary( name , (byte[])val );
-        else if ( val instanceof Binary )
-            putBinary( name , (Binary)val );
-        else if ( val instanceof UUID )
-            putUUID( name , (UUID)val );
-        else if ( val.getClass().isArray() )
-            putIterable( name , Arrays.asList( (Object[])val ) );
-
-        else if (val instanceof Symbol) {
-            putSymbol(name, (Symbol) val);
-        }
-        else if (val instanceof BSONTimestamp) {
-            putTimestamp( name , (BSONTimestamp)val );
-        }
-        else if (val instanceof CodeWScope) {
-            putCodeWScope( name , (CodeWScope)val );
-        }
-        else if ( putSpecial( name , val ) ){
-            // no-op
+        if ( val == null ){
+            putNull( name );
+            return;
         }
-        else {
-            throw new IllegalArgumentException( "can't serialize " + val.getClass() );
+
+        final ValueEncoder e = _encoder( val.getClass() );
+        if ( e != null ){
+            e.put( this , name , val );
+            return;
         }
-        
+
+        if ( putSpecial( name , val ) )
+            return;
+
+        throw new IllegalArgumentException( "can't serialize " + val.getClass() );
+    }
+
+    /**
+     * Encodes <code>value</code> under <code>name</code>.
+     * For {@link ValueEncoder}s that turn their value into something else.
+     */
+    public void putValue( String name , Object value ){
+        _putObjectField( name , value );
     }
 
+    /**
+     * writes the type and name of an element, the value has to follow
+     */
+    public void writeHeader( byte type , String name ){
+        _put( type , name );
+    }
+
+    /**
+     * writes a length prefixed utf-8 string, as used for string values
+     */
+    public void writeString( String s ){
+        _putValueString( s );
+    }
+
+    /**
+     * writes a little endian int, the value of a {@link BSON#NUMBER_INT}
+     */
+    public void writeInt( int x ){
+        _buf.writeInt( x );
+    }
+
+    /**
+     * writes a little endian long, the value of a {@link BSON#NUMBER_LONG}
+     */
+    public void writeLong( long x ){
+        _buf.writeLong( x );
+    }
+
+    public void writeDouble( double x ){
+        _buf.writeDouble( x );
+    }
+
+    public void writeCString( String s ){
+        _putCString( s );
+    }
+
+    public void writeByte( int b ){
+        _buf.write( b );
+    }
+
+    public void write( byte[] b ){
+        _buf.write( b );
+    }
+
+    // ---- value encoder lookup ----
+
+    /**
+     * @return the encoder for exactly this class, null if it has to go to putSpecial
+     */
+    static ValueEncoder _encoder( Class c ){
+        final ValueEncoder e = _encoderCache.get( c );
+        return e == NO_ENCODER ? null : e;
+    }
+
+    /**
+     * same order the types used to be checked in
+     */
+    static ValueEncoder _builtin( Class c ){
+        if ( Date.class.isAssignableFrom( c ) )
+            return DATE_ENCODER;
+        if ( Number.class.isAssignableFrom( c ) )
+            return NUMBER_ENCODER;
+        if ( String.class.isAssignableFrom( c ) )
+            return STRING_ENCODER;
+        if ( ObjectId.class.isAssignableFrom( c ) )
+            return OID_ENCODER;
+        if ( BSONObject.class.isAssignableFrom( c ) )
+            return OBJECT_ENCODER;
+        if ( Boolean.class.isAssignableFrom( c ) )
+            return BOOLEAN_ENCODER;
+        if ( Pattern.class.isAssignableFrom( c ) )
+            return PATTERN_ENCODER;
+        if ( Map.class.isAssignableFrom( c ) )
+            return MAP_ENCODER;
+        if ( Iterable.class.isAssignableFrom( c ) )
+            return ITERABLE_ENCODER;
+        if ( c == byte[].class )
+            return BYTES_ENCODER;
+        if ( Binary.class.isAssignableFrom( c ) )
+            return BINARY_ENCODER;
+        if ( UUID.class.isAssignableFrom( c ) )
+            return UUID_ENCODER;
+        if ( c == int[].class )
+            return INT_ARRAY_ENCODER;
+        if ( c == long[].class )
+            return LONG_ARRAY_ENCODER;
+        if ( c == double[].class )
+            return DOUBLE_ARRAY_ENCODER;
+        if ( c.isArray() )
+            return c.getComponentType().isPrimitive() ? PRIMITIVE_ARRAY_ENCODER : ARRAY_ENCODER;
+        if ( Symbol.class.isAssignableFrom( c ) )
+            return SYMBOL_ENCODER;
+        if ( BSONTimestamp.class.isAssignableFrom( c ) )
+            return TIMESTAMP_ENCODER;
+        if ( CodeWScope.class.isAssignableFrom( c ) )
+            return CODE_W_SCOPE_ENCODER;
+        return null;
+    }
+
+    static final ClassCache<ValueEncoder> _encoderCache = new ClassCache<ValueEncoder>(){
+            protected ValueEncoder compute( Class<?> c ){
+                // once per class
+                ValueEncoder e = BSON._encoders.get( c );
+                if ( e == null )
+                    e = _builtin( c );
+                return e == null ? NO_ENCODER : e;
+            }
+        };
+
+    static final ValueEncoder NO_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                throw new IllegalStateException();
+            }
+        };
+
+    static final ValueEncoder DATE_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putDate( name , (Date)v );
+            }
+        };
+
+    static final ValueEncoder NUMBER_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putNumber( name , (Number)v );
+            }
+        };
+
+    static final ValueEncoder STRING_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putString( name , v.toString() );
+            }
+        };
+
+    static final ValueEncoder OID_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putObjectId( name , (ObjectId)v );
+            }
+        };
+
+    static final ValueEncoder OBJECT_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putObject( name , (BSONObject)v );
+            }
+        };
+
+    static final ValueEncoder BOOLEAN_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putBoolean( name , (Boolean)v );
+            }
+        };
+
+    static final ValueEncoder PATTERN_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putPattern( name , (Pattern)v );
+            }
+        };
+
+    static final ValueEncoder MAP_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putMap( name , (Map)v );
+            }
+        };
+
+    static final ValueEncoder ITERABLE_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putIterable( name , (Iterable)v );
+            }
+        };
+
+    static final ValueEncoder BYTES_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putBinary( name , (byte[])v );
+            }
+        };
+
+    static final ValueEncoder BINARY_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putBinary( name , (Binary)v );
+            }
+        };
+
+    static final ValueEncoder UUID_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putUUID( name , (UUID)v );
+            }
+        };
+
+    static final ValueEncoder ARRAY_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putIterable( name , Arrays.asList( (Object[])v ) );
+            }
+        };
+
+    static final ValueEncoder INT_ARRAY_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                final int[] a = (int[])v;
+                e.putIterable( name , a , a.length );
+            }
+        };
+
+    static final ValueEncoder LONG_ARRAY_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                final long[] a = (long[])v;
+                e.putIterable( name , a , a.length );
+            }
+        };
+
+    static final ValueEncoder DOUBLE_ARRAY_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                final double[] a = (double[])v;
+                e.putIterable( name , a , a.length );
+            }
+        };
+
+    /**
+     * float[], short[], char[] and boolean[] - rare enough to box
+     */
+    static final ValueEncoder PRIMITIVE_ARRAY_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                final int len = java.lang.reflect.Array.getLength( v );
+                final List<Object> l = new ArrayList<Object>( len );
+                for ( int i=0; i<len; i++ )
+                    l.add( java.lang.reflect.Array.get( v , i ) );
+                e.putIterable( name , l );
+            }
+        };
+
+    static final ValueEncoder SYMBOL_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putSymbol( name , (Symbol)v );
+            }
+        };
+
+    static final ValueEncoder TIMESTAMP_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putTimestamp( name , (BSONTimestamp)v );
+            }
+        };
+
+    static final ValueEncoder CODE_W_SCOPE_ENCODER = new ValueEncoder(){
+            public void put( BSONEncoder e , String name , Object v ){
+                e.putCodeWScope( name , (CodeWScope)v );
+            }
+        };
+
+    // ----
+
     private void putIterable( String name , Iterable l ){
-        _put( ARRAY , name );
+        if ( name != null )
+            _put( ARRAY , name );
         final int sizePos = _buf.getPosition();
         _buf.writeInt( 0 );
         
         int i=0;
         for ( Object obj: l ) {
-            _putObjectField( String.valueOf( i ) , obj );
+            _putObjectField( CStringCache.index( i ) , obj );
             i++;
         }
         	
@@ -203,6 +495,53 @@ public class BSONEncoder {
         _buf.writeInt( sizePos , _buf.getPosition() - sizePos );        
     }
     
+    // primitive arrays are written straight from the array, nothing is boxed
+
+    private void putIterable( String name , int[] a , int len ){
+        if ( name != null )
+            _put( ARRAY , name );
+        final int sizePos = _buf.getPosition();
+        _buf.writeInt( 0 );
+
+        for ( int i=0; i<len; i++ ){
+            _put( NUMBER_INT , CStringCache.index( i ) );
+            _buf.writeInt( a[i] );
+        }
+
+        _buf.write( EOO );
+        _buf.writeInt( sizePos , _buf.getPosition() - sizePos );
+    }
+
+    private void putIterable( String name , long[] a , int len ){
+        if ( name != null )
+            _put( ARRAY , name );
+        final int sizePos = _buf.getPosition();
+        _buf.writeInt( 0 );
+
+        for ( int i=0; i<len; i++ ){
+            _put( NUMBER_LONG , CStringCache.index( i ) );
+            _buf.writeLong( a[i] );
+        }
+
+        _buf.write( EOO );
+        _buf.writeInt( sizePos , _buf.getPosition() - sizePos );
+    }
+
+    private void putIterable( String name , double[] a , int len ){
+        if ( name != null )
+            _put( ARRAY , name );
+        final int sizePos = _buf.getPosition();
+        _buf.writeInt( 0 );
+
+        for ( int i=0; i<len; i++ ){
+            _put( NUMBER , CStringCache.index( i ) );
+            _buf.writeDouble( a[i] );
+        }
+
+        _buf.write( EOO );
+        _buf.writeInt( sizePos , _buf.getPosition() - sizePos );
+    }
+
     private void putMap( String name , Map m ){
         _put( OBJECT , name );
         final int sizePos = _buf.getPosition();
@@ -235,7 +574,7 @@ public class BSONEncoder {
         int temp = _buf.getPosition();
         _buf.writeInt( 0 );
         _putValueString( code.getCode() );
-        putObject( code.getScope() );
+        putObject( null , code.getScope() );
         _buf.writeInt( temp , _buf.getPosition() - temp );
     }
 
@@ -333,7 +672,18 @@ public class BSONEncoder {
      */
     protected void _put( byte type , String name ){
         _buf.write( type );
-        _put( name );
+        _putCString( name );
+    }
+
+    /**
+     * puts a key or namespace, copying from {@link CStringCache} when possible
+     */
+    protected int _putCString( String s ){
+        final byte[] b = _cstrings.get( s );
+        if ( b == null )
+            return _put( s );
+        _buf.write( b , 0 , b.length );
+        return b.length;
     }
 
     protected void _putValueString( String s ){
@@ -343,69 +693,69 @@ public class BSONEncoder {
         _buf.writeInt( lenPos , strLen );
     }
     
-    void _reset( Buffer b ){
-        b.position(0);
-        b.limit( b.capacity() );
-    }
-
     /**
      * puts as utf-8 string
      */
     protected int _put( String str ){
-        int total = 0;
-
         final int len = str.length();
-        int pos = 0;
-        while ( pos < len ){
-            _reset( _stringC );
-            _reset( _stringB );
-
-            int toEncode = Math.min( _stringC.capacity() - 1, len - pos );
-            _stringC.put( str , pos , pos + toEncode );
-            _stringC.flip();
-            
-            CoderResult cr = _encoder.encode( _stringC , _stringB , false );
-            
-            if ( cr.isMalformed() || cr.isUnmappable() )
-                throw new IllegalArgumentException( "malforumed string" );
-            
-            if ( cr.isOverflow() )
-                throw new RuntimeException( "overflor should be impossible" );
-            
-            if ( cr.isError() )
-                throw new RuntimeException( "should never get here" );
+        final byte[] b = _stringB;
+        final int max = b.length - 4; // room for the longest sequence
+        
+        int total = 0;
+        int n = 0;
+        int i = 0;
+        while ( i < len ){
+
+            // ascii
+            char c;
+            while ( i < len && n < max && ( c = str.charAt( i ) ) < 0x80 ){
+                b[n++] = (byte)c;
+                i++;
+            }
 
-            if ( ! cr.isUnderflow() )
-                throw new RuntimeException( "this should always be true" );
+            if ( n >= max ){
+                _buf.write( b , 0 , n );
+                total += n;
+                n = 0;
+            }
 
-            total += _stringB.position();
-            _buf.write( _stringB.array() , 0 , _stringB.position() );
+            if ( i == len )
+                break;
 
-            pos += toEncode;
+            c = str.charAt( i++ );
+            if ( c < 0x80 ){
+                b[n++] = (byte)c;
+            }
+            else if ( c < 0x800 ){
+                b[n++] = (byte)( 0xC0 | ( c >> 6 ) );
+                b[n++] = (byte)( 0x80 | ( c & 0x3F ) );
+            }
+            else if ( c >= 0xD800 && c <= 0xDFFF ){
+                if ( c > 0xDBFF || i == len || str.charAt( i ) < 0xDC00 || str.charAt( i ) > 0xDFFF )
+                    throw new IllegalArgumentException( "malforumed string" );
+                final int cp = 0x10000 + ( ( c - 0xD800 ) << 10 ) + ( str.charAt( i++ ) - 0xDC00 );
+                b[n++] = (byte)( 0xF0 | ( cp >> 18 ) );
+                b[n++] = (byte)( 0x80 | ( ( cp >> 12 ) & 0x3F ) );
+                b[n++] = (byte)( 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+                b[n++] = (byte)( 0x80 | ( cp & 0x3F ) );
+            }
+            else {
+                b[n++] = (byte)( 0xE0 | ( c >> 12 ) );
+                b[n++] = (byte)( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                b[n++] = (byte)( 0x80 | ( c & 0x3F ) );
+            }
         }
 
-        _buf.write( (byte)0 );
-        total++;
+        b[n++] = 0;
+        _buf.write( b , 0 , n );
+        total += n;
 
         return total;
     }
 
-    public void writeInt( int x ){
-        _buf.writeInt( x );
-    }
-
-    public void writeLong( long x ){
-        _buf.writeLong( x );
-    }
-    
-    public void writeCString( String s ){
-        _put( s );
-    }
-
     protected OutputBuffer _buf;
     
-    private CharBuffer _stringC = CharBuffer.wrap( new char[256 + 1] );
-    private ByteBuffer _stringB = ByteBuffer.wrap( new byte[1024 + 1] );
-    private CharsetEncoder _encoder = BSON._utf8.newEncoder();
+    private final byte[] _stringB = new byte[1024];
+    private final CStringCache _cstrings = CStringCache.DEFAULT;
 
 }
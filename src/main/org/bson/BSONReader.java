@@ -0,0 +1,744 @@
+// BSONReader.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+import static org.bson.BSON.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.regex.*;
+
+import org.bson.io.*;
+import org.bson.types.*;
+
+/**
+ * Reads BSON one element at a time, instead of pushing a whole document through a {@link BSONCallback}.
+ * Only the current element is looked at, so a huge document or array can be worked through
+ * in constant memory, apart from the values that are actually read:
+ * <blockquote><pre>
+ * BSONReader r = new BSONReader( in );
+ * while ( r.nextElement() != BSON.EOO ){
+ *     if ( r.getName().equals( "points" ) ){
+ *         r.stepIn();
+ *         while ( r.nextElement() != BSON.EOO )
+ *             sum += r.readDouble();
+ *         r.stepOut();
+ *     }
+ * }
+ * </pre></blockquote>
+ * <p>A value that isn't read is skipped by the next call to {@link #nextElement}.
+ * Once the top level document is done, <code>nextElement</code> starts on the next one in the input.</p>
+ * <p>Reading from an <code>InputStream</code> takes a byte at a time for names, so give it a buffered one.
+ * Nothing is read past the end of the current document.</p>
+ */
+public class BSONReader {
+
+    public BSONReader( InputStream in ){
+        _src = new StreamSource( in );
+    }
+
+    /**
+     * reads from the buffer's position on.  the buffer's byte order doesn't matter.
+     */
+    public BSONReader( ByteBuffer buf ){
+        _src = new BufferSource( buf );
+    }
+
+    public BSONReader( byte[] b ){
+        this( b , 0 , b.length );
+    }
+
+    /**
+     * reads in place from <code>b[off]</code> to <code>b[off+len-1]</code>
+     */
+    public BSONReader( byte[] b , int off , int len ){
+        _src = _array = new ArraySource( b , off , len );
+    }
+
+    /**
+     * starts over on different bytes, so a reader can be used for many documents
+     */
+    public void reset( byte[] b , int off , int len ){
+        if ( _array == null )
+            _array = new ArraySource( b , off , len );
+        else
+            _array.reset( b , off , len );
+        _src = _array;
+        _pos = 0;
+        _depth = 0;
+        _type = EOO;
+        _name = null;
+        _pending = false;
+        _atEnd = false;
+    }
+
+    /**
+     * @param names canonical strings for element names, null to make new ones every time
+     */
+    public void setNameTable( StringTable names ){
+        _names = names;
+    }
+
+    public StringTable getNameTable(){
+        return _names;
+    }
+
+    /**
+     * Moves to the next element of the current document or array.
+     * Whatever wasn't read of the current element is skipped.
+     * @return the element's type, or {@link BSON#EOO} at the end of the document or array
+     */
+    public byte nextElement()
+        throws IOException {
+        if ( _atEnd )
+            throw new IllegalStateException( "at the end of a sub document, call stepOut()" );
+
+        if ( _depth == 0 )
+            _pushDocument();
+        else if ( _pending )
+            skip();
+
+        final byte type = _readByte();
+        if ( type == EOO ){
+            if ( _pos != _ends[_depth-1] )
+                throw new IllegalArgumentException( "bad BSON, document ended at " + _pos + " but its size says " + _ends[_depth-1] );
+            _type = EOO;
+            _name = null;
+            if ( _depth == 1 )
+                _depth = 0;
+            else
+                _atEnd = true;
+            return EOO;
+        }
+
+        _type = type;
+        _name = _readCStr();
+        _pending = true;
+        return type;
+    }
+
+    /**
+     * @return the type of the current element, {@link BSON#EOO} at the end of a document
+     */
+    public byte getType(){
+        return _type;
+    }
+
+    /**
+     * @return the name of the current element.  for arrays it's the index.
+     */
+    public String getName(){
+        return _name;
+    }
+
+    /**
+     * @return how many documents deep the reader is, 1 in the top level one, 0 between documents
+     */
+    public int getDepth(){
+        return _depth;
+    }
+
+    /**
+     * skips the value of the current element, using the lengths in the BSON where there are some
+     */
+    public void skip()
+        throws IOException {
+        _check();
+        _pending = false;
+
+        switch ( _type ){
+        case MAXKEY:
+        case MINKEY:
+        case UNDEFINED:
+        case NULL:
+            return;
+        case BOOLEAN:
+            _skip( 1 );
+            return;
+        case NUMBER_INT:
+            _skip( 4 );
+            return;
+        case DATE:
+        case NUMBER:
+        case NUMBER_LONG:
+        case TIMESTAMP:
+            _skip( 8 );
+            return;
+        case OID:
+            _skip( 12 );
+            return;
+        case SYMBOL:
+        case CODE:
+        case STRING:
+            _skip( _readInt() );
+            return;
+        case REF:
+            _skip( _readInt() + 12 );
+            return;
+        case CODE_W_SCOPE:
+        case ARRAY:
+        case OBJECT:
+            _skip( _readInt() - 4 );
+            return;
+        case BINARY:
+            _skip( _readInt() + 1 );
+            return;
+        case REGEX:
+            _readCStr();
+            _readCStr();
+            return;
+        }
+        throw new IllegalArgumentException( "can't skip type " + _type );
+    }
+
+    /**
+     * makes the current element, which has to be an object or array, the one whose elements
+     * {@link #nextElement} goes through
+     */
+    public void stepIn()
+        throws IOException {
+        _check();
+        if ( _type != OBJECT && _type != ARRAY )
+            throw new IllegalStateException( "can only step into an object or array, not type " + _type );
+        _pending = false;
+        _pushDocument();
+        _type = EOO;
+        _name = null;
+    }
+
+    /**
+     * goes back to the document or array holding the current one, skipping whatever of it is left
+     */
+    public void stepOut()
+        throws IOException {
+        if ( _depth <= 1 )
+            throw new IllegalStateException( "not in a sub document" );
+        if ( ! _atEnd )
+            _skip( (int)( _ends[_depth-1] - _pos ) );
+        _depth--;
+        _atEnd = false;
+        _pending = false;
+        _type = EOO;
+        _name = null;
+    }
+
+    // ---- typed values ----
+
+    public int readInt()
+        throws IOException {
+        _check( NUMBER_INT );
+        return _readInt();
+    }
+
+    public long readLong()
+        throws IOException {
+        _check( NUMBER_LONG );
+        return _readLong();
+    }
+
+    public double readDouble()
+        throws IOException {
+        _check( NUMBER );
+        return Double.longBitsToDouble( _readLong() );
+    }
+
+    /**
+     * @return an int, long or double element as a Number
+     */
+    public Number readNumber()
+        throws IOException {
+        switch ( _type ){
+        case NUMBER_INT: return readInt();
+        case NUMBER_LONG: return readLong();
+        case NUMBER: return readDouble();
+        }
+        throw _wrongType( "a number" );
+    }
+
+    public boolean readBoolean()
+        throws IOException {
+        _check( BOOLEAN );
+        return _readByte() > 0;
+    }
+
+    /**
+     * @return a string, symbol or code element
+     */
+    public String readString()
+        throws IOException {
+        if ( _type != STRING && _type != SYMBOL && _type != CODE )
+            throw _wrongType( "a string" );
+        _check();
+        _pending = false;
+        return _readString();
+    }
+
+    public ObjectId readObjectId()
+        throws IOException {
+        _check( OID );
+        return new ObjectId( _readInt() , _readInt() , _readInt() );
+    }
+
+    public Date readDate()
+        throws IOException {
+        _check( DATE );
+        return new Date( _readLong() );
+    }
+
+    public BSONTimestamp readTimestamp()
+        throws IOException {
+        _check( TIMESTAMP );
+        final int inc = _readInt();
+        final int time = _readInt();
+        return new BSONTimestamp( time , inc );
+    }
+
+    public Pattern readRegex()
+        throws IOException {
+        _check( REGEX );
+        final String p = _readCStr();
+        return BSON.compileRegex( p , _readCStr() );
+    }
+
+    /**
+     * @return the data of a binary element, of any subtype
+     */
+    public byte[] readBinary()
+        throws IOException {
+        _check( BINARY );
+        int len = _readInt();
+        final byte subtype = _readByte();
+        if ( subtype == B_BINARY ){
+            final int inner = _readInt();
+            if ( inner + 4 != len )
+                throw new IllegalArgumentException( "bad data size subtype 2 len: " + inner + " totalLen: " + len );
+            len = inner;
+        }
+        final byte[] data = new byte[len];
+        _read( data , 0 , len );
+        return data;
+    }
+
+    /**
+     * Reads the current value as the same object {@link BasicBSONCallback} would make.
+     * Objects and arrays are read completely.
+     */
+    public Object readValue()
+        throws IOException {
+        _check();
+
+        switch ( _type ){
+        case MAXKEY:
+            _pending = false;
+            return "MaxKey";
+        case MINKEY:
+            _pending = false;
+            return "MinKey";
+        case UNDEFINED:
+        case NULL:
+            _pending = false;
+            return null;
+        case BOOLEAN:
+            return readBoolean();
+        case NUMBER_INT:
+        case NUMBER_LONG:
+        case NUMBER:
+            return readNumber();
+        case SYMBOL:
+        case CODE:
+        case STRING:
+            return readString();
+        case OID:
+            return readObjectId();
+        case DATE:
+            return readDate();
+        case TIMESTAMP:
+            return readTimestamp();
+        case REGEX:
+            return readRegex();
+        case REF: {
+            _pending = false;
+            _readInt();
+            final String ns = _readCStr();
+            return new BasicBSONObject( "$ns" , ns ).append( "$id" , new ObjectId( _readInt() , _readInt() , _readInt() ) );
+        }
+        case BINARY:
+            return _readBinaryValue();
+        case CODE_W_SCOPE: {
+            _pending = false;
+            _readInt();
+            final String code = _readString();
+            _pushDocument();
+            return new CodeWScope( code , (BSONObject)_readContents( false ) );
+        }
+        case OBJECT:
+        case ARRAY: {
+            final boolean array = _type == ARRAY;
+            stepIn();
+            return _readContents( array );
+        }
+        }
+        throw new IllegalArgumentException( "can't read type " + _type );
+    }
+
+    /**
+     * reads the elements of the document just pushed and pops it
+     */
+    private Object _readContents( boolean array )
+        throws IOException {
+        final BSONObject o = array ? new BasicBSONList() : new BasicBSONObject();
+        while ( nextElement() != EOO )
+            o.put( _name , readValue() );
+        stepOut();
+        return o;
+    }
+
+    private Object _readBinaryValue()
+        throws IOException {
+        final int len = _readInt();
+        final byte subtype = _readByte();
+        _pending = false;
+
+        if ( subtype == B_UUID ){
+            if ( len != 16 )
+                throw new IllegalArgumentException( "bad data size subtype 3 len: " + len + " != 16" );
+            final long a = _readLong();
+            return new UUID( a , _readLong() );
+        }
+
+        int n = len;
+        if ( subtype == B_BINARY ){
+            n = _readInt();
+            if ( n + 4 != len )
+                throw new IllegalArgumentException( "bad data size subtype 2 len: " + n + " totalLen: " + len );
+        }
+        final byte[] data = new byte[n];
+        _read( data , 0 , n );
+        if ( subtype == B_GENERAL || subtype == B_BINARY )
+            return data;
+        return new Binary( subtype , data );
+    }
+
+    // ---- internals ----
+
+    private void _check(){
+        if ( ! _pending )
+            throw new IllegalStateException( _type == EOO ? "not on an element" : "value already read" );
+    }
+
+    private void _check( byte type ){
+        if ( _type != type )
+            throw _wrongType( "type " + type );
+        _check();
+        _pending = false;
+    }
+
+    private IllegalStateException _wrongType( String wanted ){
+        return new IllegalStateException( "wanted " + wanted + " but " + _name + " is type " + _type );
+    }
+
+    /**
+     * reads the size of the document starting here and goes into it
+     */
+    private void _pushDocument()
+        throws IOException {
+        final long start = _pos;
+        final int len = _readInt();
+        if ( len < 5 )
+            throw new IllegalArgumentException( "bad object size: " + len );
+        _push( start + len );
+    }
+
+    private void _push( long end ){
+        if ( _depth == _ends.length ){
+            long[] ends = new long[ _depth * 2 ];
+            System.arraycopy( _ends , 0 , ends , 0 , _depth );
+            _ends = ends;
+        }
+        if ( _depth > 0 && end > _ends[_depth-1] )
+            throw new IllegalArgumentException( "bad BSON, sub document runs past the end of its parent" );
+        _ends[_depth++] = end;
+    }
+
+    private byte _readByte()
+        throws IOException {
+        _pos++;
+        return _src.read();
+    }
+
+    private void _read( byte[] b , int off , int len )
+        throws IOException {
+        _src.read( b , off , len );
+        _pos += len;
+    }
+
+    private void _skip( int n )
+        throws IOException {
+        if ( n < 0 )
+            throw new IllegalArgumentException( "bad BSON, negative length" );
+        _src.skip( n );
+        _pos += n;
+    }
+
+    private int _readInt()
+        throws IOException {
+        if ( _src == _array ){
+            _pos += 4;
+            return _array.readInt();
+        }
+        _read( _scratch , 0 , 4 );
+        return Bits.readInt( _scratch , 0 );
+    }
+
+    private long _readLong()
+        throws IOException {
+        if ( _src == _array ){
+            _pos += 8;
+            return _array.readLong();
+        }
+        _read( _scratch , 0 , 8 );
+        return Bits.readLong( _scratch , 0 );
+    }
+
+    private String _readCStr()
+        throws IOException {
+        if ( _src == _array ){
+            // straight from the array, no copying
+            final ArraySource a = _array;
+            final int start = a._pos;
+            final int len = a.cstrLength();
+            a._pos += len + 1;
+            _pos += len + 1;
+            if ( _names != null ){
+                final String s = _names.get( a._b , start , len );
+                if ( s != null )
+                    return s;
+            }
+            if ( len <= _chars.length )
+                return BSONDecoder._utf8( a._b , start , len , _chars );
+            return BSONDecoder.utf8( a._b , start , len );
+        }
+
+        int n = 0;
+        while ( true ){
+            final byte b = _readByte();
+            if ( b == 0 )
+                break;
+            if ( n == _buf.length ){
+                final byte[] bigger = new byte[ n * 2 ];
+                System.arraycopy( _buf , 0 , bigger , 0 , n );
+                _buf = bigger;
+            }
+            _buf[n++] = b;
+        }
+        if ( _names != null ){
+            final String s = _names.get( _buf , 0 , n );
+            if ( s != null )
+                return s;
+        }
+        return _utf8( n );
+    }
+
+    private String _readString()
+        throws IOException {
+        final int size = _readInt();
+        if ( size <= 0 || size > BSONDecoder.MAX_OBJECT_SIZE )
+            throw new IllegalArgumentException( "bad string size: " + size );
+        if ( size > _buf.length )
+            _buf = new byte[size];
+        _read( _buf , 0 , size );
+        return _utf8( size - 1 );
+    }
+
+    /**
+     * decodes the first <code>len</code> bytes of <code>_buf</code>, and lets go of big buffers
+     */
+    private String _utf8( int len ){
+        final String s;
+        if ( len <= _chars.length ){
+            s = BSONDecoder._utf8( _buf , 0 , len , _chars );
+        }
+        else {
+            s = BSONDecoder.utf8( _buf , 0 , len );
+            if ( len <= BSONDecoder.MAX_KEPT_CHARS )
+                _chars = new char[len];
+        }
+        if ( _buf.length > BSONDecoder.MAX_KEPT_CHARS )
+            _buf = new byte[256];
+        return s;
+    }
+
+    static abstract class Source {
+        abstract byte read() throws IOException;
+        abstract void read( byte[] b , int off , int len ) throws IOException;
+        abstract void skip( int n ) throws IOException;
+    }
+
+    static class StreamSource extends Source {
+        StreamSource( InputStream in ){
+            _in = in;
+        }
+
+        byte read()
+            throws IOException {
+            final int x = _in.read();
+            if ( x < 0 )
+                throw new EOFException();
+            return (byte)x;
+        }
+
+        void read( byte[] b , int off , int len )
+            throws IOException {
+            Bits.readFully( _in , b , off , len );
+        }
+
+        void skip( int n )
+            throws IOException {
+            while ( n > 0 ){
+                final long s = _in.skip( n );
+                if ( s > 0 ){
+                    n -= s;
+                    continue;
+                }
+                // some streams won't skip, make sure it's not the end
+                read();
+                n--;
+            }
+        }
+
+        final InputStream _in;
+    }
+
+    static class BufferSource extends Source {
+        BufferSource( ByteBuffer buf ){
+            _buf = buf;
+        }
+
+        byte read()
+            throws IOException {
+            if ( ! _buf.hasRemaining() )
+                throw new EOFException();
+            return _buf.get();
+        }
+
+        void read( byte[] b , int off , int len )
+            throws IOException {
+            if ( _buf.remaining() < len )
+                throw new EOFException();
+            _buf.get( b , off , len );
+        }
+
+        void skip( int n )
+            throws IOException {
+            if ( _buf.remaining() < n )
+                throw new EOFException();
+            _buf.position( _buf.position() + n );
+        }
+
+        final ByteBuffer _buf;
+    }
+
+    static class ArraySource extends Source {
+        ArraySource( byte[] b , int off , int len ){
+            reset( b , off , len );
+        }
+
+        void reset( byte[] b , int off , int len ){
+            if ( off < 0 || len < 0 || off + len > b.length )
+                throw new IllegalArgumentException( "bad offset or length" );
+            _b = b;
+            _pos = off;
+            _end = off + len;
+        }
+
+        byte read()
+            throws IOException {
+            if ( _pos >= _end )
+                throw new EOFException();
+            return _b[_pos++];
+        }
+
+        void read( byte[] b , int off , int len )
+            throws IOException {
+            _need( len );
+            System.arraycopy( _b , _pos , b , off , len );
+            _pos += len;
+        }
+
+        void skip( int n )
+            throws IOException {
+            _need( n );
+            _pos += n;
+        }
+
+        int readInt()
+            throws IOException {
+            _need( 4 );
+            final int x = Bits.readInt( _b , _pos );
+            _pos += 4;
+            return x;
+        }
+
+        long readLong()
+            throws IOException {
+            _need( 8 );
+            final long x = Bits.readLong( _b , _pos );
+            _pos += 8;
+            return x;
+        }
+
+        /**
+         * @return bytes before the next 0
+         */
+        int cstrLength()
+            throws IOException {
+            for ( int i=_pos; i<_end; i++ )
+                if ( _b[i] == 0 )
+                    return i - _pos;
+            throw new EOFException();
+        }
+
+        void _need( int n )
+            throws IOException {
+            if ( _end - _pos < n )
+                throw new EOFException();
+        }
+
+        byte[] _b;
+        int _pos;
+        int _end;
+    }
+
+    private Source _src;
+    private ArraySource _array;
+    private StringTable _names;
+    private final byte[] _scratch = new byte[8];
+    private byte[] _buf = new byte[256];
+    private char[] _chars = new char[256];
+
+    private long _pos = 0;
+    private long[] _ends = new long[8];
+    private int _depth = 0;
+
+    private byte _type = EOO;
+    private String _name;
+    private boolean _pending = false;
+    private boolean _atEnd = false;
+}
@@ -0,0 +1,427 @@
+// BSONTemplate.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+import static org.bson.BSON.*;
+
+import java.util.*;
+
+import org.bson.io.*;
+
+/**
+ * An object shape that is encoded once, with named slots for the values that change between calls.
+ * <blockquote><pre>
+ * BSONTemplate byId = new BSONTemplate( new BasicBSONObject( "_id" , BSONTemplate.slot( "id" ) ) );
+ * BSONObject q = byId.bind( 17 );
+ * </pre></blockquote>
+ * Encoding a bound template copies the pre-encoded bytes, encodes only the slot values and
+ * then patches the lengths of the objects that contain a slot.
+ * Templates are immutable and can be shared between threads.
+ */
+public class BSONTemplate {
+
+    /**
+     * @param name name used to bind a value to this slot
+     * @return a placeholder to use as a value in a template shape
+     */
+    public static Slot slot( String name ){
+        return new Slot( name );
+    }
+
+    public static class Slot {
+        Slot( String name ){
+            if ( name == null )
+                throw new NullPointerException( "slot name can't be null" );
+            _name = name;
+        }
+
+        public String getName(){
+            return _name;
+        }
+
+        public String toString(){
+            return "{ \"$slot\" : \"" + _name + "\" }";
+        }
+
+        final String _name;
+    }
+
+    /**
+     * @param shape the object to encode, with {@link #slot} placeholders for values
+     */
+    public BSONTemplate( BSONObject shape ){
+        _shape = shape;
+
+        Encoder e = new Encoder();
+        BasicOutputBuffer buf = new BasicOutputBuffer();
+        e.set( buf );
+        try {
+            e.putObject( shape );
+        }
+        finally {
+            e.done();
+        }
+        _bytes = buf.toByteArray();
+
+        final int num = e._offsets.size();
+        _slotOffsets = new int[num];
+        _slotFields = new String[num];
+        _slotIndexes = new int[num];
+        for ( int i=0; i<num; i++ ){
+            _slotOffsets[i] = e._offsets.get( i );
+            _slotFields[i] = e._fields.get( i );
+            _slotIndexes[i] = e._names.indexOf( e._slotNames.get( i ) );
+        }
+        _names = Collections.unmodifiableList( e._names );
+
+        List<Integer> objects = new ArrayList<Integer>();
+        _findObjects( 0 , objects );
+        _objects = new int[objects.size()];
+        for ( int i=0; i<_objects.length; i++ )
+            _objects[i] = objects.get( i );
+    }
+
+    /**
+     * @return the distinct slot names, in the order values are passed to {@link #bind(Object[])}
+     */
+    public List<String> getSlotNames(){
+        return _names;
+    }
+
+    public BSONObject getShape(){
+        return _shape;
+    }
+
+    /**
+     * @param values one value per slot name, in the order of {@link #getSlotNames}
+     */
+    public Bound bind( Object ... values ){
+        if ( values.length != _names.size() )
+            throw new IllegalArgumentException( "template has " + _names.size() + " slots " + _names + " but got " + values.length + " values" );
+        return createBound( values );
+    }
+
+    /**
+     * @param values slot name to value
+     */
+    public Bound bind( Map<String,?> values ){
+        Object[] all = new Object[_names.size()];
+        for ( int i=0; i<all.length; i++ ){
+            String name = _names.get( i );
+            if ( ! values.containsKey( name ) )
+                throw new IllegalArgumentException( "no value for slot [" + name + "]" );
+            all[i] = values.get( name );
+        }
+        return createBound( all );
+    }
+
+    protected Bound createBound( Object[] values ){
+        return new Bound( this , values );
+    }
+
+    /**
+     * writes the template with <code>values</code> in its slots
+     * @param id an <code>_id</code> to write first, for shapes that don't have one
+     * @return bytes written
+     */
+    int encode( BSONEncoder e , String name , Object[] values , Object id ){
+        final OutputBuffer out = e._buf;
+        final int start = out.getPosition();
+
+        if ( name != null )
+            e._put( OBJECT , name );
+
+        final int base = out.getPosition();
+        final int[] written = new int[_slotOffsets.length];
+
+        int prev = 0;
+        int idSize = 0;
+        if ( id != null ){
+            out.write( _bytes , 0 , 4 );
+            prev = 4;
+            final int before = out.getPosition();
+            e._putObjectField( "_id" , id );
+            idSize = out.getPosition() - before;
+        }
+
+        for ( int i=0; i<_slotOffsets.length; i++ ){
+            out.write( _bytes , prev , _slotOffsets[i] - prev );
+            prev = _slotOffsets[i];
+
+            final int before = out.getPosition();
+            e._putObjectField( _slotFields[i] , values[ _slotIndexes[i] ] );
+            written[i] = out.getPosition() - before;
+        }
+        out.write( _bytes , prev , _bytes.length - prev );
+
+        if ( _slotOffsets.length > 0 || idSize > 0 ){
+            for ( int i=0; i<_objects.length; i+=2 ){
+                final int s = _shift( _objects[i] , written , idSize );
+                final int end = _shift( _objects[i+1] , written , idSize );
+                out.writeInt( base + s , end - s );
+            }
+        }
+
+        return out.getPosition() - start;
+    }
+
+    /**
+     * maps an offset in the template to one in the bound output
+     */
+    private int _shift( final int offset , final int[] written , final int idSize ){
+        // the _id goes right after the outer length, so only the outer object's start stays put
+        int shifted = offset > 0 ? offset + idSize : offset;
+        for ( int i=0; i<_slotOffsets.length && _slotOffsets[i] < offset; i++ )
+            shifted += written[i];
+        return shifted;
+    }
+
+    /**
+     * records [ start of length , end ] of every length prefixed object
+     * @return end of the object
+     */
+    private int _findObjects( final int start , final List<Integer> objects ){
+        final int end = start + _readInt( start );
+        objects.add( start );
+        objects.add( end );
+
+        int pos = start + 4;
+        while ( true ){
+            final byte type = _bytes[pos++];
+            if ( type == EOO )
+                break;
+
+            while ( _bytes[pos++] != 0 );
+
+            switch ( type ){
+            case NULL:
+            case UNDEFINED:
+            case MINKEY:
+            case MAXKEY:
+                break;
+            case BOOLEAN:
+                pos += 1;
+                break;
+            case NUMBER_INT:
+                pos += 4;
+                break;
+            case NUMBER:
+            case NUMBER_LONG:
+            case DATE:
+            case TIMESTAMP:
+                pos += 8;
+                break;
+            case OID:
+                pos += 12;
+                break;
+            case STRING:
+            case SYMBOL:
+            case CODE:
+                pos += 4 + _readInt( pos );
+                break;
+            case REF:
+                pos += 4 + _readInt( pos ) + 12;
+                break;
+            case BINARY:
+                pos += 4 + 1 + _readInt( pos );
+                break;
+            case REGEX:
+                while ( _bytes[pos++] != 0 );
+                while ( _bytes[pos++] != 0 );
+                break;
+            case OBJECT:
+            case ARRAY:
+                pos = _findObjects( pos , objects );
+                break;
+            case CODE_W_SCOPE:
+                objects.add( pos );
+                objects.add( pos + _readInt( pos ) );
+                final int scope = pos + 4 + 4 + _readInt( pos + 4 );
+                pos = _findObjects( scope , objects );
+                break;
+            default:
+                throw new IllegalArgumentException( "BSONTemplate doesn't understand type : " + type );
+            }
+        }
+
+        if ( pos != end )
+            throw new IllegalStateException( "bad template object size.  end: " + end + " pos: " + pos );
+        return end;
+    }
+
+    private int _readInt( int pos ){
+        return
+            ( _bytes[pos] & 0xFF ) |
+            ( ( _bytes[pos+1] & 0xFF ) << 8 ) |
+            ( ( _bytes[pos+2] & 0xFF ) << 16 ) |
+            ( ( _bytes[pos+3] & 0xFF ) << 24 );
+    }
+
+    public String toString(){
+        return "BSONTemplate " + _names + " " + _shape;
+    }
+
+    /**
+     * a template with values for all its slots.
+     * <p>Only an <code>_id</code> can be added, and only if the shape doesn't have one, so a bound
+     * template can be inserted.  Slots, an added <code>_id</code> and the top level field names
+     * come straight from the template; other values are read from a decoded copy.</p>
+     */
+    public static class Bound implements BSONObject {
+
+        protected Bound( BSONTemplate template , Object[] values ){
+            _template = template;
+            _values = values;
+        }
+
+        public BSONTemplate getTemplate(){
+            return _template;
+        }
+
+        /**
+         * @return the bound values, in the order of {@link BSONTemplate#getSlotNames}
+         */
+        public List<Object> getValues(){
+            return Collections.unmodifiableList( Arrays.asList( _values ) );
+        }
+
+        int encode( BSONEncoder e , String name ){
+            return _template.encode( e , name , _values , _id );
+        }
+
+        /**
+         * @return a decoded copy of the bound object
+         */
+        protected BSONObject materialize(){
+            BSONObject o = _materialized;
+            if ( o == null ){
+                o = decode();
+                _materialized = o;
+            }
+            return o;
+        }
+
+        /**
+         * decodes the encoded bound object
+         */
+        protected BSONObject decode(){
+            return BSON.decode( BSON.encode( this ) );
+        }
+
+        public Object get( String key ){
+            if ( _id != null && key.equals( "_id" ) )
+                return _id;
+            final Object v = _template._shape.get( key );
+            if ( v instanceof Slot )
+                return _values[ _template._names.indexOf( ((Slot)v)._name ) ];
+            if ( v == null && ! _template._shape.containsField( key ) )
+                return null;
+            return materialize().get( key );
+        }
+
+        public Map toMap(){
+            return materialize().toMap();
+        }
+
+        /**
+         * @deprecated
+         */
+        public boolean containsKey( String key ){
+            return containsField( key );
+        }
+
+        public boolean containsField( String field ){
+            return ( _id != null && field.equals( "_id" ) ) || _template._shape.containsField( field );
+        }
+
+        public Set<String> keySet(){
+            if ( _id == null )
+                return _template._shape.keySet();
+            Set<String> keys = new LinkedHashSet<String>();
+            keys.add( "_id" );
+            keys.addAll( _template._shape.keySet() );
+            return keys;
+        }
+
+        /**
+         * only <code>_id</code> can be set, and only when the template doesn't have one
+         */
+        public Object put( String key , Object v ){
+            if ( ! key.equals( "_id" ) || _template._shape.containsField( "_id" ) )
+                throw new RuntimeException( "read only" );
+            final Object old = _id;
+            _id = v;
+            _materialized = null;
+            return old;
+        }
+
+        public void putAll( BSONObject o ){
+            throw new RuntimeException( "read only" );
+        }
+
+        public void putAll( Map m ){
+            throw new RuntimeException( "read only" );
+        }
+
+        public Object removeField( String key ){
+            throw new RuntimeException( "read only" );
+        }
+
+        public String toString(){
+            return materialize().toString();
+        }
+
+        final BSONTemplate _template;
+        final Object[] _values;
+        private Object _id;
+        private BSONObject _materialized;
+    }
+
+    /**
+     * encodes the shape, leaving slots out and remembering where they go
+     */
+    static class Encoder extends BSONEncoder {
+        protected boolean putSpecial( String name , Object o ){
+            if ( ! ( o instanceof Slot ) )
+                return false;
+
+            String slotName = ((Slot)o)._name;
+            _offsets.add( _buf.getPosition() );
+            _fields.add( name );
+            _slotNames.add( slotName );
+            if ( ! _names.contains( slotName ) )
+                _names.add( slotName );
+            return true;
+        }
+
+        final List<Integer> _offsets = new ArrayList<Integer>();
+        final List<String> _fields = new ArrayList<String>();
+        final List<String> _slotNames = new ArrayList<String>();
+        final List<String> _names = new ArrayList<String>();
+    }
+
+    final BSONObject _shape;
+    final byte[] _bytes;
+    final List<String> _names;
+
+    final int[] _slotOffsets;
+    final String[] _slotFields;
+    final int[] _slotIndexes;
+    final int[] _objects;
+}
@@ -7,7 +7,7 @@ import java.util.regex.*;
 
 import org.bson.types.*;
 
-public class BasicBSONCallback implements BSONCallback {
+public class BasicBSONCallback implements BSONCallback , PrimitiveArrayCallback {
 
     public BasicBSONCallback(){
         reset();
@@ -102,7 +102,7 @@ public class BasicBSONCallback implements BSONCallback {
         _put( name , new Date( millis ) );
     }
     public void gotRegex( String name , String pattern , String flags ){
-        _put( name , Pattern.compile( pattern , BSON.regexFlags( flags ) ) );
+        _put( name , BSON.compileRegex( pattern , flags ) );
     }
     
     public void gotString( String name , String v ){
@@ -134,6 +134,10 @@ public class BasicBSONCallback implements BSONCallback {
         _put( name , new UUID(part1, part2) );
     }
 
+    public void gotPrimitiveArray( String name , PrimitiveBSONList v ){
+        _put( name , v );
+    }
+
     protected void _put( String name , Object o ){
         cur().put( name , BSON.applyDecodingHooks( o ) );
     }
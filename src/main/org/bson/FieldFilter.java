@@ -0,0 +1,131 @@
+// FieldFilter.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+import java.util.*;
+
+/**
+ * Decides which top level fields {@link BSONDecoder} decodes.
+ * It's asked with the raw utf-8 bytes of the name, before any String is made;
+ * fields it turns down are jumped over using their lengths and never reach the callback.
+ */
+public abstract class FieldFilter {
+
+    /**
+     * @param name the field name is <code>name[off]</code> to <code>name[off+len-1]</code>, utf-8, no trailing 0.
+     *        the array belongs to the decoder and must not be kept.
+     * @return true to decode the field
+     */
+    public abstract boolean accept( byte[] name , int off , int len );
+
+    /**
+     * @return a filter that keeps only these fields
+     */
+    public static FieldFilter include( String ... names ){
+        return new Names( Arrays.asList( names ) , true );
+    }
+
+    /**
+     * @return a filter that keeps only these fields
+     */
+    public static FieldFilter include( Collection<String> names ){
+        return new Names( names , true );
+    }
+
+    /**
+     * @return a filter that keeps everything but these fields
+     */
+    public static FieldFilter exclude( String ... names ){
+        return new Names( Arrays.asList( names ) , false );
+    }
+
+    /**
+     * Same shape as a query's field selector: <code>{ a : 1 , b : 1 }</code> keeps a and b,
+     * <code>{ c : 0 }</code> drops c.  For dotted names the whole top level field is kept.
+     * Can't mix including and excluding, except for excluding _id.
+     */
+    public static FieldFilter fromProjection( BSONObject fields ){
+        Set<String> in = new LinkedHashSet<String>();
+        Set<String> out = new LinkedHashSet<String>();
+        for ( String k : fields.keySet() ){
+            String top = k.indexOf( "." ) < 0 ? k : k.substring( 0 , k.indexOf( "." ) );
+            if ( _truthy( fields.get( k ) ) )
+                in.add( top );
+            else
+                out.add( top );
+        }
+
+        if ( in.size() == 0 )
+            return new Names( out , false );
+
+        out.remove( "_id" );
+        if ( out.size() > 0 )
+            throw new IllegalArgumentException( "can't mix including and excluding fields: " + fields );
+
+        if ( ! fields.containsField( "_id" ) )
+            in.add( "_id" ); // like the server, _id comes back unless it's turned off
+        return new Names( in , true );
+    }
+
+    static boolean _truthy( Object o ){
+        if ( o instanceof Number )
+            return ((Number)o).doubleValue() != 0;
+        if ( o instanceof Boolean )
+            return (Boolean)o;
+        return o != null;
+    }
+
+    static class Names extends FieldFilter {
+        Names( Collection<String> names , boolean include ){
+            _include = include;
+            _names = new byte[names.size()][];
+            _strings = new ArrayList<String>( names );
+            int i = 0;
+            for ( String s : names ){
+                try {
+                    _names[i++] = s.getBytes( "UTF-8" );
+                }
+                catch ( java.io.UnsupportedEncodingException uee ){
+                    throw new RuntimeException( "impossible" , uee );
+                }
+            }
+        }
+
+        public boolean accept( byte[] name , int off , int len ){
+            for ( final byte[] n : _names ){
+                if ( n.length != len )
+                    continue;
+                int i = 0;
+                while ( i < len && n[i] == name[off+i] )
+                    i++;
+                if ( i == len )
+                    return _include;
+            }
+            return ! _include;
+        }
+
+        public String toString(){
+            return ( _include ? "include " : "exclude " ) + _strings;
+        }
+
+        final boolean _include;
+        final byte[][] _names;
+        final List<String> _strings;
+    }
+}
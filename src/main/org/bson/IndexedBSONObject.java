@@ -0,0 +1,47 @@
+// IndexedBSONObject.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+/**
+ * A <code>BSONObject</code> whose fields can be walked by position.
+ * Encoders walk them that way instead of looking every key from <code>keySet</code> up with
+ * <code>get</code>, when {@link #isIndexed} says that gives the same fields and values.
+ */
+public interface IndexedBSONObject extends BSONObject {
+
+    /**
+     * @return false if the positional methods don't agree with <code>keySet</code> and <code>get</code>,
+     *         for instance because a subclass overrides them
+     */
+    public boolean isIndexed();
+
+    /**
+     * @return number of fields
+     */
+    public int numFields();
+
+    /**
+     * @return position of <code>name</code>, -1 if there's no such field
+     */
+    public int fieldIndex( String name );
+
+    public String fieldName( int i );
+
+    public Object fieldValue( int i );
+}
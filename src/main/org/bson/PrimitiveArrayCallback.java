@@ -0,0 +1,34 @@
+// PrimitiveArrayCallback.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+import org.bson.types.*;
+
+/**
+ * a {@link BSONCallback} that can take a whole numeric array at once.
+ * {@link BSONDecoder#setPrimitiveArrays} only has an effect for callbacks that implement this.
+ */
+public interface PrimitiveArrayCallback extends BSONCallback {
+
+    /**
+     * an array of all ints, all longs or all doubles.
+     * nothing is passed for the elements themselves
+     */
+    void gotPrimitiveArray( String name , PrimitiveBSONList v );
+}
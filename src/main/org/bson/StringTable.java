@@ -0,0 +1,140 @@
+// StringTable.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+/**
+ * Canonical Strings for utf-8 bytes that keep showing up, like the field names
+ * of a batch of documents with the same shape.
+ * Looking up bytes that are already in the table doesn't allocate anything and hands back
+ * the same String every time, so a batch of documents shares one copy of each key.
+ * <p>Each string has one slot, picked by its hash.  A new string takes over the slot,
+ * so the table holds whatever was seen most recently and never grows.</p>
+ * <p>Not thread safe, each {@link BSONDecoder} has its own.</p>
+ */
+public class StringTable {
+
+    /**
+     * @param size number of slots, rounded up to a power of 2
+     * @param maxLength longer strings (in utf-8 bytes) aren't kept
+     */
+    public StringTable( int size , int maxLength ){
+        int n = 1;
+        while ( n < size )
+            n <<= 1;
+        _mask = n - 1;
+        _bytes = new byte[n][];
+        _strings = new String[n];
+        _maxLength = maxLength;
+        _chars = new char[maxLength];
+    }
+
+    /**
+     * @return the string for <code>b[off]</code> to <code>b[off+len-1]</code>,
+     *         or null if it's too long to be kept here
+     */
+    public String get( final byte[] b , final int off , final int len ){
+        if ( len > _maxLength )
+            return null;
+
+        int h = len;
+        for ( int i=0; i<len; i++ )
+            h = 31 * h + b[off+i];
+        final int slot = ( h ^ ( h >>> 16 ) ) & _mask;
+
+        final byte[] k = _bytes[slot];
+        if ( k != null && _same( k , b , off , len ) ){
+            _hits++;
+            return _strings[slot];
+        }
+
+        _misses++;
+        final String s = BSONDecoder._utf8( b , off , len , _chars );
+        final byte[] copy = new byte[len];
+        System.arraycopy( b , off , copy , 0 , len );
+        if ( k == null )
+            _used++;
+        _bytes[slot] = copy;
+        _strings[slot] = s;
+        return s;
+    }
+
+    static boolean _same( final byte[] k , final byte[] b , final int off , final int len ){
+        if ( k.length != len )
+            return false;
+        for ( int i=0; i<len; i++ )
+            if ( k[i] != b[off+i] )
+                return false;
+        return true;
+    }
+
+    /**
+     * @return number of strings held
+     */
+    public int size(){
+        return _used;
+    }
+
+    public int capacity(){
+        return _mask + 1;
+    }
+
+    public int getMaxLength(){
+        return _maxLength;
+    }
+
+    public long hits(){
+        return _hits;
+    }
+
+    public long misses(){
+        return _misses;
+    }
+
+    /**
+     * @return hits over lookups, 0 if there haven't been any
+     */
+    public double hitRate(){
+        final long total = _hits + _misses;
+        return total == 0 ? 0 : (double)_hits / total;
+    }
+
+    public void clear(){
+        for ( int i=0; i<=_mask; i++ ){
+            _bytes[i] = null;
+            _strings[i] = null;
+        }
+        _used = 0;
+        _hits = 0;
+        _misses = 0;
+    }
+
+    public String toString(){
+        return "StringTable size:" + _used + " capacity:" + capacity() + " hits:" + _hits + " misses:" + _misses;
+    }
+
+    final int _mask;
+    final int _maxLength;
+    final byte[][] _bytes;
+    final String[] _strings;
+    final char[] _chars;
+
+    private int _used;
+    private long _hits;
+    private long _misses;
+}
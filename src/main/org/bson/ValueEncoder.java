@@ -0,0 +1,42 @@
+// ValueEncoder.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+/**
+ * Writes one kind of value.  Register with {@link BSON#addEncoder}.
+ * <blockquote><pre>
+ * BSON.addEncoder( Money.class , new ValueEncoder(){
+ *         public void put( BSONEncoder e , String name , Object value ){
+ *             e.writeHeader( BSON.NUMBER_LONG , name );
+ *             e.writeLong( ((Money)value).getCents() );
+ *         }
+ *     } );
+ * </pre></blockquote>
+ * The value goes after {@link BSONEncoder#writeHeader}, written with {@link BSONEncoder#writeInt},
+ * {@link BSONEncoder#writeLong}, {@link BSONEncoder#writeDouble}, {@link BSONEncoder#writeString}
+ * and the like.  An encoder can also hand a different value back to {@link BSONEncoder#putValue}.
+ */
+public interface ValueEncoder {
+
+    /**
+     * writes the type, <code>name</code> and <code>value</code>
+     */
+    public void put( BSONEncoder e , String name , Object value );
+
+}
@@ -55,7 +55,7 @@ public class BasicOutputBuffer extends OutputBuffer {
     void _ensure( int more ){
         if ( _cur + more < _buffer.length )
             return;
-        byte[] n = new byte[_buffer.length*2];
+        byte[] n = new byte[ Math.max( _buffer.length*2 , _cur + more + 1 ) ];
         System.arraycopy( _buffer , 0 , n , 0 , _size );
         _buffer = n;
     }
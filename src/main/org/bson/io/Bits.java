@@ -46,4 +46,37 @@ public class Bits {
         x |= (long)( 0xFFL & in.read() ) << 56;
         return x;
     }
+
+    public static void readFully( InputStream in , byte[] b , int off , int len )
+        throws IOException {
+        while ( len > 0 ){
+            int x = in.read( b , off , len );
+            if ( x < 0 )
+                throw new EOFException( "stream ended with " + len + " bytes still to read" );
+            off += x;
+            len -= x;
+        }
+    }
+
+    public static int readInt( byte[] data , int offset ){
+        int x = 0;
+        x |= ( 0xFF & data[offset+0] ) << 0;
+        x |= ( 0xFF & data[offset+1] ) << 8;
+        x |= ( 0xFF & data[offset+2] ) << 16;
+        x |= ( 0xFF & data[offset+3] ) << 24;
+        return x;
+    }
+
+    public static long readLong( byte[] data , int offset ){
+        long x = 0;
+        x |= (long)( 0xFFL & data[offset+0] ) << 0;
+        x |= (long)( 0xFFL & data[offset+1] ) << 8;
+        x |= (long)( 0xFFL & data[offset+2] ) << 16;
+        x |= (long)( 0xFFL & data[offset+3] ) << 24;
+        x |= (long)( 0xFFL & data[offset+4] ) << 32;
+        x |= (long)( 0xFFL & data[offset+5] ) << 40;
+        x |= (long)( 0xFFL & data[offset+6] ) << 48;
+        x |= (long)( 0xFFL & data[offset+7] ) << 56;
+        return x;
+    }
 }
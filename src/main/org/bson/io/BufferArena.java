@@ -0,0 +1,286 @@
+// BufferArena.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson.io;
+
+import java.nio.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Pools byte[] and direct ByteBuffers in power of 2 size classes from 1k to 1m.
+ * Free buffers are spread over one stripe per processor so threads mostly don't touch the same queues,
+ * and the total held while free is capped; past the cap returned buffers are left to the gc.
+ * The cap is only on free buffers: ones that are in use aren't counted against it, see
+ * {@link #getOutstandingBytes}.  Nothing is kept per thread.
+ * <p>The arena doesn't keep track of what it has handed out, so a buffer that's never given back
+ * is just garbage.  Buffers given back are only checked for being one of the size classes, the rest
+ * are counted in {@link #getRejected}, so giving back the same buffer twice lets two users share it.</p>
+ * <p>Buffers bigger than the largest class aren't pooled.</p>
+ */
+public class BufferArena implements BufferArenaMBean {
+
+    public static final int MIN_SHIFT = 10;
+    public static final int MAX_SHIFT = 20;
+    public static final int NUM_CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+
+    /**
+     * most bytes held in free buffers, <code>MONGO.ARENA.MAX</code> or 16mb
+     */
+    public static final long DEFAULT_MAX_RETAINED = Long.getLong( "MONGO.ARENA.MAX" , 1024 * 1024 * 16 );
+
+    /**
+     * the arena the driver's buffers come from
+     */
+    public static final BufferArena DEFAULT = new BufferArena( DEFAULT_MAX_RETAINED , Runtime.getRuntime().availableProcessors() );
+
+    /**
+     * @param maxRetained most bytes to hold on to while they're not in use
+     * @param stripes number of free lists per size class
+     */
+    public BufferArena( long maxRetained , int stripes ){
+        _maxRetained = maxRetained;
+        _stripes = new Stripe[ Math.max( 1 , stripes ) ];
+        for ( int i=0; i<_stripes.length; i++ )
+            _stripes[i] = new Stripe();
+    }
+
+    /**
+     * @return the size class for <code>size</code> bytes, -1 if it's too big to pool
+     */
+    static int sizeClass( int size ){
+        if ( size <= ( 1 << MIN_SHIFT ) )
+            return 0;
+        final int c = 32 - Integer.numberOfLeadingZeros( size - 1 ) - MIN_SHIFT;
+        return c < NUM_CLASSES ? c : -1;
+    }
+
+    static int classSize( int c ){
+        return 1 << ( c + MIN_SHIFT );
+    }
+
+    /**
+     * @return an array of at least <code>size</code> bytes, with undefined contents.
+     *         pass it to {@link #done(byte[])} when finished.
+     */
+    public byte[] get( int size ){
+        final int c = sizeClass( size );
+        if ( c < 0 ){
+            _unpooled.incrementAndGet();
+            return new byte[size];
+        }
+
+        byte[] b = _poll( c , false );
+        if ( b == null ){
+            _misses.incrementAndGet();
+            b = new byte[ classSize( c ) ];
+        }
+        _outstanding.addAndGet( b.length );
+        return b;
+    }
+
+    /**
+     * gives back an array from {@link #get}, which mustn't be used afterwards.
+     * arrays that aren't the size of a class are ignored.
+     */
+    public void done( byte[] b ){
+        if ( b == null )
+            return;
+        final int c = _sizeClassOf( b.length );
+        if ( c < 0 )
+            return;
+        _returned( b.length );
+        _offer( c , b , b.length , false );
+    }
+
+    /**
+     * @return a cleared direct buffer with a capacity of at least <code>size</code> and its limit set to <code>size</code>
+     */
+    public ByteBuffer getDirect( int size ){
+        final int c = sizeClass( size );
+        if ( c < 0 ){
+            _unpooled.incrementAndGet();
+            return ByteBuffer.allocateDirect( size );
+        }
+
+        ByteBuffer bb = _poll( c , true );
+        if ( bb == null ){
+            _misses.incrementAndGet();
+            bb = ByteBuffer.allocateDirect( classSize( c ) );
+        }
+        _outstanding.addAndGet( bb.capacity() );
+        bb.clear();
+        bb.limit( size );
+        return bb;
+    }
+
+    /**
+     * gives back a buffer from {@link #getDirect}, or a heap buffer wrapping an array from {@link #get}
+     */
+    public void done( ByteBuffer bb ){
+        if ( bb == null )
+            return;
+        if ( ! bb.isDirect() ){
+            if ( bb.hasArray() && bb.arrayOffset() == 0 )
+                done( bb.array() );
+            return;
+        }
+        final int c = _sizeClassOf( bb.capacity() );
+        if ( c < 0 )
+            return;
+        _returned( bb.capacity() );
+        _offer( c , bb , bb.capacity() , true );
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T _poll( final int c , final boolean direct ){
+        final int mine = _stripe();
+        for ( int i=0; i<_stripes.length; i++ ){
+            final Stripe s = _stripes[ ( mine + i ) % _stripes.length ];
+            final Object o = ( direct ? s._direct[c] : s._heap[c] ).poll();
+            if ( o != null ){
+                _retained.addAndGet( -classSize( c ) );
+                _hits.incrementAndGet();
+                return (T)o;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void _offer( final int c , final Object o , final int len , final boolean direct ){
+        if ( _retained.addAndGet( len ) > _maxRetained ){
+            _retained.addAndGet( -len );
+            _dropped.incrementAndGet();
+            return;
+        }
+        final Stripe s = _stripes[ _stripe() ];
+        ( direct ? (ConcurrentLinkedQueue)s._direct[c] : (ConcurrentLinkedQueue)s._heap[c] ).offer( o );
+    }
+
+    /**
+     * @return the class a buffer of exactly <code>len</code> bytes belongs to, -1 if none
+     */
+    private int _sizeClassOf( final int len ){
+        final int c = sizeClass( len );
+        if ( c < 0 || classSize( c ) != len ){
+            _rejected.incrementAndGet();
+            return -1;
+        }
+        return c;
+    }
+
+    /**
+     * buffers that weren't handed out can come back, so this doesn't go below 0
+     */
+    private void _returned( final long len ){
+        long cur;
+        do {
+            cur = _outstanding.get();
+        } while ( ! _outstanding.compareAndSet( cur , Math.max( 0 , cur - len ) ) );
+    }
+
+    private int _stripe(){
+        return (int)( Thread.currentThread().getId() % _stripes.length );
+    }
+
+    public void clear(){
+        for ( Stripe s : _stripes ){
+            for ( int c=0; c<NUM_CLASSES; c++ ){
+                while ( s._heap[c].poll() != null )
+                    _retained.addAndGet( -classSize( c ) );
+                while ( s._direct[c].poll() != null )
+                    _retained.addAndGet( -classSize( c ) );
+            }
+        }
+    }
+
+    public long getMaxRetainedBytes(){
+        return _maxRetained;
+    }
+
+    public void setMaxRetainedBytes( long max ){
+        _maxRetained = max;
+    }
+
+    public long getRetainedBytes(){
+        return _retained.get();
+    }
+
+    /**
+     * @return bytes handed out by get that haven't come back.  buffers that are never given back stay counted.
+     */
+    public long getOutstandingBytes(){
+        return _outstanding.get();
+    }
+
+    public long getHits(){
+        return _hits.get();
+    }
+
+    public long getMisses(){
+        return _misses.get();
+    }
+
+    public long getDropped(){
+        return _dropped.get();
+    }
+
+    public long getUnpooled(){
+        return _unpooled.get();
+    }
+
+    /**
+     * @return buffers given back that weren't the size of a class
+     */
+    public long getRejected(){
+        return _rejected.get();
+    }
+
+    public String toString(){
+        return "BufferArena retained:" + getRetainedBytes() + "/" + getMaxRetainedBytes() + " outstanding:" + getOutstandingBytes() +
+            " hits:" + getHits() + " misses:" + getMisses() + " dropped:" + getDropped() + " unpooled:" + getUnpooled() +
+            " rejected:" + getRejected();
+    }
+
+    static class Stripe {
+        @SuppressWarnings("unchecked")
+        Stripe(){
+            _heap = new ConcurrentLinkedQueue[NUM_CLASSES];
+            _direct = new ConcurrentLinkedQueue[NUM_CLASSES];
+            for ( int c=0; c<NUM_CLASSES; c++ ){
+                _heap[c] = new ConcurrentLinkedQueue<byte[]>();
+                _direct[c] = new ConcurrentLinkedQueue<ByteBuffer>();
+            }
+        }
+
+        final ConcurrentLinkedQueue<byte[]>[] _heap;
+        final ConcurrentLinkedQueue<ByteBuffer>[] _direct;
+    }
+
+    private volatile long _maxRetained;
+    private final Stripe[] _stripes;
+
+    private final AtomicLong _retained = new AtomicLong();
+    private final AtomicLong _outstanding = new AtomicLong();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _dropped = new AtomicLong();
+    private final AtomicLong _unpooled = new AtomicLong();
+    private final AtomicLong _rejected = new AtomicLong();
+}
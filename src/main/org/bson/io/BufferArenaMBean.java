@@ -0,0 +1,42 @@
+// BufferArenaMBean.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson.io;
+
+/**
+ * JMX view of a {@link BufferArena}
+ */
+public interface BufferArenaMBean {
+
+    /**
+     * the cap on bytes held in free buffers, buffers in use don't count
+     */
+    public long getMaxRetainedBytes();
+    public void setMaxRetainedBytes( long max );
+
+    public long getRetainedBytes();
+    public long getOutstandingBytes();
+
+    public long getHits();
+    public long getMisses();
+    public long getDropped();
+    public long getUnpooled();
+    public long getRejected();
+
+    public void clear();
+}
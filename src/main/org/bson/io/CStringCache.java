@@ -0,0 +1,157 @@
+// CStringCache.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson.io;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Field names and namespaces encoded as utf-8 cstrings, so encoding a key is just a copy.
+ * Array indexes 0 to {@link #NUM_INDEXES} are always there.
+ * Other strings are added as they are seen, up to <code>maxSize</code>.  Once it's full nothing
+ * more is added, so a stream of distinct keys (user data used as field names) can't churn it:
+ * the strings seen first stay cached and the rest are encoded by the caller as usual.
+ */
+public class CStringCache {
+
+    public static final int NUM_INDEXES = 1024;
+    public static final int DEFAULT_MAX_SIZE = 4096;
+    public static final int DEFAULT_MAX_LENGTH = 128;
+
+    /**
+     * the cache BSONEncoder uses
+     */
+    public static final CStringCache DEFAULT = new CStringCache( DEFAULT_MAX_SIZE , DEFAULT_MAX_LENGTH );
+
+    /**
+     * @param maxSize number of strings to hold before starting over
+     * @param maxLength longer strings aren't cached
+     */
+    public CStringCache( int maxSize , int maxLength ){
+        _maxSize = maxSize;
+        _maxLength = maxLength;
+        _map = new ConcurrentHashMap<String,byte[]>( Math.min( maxSize , 1024 ) );
+    }
+
+    /**
+     * @return the array index as a string, shared for small indexes
+     */
+    public static String index( int i ){
+        if ( i >= 0 && i < NUM_INDEXES )
+            return INDEX_STRINGS[i];
+        return String.valueOf( i );
+    }
+
+    /**
+     * @return <code>s</code> as utf-8 with a trailing 0, or null if it can't be cached or the cache is full.
+     *         the array is shared and must not be changed.
+     */
+    public byte[] get( String s ){
+        byte[] b = INDEX_BYTES.get( s );
+        if ( b != null )
+            return b;
+
+        b = _map.get( s );
+        if ( b != null )
+            return b;
+
+        if ( s.length() > _maxLength || _size.get() >= _maxSize )
+            return null;
+
+        b = encode( s );
+        if ( b == null )
+            return null;
+
+        if ( _size.incrementAndGet() > _maxSize ){
+            // lost a race for the last spot
+            _size.decrementAndGet();
+            return b;
+        }
+        final byte[] old = _map.putIfAbsent( s , b );
+        if ( old != null ){
+            _size.decrementAndGet();
+            return old;
+        }
+        return b;
+    }
+
+    public int size(){
+        return _map.size();
+    }
+
+    public void clear(){
+        _map.clear();
+        _size.set( 0 );
+    }
+
+    /**
+     * @return utf-8 bytes plus a trailing 0, null if <code>s</code> has surrogates
+     *         (BSONEncoder does the checking for those)
+     */
+    static byte[] encode( String s ){
+        final int len = s.length();
+        int size = 1;
+        for ( int i=0; i<len; i++ ){
+            final char c = s.charAt( i );
+            if ( c < 0x80 )
+                size += 1;
+            else if ( c < 0x800 )
+                size += 2;
+            else if ( c >= 0xD800 && c <= 0xDFFF )
+                return null;
+            else
+                size += 3;
+        }
+
+        final byte[] b = new byte[size];
+        int n = 0;
+        for ( int i=0; i<len; i++ ){
+            final char c = s.charAt( i );
+            if ( c < 0x80 ){
+                b[n++] = (byte)c;
+            }
+            else if ( c < 0x800 ){
+                b[n++] = (byte)( 0xC0 | ( c >> 6 ) );
+                b[n++] = (byte)( 0x80 | ( c & 0x3F ) );
+            }
+            else {
+                b[n++] = (byte)( 0xE0 | ( c >> 12 ) );
+                b[n++] = (byte)( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                b[n++] = (byte)( 0x80 | ( c & 0x3F ) );
+            }
+        }
+        b[n] = 0;
+        return b;
+    }
+
+    final int _maxSize;
+    final int _maxLength;
+    final ConcurrentHashMap<String,byte[]> _map;
+    final AtomicInteger _size = new AtomicInteger();
+
+    static final String[] INDEX_STRINGS = new String[NUM_INDEXES];
+    static final Map<String,byte[]> INDEX_BYTES = new HashMap<String,byte[]>( NUM_INDEXES * 2 );
+    static {
+        for ( int i=0; i<NUM_INDEXES; i++ ){
+            INDEX_STRINGS[i] = String.valueOf( i );
+            INDEX_BYTES.put( INDEX_STRINGS[i] , encode( INDEX_STRINGS[i] ) );
+        }
+    }
+}
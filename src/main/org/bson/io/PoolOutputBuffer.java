@@ -14,6 +14,14 @@ public class PoolOutputBuffer extends OutputBuffer {
     public static final int BUF_SIZE = 1024 * 16;
 
     public PoolOutputBuffer(){
+        this( BufferArena.DEFAULT );
+    }
+
+    /**
+     * @param arena where chunks come from and go back to
+     */
+    public PoolOutputBuffer( BufferArena arena ){
+        _arena = arena;
         reset();
     }
 
@@ -21,9 +29,34 @@ public class PoolOutputBuffer extends OutputBuffer {
         _cur.reset();
         _end.reset();
 
-        for ( int i=0; i<_fromPool.size(); i++ )
-            _extra.done( _fromPool.get(i) );
-        _fromPool.clear();
+        for ( int i=0; i<_chunks.size(); i++ )
+            _arena.done( _chunks.get(i) );
+        _chunks.clear();
+    }
+
+    /**
+     * @param limit starting a chunk past this many bytes throws {@link LimitExceeded}
+     *        instead, checked only when a new chunk is needed
+     */
+    public void setLimit( int limit ){
+        _limit = limit;
+    }
+
+    public int getLimit(){
+        return _limit;
+    }
+
+    /**
+     * drops everything from <code>position</code> on
+     */
+    public void truncate( int position ){
+        if ( position > size() )
+            throw new IllegalArgumentException( "can't truncate to " + position + " size is " + size() );
+        _cur.reset( position );
+        _end.reset( position );
+
+        while ( _chunks.size() > _end.x + 2 )
+            _arena.done( _chunks.remove( _chunks.size() - 1 ) );
     }
 
     public int getPosition(){
@@ -84,7 +117,6 @@ public class PoolOutputBuffer extends OutputBuffer {
         if ( _end.y < BUF_SIZE )
             return;
         
-        _fromPool.add( _extra.get() );
         _end.nextBuffer();
         _cur.reset( _end );
     }
@@ -93,10 +125,16 @@ public class PoolOutputBuffer extends OutputBuffer {
         return _get( _cur.x );
     }
 
+    /**
+     * chunks come from the arena as they're first written to
+     */
     byte[] _get( int z ){
-        if ( z < 0 )
-            return _mine;
-        return _fromPool.get(z);
+        while ( _chunks.size() <= z + 1 ){
+            if ( (long)_chunks.size() * BUF_SIZE >= _limit )
+                throw new LimitExceeded( _limit );
+            _chunks.add( _arena.get( BUF_SIZE ) );
+        }
+        return _chunks.get( z + 1 );
     }
 
     public int pipe( OutputStream out )
@@ -104,10 +142,11 @@ public class PoolOutputBuffer extends OutputBuffer {
         
         int total = 0;
         
-        for ( int i=-1; i<_fromPool.size(); i++ ){
-            byte[] b = _get( i );
+        for ( int i=-1; i<=_end.x; i++ ){
             int amt = _end.len( i );
-            out.write( b , 0 , amt );
+            if ( amt == 0 )
+                continue;
+            out.write( _get( i ) , 0 , amt );
             total += amt;
         }
         
@@ -165,36 +204,38 @@ public class PoolOutputBuffer extends OutputBuffer {
             return x + "," + y;
         }
 
-        int x; // which buffer -1 == _mine
+        int x; // which buffer, starting at -1
         int y; // position in buffer
     }
     
     public String asString(){
-        if ( _fromPool.size() > 0 )
+        if ( size() > BUF_SIZE )
             return super.asString();
-        return new String( _mine , 0 , size() );
+        return new String( _get( -1 ) , 0 , size() );
     }
 
     public String asString( String encoding )
         throws UnsupportedEncodingException {
-        if ( _fromPool.size() > 0 )
+        if ( size() > BUF_SIZE )
             return super.asString( encoding );
-        return new String( _mine , 0 , size() , encoding );
+        return new String( _get( -1 ) , 0 , size() , encoding );
     }
 
     
-    final byte[] _mine = new byte[BUF_SIZE];
-    final List<byte[]> _fromPool = new ArrayList<byte[]>();
+    /**
+     * thrown by writes that would go past the limit
+     */
+    public static class LimitExceeded extends RuntimeException {
+        LimitExceeded( int limit ){
+            super( "buffer limit of " + limit + " bytes reached" );
+        }
+    }
+
+    final List<byte[]> _chunks = new ArrayList<byte[]>();
+    private int _limit = Integer.MAX_VALUE;
     
     private final Position _cur = new Position();
     private final Position _end = new Position();
     
-    private static org.bson.util.SimplePool<byte[]> _extra = 
-        new org.bson.util.SimplePool<byte[]>( ( 1024 * 1024 * 10 ) / BUF_SIZE ){
-        
-        protected byte[] createNew(){
-            return new byte[BUF_SIZE];
-        }
-
-    };
+    private final BufferArena _arena;
 }
@@ -0,0 +1,122 @@
+// SizingOutputBuffer.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson.io;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * First pass of a streamed encode.
+ * Keeps no bytes, just counts them and remembers the ints written back over earlier positions,
+ * which are the sizes BSONEncoder fills in once an object or string is done.
+ * A {@link StreamingOutputBuffer} given this can then run the same encode straight to a stream.
+ */
+public class SizingOutputBuffer extends OutputBuffer {
+
+    public void write( byte[] b ){
+        _inc( b.length );
+    }
+
+    public void write( byte[] b , int off , int len ){
+        _inc( len );
+    }
+
+    public void write( int b ){
+        _inc( 1 );
+    }
+
+    public void writeInt( int x ){
+        _inc( 4 );
+    }
+
+    public void writeLong( long x ){
+        _inc( 8 );
+    }
+
+    public void writeInt( int pos , int x ){
+        if ( _numPatches == _patches.length ){
+            long[] more = new long[ _patches.length * 2 ];
+            System.arraycopy( _patches , 0 , more , 0 , _numPatches );
+            _patches = more;
+        }
+        _patches[_numPatches++] = ( ( (long)pos ) << 32 ) | ( x & 0xFFFFFFFFL );
+        _sorted = false;
+    }
+
+    private void _inc( int n ){
+        _pos += n;
+        if ( _pos > _size )
+            _size = _pos;
+    }
+
+    public int getPosition(){
+        return _pos;
+    }
+
+    public void setPosition( int position ){
+        _pos = position;
+    }
+
+    public void seekEnd(){
+        _pos = _size;
+    }
+
+    public void seekStart(){
+        _pos = 0;
+    }
+
+    public int size(){
+        return _size;
+    }
+
+    public int pipe( OutputStream out ){
+        throw new UnsupportedOperationException( "SizingOutputBuffer doesn't keep any bytes" );
+    }
+
+    /**
+     * @return number of back-patched ints
+     */
+    public int numPatches(){
+        return _numPatches;
+    }
+
+    /**
+     * @return back-patches ordered by position, each as position in the high and value in the low 32 bits
+     */
+    long[] patches(){
+        if ( ! _sorted ){
+            Arrays.sort( _patches , 0 , _numPatches );
+            _sorted = true;
+        }
+        return _patches;
+    }
+
+    public void reset(){
+        _pos = 0;
+        _size = 0;
+        _numPatches = 0;
+    }
+
+    private int _pos;
+    private int _size;
+
+    private long[] _patches = new long[16];
+    private int _numPatches;
+    private boolean _sorted = true;
+}
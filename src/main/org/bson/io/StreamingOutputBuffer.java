@@ -0,0 +1,203 @@
+// StreamingOutputBuffer.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson.io;
+
+import java.io.*;
+
+/**
+ * Second pass of a streamed encode.
+ * Bytes go to the stream through a small window as they're written.
+ * Sizes can't be filled in afterwards, so the ones found by a {@link SizingOutputBuffer}
+ * over the same encode are put in place of the placeholders as they go by.
+ * <p>If the object changes between the two passes the output is wrong, so that throws.</p>
+ */
+public class StreamingOutputBuffer extends OutputBuffer {
+
+    public static final int DEFAULT_WINDOW = 1024 * 8;
+
+    public StreamingOutputBuffer( OutputStream out , SizingOutputBuffer sizes ){
+        this( out , sizes , DEFAULT_WINDOW );
+    }
+
+    public StreamingOutputBuffer( OutputStream out , SizingOutputBuffer sizes , int window ){
+        _out = out;
+        _patches = sizes.patches();
+        _numPatches = sizes.numPatches();
+        _nextPatch = _numPatches > 0 ? _patchPos( 0 ) : Integer.MAX_VALUE;
+        _window = _arena.get( window );
+    }
+
+    public void write( byte[] b ){
+        write( b , 0 , b.length );
+    }
+
+    public void write( byte[] b , int off , int len ){
+        while ( len > 0 ){
+            if ( _pos >= _nextPatch ){
+                write( b[off++] );
+                len--;
+                continue;
+            }
+
+            final int n = (int)Math.min( len , Math.min( (long)_nextPatch - _pos , _window.length - _n ) );
+            System.arraycopy( b , off , _window , _n , n );
+            _n += n;
+            _pos += n;
+            off += n;
+            len -= n;
+            if ( _n == _window.length )
+                _flush();
+        }
+    }
+
+    public void write( int b ){
+        if ( _pos >= _nextPatch ){
+            final int shift = ( _pos - _nextPatch ) * 8;
+            b = (int)( _patches[_patch] >> shift );
+            if ( shift == 24 ){
+                _patch++;
+                _nextPatch = _patch < _numPatches ? _patchPos( _patch ) : Integer.MAX_VALUE;
+            }
+        }
+
+        _window[_n++] = (byte)b;
+        _pos++;
+        if ( _n == _window.length )
+            _flush();
+    }
+
+    /**
+     * the value was already sent, so just make sure it's the one the sizing pass saw
+     */
+    public void writeInt( int pos , int x ){
+        final int i = _find( pos );
+        if ( i < 0 || (int)_patches[i] != x )
+            throw new IllegalStateException( "object changed while being sent (at " + pos + ")" );
+    }
+
+    public int getPosition(){
+        return _pos;
+    }
+
+    public void setPosition( int position ){
+        if ( position != _pos )
+            throw new UnsupportedOperationException( "can't move back in a stream" );
+    }
+
+    public void seekEnd(){
+    }
+
+    public void seekStart(){
+        setPosition( 0 );
+    }
+
+    public int size(){
+        return _pos;
+    }
+
+    public int pipe( OutputStream out ){
+        throw new UnsupportedOperationException( "StreamingOutputBuffer writes as it goes" );
+    }
+
+    /**
+     * writes what's left in the window and gives the window back
+     */
+    public void finish()
+        throws IOException {
+        if ( _window == null )
+            return;
+        try {
+            _flush();
+        }
+        catch ( StreamException se ){
+            throw se.getIOException();
+        }
+        finally {
+            release();
+        }
+    }
+
+    /**
+     * gives the window back without writing what's in it
+     */
+    public void release(){
+        if ( _window == null )
+            return;
+        _arena.done( _window );
+        _window = null;
+    }
+
+    private void _flush(){
+        if ( _n == 0 )
+            return;
+        try {
+            _out.write( _window , 0 , _n );
+        }
+        catch ( IOException ioe ){
+            throw new StreamException( ioe );
+        }
+        _n = 0;
+    }
+
+    private int _patchPos( int i ){
+        return (int)( _patches[i] >>> 32 );
+    }
+
+    private int _find( int pos ){
+        int lo = 0;
+        int hi = _numPatches - 1;
+        while ( lo <= hi ){
+            final int mid = ( lo + hi ) >>> 1;
+            final int p = _patchPos( mid );
+            if ( p < pos )
+                lo = mid + 1;
+            else if ( p > pos )
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * the encoder can't throw IOException, so socket errors come out wrapped in this
+     */
+    public static class StreamException extends RuntimeException {
+        StreamException( IOException cause ){
+            super( cause );
+        }
+
+        public IOException getIOException(){
+            return (IOException)getCause();
+        }
+    }
+
+    final OutputStream _out;
+    final long[] _patches;
+    final int _numPatches;
+
+    private byte[] _window;
+    private int _n;
+    private int _pos;
+
+    private int _patch;
+    private int _nextPatch;
+
+    private static final BufferArena _arena = BufferArena.DEFAULT;
+}
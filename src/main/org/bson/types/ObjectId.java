@@ -19,6 +19,7 @@
 package org.bson.types;
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.nio.*;
 import java.net.*;
 
@@ -97,9 +98,7 @@ public class ObjectId implements Comparable<ObjectId> , java.io.Serializable {
     public ObjectId( Date time ){
         _time = _flip( (int)(time.getTime() / 1000) );
         _machine = _genmachine;
-        synchronized ( _incLock ){
-            _inc = _nextInc++;
-        }     
+        _inc = _nextInc.getAndIncrement();
         _new = false;
     }
 
@@ -125,6 +124,15 @@ public class ObjectId implements Comparable<ObjectId> , java.io.Serializable {
 
     public ObjectId( String s , boolean babble ){
 
+        if ( ! babble && s != null && s.length() == 24 ){
+            // common case, read the hex straight into the 3 ints
+            _time = _parseHexInt( s , 0 );
+            _machine = _parseHexInt( s , 8 );
+            _inc = _parseHexInt( s , 16 );
+            _new = false;
+            return;
+        }
+
         if ( ! isValid( s ) )
             throw new IllegalArgumentException( "invalid ObjectId [" + s + "]" );
 
@@ -167,13 +175,9 @@ public class ObjectId implements Comparable<ObjectId> , java.io.Serializable {
     /** Create a new object id.
      */
     public ObjectId(){
-        _time = _gentime;
+        _time = _flip( (int)(System.currentTimeMillis()/1000) );
         _machine = _genmachine;
-        
-        synchronized ( _incLock ){
-            _inc = _nextInc++;
-        }
-        
+        _inc = _nextInc.getAndIncrement(); // wraps around, only has to be unique within a second
         _new = true;
     }
 
@@ -201,21 +205,41 @@ public class ObjectId implements Comparable<ObjectId> , java.io.Serializable {
     }
 
     public String toStringMongod(){
-        byte b[] = toByteArray();
+        return new String( _hex() );
+    }
 
-        StringBuilder buf = new StringBuilder(24);
-        
-        for ( int i=0; i<b.length; i++ ){
-            int x = b[i] & 0xFF;
-            String s = Integer.toHexString( x );
-            if ( s.length() == 1 )
-                buf.append( "0" );
-            buf.append( s );
-        }
+    /** Appends the 24 character hex form of this id, same as {@link #toStringMongod}.
+     * @return <code>buf</code>
+     */
+    public StringBuilder appendTo( StringBuilder buf ){
+        _hex( buf , _time );
+        _hex( buf , _machine );
+        _hex( buf , _inc );
+        return buf;
+    }
 
-        return buf.toString();
+    /** Appends the 24 character hex form of this id, same as {@link #toStringMongod}.
+     * @return <code>a</code>
+     */
+    public Appendable appendTo( Appendable a )
+        throws java.io.IOException {
+        if ( a instanceof StringBuilder )
+            return appendTo( (StringBuilder)a );
+        _hex( a , _time );
+        _hex( a , _machine );
+        _hex( a , _inc );
+        return a;
+    }
+
+    /** Writes the 12 bytes of this id, in the same order as {@link #toByteArray}.
+     * The byte order of <code>bb</code> doesn't matter.
+     */
+    public void writeTo( ByteBuffer bb ){
+        _put( bb , _time );
+        _put( bb , _machine );
+        _put( bb , _inc );
     }
-    
+
     public byte[] toByteArray(){
         byte b[] = new byte[12];
         ByteBuffer bb = ByteBuffer.wrap( b );
@@ -226,6 +250,71 @@ public class ObjectId implements Comparable<ObjectId> , java.io.Serializable {
         return b;
     }
 
+    /**
+     * @return the 24 hex characters
+     */
+    private char[] _hex(){
+        final char[] c = new char[24];
+        _hex( c , 0 , _time );
+        _hex( c , 8 , _machine );
+        _hex( c , 16 , _inc );
+        return c;
+    }
+
+    static void _hex( StringBuilder buf , int x ){
+        for ( int i=0; i<4; i++ ){
+            final int b = ( x >>> ( i * 8 ) ) & 0xFF;
+            buf.append( HEX[ b >> 4 ] ).append( HEX[ b & 0xF ] );
+        }
+    }
+
+    static void _hex( Appendable a , int x )
+        throws java.io.IOException {
+        for ( int i=0; i<4; i++ ){
+            final int b = ( x >>> ( i * 8 ) ) & 0xFF;
+            a.append( HEX[ b >> 4 ] ).append( HEX[ b & 0xF ] );
+        }
+    }
+
+    static void _hex( char[] c , int pos , int x ){
+        for ( int i=0; i<4; i++ ){
+            final int b = ( x >>> ( i * 8 ) ) & 0xFF;
+            c[pos++] = HEX[ b >> 4 ];
+            c[pos++] = HEX[ b & 0xF ];
+        }
+    }
+
+    static void _put( ByteBuffer bb , int x ){
+        bb.put( (byte)x );
+        bb.put( (byte)( x >>> 8 ) );
+        bb.put( (byte)( x >>> 16 ) );
+        bb.put( (byte)( x >>> 24 ) );
+    }
+
+    /**
+     * reads 8 hex chars starting at <code>pos</code>, first byte in the low bits
+     */
+    static int _parseHexInt( String s , int pos ){
+        int x = 0;
+        for ( int i=0; i<4; i++ ){
+            final int hi = _hexValue( s , pos++ );
+            final int lo = _hexValue( s , pos++ );
+            x |= ( ( hi << 4 ) | lo ) << ( i * 8 );
+        }
+        return x;
+    }
+
+    static int _hexValue( String s , int pos ){
+        final char c = s.charAt( pos );
+        if ( c >= '0' && c <= '9' )
+            return c - '0';
+        if ( c >= 'a' && c <= 'f' )
+            return c - 'a' + 10;
+        if ( c >= 'A' && c <= 'F' )
+            return c - 'A' + 10;
+        throw new IllegalArgumentException( "invalid ObjectId [" + s + "]" );
+    }
+
     static void reverse( byte[] b ){
         for ( int i=0; i<b.length/2; i++ ){
             byte t = b[i];
@@ -314,29 +403,13 @@ public class ObjectId implements Comparable<ObjectId> , java.io.Serializable {
     boolean _new;
 
     static int _flip( int x ){
-        if ( true ){
-            byte b[] = new byte[4];
-            ByteBuffer bb = ByteBuffer.wrap( b );
-            bb.order( ByteOrder.LITTLE_ENDIAN );
-            bb.putInt( x );
-            bb.flip();
-            bb.order( ByteOrder.BIG_ENDIAN );
-            return bb.getInt();
-        }
-        int z = 0;
-        z |= ( x & 0xFF ) << 24;
-        z |= ( x & 0xFF00 ) << 8;
-        z |= ( x & 0xFF00000 ) >> 8;
-        z |= ( x & 0xFF000000 ) >> 24;
-        return z;
+        return Integer.reverseBytes( x );
     }
     
-    private static int _nextInc = (new java.util.Random()).nextInt();
-    private static final String _incLock = new String( "ObjectId._incLock" );
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final AtomicInteger _nextInc = new AtomicInteger( (new java.util.Random()).nextInt() );
 
-    private static int _gentime = _flip( (int)(System.currentTimeMillis()/1000) );
-    
-    static final Thread _timeFixer;
     private static final int _genmachine;
     static {
 
@@ -363,53 +436,37 @@ public class ObjectId implements Comparable<ObjectId> , java.io.Serializable {
         catch ( java.io.IOException ioe ){
             throw new RuntimeException( ioe );
         }
-
-        _timeFixer = new Thread("ObjectId-TimeFixer"){
-                public void run(){
-                    while ( true ){
-                        try {
-                            Thread.sleep( 499 );
-                        }
-                        catch ( Exception e ){}
-                        _gentime = _flip( (int)(System.currentTimeMillis()/1000) );
-                    }
-                }
-            };
-        _timeFixer.setDaemon( true );
-        _timeFixer.start();
     }
 
-    public static void main( String args[] ){
-        
-        if ( true ){
-            int z = _nextInc;
-            System.out.println( Integer.toHexString( z ) );
-            System.out.println( Integer.toHexString( _flip( z ) ) );
-            System.out.println( Integer.toHexString( _flip( _flip( z ) ) ) );
-            return;
-        }
+    /** 
+     * generates ids from 1 to 64 threads and prints the rate for each
+     */
+    public static void main( String args[] )
+        throws InterruptedException {
 
-        ObjectId x = new ObjectId();
+        final int num = args.length > 0 ? Integer.parseInt( args[0] ) : 5000000;
 
-        double num = 5000000.0;
-        
-        long start = System.currentTimeMillis();
-        for ( double i=0; i<num; i++ ){
-            ObjectId id = get();
-        }
-        long end = System.currentTimeMillis();
-        System.out.println( ( ( num * 1000.0 ) / ( end - start ) ) + " oid/sec" );
-        
-        Set<ObjectId> s = new HashSet<ObjectId>();
-        for ( double i=0; i<num/10; i++ ){
-            ObjectId id = get();
-            if ( s.contains( id ) )
-                throw new RuntimeException( "ObjectId() generated a repeat" );
-            s.add( id );
-
-            ObjectId o = new ObjectId( id.toString() );
-            if ( ! id.equals( o ) )
-                throw new RuntimeException( o.toString() + " != " + id.toString() );
+        for ( int numThreads=1; numThreads<=64; numThreads*=2 ){
+            
+            final int perThread = num / numThreads;
+            Thread[] threads = new Thread[numThreads];
+            for ( int t=0; t<numThreads; t++ ){
+                threads[t] = new Thread(){
+                        public void run(){
+                            for ( int i=0; i<perThread; i++ )
+                                get();
+                        }
+                    };
+            }
+            
+            long start = System.currentTimeMillis();
+            for ( Thread t : threads )
+                t.start();
+            for ( Thread t : threads )
+                t.join();
+            long end = System.currentTimeMillis();
+            
+            System.out.println( numThreads + " threads\t" + ( ( perThread * numThreads * 1000.0 ) / Math.max( 1 , end - start ) ) + " oid/sec" );
         }
 
     }
@@ -0,0 +1,476 @@
+// PrimitiveBSONList.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson.types;
+
+import java.util.*;
+
+import org.bson.*;
+
+import com.mongodb.util.OrderedSet;
+
+/**
+ * A BSON array of numbers kept in a primitive array instead of as boxed objects.
+ * <p>
+ * {@link BSONDecoder#setPrimitiveArrays} makes the decoder return these for arrays that are
+ * all ints, all longs or all doubles, and {@link BSONEncoder} writes them straight from the
+ * primitive array.  Numbers are only boxed when they're read through the <code>List</code>
+ * or <code>BSONObject</code> methods; use <code>getInt</code>, <code>getLong</code> or
+ * <code>getDouble</code> to avoid that.
+ * </p>
+ * <p>
+ * Like {@link BasicBSONList} only numeric keys work, and since there's no room for nulls,
+ * a value can only be put at an existing index or at the end.
+ * </p>
+ */
+public abstract class PrimitiveBSONList<T extends Number> extends AbstractList<T> implements BSONObject , RandomAccess {
+
+    PrimitiveBSONList( int size ){
+        _size = size;
+    }
+
+    public int size(){
+        return _size;
+    }
+
+    /**
+     * @return the BSON type of the elements, {@link BSON#NUMBER_INT}, {@link BSON#NUMBER_LONG} or {@link BSON#NUMBER}
+     */
+    public abstract byte getElementType();
+
+    /**
+     * @throws IllegalArgumentException if <code>v</code> can't be held without losing anything
+     */
+    abstract T _cast( Object v );
+
+    abstract void _grow( int min );
+
+    public Object put( String key , Object v ){
+        return put( _getInt( key ) , v );
+    }
+
+    /**
+     * sets the value at an index, or adds it if <code>key</code> is the size of the list
+     */
+    public Object put( int key , Object v ){
+        final T t = _cast( v );
+        if ( key == _size )
+            add( t );
+        else
+            set( key , t );
+        return v;
+    }
+
+    public void putAll( Map m ){
+        for ( Map.Entry entry : (Set<Map.Entry>)m.entrySet() ){
+            put( entry.getKey().toString() , entry.getValue() );
+        }
+    }
+
+    public void putAll( BSONObject o ){
+        for ( String k : o.keySet() ){
+            put( k , o.get( k ) );
+        }
+    }
+
+    public Object get( String key ){
+        int i = _getInt( key );
+        if ( i < 0 || i >= _size )
+            return null;
+        return get( i );
+    }
+
+    public Object removeField( String key ){
+        int i = _getInt( key );
+        if ( i < 0 || i >= _size )
+            return null;
+        return remove( i );
+    }
+
+    /**
+     * @deprecated
+     */
+    public boolean containsKey( String key ){
+        return containsField( key );
+    }
+
+    public boolean containsField( String key ){
+        int i = _getInt( key , false );
+        return i >= 0 && i < _size;
+    }
+
+    public Set<String> keySet(){
+        Set<String> s = new OrderedSet<String>();
+        for ( int i=0; i<_size; i++ )
+            s.add( String.valueOf( i ) );
+        return s;
+    }
+
+    public Map toMap(){
+        Map m = new HashMap();
+        for ( int i=0; i<_size; i++ )
+            m.put( String.valueOf( i ) , get( i ) );
+        return m;
+    }
+
+    final void _check( int i ){
+        if ( i < 0 || i >= _size )
+            throw new IndexOutOfBoundsException( "index: " + i + " size: " + _size );
+    }
+
+    final void _checkAdd( int i ){
+        if ( i < 0 || i > _size )
+            throw new IndexOutOfBoundsException( "index: " + i + " size: " + _size );
+    }
+
+    static int _capacity( int old , int min ){
+        return Math.max( min , old < 4 ? 8 : old * 2 );
+    }
+
+    int _getInt( String s ){
+        return _getInt( s , true );
+    }
+
+    int _getInt( String s , boolean err ){
+        try {
+            return Integer.parseInt( s );
+        }
+        catch ( Exception e ){
+            if ( err )
+                throw new IllegalArgumentException( "PrimitiveBSONList can only work with numeric keys, not: [" + s + "]" );
+            return -1;
+        }
+    }
+
+    int _size;
+
+    /**
+     * an array of ints, encoded as <code>NUMBER_INT</code>s
+     */
+    public static class Ints extends PrimitiveBSONList<Integer> {
+
+        public Ints(){
+            this( new int[8] , 0 );
+        }
+
+        /**
+         * wraps <code>data</code> without copying it
+         */
+        public Ints( int[] data ){
+            this( data , data.length );
+        }
+
+        /**
+         * wraps the first <code>size</code> elements of <code>data</code> without copying it
+         */
+        public Ints( int[] data , int size ){
+            super( size );
+            if ( size > data.length )
+                throw new IllegalArgumentException( "size " + size + " is more than " + data.length );
+            _data = data;
+        }
+
+        public byte getElementType(){
+            return BSON.NUMBER_INT;
+        }
+
+        public int getInt( int i ){
+            _check( i );
+            return _data[i];
+        }
+
+        public Integer get( int i ){
+            return getInt( i );
+        }
+
+        public Integer set( int i , Integer v ){
+            _check( i );
+            final int old = _data[i];
+            _data[i] = v;
+            return old;
+        }
+
+        public void add( int i , Integer v ){
+            addInt( i , v );
+        }
+
+        public void addInt( int v ){
+            addInt( _size , v );
+        }
+
+        public void addInt( int i , int v ){
+            _checkAdd( i );
+            _grow( _size + 1 );
+            System.arraycopy( _data , i , _data , i + 1 , _size - i );
+            _data[i] = v;
+            _size++;
+            modCount++;
+        }
+
+        public Integer remove( int i ){
+            _check( i );
+            final int old = _data[i];
+            System.arraycopy( _data , i + 1 , _data , i , _size - i - 1 );
+            _size--;
+            modCount++;
+            return old;
+        }
+
+        /**
+         * @return a copy of the elements
+         */
+        public int[] toIntArray(){
+            final int[] a = new int[_size];
+            System.arraycopy( _data , 0 , a , 0 , _size );
+            return a;
+        }
+
+        /**
+         * @return the backing array, which can be longer than the list
+         */
+        public int[] array(){
+            return _data;
+        }
+
+        Integer _cast( Object v ){
+            if ( v instanceof Integer || v instanceof Short || v instanceof Byte )
+                return ((Number)v).intValue();
+            throw new IllegalArgumentException( "can only hold ints, not: " + ( v == null ? null : v.getClass() ) );
+        }
+
+        void _grow( int min ){
+            if ( min <= _data.length )
+                return;
+            final int[] a = new int[ _capacity( _data.length , min ) ];
+            System.arraycopy( _data , 0 , a , 0 , _size );
+            _data = a;
+        }
+
+        int[] _data;
+    }
+
+    /**
+     * an array of longs, encoded as <code>NUMBER_LONG</code>s
+     */
+    public static class Longs extends PrimitiveBSONList<Long> {
+
+        public Longs(){
+            this( new long[8] , 0 );
+        }
+
+        /**
+         * wraps <code>data</code> without copying it
+         */
+        public Longs( long[] data ){
+            this( data , data.length );
+        }
+
+        /**
+         * wraps the first <code>size</code> elements of <code>data</code> without copying it
+         */
+        public Longs( long[] data , int size ){
+            super( size );
+            if ( size > data.length )
+                throw new IllegalArgumentException( "size " + size + " is more than " + data.length );
+            _data = data;
+        }
+
+        public byte getElementType(){
+            return BSON.NUMBER_LONG;
+        }
+
+        public long getLong( int i ){
+            _check( i );
+            return _data[i];
+        }
+
+        public Long get( int i ){
+            return getLong( i );
+        }
+
+        public Long set( int i , Long v ){
+            _check( i );
+            final long old = _data[i];
+            _data[i] = v;
+            return old;
+        }
+
+        public void add( int i , Long v ){
+            addLong( i , v );
+        }
+
+        public void addLong( long v ){
+            addLong( _size , v );
+        }
+
+        public void addLong( int i , long v ){
+            _checkAdd( i );
+            _grow( _size + 1 );
+            System.arraycopy( _data , i , _data , i + 1 , _size - i );
+            _data[i] = v;
+            _size++;
+            modCount++;
+        }
+
+        public Long remove( int i ){
+            _check( i );
+            final long old = _data[i];
+            System.arraycopy( _data , i + 1 , _data , i , _size - i - 1 );
+            _size--;
+            modCount++;
+            return old;
+        }
+
+        /**
+         * @return a copy of the elements
+         */
+        public long[] toLongArray(){
+            final long[] a = new long[_size];
+            System.arraycopy( _data , 0 , a , 0 , _size );
+            return a;
+        }
+
+        /**
+         * @return the backing array, which can be longer than the list
+         */
+        public long[] array(){
+            return _data;
+        }
+
+        Long _cast( Object v ){
+            if ( v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte )
+                return ((Number)v).longValue();
+            throw new IllegalArgumentException( "can only hold longs, not: " + ( v == null ? null : v.getClass() ) );
+        }
+
+        void _grow( int min ){
+            if ( min <= _data.length )
+                return;
+            final long[] a = new long[ _capacity( _data.length , min ) ];
+            System.arraycopy( _data , 0 , a , 0 , _size );
+            _data = a;
+        }
+
+        long[] _data;
+    }
+
+    /**
+     * an array of doubles, encoded as <code>NUMBER</code>s
+     */
+    public static class Doubles extends PrimitiveBSONList<Double> {
+
+        public Doubles(){
+            this( new double[8] , 0 );
+        }
+
+        /**
+         * wraps <code>data</code> without copying it
+         */
+        public Doubles( double[] data ){
+            this( data , data.length );
+        }
+
+        /**
+         * wraps the first <code>size</code> elements of <code>data</code> without copying it
+         */
+        public Doubles( double[] data , int size ){
+            super( size );
+            if ( size > data.length )
+                throw new IllegalArgumentException( "size " + size + " is more than " + data.length );
+            _data = data;
+        }
+
+        public byte getElementType(){
+            return BSON.NUMBER;
+        }
+
+        public double getDouble( int i ){
+            _check( i );
+            return _data[i];
+        }
+
+        public Double get( int i ){
+            return getDouble( i );
+        }
+
+        public Double set( int i , Double v ){
+            _check( i );
+            final double old = _data[i];
+            _data[i] = v;
+            return old;
+        }
+
+        public void add( int i , Double v ){
+            addDouble( i , v );
+        }
+
+        public void addDouble( double v ){
+            addDouble( _size , v );
+        }
+
+        public void addDouble( int i , double v ){
+            _checkAdd( i );
+            _grow( _size + 1 );
+            System.arraycopy( _data , i , _data , i + 1 , _size - i );
+            _data[i] = v;
+            _size++;
+            modCount++;
+        }
+
+        public Double remove( int i ){
+            _check( i );
+            final double old = _data[i];
+            System.arraycopy( _data , i + 1 , _data , i , _size - i - 1 );
+            _size--;
+            modCount++;
+            return old;
+        }
+
+        /**
+         * @return a copy of the elements
+         */
+        public double[] toDoubleArray(){
+            final double[] a = new double[_size];
+            System.arraycopy( _data , 0 , a , 0 , _size );
+            return a;
+        }
+
+        /**
+         * @return the backing array, which can be longer than the list
+         */
+        public double[] array(){
+            return _data;
+        }
+
+        Double _cast( Object v ){
+            if ( v instanceof Double || v instanceof Float || v instanceof Integer || v instanceof Short || v instanceof Byte )
+                return ((Number)v).doubleValue();
+            throw new IllegalArgumentException( "can only hold numbers, not: " + ( v == null ? null : v.getClass() ) );
+        }
+
+        void _grow( int min ){
+            if ( min <= _data.length )
+                return;
+            final double[] a = new double[ _capacity( _data.length , min ) ];
+            System.arraycopy( _data , 0 , a , 0 , _size );
+            _data = a;
+        }
+
+        double[] _data;
+    }
+}
@@ -0,0 +1,110 @@
+// ClassCache.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson.util;
+
+import java.lang.ref.*;
+import java.util.*;
+
+/**
+ * Caches a value computed from a Class, for lookups on hot paths.
+ * <p>Reads don't lock.  The map is copied when something is added and published whole, and
+ * {@link #clear} bumps a version, so a lookup that started before a <code>clear</code> can't put
+ * back what it computed from the old state.</p>
+ * <p>Only classes this library's class loader can see are held strongly.  Others (an application's
+ * own classes in a container) are kept in a weak map with soft values, so caching them doesn't
+ * keep their class loader alive after it's been let go.</p>
+ */
+public abstract class ClassCache<T> {
+
+    /**
+     * @return the value for <code>c</code>, never null
+     */
+    protected abstract T compute( Class<?> c );
+
+    public T get( Class<?> c ){
+        final T v = _strong.get( c );
+        if ( v != null )
+            return v;
+        return _slow( c );
+    }
+
+    /**
+     * drops everything, call after whatever <code>compute</code> reads has changed
+     */
+    public synchronized void clear(){
+        _version++;
+        _strong = Collections.emptyMap();
+        _weak.clear();
+    }
+
+    public synchronized int size(){
+        return _strong.size() + _weak.size();
+    }
+
+    private T _slow( Class<?> c ){
+        final boolean strong = isLocal( c );
+        final int version;
+        synchronized ( this ){
+            if ( ! strong ){
+                final Reference<T> r = _weak.get( c );
+                final T v = r == null ? null : r.get();
+                if ( v != null )
+                    return v;
+            }
+            version = _version;
+        }
+
+        // outside the lock, it can be slow or call back in
+        final T v = compute( c );
+        if ( v == null )
+            throw new NullPointerException( "no value for " + c.getName() );
+
+        synchronized ( this ){
+            if ( version == _version ){
+                if ( strong ){
+                    final Map<Class<?>,T> m = new HashMap<Class<?>,T>( _strong );
+                    m.put( c , v );
+                    _strong = m;
+                }
+                else {
+                    _weak.put( c , new SoftReference<T>( v ) );
+                }
+            }
+        }
+        return v;
+    }
+
+    /**
+     * @return true if <code>c</code> comes from this library's class loader or one of its parents,
+     *         so it can't be unloaded while this library is loaded
+     */
+    static boolean isLocal( Class<?> c ){
+        final ClassLoader l = c.getClassLoader();
+        if ( l == null )
+            return true;
+        for ( ClassLoader mine = ClassCache.class.getClassLoader(); mine != null; mine = mine.getParent() )
+            if ( mine == l )
+                return true;
+        return false;
+    }
+
+    private volatile Map<Class<?>,T> _strong = Collections.emptyMap();
+    private final Map<Class<?>,Reference<T>> _weak = new WeakHashMap<Class<?>,Reference<T>>();
+    private int _version = 0;
+}
@@ -0,0 +1,97 @@
+// LRUCache.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson.util;
+
+import java.util.*;
+
+/**
+ * A small, synchronized map that drops the least recently used entry once it's full,
+ * and counts how often lookups find something.
+ */
+public class LRUCache<K,V> {
+
+    /**
+     * @param maxSize entries to hold before dropping the least recently used one
+     */
+    public LRUCache( final int maxSize ){
+        if ( maxSize <= 0 )
+            throw new IllegalArgumentException( "maxSize has to be > 0" );
+        _maxSize = maxSize;
+        _map = new LinkedHashMap<K,V>( 16 , .75f , true ){
+            protected boolean removeEldestEntry( Map.Entry<K,V> eldest ){
+                return size() > _maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the value, or null if there isn't one (counted as a miss)
+     */
+    public synchronized V get( K key ){
+        final V v = _map.get( key );
+        if ( v == null )
+            _misses++;
+        else
+            _hits++;
+        return v;
+    }
+
+    public synchronized void put( K key , V value ){
+        _map.put( key , value );
+    }
+
+    public synchronized int size(){
+        return _map.size();
+    }
+
+    public int getMaxSize(){
+        return _maxSize;
+    }
+
+    public synchronized long hits(){
+        return _hits;
+    }
+
+    public synchronized long misses(){
+        return _misses;
+    }
+
+    /**
+     * @return hits over lookups, 0 if there haven't been any
+     */
+    public synchronized double hitRate(){
+        final long total = _hits + _misses;
+        return total == 0 ? 0 : (double)_hits / total;
+    }
+
+    public synchronized void clear(){
+        _map.clear();
+        _hits = 0;
+        _misses = 0;
+    }
+
+    public synchronized String toString(){
+        return "LRUCache size:" + _map.size() + " max:" + _maxSize + " hits:" + _hits + " misses:" + _misses;
+    }
+
+    final int _maxSize;
+    private final LinkedHashMap<K,V> _map;
+    private long _hits;
+    private long _misses;
+}
@@ -0,0 +1,90 @@
+// BatchSizerTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+import org.testng.annotations.Test;
+
+import com.mongodb.util.*;
+
+public class BatchSizerTest extends TestCase {
+
+    static final long MS = 1000 * 1000;
+
+    @Test
+    public void testBytes(){
+        BatchSizer s = new BatchSizer( 100 * 1000 , 1000 );
+        // 100 byte documents: grows to 1000, doubling at most
+        assertEquals( 200 , s.next( 100 , 36 + 100 * 100 , 100 , 100 , 1 * MS ) );
+        assertEquals( 1000 , s.next( 800 , 36 + 800 * 100 , 800 , 800 , 1 * MS ) );
+        // 10k documents: shrinks to 10, halving at most
+        assertEquals( 50 , s.next( 100 , 36 + 100 * 10000 , 100 , 100 , 1 * MS ) );
+        assertEquals( 10 , s.next( 16 , 36 + 16 * 10000 , 16 , 16 , 1 * MS ) );
+        // the server picked the first batch size
+        assertEquals( 202 , s.next( 0 , 36 + 101 * 100 , 101 , 101 , 1 * MS ) );
+    }
+
+    @Test
+    public void testTime(){
+        BatchSizer s = new BatchSizer( 100 * 1000 * 1000 , 100 );
+        // 1ms a document: 100 is what takes 100ms
+        assertEquals( 100 , s.next( 150 , 36 + 150 * 10 , 150 , 150 , 150 * MS ) );
+        // only half used so far, same rate
+        assertEquals( 100 , s.next( 150 , 36 + 150 * 10 , 150 , 75 , 75 * MS ) );
+        // nothing known about time yet: bytes only
+        assertEquals( 300 , s.next( 150 , 36 + 150 * 10 , 150 , 0 , 0 ) );
+    }
+
+    @Test
+    public void testLimits(){
+        BatchSizer s = new BatchSizer( 10 , 1 );
+        assertEquals( BatchSizer.MIN , s.next( 3 , 36 + 3 * 1000 , 3 , 3 , 100 * MS ) );
+        assertEquals( 7 , s.next( 7 , 36 , 0 , 0 , 0 ) );
+
+        s = new BatchSizer( Integer.MAX_VALUE , 100000 );
+        assertEquals( BatchSizer.MAX , s.next( 90000 , 36 + 90000 * 5 , 90000 , 90000 , 1 ) );
+
+        try {
+            new BatchSizer( 0 , 10 );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException e ){}
+    }
+
+    @Test
+    public void testCursor()
+        throws Exception {
+        ReadAheadTest.Batches server = new ReadAheadTest.Batches( 1000 , 10 );
+        // {_id:n} is 14 bytes, so 1400 bytes is 100 documents
+        DBCursor c = new DBApiLayer( "db" , server ).getCollection( "c" ).find().batchSize( 10 ).adaptiveBatchSize( 1400 , 60000 );
+        assertEquals( 1000 , c.itcount() );
+        assertEquals( Arrays.asList( 10 , 20 , 40 , 80 , 100 , 100 ) , server._sizes.subList( 0 , 6 ) );
+
+        // not used with a limit
+        server = new ReadAheadTest.Batches( 1000 , 10 );
+        c = new DBApiLayer( "db" , server ).getCollection( "c" ).find().batchSize( 10 ).limit( 50 ).adaptiveBatchSize( 1400 , 60000 );
+        assertEquals( 50 , c.itcount() );
+        assertEquals( 10 , server._sizes.get( 1 ).intValue() );
+    }
+
+    public static void main( String args[] ){
+        (new BatchSizerTest()).runConsole();
+    }
+}
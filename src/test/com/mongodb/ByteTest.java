@@ -374,6 +374,94 @@ public class ByteTest extends TestCase {
         assertEquals( x , Bytes.decode( b ) );
     }
 
+    @Test(groups = {"basic"})
+    public void testRawObject(){
+        DBObject x = BasicDBObjectBuilder.start( "x" , 1 ).add( "y" , "asdasd" ).add( "z" , new BasicDBObject( "a" , 5.5 ) ).get();
+        byte[] b = Bytes.encode( x );
+        
+        RawDBObject raw = new RawDBObject( b );
+        assertEquals( b.length , raw.size() );
+        assertEquals( 1 , raw.get( "x" ) );
+        assertEquals( "asdasd" , raw.get( "y" ) );
+
+        _assertSameMessage( OutMessage.query( 0 , "a.b" , 0 , 0 , x , null ).toByteArray() ,
+                            OutMessage.query( 0 , "a.b" , 0 , 0 , raw , null ).toByteArray() );
+        
+        _assertSameMessage( OutMessage.query( 0 , "a.b" , 0 , 0 , new BasicDBObject( "query" , x ) , null ).toByteArray() ,
+                            OutMessage.query( 0 , "a.b" , 0 , 0 , new BasicDBObject( "query" , raw ) , null ).toByteArray() );
+
+        java.nio.ByteBuffer direct = java.nio.ByteBuffer.allocateDirect( b.length );
+        direct.put( b ).flip();
+        _assertSameMessage( OutMessage.query( 0 , "a.b" , 0 , 0 , x , null ).toByteArray() ,
+                            OutMessage.query( 0 , "a.b" , 0 , 0 , new RawDBObject( direct ) , null ).toByteArray() );
+    }
+
+    @Test(groups = {"basic"})
+    public void testRawObjectValidation(){
+        boolean threw = false;
+        try {
+            new RawDBObject( new byte[]{ 10 , 0 , 0 , 0 , 0 } );
+        }
+        catch ( IllegalArgumentException e ){
+            threw = true;
+        }
+        assertTrue( threw );
+        
+        byte[] big = new byte[ Bytes.MAX_OBJECT_SIZE + 5 ];
+        java.nio.ByteBuffer.wrap( big ).order( Bytes.ORDER ).putInt( big.length );
+        threw = false;
+        try {
+            OutMessage.query( 0 , "a.b" , 0 , 0 , new RawDBObject( big ) , null );
+        }
+        catch ( IllegalArgumentException e ){
+            threw = true;
+        }
+        assertTrue( threw );
+    }
+
+    @Test(groups = {"basic"})
+    public void testTemplate(){
+        DBTemplate q = new DBTemplate( new BasicDBObject( "_id" , DBTemplate.slot( "id" ) ) );
+        DBTemplate u = new DBTemplate( new BasicDBObject( "$inc" , new BasicDBObject( "n" , DBTemplate.slot( "n" ) ) ) );
+        
+        for ( int i=0; i<3; i++ ){
+            ObjectId id = new ObjectId();
+            _assertSameMessage( OutMessage.query( 0 , "a.b" , 0 , 0 , new BasicDBObject( "_id" , id ) , new BasicDBObject( "$inc" , new BasicDBObject( "n" , i ) ) ).toByteArray() , 
+                                OutMessage.query( 0 , "a.b" , 0 , 0 , q.bind( id ) , u.bind( i ) ).toByteArray() );
+        }
+        
+        DBObject bound = q.bind( "abc" );
+        assertEquals( "abc" , bound.get( "_id" ) );
+        assertEquals( 1 , bound.keySet().size() );
+        assertTrue( bound instanceof DBObject );
+    }
+
+    @Test(groups = {"basic"})
+    public void testTemplateApply(){
+        DBTemplate t = new DBTemplate( new BasicDBObject( "x" , DBTemplate.slot( "x" ) ).append( "y" , new BasicDBObject( "z" , 1 ) ) );
+        DBObject bound = t.bind( 5 );
+        Object id = _db.getCollection( "templates" ).apply( bound );
+        assertTrue( id instanceof ObjectId );
+        assertEquals( id , bound.get( "_id" ) );
+        _assertSameMessage( OutMessage.query( 0 , "a.b" , 0 , 0 , new BasicDBObject( "_id" , id ).append( "x" , 5 ).append( "y" , new BasicDBObject( "z" , 1 ) ) , null ).toByteArray() ,
+                            OutMessage.query( 0 , "a.b" , 0 , 0 , bound , null ).toByteArray() );
+
+        DBObject withId = new DBTemplate( new BasicDBObject( "_id" , DBTemplate.slot( "id" ) ) ).bind( 7 );
+        assertEquals( 7 , _db.getCollection( "templates" ).apply( withId ) );
+        try {
+            withId.put( "_id" , 8 );
+            assertTrue( false );
+        }
+        catch ( RuntimeException re ){}
+    }
+
+    void _assertSameMessage( byte[] a , byte[] b ){
+        assertEquals( a.length , b.length );
+        // skip the header, request ids differ
+        for ( int i=16; i<a.length; i++ )
+            assertEquals( a[i] , b[i] );
+    }
+
     final DB _db;
 
     public static void main( String args[] )
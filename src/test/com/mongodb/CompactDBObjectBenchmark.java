@@ -0,0 +1,93 @@
+// CompactDBObjectBenchmark.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+import org.bson.*;
+import org.bson.types.*;
+
+/**
+ * heap used by and decode rate of many 10 field documents, as BasicDBObject and CompactDBObject.
+ * doesn't need a server.  run with a big enough -Xmx for the number of documents.
+ */
+public class CompactDBObjectBenchmark {
+
+    static DBObject sample( int i ){
+        return new BasicDBObject( "_id" , new ObjectId() )
+            .append( "name" , "document" )
+            .append( "i" , i )
+            .append( "l" , (long)i )
+            .append( "d" , i * 1.5 )
+            .append( "b" , i % 2 == 0 )
+            .append( "date" , new Date() )
+            .append( "type" , "page" )
+            .append( "views" , 17 )
+            .append( "score" , 5.5 );
+    }
+
+    static long _used(){
+        for ( int i=0; i<4; i++ ){
+            System.gc();
+            try {
+                Thread.sleep( 50 );
+            }
+            catch ( InterruptedException ie ){}
+        }
+        Runtime r = Runtime.getRuntime();
+        return r.totalMemory() - r.freeMemory();
+    }
+
+    static void run( byte[] b , boolean compact , int num ){
+        DBCallback.setCompactObjects( compact );
+        DBCollection c = new DBApiLayer( "db" , null ).getCollection( "c" );
+        BSONDecoder d = new BSONDecoder();
+        // share strings like the driver's decoders do, so only the containers differ
+        d.setNameTable( new StringTable( 1024 , 64 ) );
+        d.setValueTable( new StringTable( 256 , 32 ) );
+
+        List<DBObject> all = new ArrayList<DBObject>( num );
+        long before = _used();
+        long start = System.nanoTime();
+        for ( int i=0; i<num; i++ ){
+            DBCallback cb = new DBCallback( c );
+            d.decode( b , cb );
+            all.add( (DBObject)cb.get() );
+        }
+        long nanos = System.nanoTime() - start;
+        long used = _used() - before;
+
+        String name = compact ? "CompactDBObject" : "BasicDBObject";
+        System.out.println( name + "\t" + ( used / num ) + " bytes/doc\t" + (long)( num / ( nanos / 1e9 ) ) + " decodes/sec" );
+        if ( all.size() != num )
+            throw new RuntimeException( "huh" );
+    }
+
+    public static void main( String args[] ){
+        int num = args.length > 0 ? Integer.parseInt( args[0] ) : 500000;
+        byte[] b = BSON.encode( sample( 5 ) );
+
+        System.out.println( "warming up" );
+        run( b , false , num / 10 );
+        run( b , true , num / 10 );
+        System.out.println();
+        run( b , false , num );
+        run( b , true , num );
+    }
+}
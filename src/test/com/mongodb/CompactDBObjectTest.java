@@ -0,0 +1,126 @@
+// CompactDBObjectTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+import org.testng.annotations.Test;
+
+import org.bson.*;
+
+import com.mongodb.util.*;
+
+public class CompactDBObjectTest extends TestCase {
+
+    @Test
+    public void testBasics(){
+        CompactDBObject o = new CompactDBObject();
+        assertEquals( 0 , o.size() );
+        assertNull( o.put( "a" , 1 ) );
+        o.put( "b" , "x" );
+        o.put( "c" , null );
+        assertEquals( 1 , o.put( "a" , 2 ) );
+
+        assertEquals( 3 , o.size() );
+        assertEquals( 2 , o.getInt( "a" ) );
+        assertEquals( "x" , o.get( "b" ) );
+        assertTrue( o.containsField( "c" ) );
+        assertFalse( o.containsField( "d" ) );
+        assertNull( o.get( (Object)null ) );
+        assertEquals( Arrays.asList( "a" , "b" , "c" ) , new ArrayList<String>( o.keySet() ) );
+
+        assertEquals( "x" , o.removeField( "b" ) );
+        assertEquals( Arrays.asList( "a" , "c" ) , new ArrayList<String>( o.keySet() ) );
+        assertNull( o.removeField( "b" ) );
+
+        o.markAsPartialObject();
+        assertTrue( o.isPartialObject() );
+    }
+
+    @Test
+    public void testManyFields(){
+        CompactDBObject o = new CompactDBObject();
+        for ( int i=0; i<100; i++ )
+            o.put( "f" + i , i );
+        assertEquals( 100 , o.size() );
+        for ( int i=0; i<100; i++ )
+            assertEquals( i , o.get( "f" + i ) );
+        assertNull( o.get( "f100" ) );
+
+        for ( int i=0; i<100; i+=2 )
+            assertEquals( i , o.removeField( "f" + i ) );
+        assertEquals( 50 , o.size() );
+        for ( int i=0; i<100; i++ )
+            assertEquals( i % 2 == 0 ? null : (Object)i , o.get( "f" + i ) );
+
+        Iterator<String> it = o.keySet().iterator();
+        while ( it.hasNext() )
+            if ( ! it.next().equals( "f99" ) )
+                it.remove();
+        assertEquals( 1 , o.size() );
+        assertEquals( 99 , o.get( "f99" ) );
+    }
+
+    @Test
+    public void testSameAsBasic(){
+        BasicDBObject b = new BasicDBObject( "_id" , 1 ).append( "name" , "n" ).append( "sub" , new BasicDBObject( "x" , 2 ) );
+        CompactDBObject c = new CompactDBObject().append( "_id" , 1.0 ).append( "name" , "n" ).append( "sub" , new CompactDBObject( "x" , 2 ) );
+
+        assertTrue( c.equals( b ) );
+        assertTrue( b.equals( c ) );
+        assertEquals( b.toString() , c.toString().replace( "1.0" , "1" ) );
+        assertEquals( b.keySet() , c.keySet() );
+
+        c.put( "_id" , 1 );
+        assertTrue( Arrays.equals( BSON.encode( b ) , BSON.encode( c ) ) );
+        assertEquals( b.hashCode() , c.hashCode() );
+
+        for ( Map.Entry<String,Object> e : c.entrySet() )
+            if ( e.getKey().equals( "name" ) )
+                e.setValue( "m" );
+        assertEquals( "m" , c.get( "name" ) );
+        assertEquals( c.toMap() , new CompactDBObject().append( "_id" , 1 ).append( "name" , "m" ).append( "sub" , new CompactDBObject( "x" , 2 ) ).toMap() );
+    }
+
+    @Test
+    public void testCallback(){
+        DBObject o = new BasicDBObject( "a" , 1 ).append( "sub" , new BasicDBObject( "b" , 2 ) ).append( "list" , Arrays.asList( 1 , 2 ) );
+        byte[] b = BSON.encode( o );
+        DBCollection c = new DBApiLayer( "db" , null ).getCollection( "c" );
+
+        boolean was = DBCallback.isCompactObjects();
+        DBCallback.setCompactObjects( true );
+        try {
+            DBCallback cb = new DBCallback( c );
+            new BSONDecoder().decode( b , cb );
+            DBObject d = (DBObject)cb.get();
+            assertTrue( d instanceof CompactDBObject );
+            assertTrue( d.get( "sub" ) instanceof CompactDBObject );
+            assertTrue( d.get( "list" ) instanceof BasicDBList );
+            assertEquals( o , d );
+        }
+        finally {
+            DBCallback.setCompactObjects( was );
+        }
+    }
+
+    public static void main( String args[] ){
+        (new CompactDBObjectTest()).runConsole();
+    }
+}
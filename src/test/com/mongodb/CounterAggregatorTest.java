@@ -0,0 +1,269 @@
+// CounterAggregatorTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+import java.util.*;
+
+import org.testng.annotations.Test;
+
+import org.bson.*;
+import org.bson.io.*;
+
+import com.mongodb.util.*;
+
+public class CounterAggregatorTest extends TestCase {
+
+    @Test
+    public void testCoalesce()
+        throws Exception {
+        Recorder r = new Recorder();
+        DBCollection c = new DBApiLayer( "counters" , r ).getCollection( "hits" );
+        CounterAggregator counters = c.getCounterAggregator();
+        assertTrue( counters == c.getCounterAggregator() );
+
+        for ( int i=0; i<100; i++ ){
+            counters.inc( "a" , "n" );
+            counters.inc( "b" , "n" , 2 );
+            counters.inc( "b" , "m" , -1 );
+        }
+        assertEquals( 0 , r._updates.size() );
+        assertEquals( 2 , counters.numPending() );
+        assertEquals( 300L , counters.numIncs() );
+
+        assertEquals( 2 , counters.flush() );
+        assertEquals( 0 , counters.numPending() );
+        assertEquals( 2 , r._updates.size() );
+
+        Map<Object,BSONObject> byId = new HashMap<Object,BSONObject>();
+        for ( Update u : r._updates ){
+            assertEquals( "counters.hits" , u._ns );
+            assertEquals( 1 , u._flags ); // upsert
+            byId.put( u._query.get( "_id" ) , (BSONObject)u._update.get( "$inc" ) );
+        }
+        assertEquals( 100 , byId.get( "a" ).get( "n" ) );
+        assertEquals( 200 , byId.get( "b" ).get( "n" ) );
+        assertEquals( -100 , byId.get( "b" ).get( "m" ) );
+
+        assertEquals( 0 , counters.flush() );
+        counters.close();
+    }
+
+    @Test
+    public void testLong()
+        throws Exception {
+        Recorder r = new Recorder();
+        CounterAggregator counters = new DBApiLayer( "counters" , r ).getCollection( "hits" ).getCounterAggregator();
+        counters.inc( 1 , "n" , Integer.MAX_VALUE );
+        counters.inc( 1 , "n" , Integer.MAX_VALUE );
+        counters.close();
+
+        assertEquals( 1 , r._updates.size() );
+        assertEquals( 2L * Integer.MAX_VALUE , ((BSONObject)r._updates.get( 0 )._update.get( "$inc" )).get( "n" ) );
+    }
+
+    @Test
+    public void testMaxPending()
+        throws Exception {
+        Recorder r = new Recorder();
+        CounterAggregator counters = new DBApiLayer( "counters" , r ).getCollection( "hits" ).getCounterAggregator();
+        counters.setMaxPending( 10 );
+
+        for ( int i=0; i<10; i++ )
+            counters.inc( i , "n" );
+        assertEquals( 0 , r._updates.size() );
+
+        // written in the background, not by the caller
+        counters.inc( 10 , "n" );
+        long end = System.currentTimeMillis() + 5000;
+        while ( r._updates.size() < 11 && System.currentTimeMillis() < end )
+            Thread.sleep( 5 );
+        assertEquals( 11 , r._updates.size() );
+        assertEquals( 0 , counters.numPending() );
+        counters.close();
+    }
+
+    @Test
+    public void testOverflowDoesntThrow()
+        throws Exception {
+        Recorder r = new Recorder();
+        CounterAggregator counters = new DBApiLayer( "counters" , r ).getCollection( "hits" ).getCounterAggregator();
+        counters.setMaxPending( 1 );
+        r._fail = true;
+        for ( int i=0; i<5; i++ )
+            counters.inc( i , "n" );
+        counters.inc( 0 , "n" );
+        assertEquals( 6L , counters.numIncs() );
+
+        r._fail = false;
+        counters.close();
+        int total = 0;
+        for ( Update u : r._updates )
+            total += ((Number)((BSONObject)u._update.get( "$inc" )).get( "n" )).intValue();
+        assertEquals( 6 , total );
+    }
+
+    @Test
+    public void testFailedFlushKeepsDeltas()
+        throws Exception {
+        Recorder r = new Recorder();
+        CounterAggregator counters = new DBApiLayer( "counters" , r ).getCollection( "hits" ).getCounterAggregator();
+        counters.inc( "a" , "n" , 5 );
+
+        r._fail = true;
+        try {
+            counters.flush();
+            assertTrue( false );
+        }
+        catch ( MongoException me ){}
+
+        r._fail = false;
+        counters.inc( "a" , "n" , 2 );
+        counters.close();
+
+        assertEquals( 1 , r._updates.size() );
+        assertEquals( 7 , ((BSONObject)r._updates.get( 0 )._update.get( "$inc" )).get( "n" ) );
+
+        try {
+            counters.inc( "a" , "n" );
+            assertTrue( false );
+        }
+        catch ( IllegalStateException ise ){}
+    }
+
+    @Test
+    public void testFailedUpdateDoesntStopFlush()
+        throws Exception {
+        Recorder r = new Recorder();
+        CounterAggregator counters = new DBApiLayer( "counters" , r ).getCollection( "hits" ).getCounterAggregator();
+        for ( int i=0; i<5; i++ )
+            counters.inc( i , "n" );
+
+        r._failId = 2;
+        try {
+            counters.flush();
+            assertTrue( false );
+        }
+        catch ( MongoException me ){}
+        assertEquals( 4 , r._updates.size() );
+        assertEquals( 1 , counters.numPending() );
+
+        r._failId = null;
+        assertEquals( 1 , counters.flush() );
+        assertEquals( 2 , r._updates.get( 4 )._query.get( "_id" ) );
+        counters.close();
+    }
+
+    @Test
+    public void testSharedFlusher()
+        throws Exception {
+        Recorder r = new Recorder();
+        DBApiLayer db = new DBApiLayer( "counters" , r );
+        CounterAggregator a = db.getCollection( "a" ).getCounterAggregator().setFlushInterval( 5 );
+        CounterAggregator b = db.getCollection( "b" ).getCounterAggregator().setFlushInterval( 5 );
+        a.inc( 1 , "n" );
+        b.inc( 1 , "n" );
+
+        long end = System.currentTimeMillis() + 5000;
+        while ( r._updates.size() < 2 && System.currentTimeMillis() < end )
+            Thread.sleep( 5 );
+        assertEquals( 2 , r._updates.size() );
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void testThreads()
+        throws Exception {
+        final Recorder r = new Recorder();
+        final CounterAggregator counters = new DBApiLayer( "counters" , r ).getCollection( "hits" ).getCounterAggregator();
+        counters.setFlushInterval( 5 );
+
+        final int numThreads = 8;
+        final int num = 20000;
+        Thread[] threads = new Thread[numThreads];
+        for ( int t=0; t<numThreads; t++ ){
+            threads[t] = new Thread(){
+                    public void run(){
+                        for ( int i=0; i<num; i++ )
+                            counters.inc( i % 7 , "n" );
+                    }
+                };
+            threads[t].start();
+        }
+        for ( Thread t : threads )
+            t.join();
+        counters.close();
+
+        long total = 0;
+        for ( Update u : r._updates )
+            total += ((Number)((BSONObject)u._update.get( "$inc" )).get( "n" )).longValue();
+        assertEquals( (long)numThreads * num , total );
+        assertTrue( r._updates.size() < numThreads * num );
+    }
+
+    static class Update {
+        Update( byte[] b )
+            throws IOException {
+            InputStream in = new ByteArrayInputStream( b );
+            in.skip( 16 ); // header
+            Bits.readInt( in ); // reserved
+
+            StringBuilder ns = new StringBuilder();
+            int c;
+            while ( ( c = in.read() ) > 0 )
+                ns.append( (char)c );
+            _ns = ns.toString();
+            _flags = Bits.readInt( in );
+
+            BSONDecoder d = new BSONDecoder();
+            _query = d.readObject( in );
+            _update = d.readObject( in );
+        }
+
+        final String _ns;
+        final int _flags;
+        final BSONObject _query;
+        final BSONObject _update;
+    }
+
+    static class Recorder extends FakeConnector {
+        public WriteResult say( DB db , OutMessage m , DB.WriteConcern concern )
+            throws MongoException {
+            if ( _fail )
+                throw new MongoException( "fail" );
+            try {
+                Update u = new Update( m.toByteArray() );
+                if ( _failId != null && _failId.equals( u._query.get( "_id" ) ) )
+                    throw new MongoException( "fail " + _failId );
+                synchronized ( _updates ){
+                    _updates.add( u );
+                }
+            }
+            catch ( IOException ioe ){
+                throw new RuntimeException( ioe );
+            }
+            return ok();
+        }
+
+        final List<Update> _updates = new ArrayList<Update>();
+        volatile boolean _fail = false;
+        volatile Object _failId = null;
+    }
+}
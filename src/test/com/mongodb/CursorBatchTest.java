@@ -0,0 +1,140 @@
+// CursorBatchTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.testng.annotations.Test;
+
+import com.mongodb.util.*;
+
+public class CursorBatchTest extends TestCase {
+
+    @Test
+    public void testNextBatch()
+        throws Exception {
+        ReadAheadTest.Batches server = new ReadAheadTest.Batches( 25 , 10 );
+        DBCursor c = new DBApiLayer( "db" , server ).getCollection( "c" ).find().batchSize( 10 );
+
+        assertEquals( 0 , c.next().get( "_id" ) );
+        assertEquals( 1 , c.next().get( "_id" ) );
+
+        // the rest of the first batch, then whole batches
+        List<DBObject> b = c.nextBatch();
+        assertEquals( 8 , b.size() );
+        assertEquals( 2 , b.get( 0 ).get( "_id" ) );
+        assertEquals( 0 , server._getMores );
+
+        assertEquals( 10 , c.nextBatch().size() );
+        assertEquals( 1 , server._getMores );
+
+        assertEquals( 20 , c.next().get( "_id" ) );
+        assertEquals( 4 , c.nextBatch().size() );
+        assertNull( c.nextBatch() );
+        assertFalse( c.hasNext() );
+        assertEquals( 25 , c.numSeen() );
+    }
+
+    @Test
+    public void testNextBatchLimit()
+        throws Exception {
+        DBCursor c = new DBApiLayer( "db" , new ReadAheadTest.Batches( 25 , 10 ) ).getCollection( "c" ).find().limit( 15 ).batchSize( 10 );
+        assertEquals( 10 , c.nextBatch().size() );
+        assertEquals( 5 , c.nextBatch().size() );
+        assertNull( c.nextBatch() );
+    }
+
+    @Test
+    public void testParallelForEach()
+        throws Exception {
+        ReadAheadTest.Batches server = new ReadAheadTest.Batches( 1000 , 50 );
+        DBCursor c = new DBApiLayer( "db" , server ).getCollection( "c" ).find().batchSize( 50 ).readAhead( 0.5f );
+
+        final Set<Object> seen = Collections.synchronizedSet( new HashSet<Object>() );
+        final Set<String> threads = Collections.synchronizedSet( new HashSet<String>() );
+        long n = c.parallelForEach( new DBCursor.DocumentHandler(){
+                public void handle( DBObject o ){
+                    assertTrue( seen.add( o.get( "_id" ) ) );
+                    threads.add( Thread.currentThread().getName() );
+                    try {
+                        Thread.sleep( 1 );
+                    }
+                    catch ( InterruptedException ie ){}
+                }
+            } , 4 );
+        assertEquals( 1000L , n );
+        assertEquals( 1000 , seen.size() );
+        assertTrue( threads.size() > 1 );
+        assertEquals( 19 , server._getMores );
+    }
+
+    @Test
+    public void testParallelForEachError()
+        throws Exception {
+        DBCursor c = new DBApiLayer( "db" , new ReadAheadTest.Batches( 1000 , 10 ) ).getCollection( "c" ).find().batchSize( 10 );
+        try {
+            c.parallelForEach( new DBCursor.DocumentHandler(){
+                    public void handle( DBObject o ){
+                        if ( o.get( "_id" ).equals( 55 ) )
+                            throw new IllegalStateException( "bad" );
+                    }
+                } , 3 );
+            assertTrue( false );
+        }
+        catch ( IllegalStateException e ){}
+        assertTrue( c.numSeen() < 1000 );
+    }
+
+    @Test
+    public void testParallelForEachExecutor()
+        throws Exception {
+        DBCursor.DocumentHandler nothing = new DBCursor.DocumentHandler(){
+                public void handle( DBObject o ){}
+            };
+
+        try {
+            _cursor().parallelForEach( nothing , 0 );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException e ){}
+
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try {
+            assertEquals( 100L , _cursor().parallelForEach( nothing , 4 , executor ) );
+            assertFalse( executor.isShutdown() );
+            assertEquals( 100L , _cursor().parallelForEach( nothing , 2 , executor ) );
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        // calls without an executor share one pool
+        assertEquals( 100L , _cursor().parallelForEach( nothing , 3 ) );
+        assertFalse( DBCursor._workers().isShutdown() );
+    }
+
+    static DBCursor _cursor(){
+        return new DBApiLayer( "db" , new ReadAheadTest.Batches( 100 , 10 ) ).getCollection( "c" ).find().batchSize( 10 );
+    }
+
+    public static void main( String args[] ){
+        (new CursorBatchTest()).runConsole();
+    }
+}
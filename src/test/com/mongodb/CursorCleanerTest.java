@@ -0,0 +1,155 @@
+// CursorCleanerTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+import org.testng.annotations.Test;
+
+import com.mongodb.util.*;
+
+public class CursorCleanerTest extends TestCase {
+
+    @Test
+    public void testCloseIsBatched()
+        throws Exception {
+        ReadAheadTest.Batches server = new ReadAheadTest.Batches( 1000 , 10 );
+        DBApiLayer db = new DBApiLayer( "db" , server );
+        db.setKillCursorsDelay( 60000 );
+        db.setKillCursorsBatchSize( 3 );
+
+        for ( int i=0; i<2; i++ ){
+            DBCursor c = db.getCollection( "c" ).find().batchSize( 10 );
+            c.next();
+            c.close();
+        }
+        assertEquals( 2 , db._cleaner.pending().size() );
+        assertEquals( 0 , db._cleaner.numTracked() );
+        Thread.sleep( 50 );
+        assertEquals( 0 , server._killCursors );
+
+        DBCursor c = db.getCollection( "c" ).find().batchSize( 10 );
+        c.next();
+        c.close();
+        server.waitForKilled( 3 );
+        assertEquals( 1 , server._killCursors );
+        assertEquals( Arrays.asList( 42L , 42L , 42L ) , server._killed );
+        assertEquals( 0 , db._cleaner.pending().size() );
+    }
+
+    @Test
+    public void testBatchWakesWatchingThread()
+        throws Exception {
+        ReadAheadTest.Batches server = new ReadAheadTest.Batches( 1000 , 10 );
+        DBApiLayer db = new DBApiLayer( "db" , server );
+        db.setKillCursorsDelay( 60000 );
+        db.setKillCursorsBatchSize( 2 );
+
+        DBCursor open = db.getCollection( "c" ).find().batchSize( 10 );
+        open.next();
+        Thread.sleep( 50 ); // the thread is waiting in the reference queue
+
+        final long start = System.currentTimeMillis();
+        for ( int i=0; i<2; i++ ){
+            DBCursor c = db.getCollection( "c" ).find().batchSize( 10 );
+            c.next();
+            c.close();
+        }
+        server.waitForKilled( 2 );
+        assertEquals( 1 , server._killCursors );
+        assertTrue( System.currentTimeMillis() - start < CursorCleaner.IDLE_MS / 2 );
+        assertEquals( 1 , db._cleaner.numTracked() );
+        open.close();
+    }
+
+    @Test
+    public void testDelay()
+        throws Exception {
+        ReadAheadTest.Batches server = new ReadAheadTest.Batches( 1000 , 10 );
+        DBApiLayer db = new DBApiLayer( "db" , server );
+        db.setKillCursorsDelay( 20 );
+
+        DBCursor c = db.getCollection( "c" ).find().batchSize( 10 );
+        c.next();
+        c.close();
+        c.close();
+        server.waitForKilled( 1 );
+        assertEquals( 1 , server._killCursors );
+        assertEquals( Arrays.asList( 42L ) , server._killed );
+    }
+
+    @Test
+    public void testFinishedCursorIsNotKilled()
+        throws Exception {
+        ReadAheadTest.Batches server = new ReadAheadTest.Batches( 25 , 10 );
+        DBApiLayer db = new DBApiLayer( "db" , server );
+
+        DBCursor c = db.getCollection( "c" ).find().batchSize( 10 );
+        assertTrue( c.hasNext() );
+        assertEquals( 1 , db._cleaner.numTracked() );
+        assertEquals( 25 , c.itcount() );
+        assertEquals( 0 , db._cleaner.numTracked() );
+        c.close();
+        assertEquals( 0 , db._cleaner.pending().size() );
+    }
+
+    @Test
+    public void testDroppedCursorIsKilled()
+        throws Exception {
+        ReadAheadTest.Batches server = new ReadAheadTest.Batches( 1000 , 10 );
+        DBApiLayer db = new DBApiLayer( "db" , server );
+        db.setKillCursorsDelay( 0 );
+
+        _open( db );
+        assertEquals( 1 , db._cleaner.numTracked() );
+
+        long end = System.currentTimeMillis() + 5000;
+        while ( server._killed.size() == 0 && System.currentTimeMillis() < end ){
+            System.gc();
+            Thread.sleep( 20 );
+        }
+        assertEquals( Arrays.asList( 42L ) , server._killed );
+        assertEquals( 0 , db._cleaner.numTracked() );
+    }
+
+    private static void _open( DBApiLayer db ){
+        DBCursor c = db.getCollection( "c" ).find().batchSize( 10 );
+        c.next();
+    }
+
+    @Test
+    public void testFlush()
+        throws Exception {
+        ReadAheadTest.Batches server = new ReadAheadTest.Batches( 1000 , 10 );
+        DBApiLayer db = new DBApiLayer( "db" , server );
+        db.setKillCursorsDelay( 60000 );
+
+        DBCursor c = db.getCollection( "c" ).find().batchSize( 10 );
+        c.next();
+        c.close();
+        assertEquals( 0 , server._killCursors );
+        assertEquals( 1 , db._cleaner.flush() );
+        assertEquals( 1 , server._killCursors );
+        assertEquals( 0 , db._cleaner.flush() );
+    }
+
+    public static void main( String args[] ){
+        (new CursorCleanerTest()).runConsole();
+    }
+}
@@ -0,0 +1,312 @@
+// ExhaustTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import org.testng.annotations.Test;
+
+import org.bson.*;
+import org.bson.io.*;
+
+import com.mongodb.util.*;
+
+public class ExhaustTest extends TestCase {
+
+    @Test
+    public void testExhaust()
+        throws Exception {
+        StandIn server = new StandIn( 250 , 100 , 0 );
+        Mongo m = new Mongo( "127.0.0.1" , server.port() );
+        try {
+            DBCollection c = m.getDB( "db" ).getCollection( "c" );
+
+            DBCursor cur = c.find().batchSize( 100 ).exhaust();
+            int n = 0;
+            while ( cur.hasNext() )
+                assertEquals( n++ , cur.next().get( "_id" ) );
+            assertEquals( 250 , n );
+            assertEquals( Arrays.asList( 100 , 100 , 50 ) , cur.getSizes() );
+            assertEquals( 2 , cur.numGetMores() );
+
+            // no getMores were sent, and the connection went back to the pool
+            assertEquals( 0 , server._getMores.get() );
+            assertEquals( 250 , c.find().batchSize( 100 ).itcount() );
+            assertEquals( 2 , server._getMores.get() );
+            assertEquals( 1 , server._connections.get() );
+        }
+        finally {
+            m.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testEarlyClose()
+        throws Exception {
+        // big enough that the server is still writing when the cursor is closed
+        StandIn server = new StandIn( 20000 , 100 , 2000 );
+        Mongo m = new Mongo( "127.0.0.1" , server.port() );
+        try {
+            DBCollection c = m.getDB( "db" ).getCollection( "c" );
+
+            DBCursor cur = c.find().batchSize( 100 ).exhaust();
+            for ( int i=0; i<150; i++ )
+                cur.next();
+            cur.close();
+            assertFalse( cur.hasNext() );
+
+            // that connection is gone, so the next query gets a new one
+            assertEquals( 20000 , c.find().batchSize( 5000 ).itcount() );
+            assertEquals( 2 , server._connections.get() );
+            server.waitForBroken();
+            assertEquals( 1 , server._broken.get() );
+        }
+        finally {
+            m.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testNestedCallsDontUseTheExhaustPort()
+        throws Exception {
+        StandIn server = new StandIn( 10 , 100 , 0 );
+        Mongo m = new Mongo( "127.0.0.1" , server.port() );
+        try {
+            assertEquals( 10 , m.getDB( "db" ).getCollection( "c" ).find().itcount() );
+
+            DBTCPConnector.MyPort mp = m._connector.new MyPort();
+            mp.requestStart();
+            DBPort mine = mp.get( true );
+            mp.done( mine );
+
+            DBPort exhaust = mp.getExclusive();
+            assertTrue( exhaust != mine );
+            mp.doneExclusive();
+
+            // a call made from inside another one, like authenticating, gets the request's port
+            assertTrue( mp.get( false ) == mine );
+            assertTrue( mp.get( false ) == mine );
+            mp.done( mine );
+            mp.done( mine );
+            mp.requestDone();
+            exhaust.close();
+        }
+        finally {
+            m.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testExhaustWithReadAhead()
+        throws Exception {
+        StandIn server = new StandIn( 1000 , 100 , 0 );
+        Mongo m = new Mongo( "127.0.0.1" , server.port() );
+        try {
+            DBCursor cur = m.getDB( "db" ).getCollection( "c" ).find().batchSize( 100 ).exhaust().readAhead( 0 );
+            assertEquals( 1000 , cur.itcount() );
+            assertEquals( 0 , server._getMores.get() );
+        }
+        finally {
+            m.close();
+            server.close();
+        }
+    }
+
+    /**
+     * a server on a local port that answers queries on any collection with <code>num</code>
+     * documents <code>{ _id : i }</code>, in batches of <code>batch</code> unless the query
+     * asks for another size.  Commands get <code>{ ok : 1 , ismaster : true }</code>.
+     */
+    static class StandIn extends Thread {
+        StandIn( int num , int batch , int padding )
+            throws IOException {
+            super( "StandIn" );
+            setDaemon( true );
+            _num = num;
+            _batch = batch;
+            char[] pad = new char[padding];
+            Arrays.fill( pad , 'x' );
+            _padding = new String( pad );
+            _server = new ServerSocket( 0 , 50 , InetAddress.getByName( "127.0.0.1" ) );
+            start();
+        }
+
+        int port(){
+            return _server.getLocalPort();
+        }
+
+        public void run(){
+            try {
+                while ( true ){
+                    final Socket s = _server.accept();
+                    _connections.incrementAndGet();
+                    Thread t = new Thread( "StandIn-conn" ){
+                            public void run(){
+                                _serve( s );
+                            }
+                        };
+                    t.setDaemon( true );
+                    t.start();
+                }
+            }
+            catch ( IOException ioe ){
+                // closed
+            }
+        }
+
+        void _serve( Socket s ){
+            int pos = 0;
+            int batch = _batch;
+            try {
+                InputStream in = new BufferedInputStream( s.getInputStream() );
+                OutputStream out = new BufferedOutputStream( s.getOutputStream() );
+                while ( true ){
+                    byte[] header = new byte[16];
+                    if ( ! _readFully( in , header ) )
+                        return;
+                    int len = Bits.readInt( header , 0 );
+                    int id = Bits.readInt( header , 4 );
+                    int op = Bits.readInt( header , 12 );
+                    byte[] body = new byte[ len - 16 ];
+                    if ( ! _readFully( in , body ) )
+                        return;
+
+                    if ( op == 2004 ){
+                        int flags = Bits.readInt( body , 0 );
+                        int ns = 4;
+                        while ( body[ns] != 0 )
+                            ns++;
+                        String name = new String( body , 4 , ns - 4 , "UTF-8" );
+                        int asked = Bits.readInt( body , ns + 5 );
+                        if ( name.endsWith( ".$cmd" ) ){
+                            _reply( out , id , 0 , 0 , 1 , true );
+                            out.flush();
+                            continue;
+                        }
+
+                        batch = asked > 0 ? asked : _batch;
+                        pos = 0;
+                        if ( ( flags & Bytes.QUERYOPTION_EXHAUST ) != 0 ){
+                            while ( pos < _num ){
+                                pos = _batch( out , id , pos , batch );
+                                out.flush();
+                            }
+                            continue;
+                        }
+                        pos = _batch( out , id , pos , batch );
+                    }
+                    else if ( op == 2005 ){
+                        _getMores.incrementAndGet();
+                        pos = _batch( out , id , pos , batch );
+                    }
+                    else {
+                        continue; // killCursors etc, no reply
+                    }
+                    out.flush();
+                }
+            }
+            catch ( IOException ioe ){
+                _broken.incrementAndGet();
+            }
+            finally {
+                try {
+                    s.close();
+                }
+                catch ( IOException ioe ){}
+            }
+        }
+
+        int _batch( OutputStream out , int responseTo , int pos , int batch )
+            throws IOException {
+            int n = Math.min( batch , _num - pos );
+            _reply( out , responseTo , pos , n , pos + n < _num ? 42 : 0 , false );
+            return pos + n;
+        }
+
+        void _reply( OutputStream out , int responseTo , int from , int n , long cursor , boolean command )
+            throws IOException {
+            BasicOutputBuffer buf = new BasicOutputBuffer();
+            buf.writeInt( 0 );
+            buf.writeInt( _ids.incrementAndGet() );
+            buf.writeInt( responseTo );
+            buf.writeInt( 1 ); // reply
+            buf.writeInt( 0 ); // flags
+            buf.writeLong( cursor );
+            buf.writeInt( from );
+            if ( command ){
+                buf.writeInt( 1 );
+                buf.write( BSON.encode( new BasicDBObject( "ok" , 1.0 ).append( "ismaster" , true ) ) );
+            }
+            else {
+                buf.writeInt( n );
+                for ( int i=0; i<n; i++ ){
+                    BasicDBObject o = new BasicDBObject( "_id" , from + i );
+                    if ( _padding.length() > 0 )
+                        o.put( "pad" , _padding );
+                    buf.write( BSON.encode( o ) );
+                }
+            }
+            buf.writeInt( 0 , buf.size() );
+            buf.pipe( out );
+        }
+
+        static boolean _readFully( InputStream in , byte[] b )
+            throws IOException {
+            int x = 0;
+            while ( x < b.length ){
+                int n = in.read( b , x , b.length - x );
+                if ( n < 0 )
+                    return false;
+                x += n;
+            }
+            return true;
+        }
+
+        void waitForBroken()
+            throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000;
+            while ( _broken.get() == 0 && System.currentTimeMillis() < end )
+                Thread.sleep( 10 );
+        }
+
+        void close()
+            throws IOException {
+            _server.close();
+        }
+
+        final int _num;
+        final int _batch;
+        final String _padding;
+        final ServerSocket _server;
+        final AtomicInteger _ids = new AtomicInteger();
+        final AtomicInteger _connections = new AtomicInteger();
+        final AtomicInteger _getMores = new AtomicInteger();
+        final AtomicInteger _broken = new AtomicInteger();
+    }
+
+    public static void main( String args[] ){
+        (new ExhaustTest()).runConsole();
+    }
+}
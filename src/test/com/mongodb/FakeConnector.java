@@ -0,0 +1,106 @@
+// FakeConnector.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+import java.util.*;
+
+import org.bson.*;
+import org.bson.io.*;
+
+/**
+ * a connector for tests that answers from memory instead of a server.
+ * everything not overridden is refused, and replies are built with {@link #reply}.
+ */
+abstract class FakeConnector implements DBConnector {
+
+    public void requestStart(){}
+    public void requestDone(){}
+    public void requestEnsureConnection(){}
+
+    public WriteResult say( DB db , OutMessage m , DB.WriteConcern concern )
+        throws MongoException {
+        throw new UnsupportedOperationException();
+    }
+
+    public Response call( DB db , DBCollection coll , OutMessage m )
+        throws MongoException {
+        throw new UnsupportedOperationException();
+    }
+
+    public Response call( DB db , DBCollection coll , OutMessage m , int retries )
+        throws MongoException {
+        return call( db , coll , m );
+    }
+
+    public Exhaust exhaust( DB db , DBCollection coll , OutMessage m ){
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return what the server says for a write that worked
+     */
+    static WriteResult ok(){
+        return new WriteResult( new CommandResult() );
+    }
+
+    /**
+     * @return a reply holding <code>docs</code>, the ones starting at <code>from</code> in the results
+     */
+    static Response reply( DBCollection coll , long cursor , int from , List<DBObject> docs , DecodeOptions decode ){
+        BasicOutputBuffer buf = new BasicOutputBuffer();
+        buf.writeInt( 0 );
+        buf.writeInt( 1 );
+        buf.writeInt( 2 );
+        buf.writeInt( 1 ); // reply
+        buf.writeInt( 0 ); // flags
+        buf.writeLong( cursor );
+        buf.writeInt( from );
+        buf.writeInt( docs.size() );
+        for ( DBObject o : docs )
+            buf.write( BSON.encode( o ) );
+        buf.writeInt( 0 , buf.size() );
+        try {
+            return new Response( coll , new ByteArrayInputStream( buf.toByteArray() ) , decode );
+        }
+        catch ( IOException ioe ){
+            throw new RuntimeException( ioe );
+        }
+    }
+
+    /**
+     * answers every query with the same documents, in one batch
+     */
+    static class Replier extends FakeConnector {
+        Replier( List<DBObject> docs ){
+            _docs = docs;
+        }
+
+        public Response call( DB db , DBCollection coll , OutMessage m ){
+            try {
+                return reply( coll , 0 , 0 , _docs , m.getDecodeOptions() );
+            }
+            finally {
+                m.doneWithMessage();
+            }
+        }
+
+        final List<DBObject> _docs;
+    }
+}
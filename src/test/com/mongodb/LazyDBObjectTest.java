@@ -0,0 +1,246 @@
+// LazyDBObjectTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+import org.testng.annotations.Test;
+
+import org.bson.*;
+import org.bson.io.*;
+import org.bson.types.*;
+
+import com.mongodb.util.*;
+
+public class LazyDBObjectTest extends TestCase {
+
+    static DBObject sample(){
+        BasicDBList list = new BasicDBList();
+        list.add( 1 );
+        list.add( "two" );
+        list.add( new BasicDBObject( "three" , 3 ) );
+
+        return new BasicDBObject( "_id" , new ObjectId() )
+            .append( "i" , 5 )
+            .append( "l" , 5L + Integer.MAX_VALUE )
+            .append( "d" , 5.5 )
+            .append( "s" , "héllo 中" )
+            .append( "b" , true )
+            .append( "n" , null )
+            .append( "date" , new Date( 12345 ) )
+            .append( "ts" , new BSONTimestamp( 100 , 7 ) )
+            .append( "re" , Pattern.compile( "^a.*b" , Pattern.CASE_INSENSITIVE ) )
+            .append( "bin" , new byte[]{ 1 , 2 , 3 } )
+            .append( "uuid" , new UUID( 1 , 2 ) )
+            .append( "list" , list )
+            .append( "sub" , new BasicDBObject( "a" , 1 ).append( "deeper" , new BasicDBObject( "x" , "y" ) ) );
+    }
+
+    @Test
+    public void testGet(){
+        DBObject o = sample();
+        LazyDBObject lazy = new LazyDBObject( BSON.encode( o ) );
+
+        assertEquals( new ArrayList<String>( o.keySet() ) , new ArrayList<String>( lazy.keySet() ) );
+        for ( String k : o.keySet() ){
+            if ( k.equals( "bin" ) || k.equals( "re" ) || k.equals( "ts" ) || k.equals( "list" ) || k.equals( "sub" ) )
+                continue;
+            assertEquals( o.get( k ) , lazy.get( k ) );
+        }
+        assertTrue( lazy.containsField( "n" ) );
+        assertFalse( lazy.containsField( "nope" ) );
+        assertNull( lazy.get( "nope" ) );
+
+        assertEquals( o.get( "ts" ).toString() , lazy.get( "ts" ).toString() );
+        assertTrue( Arrays.equals( new byte[]{ 1 , 2 , 3 } , (byte[])lazy.get( "bin" ) ) );
+        assertEquals( "^a.*b" , ((Pattern)lazy.get( "re" )).pattern() );
+
+        LazyDBList list = (LazyDBList)lazy.get( "list" );
+        assertEquals( 3 , list.size() );
+        assertEquals( 1 , list.get( 0 ) );
+        assertEquals( "two" , list.get( "1" ) );
+        assertEquals( 3 , ((DBObject)list.get( 2 )).get( "three" ) );
+
+        LazyDBObject sub = (LazyDBObject)lazy.get( "sub" );
+        assertEquals( "y" , ((DBObject)sub.get( "deeper" )).get( "x" ) );
+
+        // embedded ones are only made once
+        assertTrue( sub == lazy.get( "sub" ) );
+        assertTrue( sub.get( "deeper" ) == sub.get( "deeper" ) );
+        assertTrue( list == lazy.get( "list" ) );
+        assertTrue( list.get( 2 ) == list.get( "2" ) );
+    }
+
+    @Test
+    public void testManyFields(){
+        BasicDBObject o = new BasicDBObject();
+        for ( int i=0; i<100; i++ )
+            o.put( "f" + i , i );
+        LazyDBObject lazy = new LazyDBObject( BSON.encode( o ) );
+        for ( int i=99; i>=0; i-- )
+            assertEquals( i , lazy.get( "f" + i ) );
+        assertEquals( 100 , lazy.keySet().size() );
+    }
+
+    @Test
+    public void testMaterialize(){
+        DBObject o = sample();
+        LazyDBObject lazy = new LazyDBObject( BSON.encode( o ) );
+        DBObject full = lazy.materialize();
+        assertTrue( full instanceof BasicDBObject );
+        assertEquals( o.keySet() , full.keySet() );
+        assertEquals( "y" , ((DBObject)((DBObject)full.get( "sub" )).get( "deeper" )).get( "x" ) );
+        full.put( "new" , 1 );
+        assertFalse( lazy.containsField( "new" ) );
+
+        LazyDBObject plain = new LazyDBObject( BSON.encode( new BasicDBObject( "a" , 1 ).append( "b" , new BasicDBObject( "c" , "d" ) ) ) );
+        assertEquals( JSON.serialize( plain.materialize() ) , plain.toString() );
+    }
+
+    @Test
+    public void testReadOnly(){
+        LazyDBObject lazy = new LazyDBObject( BSON.encode( sample() ) );
+        try {
+            lazy.put( "a" , 1 );
+            assertTrue( false );
+        }
+        catch ( UnsupportedOperationException e ){}
+        try {
+            lazy.removeField( "i" );
+            assertTrue( false );
+        }
+        catch ( UnsupportedOperationException e ){}
+    }
+
+    @Test
+    public void testDBRef(){
+        ObjectId id = new ObjectId();
+        DBObject o = new BasicDBObject( "r" , new BasicDBObject( "$ref" , "things" ).append( "$id" , id ) );
+        LazyDBObject lazy = new LazyDBObject( BSON.encode( o ) );
+        DBRef ref = (DBRef)lazy.get( "r" );
+        assertEquals( "things" , ref.getRef() );
+        assertEquals( id , ref.getId() );
+        assertTrue( ref == lazy.get( "r" ) );
+    }
+
+    @Test
+    public void testEncodeCopiesBytes(){
+        byte[] b = BSON.encode( sample() );
+        LazyDBObject lazy = new LazyDBObject( b );
+
+        OutMessage m = new OutMessage();
+        m.putObject( new BasicDBObject( "x" , lazy ).append( "l" , lazy.get( "list" ) ) );
+        BSONObject back = new BSONDecoder().readObject( m.toByteArray() );
+        m.doneWithMessage();
+
+        assertEquals( 5 , ((BSONObject)back.get( "x" )).get( "i" ) );
+        assertTrue( back.get( "l" ) instanceof List );
+        assertEquals( "two" , ((List)back.get( "l" )).get( 1 ) );
+    }
+
+    @Test
+    public void testThreads()
+        throws Exception {
+        final LazyDBObject lazy = new LazyDBObject( BSON.encode( sample() ) );
+        final List<Throwable> errors = Collections.synchronizedList( new ArrayList<Throwable>() );
+        Thread[] threads = new Thread[8];
+        for ( int t=0; t<threads.length; t++ ){
+            threads[t] = new Thread(){
+                    public void run(){
+                        try {
+                            for ( int i=0; i<1000; i++ ){
+                                assertEquals( "héllo 中" , lazy.get( "s" ) );
+                                assertEquals( "y" , ((DBObject)((DBObject)lazy.get( "sub" )).get( "deeper" )).get( "x" ) );
+                            }
+                        }
+                        catch ( Throwable e ){
+                            errors.add( e );
+                        }
+                    }
+                };
+            threads[t].start();
+        }
+        for ( Thread t : threads )
+            t.join();
+        assertEquals( 0 , errors.size() );
+    }
+
+    @Test
+    public void testLazyResponse()
+        throws IOException {
+        List<byte[]> docs = new ArrayList<byte[]>();
+        for ( int i=0; i<3; i++ )
+            docs.add( BSON.encode( new BasicDBObject( "_id" , i ).append( "x" , "doc" + i ) ) );
+
+        BasicOutputBuffer buf = new BasicOutputBuffer();
+        buf.writeInt( 0 );
+        buf.writeInt( 1 );
+        buf.writeInt( 2 );
+        buf.writeInt( 1 ); // reply
+        buf.writeInt( 0 ); // flags
+        buf.writeLong( 0 ); // cursor
+        buf.writeInt( 0 );
+        buf.writeInt( docs.size() );
+        for ( byte[] d : docs )
+            buf.write( d );
+        buf.writeInt( 0 , buf.size() );
+
+        DBCollection c = new DBApiLayer( "db" , null ).getCollection( "c" );
+        Response lazy = new Response( c , new ByteArrayInputStream( buf.toByteArray() ) , DecodeOptions.LAZY );
+        Response eager = new Response( c , new ByteArrayInputStream( buf.toByteArray() ) , DecodeOptions.DEFAULT );
+        assertEquals( 3 , lazy.size() );
+        for ( int i=0; i<3; i++ ){
+            assertTrue( lazy.get( i ) instanceof LazyDBObject );
+            assertFalse( eager.get( i ) instanceof LazyDBObject );
+            assertEquals( eager.get( i ).get( "x" ) , lazy.get( i ).get( "x" ) );
+        }
+    }
+
+    @Test
+    public void testFilteredResponse()
+        throws IOException {
+        BasicOutputBuffer buf = new BasicOutputBuffer();
+        buf.writeInt( 0 );
+        buf.writeInt( 1 );
+        buf.writeInt( 2 );
+        buf.writeInt( 1 ); // reply
+        buf.writeInt( 0 ); // flags
+        buf.writeLong( 0 ); // cursor
+        buf.writeInt( 0 );
+        buf.writeInt( 2 );
+        for ( int i=0; i<2; i++ )
+            buf.write( BSON.encode( new BasicDBObject( "_id" , i ).append( "x" , "doc" + i ).append( "big" , new byte[1000] ) ) );
+        buf.writeInt( 0 , buf.size() );
+
+        DBCollection c = new DBApiLayer( "db" , null ).getCollection( "c" );
+        Response res = new Response( c , new ByteArrayInputStream( buf.toByteArray() ) , new DecodeOptions( false , FieldFilter.exclude( "big" ) ) );
+        assertEquals( 2 , res.size() );
+        for ( int i=0; i<2; i++ ){
+            assertEquals( "doc" + i , res.get( i ).get( "x" ) );
+            assertFalse( res.get( i ).containsField( "big" ) );
+        }
+        assertNull( Response.TL.get().getFieldFilter() );
+    }
+
+    public static void main( String args[] ){
+        (new LazyDBObjectTest()).runConsole();
+    }
+}
@@ -77,6 +77,41 @@ public class ObjectIdTest extends TestCase {
         assertEquals( "41d91c58988b09375cc1fe9f" , a.toString() );
     }
 
+    @Test
+    public void testHex()
+        throws Exception {
+        java.util.Random r = new java.util.Random( 17 );
+        for ( int i=0; i<1000; i++ ){
+            ObjectId a = new ObjectId( r.nextInt() , r.nextInt() , r.nextInt() );
+
+            StringBuilder hex = new StringBuilder();
+            for ( byte b : a.toByteArray() ){
+                String s = Integer.toHexString( b & 0xFF );
+                if ( s.length() == 1 )
+                    hex.append( "0" );
+                hex.append( s );
+            }
+            assertEquals( hex.toString() , a.toString() );
+            assertEquals( a , new ObjectId( a.toString() ) );
+            assertEquals( a , new ObjectId( a.toString().toUpperCase() ) );
+
+            assertEquals( "x" + a + "y" , a.appendTo( new StringBuilder( "x" ) ).append( "y" ).toString() );
+            java.io.StringWriter w = new java.io.StringWriter();
+            a.appendTo( (Appendable)w );
+            assertEquals( a.toString() , w.toString() );
+
+            java.nio.ByteBuffer bb = java.nio.ByteBuffer.allocate( 12 );
+            a.writeTo( bb );
+            assertEquals( a , new ObjectId( bb.array() ) );
+        }
+
+        try {
+            new ObjectId( "4a26c3e2e316052523dcfd8g" );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException iae ){}
+    }
+
     @Test
     public void testTime(){
         long a = System.currentTimeMillis();
@@ -98,6 +133,34 @@ public class ObjectIdTest extends TestCase {
         assertEquals( d.getTime() / 1000 , a.getTime() / 1000 );
     }
 
+    @Test
+    public void testThreads()
+        throws Exception {
+        final int numThreads = 8;
+        final int num = 20000;
+        final ObjectId[][] ids = new ObjectId[numThreads][num];
+
+        Thread[] threads = new Thread[numThreads];
+        for ( int t=0; t<numThreads; t++ ){
+            final ObjectId[] mine = ids[t];
+            threads[t] = new Thread(){
+                    public void run(){
+                        for ( int i=0; i<num; i++ )
+                            mine[i] = new ObjectId();
+                    }
+                };
+            threads[t].start();
+        }
+        for ( Thread t : threads )
+            t.join();
+
+        java.util.Set<ObjectId> all = new java.util.HashSet<ObjectId>();
+        for ( ObjectId[] mine : ids )
+            for ( ObjectId id : mine )
+                assertTrue( all.add( id ) );
+        assertEquals( numThreads * num , all.size() );
+    }
+
     @Test
     public void testStringOnServer(){
         ObjectId oid = new ObjectId();
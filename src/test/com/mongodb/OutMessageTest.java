@@ -0,0 +1,245 @@
+// OutMessageTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import org.testng.annotations.Test;
+
+import org.bson.*;
+import org.bson.io.*;
+import org.bson.types.*;
+
+import com.mongodb.util.*;
+
+public class OutMessageTest extends TestCase {
+
+    static DBObject big( int n , int size ){
+        StringBuilder s = new StringBuilder();
+        while ( s.length() < size )
+            s.append( "abcé中" );
+
+        List<Object> list = new ArrayList<Object>();
+        for ( int i=0; i<100; i++ )
+            list.add( new BasicDBObject( "i" , i ).append( "s" , "x" + i ) );
+
+        return new BasicDBObject( "_id" , n )
+            .append( "s" , s.toString() )
+            .append( "list" , list )
+            .append( "code" , new CodeWScope( "f()" , new BasicDBObject( "a" , n ) ) )
+            .append( "in" , new BasicDBObject( "$in" , new Integer[]{ 1 , 2 , 3 } ) );
+    }
+
+    static byte[] buffered( int op , String ns , List<DBObject> objects ){
+        BasicOutputBuffer buf = new BasicOutputBuffer();
+        BSONEncoder e = new OutMessage();
+        e.done();
+        e.set( buf );
+        buf.writeInt( 0 );
+        buf.writeInt( 0 );
+        buf.writeInt( 0 );
+        buf.writeInt( op );
+        buf.writeInt( 0 );
+        e.writeCString( ns );
+        for ( DBObject o : objects )
+            e.putObject( o );
+        e.done();
+        buf.writeInt( 0 , buf.size() );
+        return buf.toByteArray();
+    }
+
+    static void assertSameBody( byte[] a , byte[] b ){
+        assertEquals( a.length , b.length );
+        assertEquals( Bits.readInt( a , 0 ) , Bits.readInt( b , 0 ) );
+        // skip the request id
+        for ( int i=8; i<a.length; i++ )
+            if ( a[i] != b[i] )
+                throw new RuntimeException( "differ at " + i );
+    }
+
+    @Test
+    public void testRawWritesPastLimit(){
+        final int num = OutMessage.STREAM_AFTER / 8 + 1000;
+        OutMessage m = OutMessage.get( 2007 );
+        m.writeInt( 0 );
+        m.writeInt( num );
+        for ( int i=0; i<num; i++ )
+            m.writeLong( i );
+        assertFalse( m.isStreamed() );
+
+        // the next object goes to the stream, and so does what follows it
+        m.putObject( new BasicDBObject( "x" , 1 ) );
+        assertTrue( m.isStreamed() );
+        m.writeCString( "a.b" );
+        m.prepare();
+
+        byte[] b = m.toByteArray();
+        assertEquals( 16 + 8 + num * 8 + 12 + 4 , b.length );
+        assertEquals( b.length , Bits.readInt( b , 0 ) );
+        assertEquals( num , Bits.readInt( b , 20 ) );
+        assertEquals( (long)( num - 1 ) , Bits.readLong( b , 24 + ( num - 1 ) * 8 ) );
+        assertEquals( 12 , Bits.readInt( b , 24 + num * 8 ) );
+        m.doneWithMessage();
+    }
+
+    @Test
+    public void testSmallIsBuffered(){
+        OutMessage m = OutMessage.get( 2002 );
+        m.writeInt( 0 );
+        m.writeCString( "a.b" );
+        m.putObject( big( 1 , 1000 ) );
+        assertFalse( m.isStreamed() );
+        m.prepare();
+        assertSameBody( buffered( 2002 , "a.b" , Arrays.asList( big( 1 , 1000 ) ) ) , m.toByteArray() );
+        m.doneWithMessage();
+    }
+
+    @Test
+    public void testBigIsStreamed(){
+        List<DBObject> all = new ArrayList<DBObject>();
+        for ( int i=0; i<4; i++ )
+            all.add( big( i , 400 * 1024 ) );
+
+        OutMessage m = OutMessage.get( 2002 );
+        m.writeInt( 0 );
+        m.writeCString( "a.b" );
+        int total = 0;
+        for ( DBObject o : all )
+            total += m.putObject( o );
+        assertTrue( m.isStreamed() );
+        assertTrue( total > OutMessage.STREAM_AFTER );
+        m.prepare();
+
+        byte[] expected = buffered( 2002 , "a.b" , all );
+        assertEquals( expected.length , m.size() );
+        assertSameBody( expected , m.toByteArray() );
+        // can be sent again, e.g. on retry
+        assertSameBody( expected , m.toByteArray() );
+        m.doneWithMessage();
+
+        m = OutMessage.get( 2002 );
+        assertFalse( m.isStreamed() );
+        assertEquals( 16 , m.size() );
+    }
+
+    @Test
+    public void testWritesAfterStreaming(){
+        OutMessage m = OutMessage.get( 2004 );
+        m.putObject( big( 1 , OutMessage.STREAM_AFTER ) );
+        assertTrue( m.isStreamed() );
+        m.writeInt( 17 );
+        m.writeLong( 18 );
+        m.writeCString( "zz" );
+        m.prepare();
+
+        byte[] b = m.toByteArray();
+        assertEquals( b.length , Bits.readInt( b , 0 ) );
+        assertEquals( 17 , Bits.readInt( b , b.length - 15 ) );
+        assertEquals( 18L , Bits.readLong( b , b.length - 11 ) );
+        assertEquals( "zz" , new String( b , b.length - 3 , 2 ) );
+        m.doneWithMessage();
+    }
+
+    @Test
+    public void testChangedWhileSending(){
+        DBObject o = big( 1 , OutMessage.STREAM_AFTER );
+        OutMessage m = OutMessage.get( 2002 );
+        m.putObject( o );
+        assertTrue( m.isStreamed() );
+        o.put( "s" , "shorter" );
+        try {
+            m.toByteArray();
+            assertTrue( false );
+        }
+        catch ( IllegalStateException ise ){}
+        m.doneWithMessage();
+    }
+
+    @Test
+    public void testChangedWhileSendingClosesPort()
+        throws Exception {
+        final ServerSocket server = new ServerSocket( 0 , 50 , InetAddress.getByName( "127.0.0.1" ) );
+        Thread drain = new Thread(){
+                public void run(){
+                    try {
+                        Socket s = server.accept();
+                        InputStream in = s.getInputStream();
+                        byte[] b = new byte[8192];
+                        while ( in.read( b ) >= 0 );
+                        s.close();
+                    }
+                    catch ( IOException ioe ){}
+                }
+            };
+        drain.setDaemon( true );
+        drain.start();
+
+        try {
+            DBPort port = new DBPort( new InetSocketAddress( "127.0.0.1" , server.getLocalPort() ) );
+            DBObject o = big( 1 , OutMessage.STREAM_AFTER );
+            OutMessage m = OutMessage.get( 2002 );
+            m.putObject( o );
+            o.put( "s" , "shorter" );
+            try {
+                port.say( m );
+                assertTrue( false );
+            }
+            catch ( IllegalStateException ise ){}
+            m.doneWithMessage();
+
+            // the half sent message isn't left on an open socket
+            drain.join( 5000 );
+            assertFalse( drain.isAlive() );
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testStreamingBuffer()
+        throws IOException {
+        BSONObject o = big( 5 , 50 * 1024 );
+
+        SizingOutputBuffer sizes = new SizingOutputBuffer();
+        BSONEncoder e = new BSONEncoder();
+        e.set( sizes );
+        e.putObject( o );
+        e.done();
+        assertTrue( sizes.numPatches() > 100 );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingOutputBuffer stream = new StreamingOutputBuffer( out , sizes , 1024 );
+        e.set( stream );
+        e.putObject( o );
+        e.done();
+        stream.finish();
+
+        byte[] expected = BSON.encode( o );
+        assertEquals( expected.length , sizes.size() );
+        assertEquals( expected.length , out.size() );
+        assertTrue( Arrays.equals( expected , out.toByteArray() ) );
+    }
+
+    public static void main( String args[] ){
+        (new OutMessageTest()).runConsole();
+    }
+}
@@ -0,0 +1,330 @@
+// ParallelScanTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.testng.annotations.Test;
+
+import org.bson.*;
+import org.bson.io.*;
+import org.bson.types.*;
+
+import com.mongodb.util.*;
+
+public class ParallelScanTest extends TestCase {
+
+    @Test
+    public void testInterpolate(){
+        assertEquals( Arrays.asList( 25 , 50 , 75 ) , ParallelScan.interpolate( 0 , 100 , 4 ) );
+        assertEquals( Arrays.asList( 25L , 50L , 75L ) , ParallelScan.interpolate( 0 , 100L , 4 ) );
+        assertEquals( Arrays.asList( 1 ) , ParallelScan.interpolate( 0 , 2 , 8 ) );
+        assertEquals( Arrays.asList( 5.0 ) , ParallelScan.interpolate( 0 , 10.0 , 2 ) );
+        assertEquals( Arrays.asList( new Date( 50 ) ) , ParallelScan.interpolate( new Date( 0 ) , new Date( 100 ) , 2 ) );
+        assertNull( ParallelScan.interpolate( "a" , "z" , 2 ) );
+
+        ObjectId min = new ObjectId( new Date( 1000000000000L ) );
+        ObjectId max = new ObjectId( new Date( 1000000400000L ) );
+        List<Object> splits = ParallelScan.interpolate( min , max , 4 );
+        assertEquals( 3 , splits.size() );
+        assertEquals( 1000000100000L , ((ObjectId)splits.get( 0 )).getTime() );
+        assertTrue( min.compareTo( (ObjectId)splits.get( 0 ) ) < 0 );
+        assertTrue( ((ObjectId)splits.get( 2 )).compareTo( max ) < 0 );
+    }
+
+    @Test
+    public void testNumericRanges()
+        throws Exception {
+        List<DBObject> docs = new ArrayList<DBObject>();
+        for ( int i=0; i<1000; i++ )
+            docs.add( new BasicDBObject( "_id" , i ).append( "x" , i % 3 ) );
+        Store store = new Store( docs );
+        DBCollection c = new DBApiLayer( "db" , store ).getCollection( "c" );
+
+        ParallelScan scan = c.parallelScan( null , 4 );
+        assertEquals( Arrays.asList( 249 , 499 , 749 ) , scan.getSplitPoints() );
+        assertEquals( 5 , scan.numPartitions() );
+        assertEquals( new BasicDBObject( "_id" , new BasicDBObject( "$lt" , 249 ) ) , scan.getPartitionQuery( 0 ) );
+        assertEquals( new BasicDBObject( "_id" , new BasicDBObject( "$gte" , 249 ).append( "$lt" , 499 ) ) , scan.getPartitionQuery( 1 ) );
+
+        final Set<Object> seen = Collections.synchronizedSet( new HashSet<Object>() );
+        final Set<String> threads = Collections.synchronizedSet( new HashSet<String>() );
+        long n = scan.run( new ParallelScan.Handler(){
+                public void handle( int partition , DBObject o ){
+                    assertTrue( seen.add( o.get( "_id" ) ) );
+                    threads.add( Thread.currentThread().getName() );
+                }
+            } );
+        assertEquals( 1000L , n );
+        assertEquals( 1000 , seen.size() );
+        assertEquals( 4 , threads.size() );
+
+        // the query is kept for each range
+        int total = 0;
+        for ( DBCursor cur : c.parallelScan( new BasicDBObject( "x" , 1 ) , 3 ).getPartitions() )
+            total += cur.itcount();
+        assertEquals( 333 , total );
+    }
+
+    @Test
+    public void testSampledRanges()
+        throws Exception {
+        List<DBObject> docs = new ArrayList<DBObject>();
+        for ( int i=0; i<100; i++ )
+            docs.add( new BasicDBObject( "_id" , String.format( "k%03d" , i ) ) );
+        DBCollection c = new DBApiLayer( "db" , new Store( docs ) ).getCollection( "c" );
+
+        ParallelScan scan = c.parallelScan( null , 5 );
+        assertEquals( Arrays.asList( "k020" , "k040" , "k060" , "k080" ) , scan.getSplitPoints() );
+        assertEquals( 100L , scan.run( new ParallelScan.Handler(){
+                public void handle( int partition , DBObject o ){}
+            } , 2 ) );
+    }
+
+    @Test
+    public void testFailureStopsTheRest()
+        throws Exception {
+        List<DBObject> docs = new ArrayList<DBObject>();
+        for ( int i=0; i<100; i++ )
+            docs.add( new BasicDBObject( "_id" , i ) );
+        DBCollection c = new DBApiLayer( "db" , new Store( docs ) ).getCollection( "c" );
+
+        try {
+            c.parallelScan( null , 4 ).run( new ParallelScan.Handler(){
+                    public void handle( int partition , DBObject o ){
+                        if ( partition == 2 )
+                            throw new IllegalStateException( "bad" );
+                    }
+                } );
+            assertTrue( false );
+        }
+        catch ( IllegalStateException e ){
+            assertEquals( "bad" , e.getMessage() );
+        }
+
+        try {
+            c.parallelScan( new BasicDBObject( "_id" , 5 ) , 4 );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException e ){}
+    }
+
+    @Test
+    public void testKeyOutsideTheRanges()
+        throws Exception {
+        List<DBObject> docs = new ArrayList<DBObject>();
+        for ( int i=0; i<100; i++ )
+            docs.add( new BasicDBObject( "n" , i ).append( "x" , i ) );
+        docs.add( new BasicDBObject( "n" , 100 ) );
+        docs.add( new BasicDBObject( "n" , 101 ).append( "x" , null ) );
+        docs.add( new BasicDBObject( "n" , 102 ).append( "x" , "a" ) );
+        docs.add( new BasicDBObject( "n" , 103 ).append( "x" , -5.5 ) );
+        DBCollection c = new DBApiLayer( "db" , new Store( docs ) ).getCollection( "c" );
+
+        ParallelScan scan = c.parallelScan( null , null , "x" , 4 );
+        final Object first = scan.getSplitPoints().get( 0 );
+        assertEquals( 5 , scan.numPartitions() );
+        assertEquals( new BasicDBObject( "x" , new BasicDBObject( "$lt" , first ) ) , scan.getPartitionQuery( 0 ) );
+        assertEquals( new BasicDBObject( "$nor" , Arrays.asList( new BasicDBObject( "x" , new BasicDBObject( "$lt" , first ) ) ,
+                                                                 new BasicDBObject( "x" , new BasicDBObject( "$gte" , first ) ) ) ) ,
+                      scan.getPartitionQuery( 4 ) );
+
+        final Set<Object> seen = Collections.synchronizedSet( new HashSet<Object>() );
+        final Map<Object,Integer> where = new ConcurrentHashMap<Object,Integer>();
+        assertEquals( 104L , scan.run( new ParallelScan.Handler(){
+                public void handle( int partition , DBObject o ){
+                    assertTrue( seen.add( o.get( "n" ) ) );
+                    where.put( o.get( "n" ) , partition );
+                }
+            } ) );
+        assertEquals( 104 , seen.size() );
+        for ( int n=100; n<103; n++ )
+            assertEquals( 4 , where.get( n ).intValue() );
+        assertEquals( 0 , where.get( 103 ).intValue() );
+
+        // the query's own $nor is kept
+        DBObject q = new BasicDBObject( "$nor" , Arrays.asList( new BasicDBObject( "n" , 101 ) , new BasicDBObject( "n" , 5 ) ) );
+        int total = 0;
+        for ( DBCursor cur : c.parallelScan( q , null , "x" , 4 ).getPartitions() )
+            total += cur.itcount();
+        assertEquals( 102 , total );
+    }
+
+    @Test
+    public void testSplitsStayOneType(){
+        List<Object> splits = new ArrayList<Object>();
+        ParallelScan._addSplit( splits , new BasicDBObject() );
+        ParallelScan._addSplit( splits , 5 );
+        ParallelScan._addSplit( splits , 5 );
+        ParallelScan._addSplit( splits , "a" );
+        ParallelScan._addSplit( splits , 7.5 );
+        assertEquals( Arrays.asList( 5 , 7.5 ) , splits );
+    }
+
+    @Test
+    public void testEmpty()
+        throws Exception {
+        DBCollection c = new DBApiLayer( "db" , new Store( new ArrayList<DBObject>() ) ).getCollection( "c" );
+        ParallelScan scan = c.parallelScan( null , 4 );
+        assertEquals( 1 , scan.numPartitions() );
+        assertEquals( 0L , scan.run( null ) );
+    }
+
+    /**
+     * answers queries from a list, enough for range queries on one key, equality on others,
+     * sort, skip, limit and count.  everything comes back in one batch.
+     */
+    static class Store extends FakeConnector {
+        Store( List<DBObject> docs ){
+            _docs = docs;
+        }
+
+        public WriteResult say( DB db , OutMessage m , DB.WriteConcern concern ){
+            return ok();
+        }
+
+        public Response call( DB db , DBCollection coll , OutMessage m ){
+            try {
+                byte[] b = m.toByteArray();
+                if ( Bits.readInt( b , 12 ) != 2004 )
+                    throw new UnsupportedOperationException();
+                int pos = 20;
+                int nsStart = pos;
+                while ( b[pos] != 0 )
+                    pos++;
+                String ns = new String( b , nsStart , pos - nsStart , "UTF-8" );
+                pos++;
+                int skip = Bits.readInt( b , pos );
+                int limit = Math.abs( Bits.readInt( b , pos + 4 ) );
+                BasicBSONCallback cb = new BasicBSONCallback();
+                new BSONDecoder().decode( b , pos + 8 , b.length - pos - 8 , cb );
+                BSONObject q = (BSONObject)cb.get();
+
+                List<DBObject> out = new ArrayList<DBObject>();
+                if ( ns.endsWith( ".$cmd" ) ){
+                    out.add( new BasicDBObject( "n" , (double)_match( (BSONObject)q.get( "query" ) ).size() ).append( "ok" , 1.0 ) );
+                }
+                else {
+                    BSONObject orderBy = null;
+                    if ( q.containsField( "query" ) ){
+                        orderBy = (BSONObject)q.get( "orderby" );
+                        q = (BSONObject)q.get( "query" );
+                    }
+                    List<DBObject> all = _match( q );
+                    if ( orderBy != null ){
+                        final String key = orderBy.keySet().iterator().next();
+                        final int dir = ((Number)orderBy.get( key )).intValue();
+                        Collections.sort( all , new Comparator<DBObject>(){
+                                public int compare( DBObject a , DBObject b ){
+                                    return dir * _compare( a.get( key ) , b.get( key ) );
+                                }
+                            } );
+                    }
+                    for ( int i=skip; i<all.size() && ( limit == 0 || out.size() < limit ); i++ )
+                        out.add( all.get( i ) );
+                }
+                return reply( coll , 0 , 0 , out , m.getDecodeOptions() );
+            }
+            catch ( IOException ioe ){
+                throw new RuntimeException( ioe );
+            }
+            finally {
+                m.doneWithMessage();
+            }
+        }
+
+        List<DBObject> _match( BSONObject q ){
+            List<DBObject> l = new ArrayList<DBObject>();
+            for ( DBObject o : _docs )
+                if ( q == null || _matches( o , q ) )
+                    l.add( o );
+            return l;
+        }
+
+        boolean _matches( DBObject o , BSONObject q ){
+            for ( String k : q.keySet() ){
+                Object cond = q.get( k );
+                if ( k.equals( "$nor" ) ){
+                    for ( Object clause : (List)cond )
+                        if ( _matches( o , (BSONObject)clause ) )
+                            return false;
+                    continue;
+                }
+                Object v = o.get( k );
+                if ( cond instanceof BSONObject ){
+                    if ( ! _matchesCond( v , (BSONObject)cond ) )
+                        return false;
+                }
+                else if ( ! cond.equals( v ) ){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * like the server, a range only matches values of its own type
+         */
+        static boolean _matchesCond( Object v , BSONObject c ){
+            if ( c.containsField( "$gte" ) && ( _order( v ) != _order( c.get( "$gte" ) ) || _compare( v , c.get( "$gte" ) ) < 0 ) )
+                return false;
+            if ( c.containsField( "$lt" ) && ( _order( v ) != _order( c.get( "$lt" ) ) || _compare( v , c.get( "$lt" ) ) >= 0 ) )
+                return false;
+            if ( c.containsField( "$ne" ) && _compare( v , c.get( "$ne" ) ) == 0 )
+                return false;
+            return true;
+        }
+
+        /**
+         * null and missing first, then by type, then by value
+         */
+        static int _compare( Object a , Object b ){
+            final int diff = _order( a ) - _order( b );
+            if ( diff != 0 )
+                return diff;
+            if ( a == null )
+                return 0;
+            if ( a instanceof Number )
+                return Double.compare( ((Number)a).doubleValue() , ((Number)b).doubleValue() );
+            return ((Comparable)a).compareTo( b );
+        }
+
+        static int _order( Object v ){
+            if ( v == null )
+                return 0;
+            if ( v instanceof Number )
+                return 1;
+            if ( v instanceof String )
+                return 2;
+            if ( v instanceof ObjectId )
+                return 3;
+            if ( v instanceof Boolean )
+                return 4;
+            return 5;
+        }
+
+        final List<DBObject> _docs;
+    }
+
+    public static void main( String args[] ){
+        (new ParallelScanTest()).runConsole();
+    }
+}
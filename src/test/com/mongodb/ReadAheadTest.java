@@ -0,0 +1,217 @@
+// ReadAheadTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+import java.util.*;
+
+import org.testng.annotations.Test;
+
+import org.bson.*;
+import org.bson.io.*;
+
+import com.mongodb.util.*;
+
+public class ReadAheadTest extends TestCase {
+
+    @Test
+    public void testReadAhead()
+        throws Exception {
+        Batches server = new Batches( 100 , 10 );
+        DBCursor c = new DBApiLayer( "db" , server ).getCollection( "c" ).find().batchSize( 10 ).readAhead( 0.5f );
+
+        int n = 0;
+        while ( c.hasNext() ){
+            assertEquals( n , c.next().get( "_id" ) );
+            n++;
+            if ( n == 5 ){
+                // the next batch is asked for once half of this one is used
+                server.waitFor( 1 );
+                assertEquals( 1 , server._getMores );
+            }
+        }
+        assertEquals( 100 , n );
+        assertEquals( 9 , server._getMores );
+        assertEquals( 9 , c.numGetMores() );
+        for ( String t : server._threads )
+            assertTrue( t.startsWith( "MongoReadAhead-" ) );
+    }
+
+    @Test
+    public void testOffByDefault()
+        throws Exception {
+        Batches server = new Batches( 30 , 10 );
+        DBCursor c = new DBApiLayer( "db" , server ).getCollection( "c" ).find().batchSize( 10 );
+        for ( int i=0; i<9; i++ )
+            c.next();
+        Thread.sleep( 20 );
+        assertEquals( 0 , server._getMores );
+        assertEquals( 30 , c.itcount() + 9 );
+        for ( String t : server._threads )
+            assertEquals( Thread.currentThread().getName() , t );
+    }
+
+    @Test
+    public void testCloseWhileReadingAhead()
+        throws Exception {
+        Batches server = new Batches( 100 , 10 );
+        server._delay = 100;
+        DBApiLayer db = new DBApiLayer( "db" , server );
+        DBCursor c = db.getCollection( "c" ).find().batchSize( 10 ).readAhead( 0 );
+
+        assertTrue( c.hasNext() );
+        c.next();
+        server.waitForAsked( 1 );
+        c.close();
+        assertFalse( c.hasNext() );
+        assertEquals( Arrays.asList( 42L ) , db._cleaner.pending() );
+
+        // the getMore that was already sent lands and is dropped
+        server.waitFor( 1 );
+        Thread.sleep( 20 );
+        assertFalse( c.hasNext() );
+        assertEquals( 1 , server._getMores );
+    }
+
+    @Test
+    public void testErrorIsRethrown()
+        throws Exception {
+        Batches server = new Batches( 20 , 10 );
+        server._fail = true;
+        DBCursor c = new DBApiLayer( "db" , server ).getCollection( "c" ).find().batchSize( 10 ).readAhead( 0 );
+        for ( int i=0; i<10; i++ )
+            c.next();
+        try {
+            c.hasNext();
+            assertTrue( false );
+        }
+        catch ( MongoInternalException e ){}
+    }
+
+    /**
+     * a server that hands out <code>num</code> documents <code>batch</code> at a time,
+     * using cursor id 42 until the last batch.  getMores ask for their own batch size.
+     */
+    static class Batches extends FakeConnector {
+        Batches( int num , int batch ){
+            _num = num;
+            _batch = batch;
+        }
+
+        public WriteResult say( DB db , OutMessage m , DB.WriteConcern concern ){
+            byte[] b = m.toByteArray();
+            if ( Bits.readInt( b , 12 ) == 2007 ){
+                synchronized ( this ){
+                    _killCursors++;
+                    for ( int i=0; i<Bits.readInt( b , 20 ); i++ )
+                        _killed.add( Bits.readLong( b , 24 + 8 * i ) );
+                    notifyAll();
+                }
+            }
+            return ok();
+        }
+
+        public Response call( DB db , DBCollection coll , OutMessage m ){
+            try {
+                byte[] b = m.toByteArray();
+                int op = Bits.readInt( b , 12 );
+                int n = _batch;
+                if ( op == 2005 ){
+                    int ns = 20;
+                    while ( b[ns] != 0 )
+                        ns++;
+                    int asked = Bits.readInt( b , ns + 1 );
+                    if ( asked > 0 )
+                        n = asked;
+                    synchronized ( this ){
+                        _asked++;
+                        notifyAll();
+                    }
+                    if ( _delay > 0 )
+                        Thread.sleep( _delay );
+                    if ( _fail )
+                        throw new MongoException( "fail" );
+                    synchronized ( this ){
+                        _getMores++;
+                        _threads.add( Thread.currentThread().getName() );
+                        notifyAll();
+                    }
+                }
+                else if ( op != 2004 ){
+                    throw new UnsupportedOperationException( "op " + op );
+                }
+                return _reply( coll , n , m.getDecodeOptions() );
+            }
+            catch ( InterruptedException ie ){
+                throw new RuntimeException( ie );
+            }
+            finally {
+                m.doneWithMessage();
+            }
+        }
+
+        synchronized Response _reply( DBCollection coll , int n , DecodeOptions decode ){
+            n = Math.min( n , _num - _pos );
+            List<DBObject> docs = new ArrayList<DBObject>();
+            for ( int i=0; i<n; i++ )
+                docs.add( new BasicDBObject( "_id" , _pos + i ) );
+            Response r = reply( coll , _pos + n < _num ? 42 : 0 , _pos , docs , decode );
+            _pos += n;
+            _sizes.add( n );
+            return r;
+        }
+
+        synchronized void waitFor( int getMores )
+            throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000;
+            while ( _getMores < getMores && System.currentTimeMillis() < end )
+                wait( 100 );
+        }
+
+        synchronized void waitForAsked( int getMores )
+            throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000;
+            while ( _asked < getMores && System.currentTimeMillis() < end )
+                wait( 100 );
+        }
+
+        synchronized void waitForKilled( int num )
+            throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000;
+            while ( _killed.size() < num && System.currentTimeMillis() < end )
+                wait( 100 );
+        }
+
+        final int _num;
+        final int _batch;
+        int _pos = 0;
+        volatile int _asked = 0;
+        volatile int _getMores = 0;
+        volatile long _delay = 0;
+        volatile boolean _fail = false;
+        volatile int _killCursors = 0;
+        final List<Long> _killed = new ArrayList<Long>();
+        final List<String> _threads = Collections.synchronizedList( new ArrayList<String>() );
+        final List<Integer> _sizes = Collections.synchronizedList( new ArrayList<Integer>() );
+    }
+
+    public static void main( String args[] ){
+        (new ReadAheadTest()).runConsole();
+    }
+}
@@ -0,0 +1,162 @@
+// ReflectionBenchmark.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import org.bson.*;
+import org.bson.io.*;
+
+/**
+ * ReflectionDBObject field access and encoding: the old TreeMap + Method.invoke
+ * path against the field table.  doesn't need a server.
+ */
+public class ReflectionBenchmark {
+
+    public static class Page extends ReflectionDBObject {
+        public String getUrl(){ return _url; }
+        public void setUrl( String url ){ _url = url; }
+
+        public String getTitle(){ return _title; }
+        public void setTitle( String title ){ _title = title; }
+
+        public int getViews(){ return _views; }
+        public void setViews( int views ){ _views = views; }
+
+        public long getBytes(){ return _bytes; }
+        public void setBytes( long bytes ){ _bytes = bytes; }
+
+        public double getScore(){ return _score; }
+        public void setScore( double score ){ _score = score; }
+
+        public boolean getPublic(){ return _public; }
+        public void setPublic( boolean p ){ _public = p; }
+
+        public Date getCreated(){ return _created; }
+        public void setCreated( Date created ){ _created = created; }
+
+        String _url = "http://www.example.com/test-me";
+        String _title = "a page";
+        int _views = 17;
+        long _bytes = 123456789L;
+        double _score = 5.5;
+        boolean _public = true;
+        Date _created = new Date();
+    }
+
+    /**
+     * what JavaWrapper used to do
+     */
+    static class OldWrapper {
+        OldWrapper( Class c ){
+            for ( Method m : c.getMethods() ){
+                if ( m.getName().length() <= 3 || m.getName().equals( "getClass" ) )
+                    continue;
+                if ( m.getName().startsWith( "get" ) )
+                    _getters.put( m.getName().substring( 3 ) , m );
+                else if ( m.getName().startsWith( "set" ) )
+                    _setters.put( m.getName().substring( 3 ) , m );
+            }
+            _getters.keySet().retainAll( _setters.keySet() );
+        }
+
+        Object get( Object o , String name )
+            throws Exception {
+            return _getters.get( name ).invoke( o );
+        }
+
+        void set( Object o , String name , Object v )
+            throws Exception {
+            _setters.get( name ).invoke( o , v );
+        }
+
+        final Map<String,Method> _getters = new TreeMap<String,Method>();
+        final Map<String,Method> _setters = new TreeMap<String,Method>();
+    }
+
+    static Object _sink;
+
+    static void run( int num )
+        throws Exception {
+        Page p = new Page();
+        OldWrapper old = new OldWrapper( Page.class );
+        ReflectionDBObject.JavaWrapper w = ReflectionDBObject.getWrapper( Page.class );
+        Set<String> keys = old._getters.keySet();
+
+        long start = System.nanoTime();
+        for ( int i=0; i<num; i++ )
+            for ( String k : keys )
+                _sink = old.get( p , k );
+        _print( "get" , "old" , num , System.nanoTime() - start );
+
+        start = System.nanoTime();
+        for ( int i=0; i<num; i++ )
+            for ( int j=0; j<w.size(); j++ )
+                _sink = w.get( p , j );
+        _print( "get" , "table" , num , System.nanoTime() - start );
+
+        start = System.nanoTime();
+        for ( int i=0; i<num; i++ ){
+            old.set( p , "Views" , i );
+            old.set( p , "Title" , "a page" );
+        }
+        _print( "set" , "old" , num , System.nanoTime() - start );
+
+        start = System.nanoTime();
+        for ( int i=0; i<num; i++ ){
+            p.put( "Views" , i );
+            p.put( "Title" , "a page" );
+        }
+        _print( "set" , "table" , num , System.nanoTime() - start );
+
+        // same buffer type for both, so only the field walk differs
+        BSONEncoder generic = new BSONEncoder();
+        PoolOutputBuffer buf = new PoolOutputBuffer();
+        generic.set( buf );
+        start = System.nanoTime();
+        for ( int i=0; i<num; i++ ){
+            generic.putObject( p );
+            buf.reset();
+        }
+        _print( "encode" , "keySet" , num , System.nanoTime() - start );
+
+        OutMessage om = new OutMessage();
+        start = System.nanoTime();
+        for ( int i=0; i<num; i++ ){
+            om.putObject( p );
+            om.doneWithMessage();
+        }
+        _print( "encode" , "table" , num , System.nanoTime() - start );
+    }
+
+    static void _print( String what , String name , int num , long nanos ){
+        System.out.println( what + "\t" + name + "\t" + (long)( num / ( nanos / 1e9 ) ) + " ops/sec" );
+    }
+
+    public static void main( String args[] )
+        throws Exception {
+        int num = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+
+        System.out.println( "warming up" );
+        run( num / 10 );
+        System.out.println();
+        run( num );
+    }
+}
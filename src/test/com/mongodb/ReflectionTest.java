@@ -111,6 +111,89 @@ public class ReflectionTest extends TestCase {
         assertEquals( 17 , o.getInner().getNumber() );
     }
 
+    public static class Many extends ReflectionDBObject {
+        public String getB(){ return _b; }
+        public void setB( String b ){ _b = b; }
+
+        public int getA(){ return _a; }
+        public void setA( int a ){ _a = a; }
+
+        public Inner getC(){ return _c; }
+        public void setC( Inner c ){ _c = c; }
+
+        public String getReadOnly(){ return "x"; }
+
+        String _b;
+        int _a;
+        Inner _c;
+    }
+
+    @Test
+    public void testFieldTable(){
+        ReflectionDBObject.JavaWrapper w = ReflectionDBObject.getWrapper( Many.class );
+        assertEquals( 4 , w.size() );
+        assertEquals( "[A, B, C, _id]" , w.keySet().toString() );
+        assertEquals( 1 , w.indexOf( "B" ) );
+        assertEquals( -1 , w.indexOf( "ReadOnly" ) );
+        assertEquals( Inner.class , w.getInternalClass( "C" ) );
+        assertEquals( int.class , w.getInternalClass( "C.Number" ) );
+
+        Many m = new Many();
+        m.put( "A" , 5 );
+        w.set( m , w.indexOf( "B" ) , "b" );
+        assertEquals( 5 , m.get( "A" ) );
+        assertEquals( "b" , w.get( m , 1 ) );
+        assertEquals( null , m.get( "ReadOnly" ) );
+    }
+
+    @Test
+    public void testEncodeSameAsGeneric(){
+        Many m = new Many();
+        m.set_id( 17 );
+        m.setA( 5 );
+        m.setB( "b" );
+        m.setC( new Inner( 3 ) );
+
+        OutMessage om = new OutMessage();
+        om.putObject( m );
+        byte[] fast = om.toByteArray();
+        om.doneWithMessage();
+
+        byte[] generic = new org.bson.BSONEncoder().encode( m );
+        assertEquals( generic.length , fast.length );
+        for ( int i=0; i<fast.length; i++ )
+            assertEquals( generic[i] , fast[i] );
+
+        org.bson.BSONObject back = new org.bson.BSONDecoder().readObject( fast );
+        assertEquals( "[_id, A, B, C]" , back.keySet().toString() );
+        assertEquals( 3 , ((org.bson.BSONObject)back.get( "C" )).get( "Number" ) );
+    }
+
+    public static class Loud extends Many {
+        public Object get( String key ){
+            Object v = super.get( key );
+            return v instanceof String ? ((String)v).toUpperCase() : v;
+        }
+    }
+
+    @Test
+    public void testEncodeOverriddenGet(){
+        assertTrue( new Many().isIndexed() );
+        Loud l = new Loud();
+        assertFalse( l.isIndexed() );
+        l.setA( 1 );
+        l.setB( "quiet" );
+
+        OutMessage om = new OutMessage();
+        om.putObject( l );
+        byte[] out = om.toByteArray();
+        om.doneWithMessage();
+
+        // both encoders go through the overridden get
+        assertTrue( java.util.Arrays.equals( org.bson.BSON.encode( l ) , out ) );
+        assertEquals( "QUIET" , new org.bson.BSONDecoder().readObject( out ).get( "B" ) );
+    }
+
     final DB _db;
     
     public static void main( String args[] )
@@ -0,0 +1,178 @@
+// ResponseTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+import java.util.*;
+
+import org.testng.annotations.Test;
+
+import org.bson.*;
+import org.bson.io.*;
+
+import com.mongodb.util.*;
+
+public class ResponseTest extends TestCase {
+
+    static List<DBObject> docs( int num ){
+        List<DBObject> docs = new ArrayList<DBObject>();
+        for ( int i=0; i<num; i++ )
+            docs.add( new BasicDBObject( "_id" , i ).append( "name" , "document number " + i ).append( "list" , Arrays.asList( i , i + 1 , i + 2 ) ) );
+        return docs;
+    }
+
+    static byte[] reply( List<DBObject> docs ){
+        BasicOutputBuffer buf = new BasicOutputBuffer();
+        buf.writeInt( 0 );
+        buf.writeInt( 1 );
+        buf.writeInt( 2 );
+        buf.writeInt( 1 ); // reply
+        buf.writeInt( 0 ); // flags
+        buf.writeLong( 0 ); // cursor
+        buf.writeInt( 0 );
+        buf.writeInt( docs.size() );
+        for ( DBObject o : docs )
+            buf.write( BSON.encode( o ) );
+        buf.writeInt( 0 , buf.size() );
+        return buf.toByteArray();
+    }
+
+    @Test
+    public void testSmallIsEager()
+        throws IOException {
+        Response res = new Response( null , new ByteArrayInputStream( reply( docs( 10 ) ) ) );
+        assertFalse( res._objects instanceof Response.OnDemand );
+        assertEquals( 10 , res.size() );
+    }
+
+    @Test
+    public void testOnDemand()
+        throws IOException {
+        List<DBObject> docs = docs( 2000 );
+        byte[] b = reply( docs );
+        assertTrue( b.length > Response.DECODE_ON_DEMAND_AFTER );
+
+        Response res = new Response( null , new ByteArrayInputStream( b ) );
+        assertTrue( res._objects instanceof Response.OnDemand );
+        Response.OnDemand od = (Response.OnDemand)res._objects;
+        for ( int i=0; i<docs.size(); i++ )
+            assertNull( od._decoded.get( i ) );
+
+        assertEquals( docs.get( 5 ) , res.get( 5 ) );
+        assertTrue( res.get( 5 ) == res.get( 5 ) );
+        assertNull( od._decoded.get( 4 ) );
+
+        int n = 0;
+        for ( Iterator<DBObject> i = res.iterator(); i.hasNext(); n++ )
+            assertEquals( docs.get( n ) , i.next() );
+        assertEquals( docs.size() , n );
+    }
+
+    @Test
+    public void testDecodeAll()
+        throws IOException {
+        List<DBObject> docs = docs( 5000 );
+        Response res = new Response( null , new ByteArrayInputStream( reply( docs ) ) );
+        res.get( 0 );
+        res.decodeAll();
+
+        Response.OnDemand od = (Response.OnDemand)res._objects;
+        for ( int i=0; i<docs.size(); i++ ){
+            assertNotNull( od._decoded.get( i ) );
+            assertEquals( docs.get( i ) , res.get( i ) );
+        }
+    }
+
+    @Test
+    public void testOnDemandThreads()
+        throws Exception {
+        final List<DBObject> docs = docs( 5000 );
+        final Response res = new Response( null , new ByteArrayInputStream( reply( docs ) ) );
+        final Response.OnDemand od = (Response.OnDemand)res._objects;
+
+        final int numThreads = 6;
+        final DBObject[][] seen = new DBObject[numThreads][];
+        final List<Throwable> errors = Collections.synchronizedList( new ArrayList<Throwable>() );
+        Thread[] threads = new Thread[numThreads];
+        for ( int t=0; t<numThreads; t++ ){
+            final int me = t;
+            threads[t] = new Thread(){
+                    public void run(){
+                        try {
+                            DBObject[] mine = new DBObject[docs.size()];
+                            if ( me == 0 )
+                                res.decodeAll();
+                            for ( int i=0; i<mine.length; i++ ){
+                                final int j = me % 2 == 0 ? i : mine.length - 1 - i;
+                                mine[j] = res.get( j );
+                            }
+                            seen[me] = mine;
+                        }
+                        catch ( Throwable e ){
+                            errors.add( e );
+                        }
+                    }
+                };
+        }
+        for ( Thread t : threads )
+            t.start();
+        for ( Thread t : threads )
+            t.join();
+
+        assertEquals( 0 , errors.size() );
+        for ( int i=0; i<docs.size(); i++ ){
+            assertEquals( docs.get( i ) , seen[0][i] );
+            for ( int t=1; t<numThreads; t++ )
+                assertTrue( seen[0][i] == seen[t][i] );
+        }
+        assertEquals( docs.size() , od._numDecoded.get() );
+    }
+
+    @Test
+    public void testOnDemandFilter()
+        throws IOException {
+        Response res = new Response( null , new ByteArrayInputStream( reply( docs( 2000 ) ) ) , new DecodeOptions( false , FieldFilter.include( "name" ) ) );
+        assertTrue( res._objects instanceof Response.OnDemand );
+        assertEquals( new HashSet<String>( Arrays.asList( "name" ) ) , res.get( 7 ).keySet() );
+        assertNull( Response.TL.get().getFieldFilter() );
+    }
+
+    @Test
+    public void testBadSize()
+        throws IOException {
+        byte[] b = reply( docs( 2000 ) );
+        b[36]++; // size of the first document
+        try {
+            new Response( null , new ByteArrayInputStream( b ) );
+            assertTrue( false );
+        }
+        catch ( IOException ioe ){}
+    }
+
+    @Test
+    public void testToArray(){
+        List<DBObject> docs = docs( 5000 );
+        DBCollection c = new DBApiLayer( "db" , new FakeConnector.Replier( docs ) ).getCollection( "c" );
+        assertEquals( docs , c.find().toArray() );
+    }
+
+    public static void main( String args[] ){
+        (new ResponseTest()).runConsole();
+    }
+}
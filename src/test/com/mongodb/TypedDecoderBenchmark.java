@@ -0,0 +1,95 @@
+// TypedDecoderBenchmark.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+import org.bson.*;
+import org.bson.types.*;
+
+/**
+ * decoding the same document with setObjectClass and with TypedDecoder.
+ * doesn't need a server.
+ */
+public class TypedDecoderBenchmark {
+
+    /**
+     * same fields as ReflectionBenchmark.Page, named like its keys
+     */
+    static class Page {
+        ObjectId _id;
+        String Url;
+        String Title;
+        int Views;
+        long Bytes;
+        double Score;
+        boolean Public;
+        Date Created;
+        List<String> Words;
+    }
+
+    static Object _sink;
+
+    static void run( byte[] b , int num ){
+        DBCollection plain = new DBApiLayer( "db" , null ).getCollection( "plain" );
+        DBCollection reflect = new DBApiLayer( "db" , null ).getCollection( "reflect" );
+        reflect.setObjectClass( ReflectionBenchmark.Page.class );
+
+        BSONDecoder d = new BSONDecoder();
+
+        long start = System.nanoTime();
+        for ( int i=0; i<num; i++ ){
+            DBCallback c = new DBCallback( plain );
+            d.decode( b , c );
+            _sink = c.get();
+        }
+        _print( "BasicDBObject" , num , System.nanoTime() - start );
+
+        start = System.nanoTime();
+        for ( int i=0; i<num; i++ ){
+            DBCallback c = new DBCallback( reflect );
+            d.decode( b , c );
+            _sink = c.get();
+        }
+        _print( "setObjectClass" , num , System.nanoTime() - start );
+
+        TypedDecoder<Page> typed = TypedDecoder.get( Page.class );
+        start = System.nanoTime();
+        for ( int i=0; i<num; i++ )
+            _sink = typed.decode( b );
+        _print( "TypedDecoder" , num , System.nanoTime() - start );
+    }
+
+    static void _print( String name , int num , long nanos ){
+        System.out.println( "decode\t" + name + "\t" + (long)( num / ( nanos / 1e9 ) ) + " ops/sec" );
+    }
+
+    public static void main( String args[] ){
+        int num = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+
+        DBObject o = new ReflectionBenchmark.Page();
+        o.put( "_id" , new ObjectId() );
+        byte[] b = BSON.encode( new BasicDBObject( o.toMap() ) );
+
+        System.out.println( "warming up" );
+        run( b , num / 10 );
+        System.out.println();
+        run( b , num );
+    }
+}
@@ -0,0 +1,191 @@
+// TypedDecoderTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+import org.testng.annotations.Test;
+
+import org.bson.*;
+import org.bson.types.*;
+
+import com.mongodb.util.*;
+
+public class TypedDecoderTest extends TestCase {
+
+    enum Color { RED , GREEN }
+
+    static class Tag {
+        String name;
+        double weight;
+    }
+
+    static class Base {
+        ObjectId _id;
+        Date created;
+    }
+
+    static class Page extends Base {
+        private Page(){}
+
+        String url;
+        int views;
+        long bytes;
+        boolean published;
+        Integer maybe = 7;
+        float ratio;
+        Color color;
+        Tag main;
+        List<Tag> tags;
+        Set<String> words;
+        int[] counts;
+        String[] names;
+        Map<String,Integer> hits;
+        DBObject extra;
+        Object anything;
+        Page parent;
+        transient String notMe = "same";
+        static String alsoNotMe = "same";
+    }
+
+    static DBObject sample(){
+        BasicDBList tags = new BasicDBList();
+        tags.add( new BasicDBObject( "name" , "a" ).append( "weight" , 1.5 ) );
+        tags.add( new BasicDBObject( "name" , "b" ).append( "weight" , 2 ) );
+
+        return new BasicDBObject( "_id" , new ObjectId() )
+            .append( "created" , new Date( 12345 ) )
+            .append( "url" , "http://www.example.com/" )
+            .append( "views" , 17 )
+            .append( "bytes" , 5L + Integer.MAX_VALUE )
+            .append( "published" , true )
+            .append( "maybe" , null )
+            .append( "ratio" , .5 )
+            .append( "color" , "GREEN" )
+            .append( "main" , new BasicDBObject( "name" , "m" ).append( "weight" , 3.0 ).append( "unknown" , 1 ) )
+            .append( "tags" , tags )
+            .append( "words" , Arrays.asList( "x" , "y" , "x" ) )
+            .append( "counts" , Arrays.asList( 1 , 2 , 3 ) )
+            .append( "names" , Arrays.asList( "n1" , null ) )
+            .append( "hits" , new BasicDBObject( "a" , 1 ).append( "b" , 2 ) )
+            .append( "extra" , new BasicDBObject( "deep" , new BasicDBObject( "x" , 1 ) ) )
+            .append( "anything" , Arrays.asList( 1 , "two" ) )
+            .append( "parent" , new BasicDBObject( "url" , "up" ).append( "views" , 1 ) )
+            .append( "notMe" , "changed" )
+            .append( "alsoNotMe" , "changed" )
+            .append( "notAField" , new BasicDBObject( "skip" , "me" ) );
+    }
+
+    @Test
+    public void testDecode(){
+        DBObject o = sample();
+        Page p = TypedDecoder.get( Page.class ).decode( BSON.encode( o ) );
+
+        assertEquals( o.get( "_id" ) , p._id );
+        assertEquals( new Date( 12345 ) , p.created );
+        assertEquals( "http://www.example.com/" , p.url );
+        assertEquals( 17 , p.views );
+        assertEquals( 5L + Integer.MAX_VALUE , p.bytes );
+        assertTrue( p.published );
+        assertNull( p.maybe );
+        assertEquals( .5f , p.ratio , 0 );
+        assertEquals( Color.GREEN , p.color );
+
+        assertEquals( "m" , p.main.name );
+        assertEquals( 3.0 , p.main.weight , 0 );
+        assertEquals( 2 , p.tags.size() );
+        assertEquals( "b" , p.tags.get( 1 ).name );
+        assertEquals( 2.0 , p.tags.get( 1 ).weight , 0 );
+        assertEquals( 2 , p.words.size() );
+        assertTrue( Arrays.equals( new int[]{ 1 , 2 , 3 } , p.counts ) );
+        assertTrue( Arrays.equals( new String[]{ "n1" , null } , p.names ) );
+        assertEquals( 2 , p.hits.get( "b" ).intValue() );
+
+        assertTrue( p.extra instanceof BasicDBObject );
+        assertEquals( 1 , ((DBObject)p.extra.get( "deep" )).get( "x" ) );
+        assertTrue( p.anything instanceof BasicDBList );
+
+        assertEquals( "up" , p.parent.url );
+        assertEquals( 1 , p.parent.views );
+        assertNull( p.parent.parent );
+        assertEquals( Integer.valueOf( 7 ) , p.parent.maybe );
+
+        assertEquals( "same" , p.notMe );
+        assertEquals( "same" , Page.alsoNotMe );
+    }
+
+    @Test
+    public void testDecodeDBObject(){
+        DBObject o = sample();
+        Page p = TypedDecoder.get( Page.class ).decode( o );
+        assertEquals( 17 , p.views );
+
+        Page lazy = TypedDecoder.get( Page.class ).decode( new LazyDBObject( BSON.encode( o ) ) );
+        assertEquals( 17 , lazy.views );
+        assertEquals( "b" , lazy.tags.get( 1 ).name );
+    }
+
+    @Test
+    public void testWrongType(){
+        try {
+            TypedDecoder.get( Page.class ).decode( BSON.encode( new BasicDBObject( "url" , 5 ) ) );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException iae ){}
+
+        try {
+            TypedDecoder.get( Page.class ).decode( BSON.encode( new BasicDBObject( "main" , "not an object" ) ) );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException iae ){}
+
+        try {
+            TypedDecoder.get( Runnable.class );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException iae ){}
+    }
+
+    @Test
+    public void testCached(){
+        assertTrue( TypedDecoder.get( Tag.class ) == TypedDecoder.get( Tag.class ) );
+    }
+
+    @Test
+    public void testCursorAs(){
+        final List<DBObject> docs = new ArrayList<DBObject>();
+        for ( int i=0; i<5; i++ )
+            docs.add( new BasicDBObject( "_id" , new ObjectId() ).append( "url" , "u" + i ).append( "views" , i ) );
+
+        DBCollection c = new DBApiLayer( "db" , new FakeConnector.Replier( docs ) ).getCollection( "pages" );
+        int n = 0;
+        for ( Page p : c.find().as( Page.class ) ){
+            assertEquals( "u" + n , p.url );
+            assertEquals( n , p.views );
+            assertEquals( docs.get( n ).get( "_id" ) , p._id );
+            n++;
+        }
+        assertEquals( 5 , n );
+        assertEquals( 5 , c.find().as( Page.class ).toArray().size() );
+    }
+
+    public static void main( String args[] ){
+        (new TypedDecoderTest()).runConsole();
+    }
+}
@@ -0,0 +1,115 @@
+// BSONBenchmark.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+import java.util.*;
+
+import org.bson.io.*;
+import org.bson.types.*;
+
+/**
+ * encode/decode rates for the small, medium and large documents from com.mongodb.PerformanceTest.
+ * doesn't need a server.
+ */
+public class BSONBenchmark {
+
+    static BSONObject small(){
+        return new BasicBSONObject();
+    }
+
+    static BSONObject medium(){
+        BasicBSONList a = new BasicBSONList();
+        a.put( "0" , "test" );
+        a.put( "1" , "benchmark" );
+        return new BasicBSONObject( "integer" , 5 )
+            .append( "number" , 5.05 )
+            .append( "boolean" , false )
+            .append( "array" , a );
+    }
+
+    static BSONObject large(){
+        BasicBSONList harvest = new BasicBSONList();
+        String[] words = { "10gen" , "web" , "open" , "source" , "application" , "paas" , "platform-as-a-service" ,
+                           "technology" , "helps" , "developers" , "focus" , "building" , "mongodb" , "mongo" };
+        for ( int i=0; i<20; i++ )
+            for ( int j=0; j<words.length; j++ )
+                harvest.put( i * words.length + j , words[j] );
+
+        return new BasicBSONObject( "base_url" , "http://www.example.com/test-me" )
+            .append( "total_word_count" , 6743 )
+            .append( "access_time" , new Date() )
+            .append( "meta_tags" , new BasicBSONObject( "description" , "i am a long description string" )
+                     .append( "author" , "Holly Man" )
+                     .append( "dynamically_created_meta_tag" , "who know\n what" ) )
+            .append( "page_structure" , new BasicBSONObject( "counted_tags" , 3450 )
+                     .append( "no_of_js_attached" , 10 )
+                     .append( "no_of_images" , 6 ) )
+            .append( "harvested_words" , harvest );
+    }
+
+    static void encode( String name , BSONObject o , int num ){
+        BSONEncoder e = new BSONEncoder();
+        BasicOutputBuffer buf = new BasicOutputBuffer();
+
+        long start = System.nanoTime();
+        for ( int i=0; i<num; i++ ){
+            buf.setPosition( 0 );
+            e.set( buf );
+            e.putObject( o );
+            e.done();
+        }
+        _print( "encode" , name , num , System.nanoTime() - start );
+    }
+
+    static void decode( String name , BSONObject o , int num ){
+        byte[] b = BSON.encode( o );
+        BSONDecoder d = new BSONDecoder();
+        BasicBSONCallback c = new BasicBSONCallback();
+
+        long start = System.nanoTime();
+        for ( int i=0; i<num; i++ ){
+            c.reset();
+            d.decode( b , c );
+        }
+        _print( "decode" , name , num , System.nanoTime() - start );
+    }
+
+    static void _print( String what , String name , int num , long nanos ){
+        System.out.println( what + "\t" + name + "\t" + (long)( num / ( nanos / 1e9 ) ) + " ops/sec" );
+    }
+
+    static void run( int num ){
+        encode( "small" , small() , num );
+        encode( "medium" , medium() , num );
+        encode( "large" , large() , num / 10 );
+
+        decode( "small" , small() , num );
+        decode( "medium" , medium() , num );
+        decode( "large" , large() , num / 10 );
+    }
+
+    public static void main( String args[] ){
+        int num = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+
+        System.out.println( "warming up" );
+        run( num / 10 );
+        System.out.println();
+        run( num );
+    }
+}
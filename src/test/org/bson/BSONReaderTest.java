@@ -0,0 +1,235 @@
+// BSONReaderTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.regex.*;
+
+import org.testng.annotations.Test;
+
+import com.mongodb.util.*;
+import org.bson.io.*;
+import org.bson.types.*;
+
+public class BSONReaderTest extends TestCase {
+
+    static BSONObject sample(){
+        return new BasicBSONObject( "_id" , new ObjectId() )
+            .append( "i" , 5 )
+            .append( "l" , 6L )
+            .append( "d" , 5.5 )
+            .append( "s" , "héllo 中" )
+            .append( "b" , true )
+            .append( "n" , null )
+            .append( "date" , new Date( 12345 ) )
+            .append( "re" , Pattern.compile( "^a.*b" , Pattern.CASE_INSENSITIVE ) )
+            .append( "bin" , new byte[]{ 1 , 2 , 3 } )
+            .append( "uuid" , new UUID( 1 , 2 ) )
+            .append( "list" , Arrays.asList( 1 , "two" , new BasicBSONObject( "three" , 3 ) ) )
+            .append( "sub" , new BasicBSONObject( "a" , 1 ).append( "deeper" , new BasicBSONObject( "x" , "y" ) ) )
+            .append( "last" , "end" );
+    }
+
+    @Test
+    public void testReadValue()
+        throws IOException {
+        byte[] b = BSON.encode( sample() );
+        BSONObject expected = new BSONDecoder().readObject( b );
+
+        _testReadValue( expected , new BSONReader( b ) );
+        _testReadValue( expected , new BSONReader( ByteBuffer.wrap( b ) ) );
+        _testReadValue( expected , new BSONReader( new BufferedInputStream( new ByteArrayInputStream( b ) ) ) );
+    }
+
+    void _testReadValue( BSONObject expected , BSONReader r )
+        throws IOException {
+        BSONObject o = new BasicBSONObject();
+        while ( r.nextElement() != BSON.EOO ){
+            assertEquals( 1 , r.getDepth() );
+            o.put( r.getName() , r.readValue() );
+        }
+        assertEquals( 0 , r.getDepth() );
+
+        assertEquals( expected.keySet() , o.keySet() );
+        for ( String k : expected.keySet() ){
+            if ( k.equals( "re" ) )
+                assertEquals( expected.get( k ).toString() , o.get( k ).toString() );
+            else if ( k.equals( "bin" ) )
+                assertTrue( Arrays.equals( (byte[])expected.get( k ) , (byte[])o.get( k ) ) );
+            else
+                assertEquals( expected.get( k ) , o.get( k ) );
+        }
+    }
+
+    @Test
+    public void testTyped()
+        throws IOException {
+        BSONReader r = new BSONReader( BSON.encode( sample() ) );
+        assertEquals( BSON.OID , r.nextElement() );
+        assertEquals( "_id" , r.getName() );
+        assertEquals( BSON.NUMBER_INT , r.nextElement() ); // skips _id
+        assertEquals( 5 , r.readInt() );
+        r.nextElement();
+        assertEquals( 6L , r.readLong() );
+        r.nextElement();
+        assertEquals( 5.5 , r.readNumber() );
+        r.nextElement();
+        assertEquals( "héllo 中" , r.readString() );
+        r.nextElement();
+        assertTrue( r.readBoolean() );
+        assertEquals( BSON.NULL , r.nextElement() );
+        r.nextElement();
+        assertEquals( new Date( 12345 ) , r.readDate() );
+        r.nextElement();
+        assertEquals( Pattern.CASE_INSENSITIVE , r.readRegex().flags() );
+        r.nextElement();
+        assertTrue( Arrays.equals( new byte[]{ 1 , 2 , 3 } , r.readBinary() ) );
+
+        r.nextElement();
+        try {
+            r.readInt();
+            assertTrue( false );
+        }
+        catch ( IllegalStateException ise ){}
+    }
+
+    @Test
+    public void testStepInAndOut()
+        throws IOException {
+        BSONReader r = new BSONReader( BSON.encode( sample() ) );
+        while ( r.nextElement() != BSON.EOO ){
+            if ( r.getName().equals( "list" ) ){
+                r.stepIn();
+                assertEquals( 2 , r.getDepth() );
+                assertEquals( BSON.NUMBER_INT , r.nextElement() );
+                assertEquals( "0" , r.getName() );
+                assertEquals( 1 , r.readInt() );
+                r.stepOut(); // leaves the rest
+            }
+            else if ( r.getName().equals( "sub" ) ){
+                r.stepIn();
+                assertEquals( BSON.NUMBER_INT , r.nextElement() );
+                assertEquals( BSON.OBJECT , r.nextElement() );
+                r.stepIn();
+                assertEquals( BSON.STRING , r.nextElement() );
+                assertEquals( "y" , r.readString() );
+                assertEquals( BSON.EOO , r.nextElement() );
+                try {
+                    r.nextElement();
+                    assertTrue( false );
+                }
+                catch ( IllegalStateException ise ){}
+                r.stepOut();
+                assertEquals( BSON.EOO , r.nextElement() );
+                r.stepOut();
+                assertEquals( 1 , r.getDepth() );
+            }
+            else if ( r.getName().equals( "last" ) ){
+                assertEquals( "end" , r.readString() );
+            }
+        }
+        assertEquals( 0 , r.getDepth() );
+    }
+
+    @Test
+    public void testBigArray()
+        throws IOException {
+        List<Integer> points = new ArrayList<Integer>();
+        for ( int i=0; i<100000; i++ )
+            points.add( i );
+        byte[] b = BSON.encode( new BasicBSONObject( "name" , "big" ).append( "points" , points ).append( "after" , true ) );
+
+        BSONReader r = new BSONReader( new BufferedInputStream( new ByteArrayInputStream( b ) ) );
+        long sum = 0;
+        int n = 0;
+        while ( r.nextElement() != BSON.EOO ){
+            if ( r.getType() == BSON.ARRAY ){
+                r.stepIn();
+                while ( r.nextElement() != BSON.EOO ){
+                    sum += r.readInt();
+                    n++;
+                }
+                r.stepOut();
+            }
+        }
+        assertEquals( 100000 , n );
+        assertEquals( 99999L * 100000 / 2 , sum );
+    }
+
+    @Test
+    public void testManyDocuments()
+        throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for ( int i=0; i<5; i++ )
+            out.write( BSON.encode( new BasicBSONObject( "i" , i ) ) );
+
+        BSONReader r = new BSONReader( new ByteArrayInputStream( out.toByteArray() ) );
+        for ( int i=0; i<5; i++ ){
+            assertEquals( BSON.NUMBER_INT , r.nextElement() );
+            assertEquals( i , r.readInt() );
+            assertEquals( BSON.EOO , r.nextElement() );
+        }
+        try {
+            r.nextElement();
+            assertTrue( false );
+        }
+        catch ( EOFException eof ){}
+    }
+
+    @Test
+    public void testReset()
+        throws IOException {
+        byte[] a = BSON.encode( new BasicBSONObject( "name" , "a" ) );
+        byte[] b = BSON.encode( new BasicBSONObject( "name" , "b" ) );
+
+        BSONReader r = new BSONReader( a );
+        r.setNameTable( new StringTable( 16 , 16 ) );
+        r.nextElement();
+        String first = r.getName();
+        assertEquals( "a" , r.readString() );
+
+        r.reset( b , 0 , b.length );
+        assertEquals( 0 , r.getDepth() );
+        r.nextElement();
+        assertTrue( first == r.getName() );
+        assertEquals( "b" , r.readString() );
+        assertEquals( BSON.EOO , r.nextElement() );
+        assertEquals( 1L , r.getNameTable().hits() );
+    }
+
+    @Test
+    public void testBadSize()
+        throws IOException {
+        byte[] b = BSON.encode( new BasicBSONObject( "i" , 1 ) );
+        b[0]++;
+        BSONReader r = new BSONReader( b );
+        r.nextElement();
+        try {
+            r.nextElement();
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException iae ){}
+    }
+
+    public static void main( String args[] ){
+        (new BSONReaderTest()).runConsole();
+    }
+}
@@ -29,6 +29,7 @@ import com.mongodb.util.*;
 import org.testng.annotations.Test;
 
 import org.bson.io.*;
+import org.bson.types.*;
 
 public class BSONTest extends TestCase {
 
@@ -120,6 +121,444 @@ public class BSONTest extends TestCase {
         assertEquals( a.asString() , b.toString() );
     }
     
+    @Test
+    public void testUTF8()
+        throws IOException {
+        Random r = new Random( 17 );
+        List<String> strings = new ArrayList<String>();
+        strings.add( "" );
+        strings.add( "eliot" );
+        strings.add( "caf\u00e9" );
+        strings.add( "\u65e5\u672c\u8a9e" );
+        strings.add( "g-clef \ud834\udd1e" );
+        for ( int i=0; i<200; i++ ){
+            StringBuilder buf = new StringBuilder();
+            int len = r.nextInt( 3000 );
+            for ( int j=0; j<len; j++ ){
+                switch ( r.nextInt( 5 ) ){
+                case 0: buf.append( (char)( 0x80 + r.nextInt( 0x780 ) ) ); break;
+                case 1: buf.append( (char)( 0x800 + r.nextInt( 0xD000 ) ) ); break;
+                case 2: buf.appendCodePoint( 0x10000 + r.nextInt( 0x100000 ) ); break;
+                default: buf.append( (char)( 1 + r.nextInt( 0x7F ) ) );
+                }
+            }
+            strings.add( buf.toString() );
+        }
+
+        for ( String s : strings ){
+            byte[] b = BSON.encode( new BasicBSONObject( s , s ) );
+            byte[] utf8 = s.getBytes( "UTF-8" );
+            assertEquals( 4 + 1 + ( utf8.length + 1 ) + 4 + ( utf8.length + 1 ) + 1 , b.length );
+            for ( int i=0; i<utf8.length; i++ )
+                assertEquals( utf8[i] , b[5+i] );
+
+            BSONObject o = BSON.decode( b );
+            assertEquals( s , o.keySet().iterator().next() );
+            assertEquals( s , o.get( s ) );
+
+            o = new BSONDecoder().readObject( new ByteArrayInputStream( b ) );
+            assertEquals( s , o.get( s ) );
+        }
+
+        try {
+            BSON.encode( new BasicBSONObject( "x" , "bad \ud834" ) );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException iae ){}
+
+        byte[] b = BSON.encode( new BasicBSONObject( "x" , "abc" ) );
+        b[b.length-3] = (byte)0xC3; // 'c' becomes a lone lead byte
+        assertEquals( "ab\uFFFD" , BSON.decode( b ).get( "x" ) );
+    }
+
+    @Test
+    public void testCStringCache()
+        throws IOException {
+        assertTrue( CStringCache.index( 17 ) == CStringCache.index( 17 ) );
+        assertEquals( "5000" , CStringCache.index( 5000 ) );
+
+        CStringCache c = new CStringCache( 3 , 10 );
+        for ( String s : new String[]{ "a" , "caf\u00e9" , "\u65e5\u672c" , "17" } ){
+            byte[] b = c.get( s );
+            byte[] utf8 = s.getBytes( "UTF-8" );
+            assertEquals( utf8.length + 1 , b.length );
+            for ( int i=0; i<utf8.length; i++ )
+                assertEquals( utf8[i] , b[i] );
+            assertEquals( 0 , b[utf8.length] );
+            assertTrue( b == c.get( s ) );
+        }
+        assertEquals( 3 , c.size() ); // indexes don't count
+
+        assertNull( c.get( "bad \ud834" ) );
+        assertNull( c.get( "much too long to cache" ) );
+
+        // full: nothing is added or dropped
+        assertNull( c.get( "b" ) );
+        assertEquals( 3 , c.size() );
+        assertTrue( c.get( "a" ) == c.get( "a" ) );
+
+        c.clear();
+        assertNotNull( c.get( "b" ) );
+        assertEquals( 1 , c.size() );
+
+        List<Object> l = new ArrayList<Object>();
+        for ( int i=0; i<CStringCache.NUM_INDEXES + 10; i++ )
+            l.add( i );
+        BSONObject o = BSON.decode( BSON.encode( new BasicBSONObject( "l" , l ) ) );
+        assertEquals( l , o.get( "l" ) );
+    }
+
+    static class Money {
+        Money( long cents ){
+            _cents = cents;
+        }
+        final long _cents;
+    }
+
+    static class Euros extends Money {
+        Euros( long cents ){
+            super( cents );
+        }
+    }
+
+    static class Temperature {
+        Temperature( double c ){
+            _c = c;
+        }
+        final double _c;
+    }
+
+    @Test
+    public void testValueEncoder(){
+        BSON.addEncoder( Money.class , new ValueEncoder(){
+                public void put( BSONEncoder e , String name , Object value ){
+                    e.writeHeader( BSON.NUMBER_LONG , name );
+                    e.writeLong( ((Money)value)._cents );
+                }
+            } );
+        BSON.addEncoder( Temperature.class , new ValueEncoder(){
+                public void put( BSONEncoder e , String name , Object value ){
+                    e.putValue( name , new BasicBSONObject( "c" , ((Temperature)value)._c ) );
+                }
+            } );
+
+        try {
+            BSONObject o = BSON.decode( BSON.encode( new BasicBSONObject( "a" , new Money( 5 ) )
+                                                     .append( "b" , new Euros( 7 ) )
+                                                     .append( "t" , new Temperature( 20.5 ) ) ) );
+            assertEquals( 5L , o.get( "a" ) );
+            assertEquals( 7L , o.get( "b" ) );
+            assertEquals( 20.5 , ((BSONObject)o.get( "t" )).get( "c" ) );
+
+            // registered encoders come before the built in ones
+            BSON.addEncoder( Integer.class , new ValueEncoder(){
+                    public void put( BSONEncoder e , String name , Object value ){
+                        e.putValue( name , value.toString() );
+                    }
+                } );
+            assertEquals( "5" , BSON.decode( BSON.encode( new BasicBSONObject( "x" , 5 ) ) ).get( "x" ) );
+            BSON.removeEncoder( Integer.class );
+            assertEquals( 5 , BSON.decode( BSON.encode( new BasicBSONObject( "x" , 5 ) ) ).get( "x" ) );
+        }
+        finally {
+            BSON.removeEncoder( Money.class );
+            BSON.removeEncoder( Temperature.class );
+        }
+
+        try {
+            BSON.encode( new BasicBSONObject( "a" , new Money( 5 ) ) );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException iae ){}
+    }
+
+    @Test
+    public void testTemplate(){
+        BSONObject shape = new BasicBSONObject( "a" , 1 )
+            .append( "b" , BSONTemplate.slot( "b" ) )
+            .append( "c" , new BasicBSONObject( "x" , BSONTemplate.slot( "s" ) ).append( "y" , true ) )
+            .append( "d" , Arrays.asList( 5 , BSONTemplate.slot( "b" ) ) )
+            .append( "e" , "end" );
+        BSONTemplate t = new BSONTemplate( shape );
+        assertEquals( Arrays.asList( "b" , "s" ) , t.getSlotNames() );
+        
+        _testTemplate( t.bind( 5 , "eliot" ) , 5 , "eliot" );
+        _testTemplate( t.bind( 5.5 , "a much longer string than the first one" ) , 5.5 , "a much longer string than the first one" );
+        _testTemplate( t.bind( "x" , null ) , "x" , null );
+
+        Map<String,Object> m = new HashMap<String,Object>();
+        m.put( "b" , 17L );
+        m.put( "s" , new BasicBSONObject( "z" , 1 ) );
+        _testTemplate( t.bind( m ) , 17L , new BasicBSONObject( "z" , 1 ) );
+
+        BSONObject bound = t.bind( 1 , "q" );
+        assertEquals( 1 , bound.get( "b" ) );
+        assertEquals( "q" , ((BSONObject)bound.get( "c" )).get( "x" ) );
+
+        BSONObject embedded = new BasicBSONObject( "$query" , t.bind( 1 , "q" ) ).append( "$orderby" , new BasicBSONObject( "a" , 1 ) );
+        assertEquals( BSON.encode( new BasicBSONObject( "$query" , _expected( 1 , "q" ) ).append( "$orderby" , new BasicBSONObject( "a" , 1 ) ) ) ,
+                      BSON.encode( embedded ) );
+    }
+
+    @Test
+    public void testTemplateId(){
+        BSONTemplate t = new BSONTemplate( new BasicBSONObject( "a" , BSONTemplate.slot( "a" ) ).append( "b" , new BasicBSONObject( "c" , 1 ) ) );
+        BSONObject bound = t.bind( "x" );
+        assertNull( bound.get( "_id" ) );
+        assertFalse( bound.containsField( "_id" ) );
+        assertEquals( "x" , bound.get( "a" ) );
+
+        bound.put( "_id" , 17 );
+        assertEquals( 17 , bound.get( "_id" ) );
+        assertEquals( Arrays.asList( "_id" , "a" , "b" ) , new ArrayList<String>( bound.keySet() ) );
+        assertEquals( BSON.encode( new BasicBSONObject( "_id" , 17 ).append( "a" , "x" ).append( "b" , new BasicBSONObject( "c" , 1 ) ) ) ,
+                      BSON.encode( bound ) );
+        assertEquals( BSON.encode( new BasicBSONObject( "o" , new BasicBSONObject( "_id" , 17 ).append( "a" , "x" ).append( "b" , new BasicBSONObject( "c" , 1 ) ) ) ) ,
+                      BSON.encode( new BasicBSONObject( "o" , bound ) ) );
+
+        try {
+            bound.put( "a" , 1 );
+            assertTrue( false );
+        }
+        catch ( RuntimeException re ){}
+    }
+
+    @Test
+    public void testFieldFilter(){
+        BSONObject o = new BasicBSONObject( "_id" , new ObjectId() )
+            .append( "i" , 5 )
+            .append( "l" , 6L )
+            .append( "d" , 5.5 )
+            .append( "s" , "héllo" )
+            .append( "b" , true )
+            .append( "n" , null )
+            .append( "date" , new Date( 12345 ) )
+            .append( "ts" , new BSONTimestamp( 100 , 7 ) )
+            .append( "re" , java.util.regex.Pattern.compile( "^a.*b" ) )
+            .append( "bin" , new byte[]{ 1 , 2 , 3 } )
+            .append( "code" , new CodeWScope( "x" , new BasicBSONObject( "y" , 1 ) ) )
+            .append( "list" , Arrays.asList( 1 , 2 ) )
+            .append( "sub" , new BasicBSONObject( "a" , 1 ).append( "i" , 2 ) )
+            .append( "last" , "end" );
+        byte[] b = BSON.encode( o );
+
+        BSONObject in = _decode( b , FieldFilter.include( "i" , "sub" , "last" ) );
+        assertEquals( 3 , in.keySet().size() );
+        assertEquals( 5 , in.get( "i" ) );
+        assertEquals( 2 , ((BSONObject)in.get( "sub" )).get( "i" ) ); // embedded fields aren't filtered
+        assertEquals( "end" , in.get( "last" ) );
+
+        // the decoder can't read code with scope, so this also shows it's never looked at
+        BSONObject out = _decode( b , FieldFilter.exclude( "bin" , "list" , "code" ) );
+        assertEquals( o.keySet().size() - 3 , out.keySet().size() );
+        assertFalse( out.containsField( "bin" ) );
+        assertEquals( "end" , out.get( "last" ) );
+
+        BSONObject none = _decode( b , FieldFilter.include() );
+        assertEquals( 0 , none.keySet().size() );
+
+        BSONObject proj = _decode( b , FieldFilter.fromProjection( new BasicBSONObject( "sub.a" , 1 ).append( "s" , 1 ) ) );
+        assertEquals( new HashSet<String>( Arrays.asList( "_id" , "sub" , "s" ) ) , proj.keySet() );
+
+        proj = _decode( b , FieldFilter.fromProjection( new BasicBSONObject( "s" , 1 ).append( "_id" , 0 ) ) );
+        assertEquals( new HashSet<String>( Arrays.asList( "s" ) ) , proj.keySet() );
+
+        try {
+            FieldFilter.fromProjection( new BasicBSONObject( "s" , 1 ).append( "i" , 0 ) );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException iae ){}
+    }
+
+    @Test
+    public void testStringTable(){
+        BSONDecoder d = new BSONDecoder();
+        d.setNameTable( new StringTable( 64 , 16 ) );
+        d.setValueTable( new StringTable( 64 , 8 ) );
+
+        List<BSONObject> docs = new ArrayList<BSONObject>();
+        for ( int i=0; i<10; i++ ){
+            BSONObject o = new BasicBSONObject( "name" , "short" )
+                .append( "a_rather_long_field_name" , "a value too long to keep" )
+                .append( "héllo" , i );
+            BasicBSONCallback c = new BasicBSONCallback();
+            d.decode( BSON.encode( o ) , c );
+            docs.add( (BSONObject)c.get() );
+            assertEquals( o , c.get() );
+        }
+
+        for ( int i=1; i<docs.size(); i++ ){
+            Iterator<String> a = docs.get( 0 ).keySet().iterator();
+            Iterator<String> b = docs.get( i ).keySet().iterator();
+            assertTrue( a.next() == b.next() );
+            assertTrue( a.next() != b.next() ); // too long
+            assertTrue( a.next() == b.next() );
+            assertTrue( docs.get( 0 ).get( "name" ) == docs.get( i ).get( "name" ) );
+        }
+
+        assertEquals( 2 , d.getNameTable().size() );
+        assertEquals( 2L , d.getNameTable().misses() );
+        assertEquals( 18L , d.getNameTable().hits() );
+        assertEquals( .9 , d.getValueTable().hitRate() , .0001 );
+
+        d.getNameTable().clear();
+        assertEquals( 0 , d.getNameTable().size() );
+        assertEquals( 0 , d.getNameTable().hitRate() , 0 );
+    }
+
+    @Test
+    public void testPatternCache(){
+        BSONObject o = new BasicBSONObject( "re" , java.util.regex.Pattern.compile( "^abc" , java.util.regex.Pattern.CASE_INSENSITIVE ) );
+        byte[] b = BSON.encode( o );
+        Object first = new BSONDecoder().readObject( b ).get( "re" );
+        Object second = new BSONDecoder().readObject( b ).get( "re" );
+        assertTrue( first == second );
+        assertEquals( java.util.regex.Pattern.CASE_INSENSITIVE , ((java.util.regex.Pattern)first).flags() );
+        assertTrue( BSON.compileRegex( "^abc" , "" ) != first );
+
+        org.bson.util.LRUCache<String,Integer> lru = new org.bson.util.LRUCache<String,Integer>( 2 );
+        lru.put( "a" , 1 );
+        lru.put( "b" , 2 );
+        assertEquals( 1 , lru.get( "a" ).intValue() );
+        lru.put( "c" , 3 );
+        assertNull( lru.get( "b" ) );
+        assertEquals( 1 , lru.get( "a" ).intValue() );
+        assertEquals( 2 , lru.size() );
+        assertEquals( 2L , lru.hits() );
+        assertEquals( 1L , lru.misses() );
+    }
+
+    @Test
+    public void testPrimitiveArrays(){
+        int[] ints = { 1 , -2 , Integer.MAX_VALUE };
+        long[] longs = { 5L , Long.MIN_VALUE };
+        double[] doubles = { 1.5 , -0.0 , Double.NaN };
+
+        // encoded straight from the arrays, same bytes as the boxed lists
+        BSONObject o = new BasicBSONObject( "i" , ints ).append( "l" , longs ).append( "d" , doubles )
+            .append( "f" , new float[]{ 2.5f } )
+            .append( "m" , Arrays.asList( 1 , 2L ) );
+        BSONObject boxed = new BasicBSONObject( "i" , Arrays.asList( 1 , -2 , Integer.MAX_VALUE ) )
+            .append( "l" , Arrays.asList( 5L , Long.MIN_VALUE ) )
+            .append( "d" , Arrays.asList( 1.5 , -0.0 , Double.NaN ) )
+            .append( "f" , Arrays.asList( 2.5f ) )
+            .append( "m" , Arrays.asList( 1 , 2L ) );
+        byte[] b = BSON.encode( o );
+        assertEquals( BSON.encode( boxed ) , b );
+
+        // off by default
+        assertTrue( new BSONDecoder().readObject( b ).get( "i" ) instanceof BasicBSONList );
+
+        BSONDecoder d = new BSONDecoder();
+        d.setPrimitiveArrays( true );
+        BasicBSONCallback c = new BasicBSONCallback();
+        d.decode( b , c );
+        BSONObject x = (BSONObject)c.get();
+
+        PrimitiveBSONList.Ints xi = (PrimitiveBSONList.Ints)x.get( "i" );
+        assertEquals( 3 , xi.size() );
+        assertEquals( Integer.MAX_VALUE , xi.getInt( 2 ) );
+        assertEquals( BSON.NUMBER_INT , xi.getElementType() );
+        assertEquals( Arrays.asList( 1 , -2 , Integer.MAX_VALUE ) , xi );
+        assertEquals( -2 , xi.get( "1" ) );
+
+        PrimitiveBSONList.Longs xl = (PrimitiveBSONList.Longs)x.get( "l" );
+        assertEquals( Long.MIN_VALUE , xl.toLongArray()[1] );
+
+        PrimitiveBSONList.Doubles xd = (PrimitiveBSONList.Doubles)x.get( "d" );
+        assertEquals( 3 , xd.size() );
+        assertTrue( Double.isNaN( xd.getDouble( 2 ) ) );
+
+        // mixed types go through the regular path
+        assertTrue( x.get( "m" ) instanceof BasicBSONList );
+        assertEquals( 2L , ((List)x.get( "m" )).get( 1 ) );
+
+        // and it all encodes back to the same thing
+        assertEquals( b , BSON.encode( x ) );
+
+        // callbacks that can't take whole arrays get the elements
+        final BasicBSONCallback inner = new BasicBSONCallback();
+        java.lang.reflect.InvocationHandler passOn = new java.lang.reflect.InvocationHandler(){
+                public Object invoke( Object proxy , java.lang.reflect.Method m , Object[] args )
+                    throws Throwable {
+                    return m.invoke( inner , args );
+                }
+            };
+        BSONCallback plain = (BSONCallback)java.lang.reflect.Proxy.newProxyInstance( getClass().getClassLoader() , new Class[]{ BSONCallback.class } , passOn );
+        d.decode( b , plain );
+        assertTrue( ((BSONObject)inner.get()).get( "i" ) instanceof BasicBSONList );
+        assertEquals( Arrays.asList( 1 , -2 , Integer.MAX_VALUE ) , ((BSONObject)inner.get()).get( "i" ) );
+
+        // empty arrays too
+        c.reset();
+        d.decode( BSON.encode( new BasicBSONObject( "e" , new int[0] ).append( "z" , 1 ) ) , c );
+        assertEquals( 0 , ((List)((BSONObject)c.get()).get( "e" )).size() );
+        assertEquals( 1 , ((BSONObject)c.get()).get( "z" ) );
+    }
+
+    @Test
+    public void testPrimitiveBSONList(){
+        PrimitiveBSONList.Ints l = new PrimitiveBSONList.Ints();
+        for ( int i=0; i<20; i++ )
+            l.addInt( i );
+        l.add( 0 , -1 );
+        l.put( "21" , 100 );
+        l.set( 1 , 7 );
+        assertEquals( 22 , l.size() );
+        assertEquals( -1 , l.getInt( 0 ) );
+        assertEquals( 7 , l.getInt( 1 ) );
+        assertEquals( 100 , l.getInt( 21 ) );
+        assertEquals( 100 , l.removeField( "21" ) );
+        assertEquals( 21 , l.size() );
+        assertTrue( l.containsField( "20" ) );
+        assertFalse( l.containsField( "21" ) );
+        assertEquals( 21 , l.keySet().size() );
+        assertEquals( 21 , l.toIntArray().length );
+
+        try {
+            l.put( "0" , 1.5 );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException iae ){}
+
+        try {
+            l.put( "30" , 1 );
+            assertTrue( false );
+        }
+        catch ( IndexOutOfBoundsException ioobe ){}
+
+        PrimitiveBSONList.Longs ls = new PrimitiveBSONList.Longs( new long[]{ 1 , 2 , 3 , 0 } , 3 );
+        ls.add( 4L );
+        ls.put( 4 , 5 );
+        assertEquals( Arrays.asList( 1L , 2L , 3L , 4L , 5L ) , ls );
+    }
+
+    BSONObject _decode( byte[] b , FieldFilter filter ){
+        BSONDecoder d = new BSONDecoder();
+        d.setFieldFilter( filter );
+        BasicBSONCallback c = new BasicBSONCallback();
+        d.decode( b , c );
+        return (BSONObject)c.get();
+    }
+
+    void _testTemplate( BSONObject bound , Object b , Object s ){
+        assertEquals( BSON.encode( _expected( b , s ) ) , BSON.encode( bound ) );
+    }
+
+    BSONObject _expected( Object b , Object s ){
+        return new BasicBSONObject( "a" , 1 )
+            .append( "b" , b )
+            .append( "c" , new BasicBSONObject( "x" , s ).append( "y" , true ) )
+            .append( "d" , Arrays.asList( 5 , b ) )
+            .append( "e" , "end" );
+    }
+
+    void assertEquals( byte[] a , byte[] b ){
+        assertEquals( a.length , b.length );
+        for ( int i=0; i<a.length; i++ )
+            assertEquals( a[i] , b[i] );
+    }
+
     List<String> _data = new ArrayList<String>();
 
 
@@ -0,0 +1,131 @@
+// BufferArenaTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+import java.nio.*;
+
+import org.testng.annotations.Test;
+
+import com.mongodb.util.*;
+import org.bson.io.*;
+
+public class BufferArenaTest extends TestCase {
+
+    @Test
+    public void testSizeClasses(){
+        BufferArena a = new BufferArena( 1024 * 1024 , 2 );
+        assertEquals( 1024 , a.get( 1 ).length );
+        assertEquals( 1024 , a.get( 1024 ).length );
+        assertEquals( 2048 , a.get( 1025 ).length );
+        assertEquals( 1024 * 1024 , a.get( 1024 * 1024 ).length );
+        assertEquals( 1024 * 1024 + 1 , a.get( 1024 * 1024 + 1 ).length );
+        assertEquals( 1L , a.getUnpooled() );
+    }
+
+    @Test
+    public void testReuse(){
+        BufferArena a = new BufferArena( 1024 * 1024 , 4 );
+        byte[] b = a.get( 5000 );
+        assertEquals( 8192L , a.getOutstandingBytes() );
+        a.done( b );
+        assertEquals( 0L , a.getOutstandingBytes() );
+        assertEquals( 8192L , a.getRetainedBytes() );
+
+        assertTrue( b == a.get( 8000 ) );
+        assertEquals( 1L , a.getHits() );
+        assertEquals( 1L , a.getMisses() );
+        assertEquals( 0L , a.getRetainedBytes() );
+
+        // not a size class
+        a.done( new byte[1000] );
+        a.done( ByteBuffer.allocateDirect( 1000 ) );
+        assertEquals( 0L , a.getRetainedBytes() );
+        assertEquals( 2L , a.getRejected() );
+
+        // the right size is taken, without the outstanding count going negative
+        BufferArena fresh = new BufferArena( 1024 * 1024 , 4 );
+        fresh.done( new byte[1024] );
+        assertEquals( 1024L , fresh.getRetainedBytes() );
+        assertEquals( 0L , fresh.getOutstandingBytes() );
+    }
+
+    @Test
+    public void testLentBuffersArentHeld()
+        throws InterruptedException {
+        BufferArena a = new BufferArena( 1024 * 1024 , 4 );
+        java.lang.ref.WeakReference<byte[]> ref = new java.lang.ref.WeakReference<byte[]>( a.get( 1024 ) );
+        for ( int i=0; i<50 && ref.get() != null; i++ ){
+            System.gc();
+            Thread.sleep( 20 );
+        }
+        assertNull( ref.get() );
+        assertEquals( 1024L , a.getOutstandingBytes() );
+    }
+
+    @Test
+    public void testCap(){
+        BufferArena a = new BufferArena( 4096 , 1 );
+        byte[][] all = new byte[6][];
+        for ( int i=0; i<all.length; i++ )
+            all[i] = a.get( 1024 );
+        for ( byte[] b : all )
+            a.done( b );
+        assertEquals( 4096L , a.getRetainedBytes() );
+        assertEquals( 2L , a.getDropped() );
+
+        a.clear();
+        assertEquals( 0L , a.getRetainedBytes() );
+    }
+
+    @Test
+    public void testDirect(){
+        BufferArena a = new BufferArena( 1024 * 1024 , 2 );
+        ByteBuffer bb = a.getDirect( 3000 );
+        assertTrue( bb.isDirect() );
+        assertEquals( 4096 , bb.capacity() );
+        assertEquals( 3000 , bb.limit() );
+        bb.putInt( 17 );
+        a.done( bb );
+
+        ByteBuffer again = a.getDirect( 4000 );
+        assertTrue( bb == again );
+        assertEquals( 0 , again.position() );
+        assertEquals( 4000 , again.limit() );
+
+        // heap and direct don't mix
+        assertEquals( 1024 , a.get( 1000 ).length );
+        assertEquals( 2L , a.getMisses() );
+    }
+
+    @Test
+    public void testPoolOutputBufferGivesBack(){
+        BufferArena a = new BufferArena( 1024 * 1024 , 2 );
+        PoolOutputBuffer buf = new PoolOutputBuffer( a );
+        for ( int i=0; i<100000; i++ )
+            buf.write( i );
+        assertTrue( a.getOutstandingBytes() > 0 );
+        buf.reset();
+        assertEquals( 0L , a.getOutstandingBytes() );
+        assertEquals( 0L , a.getRejected() );
+    }
+
+    public static void main( String args[] ){
+        (new BufferArenaTest()).runConsole();
+    }
+}
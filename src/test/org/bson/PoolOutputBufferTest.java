@@ -73,6 +73,27 @@ public class PoolOutputBufferTest extends TestCase {
         assertEquals( a.asString() , b.toString() );
     }
     
+    @Test
+    public void testLimitAndTruncate(){
+        PoolOutputBuffer buf = new PoolOutputBuffer();
+        buf.setLimit( PoolOutputBuffer.BUF_SIZE * 2 );
+        buf.write( "eliot".getBytes() );
+        final int mark = buf.getPosition();
+
+        try {
+            for ( int i=0; i<PoolOutputBuffer.BUF_SIZE * 3; i++ )
+                buf.write( 'a' );
+            assertTrue( false );
+        }
+        catch ( PoolOutputBuffer.LimitExceeded le ){}
+        assertEquals( PoolOutputBuffer.BUF_SIZE * 2 , buf.size() );
+
+        buf.truncate( mark );
+        assertEquals( 5 , buf.size() );
+        buf.write( "!".getBytes() );
+        assertEquals( "eliot!" , buf.asString() );
+    }
+
     List<String> _data = new ArrayList<String>();
     
     public static void main( String args[] ){
@@ -0,0 +1,127 @@
+// ClassCacheTest.java
+
+/**
+ *      Copyright (C) 2008 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson.util;
+
+import java.io.*;
+import java.util.*;
+
+import org.testng.annotations.Test;
+
+public class ClassCacheTest extends com.mongodb.util.TestCase {
+
+    @Test
+    public void testCaches(){
+        Names names = new Names();
+        assertEquals( "java.lang.String" , names.get( String.class ) );
+        assertEquals( "java.lang.String" , names.get( String.class ) );
+        assertEquals( 1 , names._computed );
+        assertEquals( 1 , names.size() );
+
+        names.clear();
+        assertEquals( 0 , names.size() );
+        names.get( String.class );
+        assertEquals( 2 , names._computed );
+    }
+
+    @Test
+    public void testClearDuringCompute(){
+        final ClassCache<String> c = new ClassCache<String>(){
+                protected String compute( Class<?> k ){
+                    // what this was computed from changes before it's stored
+                    clear();
+                    return "stale";
+                }
+            };
+        assertEquals( "stale" , c.get( String.class ) );
+        assertEquals( 0 , c.size() );
+    }
+
+    @Test
+    public void testLocal()
+        throws Exception {
+        assertTrue( ClassCache.isLocal( String.class ) );
+        assertTrue( ClassCache.isLocal( int[].class ) );
+        assertTrue( ClassCache.isLocal( ClassCacheTest.class ) );
+        assertFalse( ClassCache.isLocal( _foreign() ) );
+    }
+
+    @Test
+    public void testForeignClassIsNotKept()
+        throws Exception {
+        Names names = new Names();
+        Class c = _foreign();
+        assertEquals( Foreign.class.getName() , names.get( c ) );
+        assertEquals( Foreign.class.getName() , names.get( c ) );
+        assertEquals( 1 , names._computed );
+        assertEquals( 1 , names.size() );
+
+        c = null;
+        long end = System.currentTimeMillis() + 5000;
+        while ( names.size() > 0 && System.currentTimeMillis() < end ){
+            System.gc();
+            Thread.sleep( 10 );
+        }
+        assertEquals( 0 , names.size() );
+    }
+
+    /**
+     * Foreign, loaded again by a class loader of its own
+     */
+    static Class _foreign()
+        throws IOException {
+        final String name = Foreign.class.getName();
+        InputStream in = ClassCacheTest.class.getResourceAsStream( "/" + name.replace( '.' , '/' ) + ".class" );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ( ( n = in.read( buf ) ) > 0 )
+            out.write( buf , 0 , n );
+        in.close();
+        final byte[] b = out.toByteArray();
+
+        try {
+            return new ClassLoader( null ){
+                protected Class<?> findClass( String n )
+                    throws ClassNotFoundException {
+                    if ( ! n.equals( name ) )
+                        throw new ClassNotFoundException( n );
+                    return defineClass( name , b , 0 , b.length );
+                }
+            }.loadClass( name );
+        }
+        catch ( ClassNotFoundException e ){
+            throw new RuntimeException( e );
+        }
+    }
+
+    static class Foreign {}
+
+    static class Names extends ClassCache<String> {
+        protected String compute( Class<?> c ){
+            _computed++;
+            return c.getName();
+        }
+
+        int _computed = 0;
+    }
+
+    public static void main( String args[] ){
+        (new ClassCacheTest()).runConsole();
+    }
+}